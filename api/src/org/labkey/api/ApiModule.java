@@ -18,6 +18,7 @@ package org.labkey.api;
 import org.apache.commons.collections4.Factory;
 import org.jetbrains.annotations.NotNull;
 import org.json.JSONObject;
+import org.labkey.api.action.ApiQueryResponse;
 import org.labkey.api.action.ApiXmlWriter;
 import org.labkey.api.admin.SubfolderWriter;
 import org.labkey.api.assay.ReplacedRunFilter;
@@ -37,6 +38,7 @@ import org.labkey.api.compliance.ComplianceService;
 import org.labkey.api.data.*;
 import org.labkey.api.data.dialect.ParameterSubstitutionTest;
 import org.labkey.api.data.dialect.StandardDialectStringHandler;
+import org.labkey.api.data.queryprofiler.QueryProfiler;
 import org.labkey.api.dataiterator.CachingDataIterator;
 import org.labkey.api.dataiterator.DataIteratorUtil;
 import org.labkey.api.dataiterator.DiskCachingDataIterator;
@@ -66,6 +68,7 @@ import org.labkey.api.reader.ExcelFactory;
 import org.labkey.api.reader.ExcelLoader;
 import org.labkey.api.reader.JSONDataLoader;
 import org.labkey.api.reader.MapLoader;
+import org.labkey.api.reader.SharedStringsIndex;
 import org.labkey.api.reader.TabLoader;
 import org.labkey.api.reports.model.ViewCategoryManager;
 import org.labkey.api.reports.report.RReport;
@@ -76,6 +79,7 @@ import org.labkey.api.security.AuthenticationConfiguration;
 import org.labkey.api.security.AuthenticationLogoType;
 import org.labkey.api.security.AuthenticationManager;
 import org.labkey.api.security.AvatarType;
+import org.labkey.api.security.EffectivePermissionCache;
 import org.labkey.api.security.Encryption;
 import org.labkey.api.security.GroupManager;
 import org.labkey.api.security.NestedGroupsTest;
@@ -90,6 +94,7 @@ import org.labkey.api.view.JspTemplate;
 import org.labkey.api.view.Portal;
 import org.labkey.api.view.WebPartFactory;
 import org.labkey.api.writer.ContainerUser;
+import org.labkey.api.writer.PipelinedWriter;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -157,6 +162,7 @@ public class ApiModule extends CodeOnlyModule
             EmailTemplate.TestCase.class,
             ExcelFactory.ExcelFactoryTestCase.class,
             ExcelLoader.ExcelLoaderTestCase.class,
+            ExcelLoader.StreamingPerfTestCase.class,
             ExistingRecordDataIterator.TestCase.class,
             ExtUtil.TestCase.class,
             FieldKey.TestCase.class,
@@ -170,6 +176,7 @@ public class ApiModule extends CodeOnlyModule
             JSONDataLoader.MetadataTest.class,
             JSONDataLoader.RowTest.class,
             JsonTest.class,
+            KeysetPagination.TestCase.class,
             MarkableIterator.TestCase.class,
             MaterializedQueryHelper.TestCase.class,
             MemTracker.TestCase.class,
@@ -181,24 +188,32 @@ public class ApiModule extends CodeOnlyModule
             Pair.TestCase.class,
             PasswordExpiration.TestCase.class,
             Path.TestCase.class,
+            PipelinedWriter.TestCase.class,
+            QueryProfiler.OverheadPerfTestCase.class,
+            QueryProfiler.TestCase.class,
             RemoveDuplicatesDataIterator.DeDuplicateTestCase.class,
             ReplacedRunFilter.TestCase.class,
             ResultSetUtil.TestCase.class,
             RReport.TestCase.class,
+            SampledAggregates.TestCase.class,
             Sampler.TestCase.class,
             SchemaKey.TestCase.class,
             SessionHelper.TestCase.class,
+            SharedStringsIndex.TestCase.class,
             SimpleFilter.BetweenClauseTestCase.class,
             SimpleFilter.FilterTestCase.class,
             SimpleFilter.InClauseTestCase.class,
+            SimpleTranslator.ConversionPerfTestCase.class,
             SqlScanner.TestCase.class,
             StringExpressionFactory.TestCase.class,
             StringUtilsLabKey.TestCase.class,
             SubfolderWriter.TestCase.class,
             SwapQueue.TestCase.class,
             TabLoader.HeaderMatchTest.class,
+            TabLoader.ParsingPerfTestCase.class,
             TidyUtil.TestCase.class,
             TSVMapWriter.Tests.class,
+            TSVWriter.ExportPerfTestCase.class,
             TSVWriter.TestCase.class,
             ValidEmail.TestCase.class
         );
@@ -217,10 +232,13 @@ public class ApiModule extends CodeOnlyModule
     public @NotNull Set<Class> getIntegrationTests()
     {
         return Set.of(
+            AbstractQueryUpdateService.BulkLoadPerfTestCase.class,
             AbstractQueryUpdateService.TestCase.class,
             ActionURL.TestCase.class,
             AliasManager.TestCase.class,
             ApiKeyManager.TestCase.class,
+            ApiQueryResponse.RenderPerfTestCase.class,
+            ApiQueryResponse.TestCase.class,
             AtomicDatabaseInteger.TestCase.class,
             BlockingCache.BlockingCacheTest.class,
             ContainerDisplayColumn.TestCase.class,
@@ -237,6 +255,8 @@ public class ApiModule extends CodeOnlyModule
             DbScope.TransactionTestCase.class,
             DbSequenceManager.TestCase.class,
             DomTestCase.class,
+            EffectivePermissionCache.PerfTestCase.class,
+            EffectivePermissionCache.TestCase.class,
             Encryption.TestCase.class,
             ExcelColumn.TestCase.class,
             ExceptionUtil.TestCase.class,
@@ -244,6 +264,7 @@ public class ApiModule extends CodeOnlyModule
             FolderTypeManager.TestCase.class,
             GroupManager.TestCase.class,
             JspTemplate.TestCase.class,
+            KeysetPagination.SeekTestCase.class,
             LabKeyCollectors.TestCase.class,
             MapLoader.MapLoaderTestCase.class,
             MarkdownService.TestCase.class,
@@ -254,12 +275,15 @@ public class ApiModule extends CodeOnlyModule
             ParameterSubstitutionTest.class,
             Portal.TestCase.class,
             PropertyManager.TestCase.class,
+            QueryResultCache.TestCase.class,
             //RateLimiter.TestCase.class,
             ResultSetDataIterator.TestCase.class,
             ResultSetSelectorTestCase.class,
             RowTrackingResultSetWrapper.TestCase.class,
+            SampledAggregates.SampleTestCase.class,
             SecurityManager.TestCase.class,
             SimpleTranslator.TranslateTestCase.class,
+            SpooledQuery.TestCase.class,
             SQLFragment.TestCase.class,
             SqlSelectorTestCase.class,
             StandardDialectStringHandler.TestCase.class,
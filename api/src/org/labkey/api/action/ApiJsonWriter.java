@@ -149,6 +149,15 @@ public class ApiJsonWriter extends ApiResponseWriter
 
     @Override
     protected void writeObject(Object value) throws IOException
+    {
+        writeValue(value);
+
+        // 21112: Malformed JSON response in production environments
+        // TODO: This is not the recommended pattern as this causes an unnecessary amount of flushing (performance)
+        jg.flush();
+    }
+
+    private void writeValue(Object value) throws IOException
     {
         if (value instanceof String || value instanceof Number || value instanceof Boolean || value == null)
         {
@@ -167,7 +176,7 @@ public class ApiJsonWriter extends ApiResponseWriter
             for (var e : ((Map<Object,Object>)value).entrySet())
             {
                 jg.writeFieldName(String.valueOf(e.getKey()));
-                writeObject(e.getValue());
+                writeValue(e.getValue());
             }
             jg.writeEndObject();
             if (badContext)
@@ -180,7 +189,7 @@ public class ApiJsonWriter extends ApiResponseWriter
             jg.writeStartArray();
             for (Object element : (Collection<?>)value)
             {
-                writeObject(element);
+                writeValue(element);
             }
             jg.writeEndArray();
         }
@@ -189,7 +198,7 @@ public class ApiJsonWriter extends ApiResponseWriter
             jg.writeStartArray();
             for (int i = 0; i < Array.getLength(value); i++)
             {
-                writeObject(Array.get(value, i));
+                writeValue(Array.get(value, i));
             }
             jg.writeEndArray();
         }
@@ -198,7 +207,7 @@ public class ApiJsonWriter extends ApiResponseWriter
             jg.writeStartArray();
             for (int i = 0; i < ((JSONArray) value).length(); i++)
             {
-                writeObject(((JSONArray) value).get(i));
+                writeValue(((JSONArray) value).get(i));
             }
             jg.writeEndArray();
         }
@@ -214,10 +223,6 @@ public class ApiJsonWriter extends ApiResponseWriter
         {
             jg.writeObject(value);
         }
-
-        // 21112: Malformed JSON response in production environments
-        // TODO: This is not the recommended pattern as this causes an unnecessary amount of flushing (performance)
-        jg.flush();
     }
 
     @Override
@@ -238,6 +243,27 @@ public class ApiJsonWriter extends ApiResponseWriter
         writeObject(entry);
     }
 
+    /**
+     * Starts an object in the current list, to be filled in by writeEntryProperty(). Writes the same output as passing
+     * writeListEntry() a map with the same entries, without having to build the map.
+     */
+    public void startListEntryObject() throws IOException
+    {
+        jg.writeStartObject();
+    }
+
+    public void writeEntryProperty(String name, Object value) throws IOException
+    {
+        jg.writeFieldName(name);
+        writeValue(value);
+    }
+
+    public void endListEntryObject() throws IOException
+    {
+        jg.writeEndObject();
+        jg.flush();
+    }
+
     @Override
     protected void resetOutput() throws IOException
     {
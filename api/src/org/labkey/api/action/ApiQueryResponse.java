@@ -17,38 +17,63 @@ package org.labkey.api.action;
 
 import org.apache.commons.beanutils.ConversionException;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
 import org.labkey.api.collections.ResultSetRowMapFactory;
 import org.labkey.api.data.ColumnInfo;
+import org.labkey.api.data.ContainerManager;
 import org.labkey.api.data.DataRegion;
 import org.labkey.api.data.DetailsColumn;
 import org.labkey.api.data.DisplayColumn;
 import org.labkey.api.data.JsonWriter;
+import org.labkey.api.data.KeysetPagination;
 import org.labkey.api.data.LookupColumn;
 import org.labkey.api.data.MVDisplayColumn;
 import org.labkey.api.data.MvUtil;
 import org.labkey.api.data.RenderContext;
 import org.labkey.api.data.Results;
+import org.labkey.api.data.ShowRows;
 import org.labkey.api.data.TableInfo;
 import org.labkey.api.data.UpdateColumn;
 import org.labkey.api.exp.PropertyColumn;
 import org.labkey.api.query.FieldKey;
+import org.labkey.api.query.QueryService;
+import org.labkey.api.query.QuerySettings;
 import org.labkey.api.query.QueryView;
+import org.labkey.api.query.UserSchema;
+import org.labkey.api.security.User;
+import org.labkey.api.test.TestWhen;
 import org.labkey.api.util.DateUtil;
 import org.labkey.api.util.PageFlowUtil;
 import org.labkey.api.util.Pair;
+import org.labkey.api.util.TestContext;
+import org.labkey.api.view.ActionURL;
+import org.labkey.api.view.DataView;
 import org.labkey.api.view.ViewContext;
 import org.labkey.api.view.ViewServlet;
+import org.springframework.beans.MutablePropertyValues;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 import java.io.IOException;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.function.Supplier;
 
 /**
  * API response class for a {@link QueryView}.
@@ -84,6 +109,7 @@ public class ApiQueryResponse implements ApiResponse
     private boolean _includeDisplayValues;
     private List<FieldKey> _columnFilter;
     private boolean _includeMetaData;
+    private boolean _streamRows = true;
 
     // TODO: This is silly... switch to builder pattern, or at least a constructor that takes reasonable strategies
     public ApiQueryResponse(QueryView view, boolean schemaEditable, boolean includeLookupInfo,
@@ -156,8 +182,14 @@ public class ApiQueryResponse implements ApiResponse
                 complete = writeRowset(writer, results);
             }
 
-            // Figure out if we need to make a separate request to get the total row count (via the aggregates)
-            if (!complete && _rowCount == 0)
+            // In keyset pagination mode, the last row written positions the next page
+            KeysetPagination keyset = _ctx.getKeysetPagination();
+            String continuationToken = null != keyset && !complete && _numRespRows > 0 ? keyset.createToken(_ctx) : null;
+            boolean keysetContinuation = null != keyset && null != _dataRegion.getSettings() && _dataRegion.getSettings().hasContinuationToken();
+
+            // Figure out if we need to make a separate request to get the total row count (via the aggregates). After the
+            // first keyset page even the last page needs it, since there's no offset to add its rows to.
+            if ((!complete || keysetContinuation) && _rowCount == 0)
             {
                 // Load the aggregates
                 _dataRegion.getAggregateResults(_ctx);
@@ -170,6 +202,12 @@ public class ApiQueryResponse implements ApiResponse
             long rowCount = _rowCount > 0 ? _rowCount : _offset + _numRespRows;
             writer.writeProperty("rowCount", rowCount);
 
+            if (_dataRegion.isTotalRowsEstimated())
+                writer.writeProperty("rowCountEstimated", true);
+
+            if (null != keyset)
+                writer.writeProperty("continuationToken", continuationToken);
+
             if (_includeMetaData)
             {
                 // messages, but only if metadata is requested
@@ -524,11 +562,15 @@ public class ApiQueryResponse implements ApiResponse
             _ctx.setResults(results);
             ResultSetRowMapFactory factory = ResultSetRowMapFactory.create(results);
             factory.setConvertBigDecimalToDouble(false);
+            RowWriter rowWriter = _streamRows && writer instanceof ApiJsonWriter ? getRowWriter() : null;
 
             while (results.next())
             {
                 _ctx.setRow(factory.getRowMap(results));
-                writer.writeListEntry(getRow());
+                if (null != rowWriter)
+                    rowWriter.writeRow((ApiJsonWriter)writer);
+                else
+                    writer.writeListEntry(getRow());
                 ++_numRespRows;
             }
             complete = results.isComplete();
@@ -537,6 +579,69 @@ public class ApiQueryResponse implements ApiResponse
         return complete;
     }
 
+    /** Writes the current row of the RenderContext straight to the JSON generator, see getRowWriter() */
+    protected interface RowWriter
+    {
+        void writeRow(ApiJsonWriter writer) throws IOException;
+    }
+
+    /**
+     * Used instead of getRow() when writing to an ApiJsonWriter, to avoid building a map for every row. The output
+     * must be identical to serializing getRow(). Returns null if rows can't be streamed.
+     */
+    protected @Nullable RowWriter getRowWriter()
+    {
+        List<Pair<String, Supplier<Object>>> properties = getRowProperties();
+        if (null == properties)
+            return null;
+
+        return writer ->
+        {
+            writer.startListEntryObject();
+            writeRowProperties(writer, properties);
+            writer.endListEntryObject();
+        };
+    }
+
+    protected static void writeRowProperties(ApiJsonWriter writer, List<Pair<String, Supplier<Object>>> properties) throws IOException
+    {
+        for (Pair<String, Supplier<Object>> property : properties)
+            writer.writeEntryProperty(property.first, property.second.get());
+    }
+
+    /**
+     * The properties of each row in the order that the map built by getRow() iterates them, or null if any column
+     * can't be streamed. Subclasses that override getRow() or putValue() must override addRowProperty() to match.
+     */
+    protected @Nullable List<Pair<String, Supplier<Object>>> getRowProperties()
+    {
+        // Putting the same keys into a HashMap in the same order as getRow() gives the same iteration order
+        Map<String, Supplier<Object>> properties = new HashMap<>();
+        for (DisplayColumn dc : _displayColumns)
+        {
+            if (includeColumnInResponse(dc) && !addRowProperty(properties, dc))
+                return null;
+        }
+
+        List<Pair<String, Supplier<Object>>> ret = new ArrayList<>(properties.size());
+        properties.forEach((name, value) -> ret.add(new Pair<>(String.valueOf(name), value)));
+        return ret;
+    }
+
+    /**
+     * Streaming equivalent of putValue(): adds the suppliers of the column's values for the current row. Returns
+     * false if the column's properties vary from row to row, in which case rows are written with getRow().
+     */
+    protected boolean addRowProperty(Map<String, Supplier<Object>> properties, DisplayColumn dc)
+    {
+        String colName = getColumnName(dc);
+        properties.put(colName, () -> getColumnValue(dc));
+
+        if (dc.includeURL())
+            properties.put(URL_COL_PREFIX + colName, () -> dc.renderURL(_ctx));
+        return true;
+    }
+
     protected Map<String,Object> getRow()
     {
         Map<String,Object> row = new HashMap<>();
@@ -657,4 +762,172 @@ public class ApiQueryResponse implements ApiResponse
     {
         _columnFilter = columnFilter;
     }
+
+    /**
+     * By default, rows are written straight to an ApiJsonWriter (see getRowWriter()). Set to false to build a map
+     * for each row instead, which produces identical output.
+     */
+    public void setStreamRows(boolean streamRows)
+    {
+        _streamRows = streamRows;
+    }
+
+
+    public static class TestCase extends Assert
+    {
+        private User _user;
+
+        @Before
+        public void setUp()
+        {
+            _user = TestContext.get().getUser();
+            assertNotNull("login before running this test", _user);
+        }
+
+        private ApiQueryResponse createResponse(double version)
+        {
+            UserSchema schema = QueryService.get().getUserSchema(_user, ContainerManager.getRoot(), "core");
+            MutablePropertyValues mpv = new MutablePropertyValues();
+            mpv.addPropertyValue("schemaName", "core");
+            mpv.addPropertyValue("query.queryName", "Modules");
+            QuerySettings settings = schema.getSettings(mpv, "query");
+            settings.setShowRows(ShowRows.ALL);
+
+            // Don't write to a real response when checking whether the client is still listening
+            ViewContext context = new ViewContext();
+            context.setActionURL(new ActionURL("fake", "fake", ContainerManager.getRoot()));
+            MockHttpServletResponse mockResponse = new MockHttpServletResponse();
+            context.setResponse(mockResponse);
+            QueryView view = new QueryView(schema, settings, new NullSafeBindException(new Object(), "command"))
+            {
+                @Override
+                public DataView createDataView()
+                {
+                    DataView dataView = super.createDataView();
+                    dataView.getRenderContext().getViewContext().setResponse(mockResponse);
+                    return dataView;
+                }
+            };
+            view.setViewContext(context);
+
+            // same choices as QueryController.SelectRowsAction
+            if (version < 9.1)
+                return new ApiQueryResponse(view, false, true, "core", "Modules", 0, null, false, true, true, false);
+            if (version < 13.2)
+                return new ExtendedApiQueryResponse(view, false, true, "core", "Modules", 0, null, false, true, true, true);
+
+            ReportingApiQueryResponse response = new ReportingApiQueryResponse(view, false, true, "Modules", 0, null, false, false, false, true);
+            response.arrayMultiValueColumns(version >= 16.2);
+            response.includeFormattedValue(version >= 17.1);
+            return response;
+        }
+
+        private String render(double version, boolean streamRows) throws Exception
+        {
+            ApiQueryResponse response = createResponse(version);
+            response.setStreamRows(streamRows);
+            StringWriter out = new StringWriter();
+            try (ApiJsonWriter writer = new ApiJsonWriter(out))
+            {
+                response.render(writer);
+            }
+            return out.toString();
+        }
+
+        @Test
+        public void testStreamedRowsMatch() throws Exception
+        {
+            for (double version : new double[]{8.3, 9.1, 13.2, 17.1})
+            {
+                String expected = render(version, false);
+                assertTrue(new JSONObject(expected).getJSONArray("rows").length() > 0);
+                assertEquals("Streamed " + version + " response differs", expected, render(version, true));
+            }
+        }
+
+        // Rows are streamed with writeEntryProperty(), which must serialize every kind of value exactly as writing
+        // the row map does
+        @Test
+        public void testEntryPropertiesMatchMap() throws Exception
+        {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("string", "tab\tand \"quotes\"");
+            row.put("int", 42);
+            row.put("double", 3.5);
+            row.put("decimal", new BigDecimal("1.10"));
+            row.put("boolean", true);
+            row.put("null", null);
+            row.put("date", new Date(0));
+            row.put("list", List.of(1, "two"));
+            row.put("array", new int[]{1, 2});
+            row.put("map", Map.of("nested", "value"));
+            row.put("jsonArray", new JSONArray(List.of("a", 1)));
+
+            StringWriter expected = new StringWriter();
+            try (ApiJsonWriter writer = new ApiJsonWriter(expected))
+            {
+                writer.startResponse();
+                writer.startList("rows");
+                writer.writeListEntry(row);
+                writer.endList();
+                writer.endResponse();
+            }
+
+            StringWriter streamed = new StringWriter();
+            try (ApiJsonWriter writer = new ApiJsonWriter(streamed))
+            {
+                writer.startResponse();
+                writer.startList("rows");
+                writer.startListEntryObject();
+                for (Map.Entry<String, Object> e : row.entrySet())
+                    writer.writeEntryProperty(e.getKey(), e.getValue());
+                writer.endListEntryObject();
+                writer.endList();
+                writer.endResponse();
+            }
+
+            assertEquals(expected.toString(), streamed.toString());
+        }
+    }
+
+    @TestWhen(TestWhen.When.PERFORMANCE)
+    public static class RenderPerfTestCase extends Assert
+    {
+        private static final Logger LOG = LogManager.getLogger(RenderPerfTestCase.class);
+
+        private final TestCase _fixture = new TestCase();
+
+        @Before
+        public void setUp()
+        {
+            _fixture.setUp();
+        }
+
+        @Test
+        public void testBenchmark() throws Exception
+        {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            com.sun.management.ThreadMXBean allocations = threads instanceof com.sun.management.ThreadMXBean ? (com.sun.management.ThreadMXBean)threads : null;
+            long threadId = Thread.currentThread().getId();
+            int renders = 50;
+
+            for (double version : new double[]{8.3, 9.1, 13.2, 17.1})
+            {
+                for (boolean streamRows : new boolean[]{false, true})
+                {
+                    _fixture.render(version, streamRows);    // warm up
+                    long rows = 0;
+                    long bytes = null == allocations ? 0 : allocations.getThreadAllocatedBytes(threadId);
+                    long start = System.nanoTime();
+                    for (int i = 0; i < renders; i++)
+                        rows += new JSONObject(_fixture.render(version, streamRows)).getJSONArray("rows").length();
+                    long elapsed = System.nanoTime() - start;
+                    bytes = null == allocations ? 0 : allocations.getThreadAllocatedBytes(threadId) - bytes;
+
+                    // Includes running the query and parsing the response, so compare the two lines for each version
+                    LOG.info(String.format("%s %s rows: %,d rows/sec, %,d bytes allocated/row", version, streamRows ? "streamed" : "map", rows * 1_000_000_000L / Math.max(1, elapsed), bytes / Math.max(1, rows)));
+                }
+            }
+        }
+    }
 }
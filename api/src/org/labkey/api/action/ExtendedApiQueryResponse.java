@@ -31,6 +31,7 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 /*
 * User: Dave
@@ -112,6 +113,18 @@ public class ExtendedApiQueryResponse extends ApiQueryResponse
         }
     }
 
+    @Override
+    protected boolean addRowProperty(Map<String, Supplier<Object>> properties, DisplayColumn dc)
+    {
+        String columnName = getColumnName(dc);
+
+        if (columnName != null)
+        {
+            properties.put(columnName, () -> createColMap(dc));
+        }
+        return true;
+    }
+
     protected Object createColMap(DisplayColumn dc)
     {
         return createColMap(getRenderContext(), dc, _arrayMultiValueColumns, _includeFormattedValue, _doItWithStyle);
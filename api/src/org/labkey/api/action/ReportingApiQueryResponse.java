@@ -15,12 +15,14 @@
  */
 package org.labkey.api.action;
 
+import org.jetbrains.annotations.Nullable;
 import org.labkey.api.data.DisplayColumn;
 import org.labkey.api.data.ReportingWriter;
 import org.labkey.api.data.UrlColumn;
 import org.labkey.api.query.FieldKey;
 import org.labkey.api.query.QueryView;
 import org.labkey.api.query.SchemaKey;
+import org.labkey.api.util.Pair;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -28,6 +30,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 /**
  * User: tgaluhn
@@ -142,6 +145,42 @@ public class ReportingApiQueryResponse extends ExtendedApiQueryResponse
         }
     }
 
+    @Override
+    protected boolean addRowProperty(Map<String, Supplier<Object>> properties, DisplayColumn dc)
+    {
+        // A UrlColumn goes in "links" or "data" depending on whether its value is null, so the layout varies by row
+        if (dc instanceof UrlColumn)
+            return false;
+
+        String columnName = getColumnName(dc);
+        if (columnName != null)
+        {
+            properties.put(columnName, () -> createColMap(dc));
+        }
+        return true;
+    }
+
+    @Override
+    protected @Nullable RowWriter getRowWriter()
+    {
+        // the properties of the "data" map, which is the only entry in each row when there are no UrlColumns
+        List<Pair<String, Supplier<Object>>> data = getRowProperties();
+        if (null == data)
+            return null;
+
+        return writer ->
+        {
+            writer.startListEntryObject();
+            if (!data.isEmpty())
+            {
+                writer.startMap("data");
+                writeRowProperties(writer, data);
+                writer.endMap();
+            }
+            writer.endListEntryObject();
+        };
+    }
+
     private void putLinksMap(Map<String, Object> row, DisplayColumn dc, String displayText)
     {
         if (!row.containsKey("links"))
@@ -128,6 +128,22 @@ public class Aggregate
          * @return the number of subqueries the aggregate uses
          */
         default int subQueryCount(SqlDialect dialect) { return 0; }
+
+        /**
+         * How a value computed over a random sample of the rows estimates the value over all of them, or null if it
+         * doesn't (e.g., the minimum of a sample says little about the minimum of the table). Distinct aggregates are
+         * never estimated from a sample.
+         */
+        @Nullable
+        default SampleScaling getSampleScaling() { return null; }
+    }
+
+    public enum SampleScaling
+    {
+        /** The sample's value estimates the table's directly, e.g., a mean or a median */
+        NONE,
+        /** The sample's value grows with the number of rows, so it's scaled up by the sampling rate, e.g., a count or a sum */
+        PROPORTIONAL
     }
 
     public enum BaseType implements Type
@@ -202,6 +218,12 @@ public class Aggregate
                             default:       return null;
                         }
                     }
+
+                    @Override
+                    public SampleScaling getSampleScaling()
+                    {
+                        return SampleScaling.PROPORTIONAL;
+                    }
                 },
         MEAN("Mean")
                 {
@@ -239,6 +261,12 @@ public class Aggregate
                     {
                         return Type.returnTypeDecimal(jdbcType);
                     }
+
+                    @Override
+                    public SampleScaling getSampleScaling()
+                    {
+                        return SampleScaling.NONE;
+                    }
                 },
         COUNT("Count (non-blank)")
                 {
@@ -254,6 +282,12 @@ public class Aggregate
                     {
                         return JdbcType.BIGINT;
                     }
+
+                    @Override
+                    public SampleScaling getSampleScaling()
+                    {
+                        return SampleScaling.PROPORTIONAL;
+                    }
                 },
         MIN("Minimum", "Min")
                 {
@@ -315,11 +349,18 @@ public class Aggregate
     {
         private final Aggregate _aggregate;
         private final Object _value;
+        private final boolean _approximate;
 
         public Result(Aggregate aggregate, Object value)
+        {
+            this(aggregate, value, false);
+        }
+
+        public Result(Aggregate aggregate, Object value, boolean approximate)
         {
             _aggregate = aggregate;
             _value = value;
+            _approximate = approximate;
         }
 
         public Aggregate getAggregate()
@@ -334,10 +375,16 @@ public class Aggregate
             return _value;
         }
 
+        /** @return true if the value is an estimate, from a sample of the rows or an approximate database function */
+        public boolean isApproximate()
+        {
+            return _approximate;
+        }
+
         @Override
         public String toString()
         {
-            return _aggregate.getDisplayString() + ": " + _value;
+            return _aggregate.getDisplayString() + ": " + (_approximate ? "~" : "") + _value;
         }
 
         /** @return the value to show (not HTML encoded),
@@ -399,6 +446,7 @@ public class Aggregate
     private Type _type;
     private @Nullable String _label;
     private boolean _distinct;
+    private boolean _allowApproximate = false;
 
     private Aggregate()
     {
@@ -448,6 +496,23 @@ public class Aggregate
         return _distinct;
     }
 
+    /** Allow the database to estimate the value where it has a much cheaper function for it, i.e., a HyperLogLog COUNT(DISTINCT) */
+    public boolean isAllowApproximate()
+    {
+        return _allowApproximate;
+    }
+
+    public void setAllowApproximate(boolean allowApproximate)
+    {
+        _allowApproximate = allowApproximate;
+    }
+
+    /** @return true if getSQL() will compute an estimate rather than the exact value on this dialect */
+    public boolean isApproximate(SqlDialect dialect)
+    {
+        return _allowApproximate && _distinct && _type == BaseType.COUNT && null != dialect.getApproximateCountDistinctFunction();
+    }
+
     public SQLFragment toLabKeySQL(SQLFragment tableInnerSql)
     {
         String alias = _label == null ? getAggregateName(getFieldKey().toString()) : _label;
@@ -474,6 +539,12 @@ public class Aggregate
         String aggColName = getAggregateName(alias);
         JdbcType jdbcType = col == null ? null : col.getJdbcType();
 
+        if (isApproximate(dialect))
+        {
+            return new SQLFragment(dialect.getApproximateCountDistinctFunction()).append("(")
+                    .append(dialect.getColumnSelectName(alias)).append(") AS ").append(aggColName);
+        }
+
         return _type.getSQLColumnFragment(dialect, alias, aggColName, jdbcType, _distinct, tableInnerSql);
     }
 
@@ -543,6 +614,12 @@ public class Aggregate
 
     // CONSIDER: Use Results instead of ResultSet -- it includes the selected column map
     public Result getResult(ResultSet rs, Map<FieldKey, ? extends ColumnInfo> columns) throws SQLException
+    {
+        return getResult(rs, columns, false);
+    }
+
+    /** @param approximate whether the value selected is an estimate, see {@link Result#isApproximate()} */
+    public Result getResult(ResultSet rs, Map<FieldKey, ? extends ColumnInfo> columns, boolean approximate) throws SQLException
     {
         ColumnInfo col = columns.get(getFieldKey());
         if (col != null && !_type.isLegal(col.getJdbcType()))
@@ -569,7 +646,7 @@ public class Aggregate
             }
         }
 
-        return new Result(this, o);
+        return new Result(this, o, approximate);
     }
 
     public static final class TestCase extends Assert
@@ -22,6 +22,8 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.junit.Assert;
 import org.junit.Test;
+import org.labkey.api.cache.Cache;
+import org.labkey.api.cache.CacheManager;
 import org.labkey.api.data.dialect.SqlDialect;
 import org.labkey.api.query.ExprColumn;
 import org.labkey.api.query.FieldKey;
@@ -60,6 +62,15 @@ import static org.apache.commons.lang3.StringUtils.isBlank;
  */
 public abstract class ContainerFilter
 {
+    // Above this many ids, let the dialect generate the IN clause instead of inlining every GUID, see _getSQLFragment()
+    private static final int DIALECT_IN_CLAUSE_MIN_SIZE = 100;
+
+    // Ids generated by filters that walk folder trees (CurrentAndSubfolders, AllInProject, AllFolders), shared by all
+    // filters with the same getCacheKey(). Cleared on any container, security policy, or group membership change.
+    private static final Cache<String, Collection<GUID>> ID_CACHE = CacheManager.getStringKeyCache(10_000, CacheManager.HOUR, "Container filter ids");
+    // stands in for null ("don't filter") in ID_CACHE
+    private static final Collection<GUID> ALL_IDS = Collections.emptyList();
+
     final protected Container _container;
     final protected User _user;
 
@@ -107,6 +118,12 @@ public abstract class ContainerFilter
     // This is purposefully abstract, to force the implementer to consider if getDefaultCacheKey() is appropriate
     public abstract String getCacheKey();
 
+    /** Called when containers, security policies, or group memberships change */
+    public static void clearIdCache()
+    {
+        ID_CACHE.clear();
+    }
+
     @Override
     public boolean equals(Object obj)
     {
@@ -282,6 +299,15 @@ public abstract class ContainerFilter
             }
         }
 
+        // Inlining thousands of GUIDs (e.g. AllFolders on a big server) makes huge statements that are slow to build and
+        // parse and never share a cached plan. The dialect binds them as a single array parameter (PostgreSQL) or, for
+        // 1000+ ids, as a shared temp table. The temp table is only visible in the LabKey database.
+        if (includedChildTypes.isEmpty() && ids.size() >= DIALECT_IN_CLAUSE_MIN_SIZE && schema.getScope().isLabKeyScope())
+        {
+            List<String> idStrings = ids.stream().map(GUID::toString).collect(Collectors.toList());
+            return schema.getSqlDialect().appendInClauseSql(new SQLFragment(containerColumnSQL), idStrings);
+        }
+
         SQLFragment list = new SQLFragment();
         String comma = "";
         boolean verbose = AppProps.getInstance().isDevMode() && ids.size() <= 3;
@@ -600,6 +626,16 @@ public abstract class ContainerFilter
         @Override
         public final Collection<GUID> getIds()
         {
+            if (isIdCacheShareable() && null != _user && !_user.isImpersonated() && (_user.getClass() == User.class || _user.isGuest()))
+            {
+                Collection<GUID> ids = ID_CACHE.get(getCacheKey(), null, (key, argument) ->
+                {
+                    Collection<GUID> generated = generateIds(_container, ReadPermission.class, null);
+                    return null == generated ? ALL_IDS : Collections.unmodifiableSet(new HashSet<>(generated));
+                });
+                return ALL_IDS == ids ? null : ids;
+            }
+
             if (null != _container)
             {
                 if (null == _cached)
@@ -609,6 +645,16 @@ public abstract class ContainerFilter
             return generateIds(_container, ReadPermission.class, null);
         }
 
+        /**
+         * Return true if getIds() can be shared by every filter with the same getCacheKey(), i.e., the ids depend only
+         * on the container and user plus the folder tree and permissions that clearIdCache() tracks. (Users with
+         * impersonation or other special contexts are never shared.)
+         */
+        protected boolean isIdCacheShareable()
+        {
+            return false;
+        }
+
         @Override
         public Type getType()
         {
@@ -796,6 +842,12 @@ public abstract class ContainerFilter
             return toIds(containers);
         }
 
+        @Override
+        protected boolean isIdCacheShareable()
+        {
+            return getClass() == CurrentAndSubfolders.class;
+        }
+
         @Override
         public Type getType()
         {
@@ -1153,6 +1205,13 @@ public abstract class ContainerFilter
             return toIds(containers);
         }
 
+        @Override
+        protected boolean isIdCacheShareable()
+        {
+            // subclasses (e.g., DataspaceContainerFilter) have state that isn't part of getCacheKey()
+            return getClass() == AllInProject.class;
+        }
+
         @Override
         public Type getType()
         {
@@ -1187,6 +1246,12 @@ public abstract class ContainerFilter
             return ids;
         }
 
+        @Override
+        protected boolean isIdCacheShareable()
+        {
+            return getClass() == AllFolders.class;
+        }
+
         @Override
         public Type getType()
         {
@@ -1356,5 +1421,53 @@ public abstract class ContainerFilter
                 }
             }
         }
+
+        @Test
+        public void testSharedIds()
+        {
+            Container test = JunitUtil.getTestContainer();
+            User user = TestContext.get().getUser();
+
+            Collection<GUID> ids = Type.CurrentAndSubfolders.create(test, user).getIds();
+            assertNotNull(ids);
+            assertTrue(ids.contains(test.getEntityId()));
+            assertSame(ids, Type.CurrentAndSubfolders.create(test, user).getIds());
+
+            Container child = ContainerManager.createContainer(test, "ContainerFilterIds" + GUID.makeHash());
+            try
+            {
+                Collection<GUID> withChild = Type.CurrentAndSubfolders.create(test, user).getIds();
+                assertNotSame(ids, withChild);
+                assertTrue(withChild.contains(child.getEntityId()));
+            }
+            finally
+            {
+                ContainerManager.delete(child, user);
+            }
+            assertFalse(Type.CurrentAndSubfolders.create(test, user).getIds().contains(child.getEntityId()));
+        }
+
+        @Test
+        public void testLargeIdList()
+        {
+            Container test = JunitUtil.getTestContainer();
+            DbSchema core = CoreSchema.getInstance().getSchema();
+            SQLFragment containerColumn = new SQLFragment("EntityId");
+
+            for (int count : new int[]{DIALECT_IN_CLAUSE_MIN_SIZE - 1, DIALECT_IN_CLAUSE_MIN_SIZE, 2000})
+            {
+                List<GUID> ids = new ArrayList<>(count);
+                ids.add(test.getEntityId());
+                while (ids.size() < count)
+                    ids.add(new GUID());
+
+                SQLFragment where = new SimpleContainerFilter(Collections.singleton(test))._getSQLFragment(core, test, containerColumn, ids, true, Collections.emptySet());
+                SQLFragment sql = new SQLFragment("SELECT COUNT(*) FROM ").append(CoreSchema.getInstance().getTableInfoContainers(), "c").append(" WHERE ").append(where);
+                assertEquals(String.valueOf(count), 1L, (long) new SqlSelector(core, sql).getObject(Long.class));
+                // SQL Server inlines the values until there are enough for a temp table
+                if (count >= DIALECT_IN_CLAUSE_MIN_SIZE && (core.getSqlDialect().isPostgreSQL() || count >= 1000))
+                    assertFalse("GUIDs should not be inlined", sql.getRawSQL().contains(ids.get(count - 1).toString()));
+            }
+        }
     }
 }
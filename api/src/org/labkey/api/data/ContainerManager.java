@@ -1857,6 +1857,7 @@ public class ContainerManager
     private static void _clearChildrenFromCache(Container c)
     {
         CACHE.remove(CONTAINER_CHILDREN_PREFIX + c.getId());
+        ContainerFilter.clearIdCache();
         navTreeManageUncache(c);
     }
 
@@ -1875,6 +1876,7 @@ public class ContainerManager
 
         // blow away the all children caches
         CACHE.removeUsingFilter(new Cache.StringPrefixFilter(CONTAINER_CHILDREN_PREFIX));
+        ContainerFilter.clearIdCache();
 
         navTreeManageUncache(c);
     }
@@ -1883,6 +1885,7 @@ public class ContainerManager
     public static void clearCache()
     {
         CACHE.clear();
+        ContainerFilter.clearIdCache();
 
         // UNDONE: NavTreeManager should register a ContainerListener
         NavTreeManager.uncacheAll();
@@ -32,6 +32,7 @@ import org.labkey.api.collections.Sets;
 import org.labkey.api.query.AggregateRowConfig;
 import org.labkey.api.query.CustomView;
 import org.labkey.api.query.FieldKey;
+import org.labkey.api.query.QueryParam;
 import org.labkey.api.query.QueryService;
 import org.labkey.api.query.QuerySettings;
 import org.labkey.api.security.HasPermission;
@@ -129,6 +130,8 @@ public class DataRegion extends DisplayElement
     private boolean _errorCreatingResults = false;
 
     private Long _totalRows = null; // total rows in the query or null if unknown
+    private boolean _totalRowsEstimated = false; // true if _totalRows came from table statistics rather than a count
+    private String _continuationToken = null; // start of the next page in keyset pagination mode, or null if there isn't one
     private Integer _rowCount = null; // number of rows in the result set or null if unknown
     private boolean _complete = false; // true if all rows are in the ResultSet
     private List<ButtonBarConfig> _buttonBarConfigs = new ArrayList<>();
@@ -809,6 +812,22 @@ public class DataRegion extends DisplayElement
         return ctx.getResults(getSelectColumns(), getDisplayColumns(), getTable(), getSettings(), getQueryParameters(), getMaxRows(), getOffset(), getName(), async);
     }
 
+    /** The selector getResults() would run, with this region's columns, filters and sorts resolved, but not run */
+    public TableSelector getSelector(RenderContext ctx)
+    {
+        DataRegion oldRegion = ctx.getCurrentRegion();
+        ctx.setCurrentRegion(this);
+
+        try
+        {
+            return ctx.getSelector(getSelectColumns(), getDisplayColumns(), getTable(), getSettings(), getQueryParameters(), getMaxRows(), getOffset(), getName());
+        }
+        finally
+        {
+            ctx.setCurrentRegion(oldRegion);
+        }
+    }
+
 
     public void addQueryColumns(Set<ColumnInfo> columns)
     {
@@ -824,11 +843,24 @@ public class DataRegion extends DisplayElement
             assert results != null;
             _complete = results.isComplete();
 
-            boolean countAggregate = getMaxRows() > 0 && !_complete && _showPagination && _showPaginationCount;
+            // A complete page after the first in keyset pagination mode doesn't know how many rows came before it
+            boolean countAggregate = getMaxRows() > 0 && (!_complete || isKeysetContinuation()) && _showPagination && _showPaginationCount;
             countAggregate = countAggregate || (getMaxRows() == Table.ALL_ROWS && getTable() != null);
 
             List<Aggregate> baseAggregates = getSummaryStatsAggregates(ctx.getBaseSummaryStatsProviders());
 
+            if (countAggregate && null != getSettings() && getSettings().isEstimateTotalRows() && getTable() != null)
+            {
+                Long estimate = ctx.getEstimatedRowCount(getTable(), getSettings(), getName());
+
+                if (null != estimate)
+                {
+                    _totalRows = estimate;
+                    _totalRowsEstimated = true;
+                    countAggregate = false;
+                }
+            }
+
             if (countAggregate)
             {
                 List<Aggregate> newAggregates = new LinkedList<>(baseAggregates);
@@ -844,6 +876,7 @@ public class DataRegion extends DisplayElement
                     _totalRows = 0L;
                     if (countStarResult.getValue() instanceof Number)
                         _totalRows = ((Number) countStarResult.getValue()).longValue();
+                    _totalRowsEstimated = countStarResult.isApproximate();
                 }
             }
             else
@@ -881,6 +914,29 @@ public class DataRegion extends DisplayElement
             _totalRows = totalRows;
     }
 
+    /** @return true if getTotalRows() is an estimate from the database's table statistics, see {@link QuerySettings#isEstimateTotalRows()} */
+    public boolean isTotalRowsEstimated()
+    {
+        return _totalRowsEstimated;
+    }
+
+    /** @return token for the next page in keyset pagination mode, or null if this is the last page or keyset pagination isn't in use */
+    @Nullable
+    public String getContinuationToken()
+    {
+        return _continuationToken;
+    }
+
+    public void setContinuationToken(@Nullable String continuationToken)
+    {
+        _continuationToken = continuationToken;
+    }
+
+    private boolean isKeysetContinuation()
+    {
+        return null != getSettings() && getSettings().hasContinuationToken();
+    }
+
     public class ParameterViewBean
     {
         public String dataRegionDomId;
@@ -1090,7 +1146,7 @@ public class DataRegion extends DisplayElement
         if (usesResultSet() && rs instanceof TableResultSet && ((TableResultSet) rs).getSize() != -1)
         {
             _rowCount = ((TableResultSet) rs).getSize();
-            if (_complete && _totalRows == null)
+            if (_complete && _totalRows == null && !isKeysetContinuation())
                 _totalRows = getOffset() + _rowCount.intValue();
         }
 
@@ -1359,6 +1415,8 @@ public class DataRegion extends DisplayElement
         dataRegionJSON.put("offset", getOffset());
         dataRegionJSON.put("maxRows", getMaxRows());
         dataRegionJSON.put("totalRows", _totalRows);
+        dataRegionJSON.put("totalRowsEstimated", _totalRowsEstimated);
+        dataRegionJSON.put("continuationToken", _continuationToken);
         dataRegionJSON.put("rowCount", _rowCount);
         dataRegionJSON.put("showPagination", getShowPagination());
         dataRegionJSON.put("showPaginationCount", getShowPaginationCount());
@@ -1555,6 +1613,8 @@ public class DataRegion extends DisplayElement
                     }
                     if (result != null)
                     {
+                        ActionURL exactURL = null;
+
                         for (Aggregate.Result r : result)
                         {
                             String statLabel = r.getAggregate().getDisplayString();
@@ -1566,6 +1626,13 @@ public class DataRegion extends DisplayElement
 
                             out.write("<div>");
                             out.write("<span class=\"summary-stat-label\">" + PageFlowUtil.filter(statLabel) + statDescr + ":</span>&nbsp;");
+                            if (r.isApproximate())
+                            {
+                                // Estimated from a table sample; link to the same grid with exact values
+                                if (null == exactURL)
+                                    exactURL = ctx.getSortFilterURLHelper().replaceParameter(getName() + "." + QueryParam.exactAggregates, "true");
+                                out.write("<a href=\"" + PageFlowUtil.filter(exactURL) + "\" title=\"Estimated from a sample of the table. Click to calculate exact values.\">~</a>");
+                            }
                             Pair<String, Boolean> value = r.getFormattedValue(renderer, ctx.getContainer());
                             boolean error = value.second;
                             if (error)
@@ -1613,6 +1680,11 @@ public class DataRegion extends DisplayElement
             renderTableRow(ctx, out, showRecordSelectors, renderers, rowIndex++);
         }
 
+        // Position of the next page, taken while the last row is still current
+        KeysetPagination keyset = ctx.getKeysetPagination();
+        if (null != keyset && rowIndex > 0 && !results.isComplete())
+            _continuationToken = keyset.createToken(ctx);
+
         return rowIndex;
     }
 
@@ -0,0 +1,394 @@
+/*
+ * Copyright (c) 2021 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.api.data;
+
+import org.apache.commons.beanutils.ConversionException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.api.data.Sort.SortDirection;
+import org.labkey.api.query.FieldKey;
+import org.labkey.api.security.User;
+import org.labkey.api.util.JunitUtil;
+import org.labkey.api.util.TestContext;
+import org.labkey.api.view.BadRequestException;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Keyset ("seek") pagination. Instead of skipping OFFSET rows, each page after the first adds a WHERE clause that
+ * starts just past the last row of the previous page, so deep pages cost about the same as the first one. Rows are
+ * ordered by the requested sort with the primary key appended to make the order total. A continuation token carries
+ * the last row's values of those columns plus a fingerprint of the ordering, so it can't be replayed against a
+ * different sort.
+ */
+public class KeysetPagination
+{
+    private final Map<FieldKey, SortDirection> _keys;   // In sort order
+    private final Map<FieldKey, ColumnInfo> _columnMap;
+    private final boolean _nullSortedHigh;
+
+    private KeysetPagination(Map<FieldKey, SortDirection> keys, Map<FieldKey, ColumnInfo> columnMap, boolean nullSortedHigh)
+    {
+        _keys = keys;
+        _columnMap = columnMap;
+        _nullSortedHigh = nullSortedHigh;
+    }
+
+    /**
+     * @param columnMap the columns being selected, which must include the primary key
+     * @return null if the rows can't be put in a total order, i.e., the table has no primary key or it isn't selected
+     */
+    public static @Nullable KeysetPagination create(TableInfo table, Sort sort, Map<FieldKey, ColumnInfo> columnMap)
+    {
+        Map<FieldKey, SortDirection> keys = new LinkedHashMap<>();
+
+        // Expand the sort the same way Sort.getOrderByClause() does, so the seek clause matches the ORDER BY
+        for (Sort.SortField sf : sort.getSortList())
+        {
+            ColumnInfo col = columnMap.get(sf.getFieldKey());
+            if (null == col)
+                continue;
+
+            List<ColumnInfo> sortColumns = null;
+            List<FieldKey> sortFieldKeys = col.getSortFieldKeys();
+            if (null != sortFieldKeys && !sortFieldKeys.isEmpty() && sortFieldKeys.stream().allMatch(columnMap::containsKey))
+            {
+                sortColumns = new ArrayList<>();
+                for (FieldKey sortFieldKey : sortFieldKeys)
+                    sortColumns.add(columnMap.get(sortFieldKey));
+            }
+            else if (col.isSortable())
+            {
+                sortColumns = List.of(col);
+            }
+
+            if (null == sortColumns)
+                continue;
+
+            for (ColumnInfo sortColumn : sortColumns)
+            {
+                keys.putIfAbsent(sortColumn.getFieldKey(), sf.getSortDirection());
+
+                if (sortColumn.isMvEnabled())
+                {
+                    ColumnInfo mvIndicatorColumn = columnMap.get(sortColumn.getMvColumnName());
+                    if (null != mvIndicatorColumn)
+                        keys.putIfAbsent(mvIndicatorColumn.getFieldKey(), sf.getSortDirection());
+                }
+            }
+        }
+
+        List<ColumnInfo> pkColumns = table.getPkColumns();
+        if (pkColumns.isEmpty())
+            return null;
+
+        for (ColumnInfo pk : pkColumns)
+        {
+            ColumnInfo col = columnMap.get(pk.getFieldKey());
+            if (null == col || !col.isSortable())
+                return null;
+
+            keys.putIfAbsent(col.getFieldKey(), SortDirection.ASC);
+        }
+
+        return new KeysetPagination(keys, columnMap, table.getSqlDialect().isNullSortedHigh());
+    }
+
+    /** The total order to query with, in place of the requested sort */
+    public Sort getSort()
+    {
+        Sort sort = new Sort();
+
+        for (Map.Entry<FieldKey, SortDirection> key : _keys.entrySet())
+            sort.appendSortColumn(key.getKey(), key.getValue(), false);
+
+        return sort;
+    }
+
+    /**
+     * Selects the rows after the position saved in the token: for keys (k1, k2, ... kn), rows where k1 is after its
+     * saved value, or k1 is equal and k2 is after, and so on.
+     * @throws BadRequestException if the token is malformed or was created for a different ordering
+     */
+    public SimpleFilter.FilterClause createSeekClause(@NotNull String token)
+    {
+        List<Object> values = decode(token);
+        List<FieldKey> keys = new ArrayList<>(_keys.keySet());
+        SimpleFilter.OrClause seek = new SimpleFilter.OrClause();
+
+        for (int i = 0; i < keys.size(); i++)
+        {
+            SimpleFilter.AndClause and = new SimpleFilter.AndClause();
+
+            for (int j = 0; j < i; j++)
+                and.addClause(createEqualsClause(keys.get(j), values.get(j)));
+
+            and.addClause(createAfterClause(keys.get(i), _keys.get(keys.get(i)), values.get(i)));
+            seek.addClause(and);
+        }
+
+        return seek;
+    }
+
+    /** Token positioned at the current row of the context, from which the next page starts */
+    public String createToken(RenderContext ctx)
+    {
+        return createToken(key -> _columnMap.get(key).getValue(ctx));
+    }
+
+    /** Token positioned at this row, selected with the columns passed to create() and keyed by their aliases */
+    String createToken(Map<String, ?> row)
+    {
+        return createToken(key -> _columnMap.get(key).getValue(row));
+    }
+
+    private String createToken(Function<FieldKey, Object> getValue)
+    {
+        JSONArray values = new JSONArray();
+
+        for (FieldKey key : _keys.keySet())
+            values.put(encodeValue(getValue.apply(key)));
+
+        JSONObject json = new JSONObject();
+        json.put("order", getFingerprint());
+        json.put("values", values);
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private List<Object> decode(String token)
+    {
+        try
+        {
+            JSONObject json = new JSONObject(new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8));
+            JSONArray values = json.getJSONArray("values");
+
+            if (!getFingerprint().equals(json.getString("order")) || values.length() != _keys.size())
+                throw new BadRequestException("Continuation token doesn't match the sort of this query");
+
+            List<Object> decoded = new ArrayList<>(values.length());
+            int i = 0;
+
+            for (FieldKey key : _keys.keySet())
+                decoded.add(decodeValue(values.get(i++), _columnMap.get(key)));
+
+            return decoded;
+        }
+        catch (IllegalArgumentException | ClassCastException | JSONException | ConversionException e)
+        {
+            throw new BadRequestException("Invalid continuation token", e);
+        }
+    }
+
+    private String getFingerprint()
+    {
+        StringBuilder sb = new StringBuilder();
+
+        for (Map.Entry<FieldKey, SortDirection> key : _keys.entrySet())
+            sb.append(key.getValue().getDir()).append(key.getKey().toString()).append(',');
+
+        return Integer.toHexString(sb.toString().hashCode());
+    }
+
+    // Timestamps keep their nanoseconds, so a seek never lands in the middle of the previous page's last value
+    private static Object encodeValue(@Nullable Object value)
+    {
+        if (null == value)
+            return JSONObject.NULL;
+        if (value instanceof Timestamp || value instanceof java.sql.Date || value instanceof Time)
+            return new JSONArray().put(value.getClass().getSimpleName()).put(value.toString());
+        if (value instanceof Date)
+            return new JSONArray().put(Timestamp.class.getSimpleName()).put(new Timestamp(((Date) value).getTime()).toString());
+
+        return new JSONArray().put("").put(value.toString());
+    }
+
+    private static @Nullable Object decodeValue(Object encoded, ColumnInfo col)
+    {
+        if (JSONObject.NULL.equals(encoded))
+            return null;
+
+        JSONArray pair = (JSONArray) encoded;
+        String type = pair.getString(0);
+        String value = pair.getString(1);
+
+        if (Timestamp.class.getSimpleName().equals(type))
+            return Timestamp.valueOf(value);
+        if (java.sql.Date.class.getSimpleName().equals(type))
+            return java.sql.Date.valueOf(value);
+        if (Time.class.getSimpleName().equals(type))
+            return Time.valueOf(value);
+
+        return col.getJdbcType().convert(value);
+    }
+
+    private boolean isNullLast(SortDirection dir)
+    {
+        return (dir == SortDirection.ASC) == _nullSortedHigh;
+    }
+
+    private static SimpleFilter.FilterClause createEqualsClause(FieldKey key, @Nullable Object value)
+    {
+        return null == value ? CompareType.ISBLANK.createFilterClause(key, null) : CompareType.EQUAL.createFilterClause(key, value);
+    }
+
+    private SimpleFilter.FilterClause createAfterClause(FieldKey key, SortDirection dir, @Nullable Object value)
+    {
+        if (null == value)
+        {
+            // Nothing follows NULL if NULLs come last; otherwise every non-null value does
+            return isNullLast(dir) ? new SimpleFilter.SQLClause("1 = 0", null) : CompareType.NONBLANK.createFilterClause(key, null);
+        }
+
+        SimpleFilter.FilterClause after = (dir == SortDirection.ASC ? CompareType.GT : CompareType.LT).createFilterClause(key, value);
+
+        return isNullLast(dir) ? new SimpleFilter.OrClause(after, CompareType.ISBLANK.createFilterClause(key, null)) : after;
+    }
+
+    public static class TestCase extends Assert
+    {
+        @Test
+        public void testValueRoundTrip()
+        {
+            ColumnInfo col = new BaseColumnInfo("Value", JdbcType.VARCHAR);
+            Timestamp ts = Timestamp.valueOf("2021-03-04 05:06:07.123456");
+
+            assertEquals(ts, decodeValue(encodeValue(ts), col));
+            assertEquals(java.sql.Date.valueOf("2021-03-04"), decodeValue(encodeValue(java.sql.Date.valueOf("2021-03-04")), col));
+            assertEquals(Time.valueOf("05:06:07"), decodeValue(encodeValue(Time.valueOf("05:06:07")), col));
+            assertEquals(new Timestamp(1234567890123L), decodeValue(encodeValue(new Date(1234567890123L)), col));
+            assertEquals("a,b \"c\"", decodeValue(encodeValue("a,b \"c\""), col));
+            assertNull(decodeValue(encodeValue(null), col));
+
+            assertEquals(42, decodeValue(encodeValue(42), new BaseColumnInfo("Int", JdbcType.INTEGER)));
+        }
+    }
+
+    // Walks test.TestTable one page at a time through continuation tokens
+    public static class SeekTestCase extends Assert
+    {
+        private static final int ROWS = 40;
+        private static final int PAGE_SIZE = 7;
+
+        private Container _c;
+        private TableInfo _table;
+        private final List<Integer> _rowIds = new ArrayList<>();
+
+        @Before
+        public void setup()
+        {
+            _c = JunitUtil.getTestContainer();
+            _table = TestSchema.getInstance().getTableInfoTestTable();
+            User user = TestContext.get().getUser();
+
+            // Few distinct values, so many rows tie on the sort column, and every fourth row is NULL
+            for (int i = 0; i < ROWS; i++)
+            {
+                Map<String, Object> map = new HashMap<>();
+                map.put("Container", _c);
+                map.put("IntNull", 0 == i % 4 ? null : i % 3);
+                map.put("IntNotNull", i);
+                map.put("DatetimeNotNull", new Date());
+                map.put("BitNotNull", true);
+
+                map = Table.insert(user, _table, map);
+                _rowIds.add((Integer) map.get("RowId"));
+            }
+        }
+
+        @After
+        public void cleanup()
+        {
+            for (Integer rowId : _rowIds)
+                Table.delete(_table, rowId);
+        }
+
+        @Test
+        public void testAscending()
+        {
+            walk(new Sort("IntNull"));
+        }
+
+        @Test
+        public void testDescending()
+        {
+            walk(new Sort("-IntNull"));
+        }
+
+        private void walk(Sort sort)
+        {
+            Map<FieldKey, ColumnInfo> columnMap = Table.createColumnMap(null, _table.getColumns("RowId", "IntNull"));
+            KeysetPagination keyset = create(_table, sort, columnMap);
+            assertNotNull(keyset);
+            Sort total = keyset.getSort();
+
+            List<Map<String, Object>> rows = new ArrayList<>();
+            String token = null;
+            int pages = 0;
+
+            do
+            {
+                SimpleFilter filter = SimpleFilter.createContainerFilter(_c);
+                if (null != token)
+                    filter.addClause(keyset.createSeekClause(token));
+
+                List<Map<String, Object>> page = new ArrayList<>(new TableSelector(_table, columnMap.values(), filter, total).setMaxRows(PAGE_SIZE).getMapCollection());
+                rows.addAll(page);
+                token = page.size() == PAGE_SIZE ? keyset.createToken(page.get(page.size() - 1)) : null;
+                assertTrue("Too many pages", ++pages <= ROWS);
+            }
+            while (null != token);
+
+            // Every row exactly once
+            List<Integer> rowIds = new ArrayList<>();
+            for (Map<String, Object> row : rows)
+                rowIds.add((Integer) columnMap.get(FieldKey.fromParts("RowId")).getValue(row));
+            assertEquals(ROWS, rowIds.size());
+            assertEquals(new HashSet<>(_rowIds), new HashSet<>(rowIds));
+
+            // In the requested order, NULLs wherever the database sorts them, with ties broken by RowId
+            boolean descending = sort.getSortList().get(0).getSortDirection() == SortDirection.DESC;
+            boolean nullsLast = descending != _table.getSqlDialect().isNullSortedHigh();
+            Comparator<Integer> values = descending ? Comparator.reverseOrder() : Comparator.naturalOrder();
+            Comparator<Map<String, Object>> order = Comparator
+                .comparing((Map<String, Object> row) -> (Integer) columnMap.get(FieldKey.fromParts("IntNull")).getValue(row), nullsLast ? Comparator.nullsLast(values) : Comparator.nullsFirst(values))
+                .thenComparing(row -> (Integer) columnMap.get(FieldKey.fromParts("RowId")).getValue(row));
+
+            List<Map<String, Object>> expected = new ArrayList<>(rows);
+            expected.sort(order);
+            assertEquals(expected, rows);
+        }
+    }
+}
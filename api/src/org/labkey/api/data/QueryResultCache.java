@@ -0,0 +1,680 @@
+/*
+ * Copyright (c) 2021 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.api.data;
+
+import org.apache.commons.collections4.map.AbstractReferenceMap.ReferenceStrength;
+import org.apache.commons.collections4.map.ReferenceMap;
+import org.apache.commons.lang3.StringUtils;
+import org.jetbrains.annotations.Nullable;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.api.cache.Cache;
+import org.labkey.api.cache.CacheManager;
+import org.labkey.api.cache.CacheStats;
+import org.labkey.api.collections.ResultSetRowMapFactory;
+import org.labkey.api.collections.RowMap;
+import org.labkey.api.query.FilteredTable;
+import org.labkey.api.query.UserSchema;
+import org.labkey.api.security.User;
+import org.labkey.api.util.GUID;
+import org.labkey.api.util.JunitUtil;
+import org.labkey.api.util.TestContext;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Opt-in, cross-request cache of small query results, keyed by the generated SQL and its parameters. Meant for
+ * read-mostly tables (lists, datasets, etc.) that back dashboards and query web parts, which run the same queries over
+ * and over against data that changes a few times a day.
+ *
+ * Caching is enabled for every TableSelector query against a table in one of the schemas passed to enableSchema() or
+ * listed in the "labkey.queryResultCache.schemas" system property (comma separated DbSchema or UserSchema names), and
+ * for any selector that calls setResultCaching(true). Each table gets its own cache, so per-table hit rates show up on
+ * the admin caches page.
+ *
+ * Invalidation is driven by writes rather than by scanning entries. Before a query runs, we record the generation
+ * number of every schema-qualified table name that appears in its SQL; Table.notifyTableUpdate(), SqlExecutor DML,
+ * batch statements and TableInsertDataIterator bump the generation of the tables they write, both immediately and again
+ * after the current transaction commits. A result whose recorded generations don't match is treated as a miss. Writes
+ * cost nothing until the first cache has been created. After that, only names that some cached query has read get a
+ * generation, so writes to other tables cost a regex match and a map lookup. Cached results hold on to the generations
+ * they depend on, and a generation is dropped once no cached result refers to it. Writes that bypass these paths (stored procedures, triggers that modify other tables, other servers) are only
+ * picked up when the entry expires, so don't enable caching on tables that are written that way.
+ *
+ * Writes name the tables they modify, and nothing connects a database view to the tables it selects from, so tables that
+ * are database views are never cached. A query that joins to a view (e.g., through a lookup) is still cached, and won't
+ * see writes to the view's underlying tables until its entry expires; don't enable caching on schemas whose queries do that.
+ *
+ * Queries are never cached while a transaction is active on the scope, when the selector was handed an explicit
+ * Connection, or when JDBC caching has been disabled for streaming. Results over MAX_CELLS are not cached: we stop
+ * reading into memory as soon as a result passes that size, stream the rest, and remember to skip materializing that
+ * query until it's invalidated.
+ */
+public class QueryResultCache
+{
+    public static final String SCHEMAS_PROPERTY = "labkey.queryResultCache.schemas";
+
+    private static final int ENTRIES_PER_TABLE = 200;
+    private static final int MAX_CELLS = 100_000;
+    private static int _maxCells = MAX_CELLS;   // Lowered by tests
+    private static final long TIME_TO_LIVE = CacheManager.HOUR;
+    private static final String SQL_CACHE_NAME = "<SQL>";
+
+    // A (possibly quoted) identifier, a dot, and another identifier, e.g., list.c5d12_people or "study"."Dataset"
+    private static final String IDENTIFIER = "(?:\"((?:[^\"]|\"\")+)\"|\\[([^\\]]+)]|`([^`]+)`|([A-Za-z_][\\w$]*))";
+    private static final Pattern QUALIFIED_NAME = Pattern.compile(IDENTIFIER + "\\s*\\.\\s*" + IDENTIFIER);
+    private static final Pattern DML_TARGET = Pattern.compile("(?i)\\b(?:INSERT\\s+INTO|UPDATE|DELETE\\s+FROM|DELETE|MERGE\\s+INTO|MERGE|TRUNCATE\\s+TABLE|TRUNCATE|DROP\\s+TABLE(?:\\s+IF\\s+EXISTS)?|ALTER\\s+TABLE)\\s+(" + IDENTIFIER + "\\s*\\.\\s*" + IDENTIFIER + ")");
+
+    private static final Set<String> ENABLED_SCHEMAS = new CopyOnWriteArraySet<>();
+    private static final Map<String, Cache<String, Entry>> CACHES = new ConcurrentHashMap<>();
+    // Values are weak: a generation only needs to live as long as some cached result (or running query) depends on it
+    private static final Map<String, AtomicLong> GENERATIONS = Collections.synchronizedMap(new ReferenceMap<>(ReferenceStrength.HARD, ReferenceStrength.WEAK));
+
+    static
+    {
+        String schemas = System.getProperty(SCHEMAS_PROPERTY);
+
+        if (null != schemas)
+            for (String schema : StringUtils.split(schemas, ", "))
+                enableSchema(schema);
+    }
+
+    private QueryResultCache()
+    {
+    }
+
+    /** Cache results of TableSelector queries against all tables in this DbSchema or UserSchema */
+    public static void enableSchema(String schemaName)
+    {
+        ENABLED_SCHEMAS.add(schemaName.toLowerCase());
+    }
+
+    public static void disableSchema(String schemaName)
+    {
+        ENABLED_SCHEMAS.remove(schemaName.toLowerCase());
+    }
+
+    public static boolean isSchemaEnabled(TableInfo table)
+    {
+        if (ENABLED_SCHEMAS.isEmpty())
+            return false;
+
+        if (ENABLED_SCHEMAS.contains(table.getSchema().getName().toLowerCase()))
+            return true;
+
+        UserSchema userSchema = table.getUserSchema();
+        return null != userSchema && ENABLED_SCHEMAS.contains(userSchema.getName().toLowerCase());
+    }
+
+    /**
+     * Returns the cache a selector should consult, or null if its results shouldn't be cached.
+     * @param table The TableInfo being selected, or null for SQL-driven selectors
+     * @param requested The selector's explicit setting, or null if it hasn't expressed a preference
+     */
+    static @Nullable Cache<String, Entry> getCache(@Nullable TableInfo table, @Nullable Boolean requested)
+    {
+        if (Boolean.FALSE.equals(requested))
+            return null;
+
+        String name;
+
+        if (null != table)
+        {
+            if (!Boolean.TRUE.equals(requested) && !isSchemaEnabled(table))
+                return null;
+            if (isView(table))
+                return null;
+            name = table.getSchema().getName() + "." + table.getName();
+        }
+        else
+        {
+            if (!Boolean.TRUE.equals(requested))
+                return null;
+            name = SQL_CACHE_NAME;
+        }
+
+        return CACHES.computeIfAbsent(name, n -> CacheManager.getStringKeyCache(ENTRIES_PER_TABLE, TIME_TO_LIVE, "Query results: " + n));
+    }
+
+    private static boolean isView(TableInfo table)
+    {
+        if (table instanceof FilteredTable)
+            table = ((FilteredTable<?>)table).getRealTable();
+
+        return DatabaseTableType.VIEW == table.getTableType();
+    }
+
+    /** Returns the key for this SQL, or null if a parameter can't be represented faithfully in a String key */
+    static @Nullable String getKey(DbScope scope, SQLFragment sql)
+    {
+        StringBuilder key = new StringBuilder(scope.getDataSourceName()).append('\n').append(sql.getSQL());
+
+        for (Object param : sql.getParams())
+        {
+            String value;
+
+            if (null == param)
+                value = "null";
+            else if (param instanceof String || param instanceof Number || param instanceof Boolean || param instanceof Character || param instanceof GUID)
+                value = param.toString();
+            else if (param instanceof Date)
+                value = String.valueOf(((Date)param).getTime());
+            else if (param instanceof Container)
+                value = ((Container)param).getId();
+            else
+                return null;
+
+            // Type and length prefixes keep, e.g., 1 and "1" or ("a\nb") and ("a", "b") from colliding
+            key.append('\n').append(null == param ? "" : param.getClass().getSimpleName()).append(':').append(value.length()).append(':').append(value);
+        }
+
+        return key.toString();
+    }
+
+    /** Called before the query executes, so a write that commits while it's running will invalidate the result */
+    static Map<AtomicLong, Long> getDependencies(DbScope scope, SQLFragment sql)
+    {
+        Map<AtomicLong, Long> dependencies = new HashMap<>();
+
+        for (String name : getQualifiedNames(sql.getSQL(), QUALIFIED_NAME, 0))
+        {
+            AtomicLong generation = GENERATIONS.computeIfAbsent(getGenerationKey(scope, name), k -> new AtomicLong());
+            dependencies.put(generation, generation.get());
+        }
+
+        return dependencies;
+    }
+
+    /** Returns the entry for this key, or null if it's missing or stale */
+    static @Nullable Entry get(Cache<String, Entry> cache, String key)
+    {
+        Entry entry = cache.get(key);
+
+        if (null != entry && !entry.isCurrent())
+        {
+            cache.remove(key);
+            return null;
+        }
+
+        return entry;
+    }
+
+    /**
+     * Reads a result that missed the cache and caches a copy of it, unless it has more than MAX_CELLS cells. We stop
+     * reading into memory as soon as we know it's too big, note that in the cache, and return a ResultSet that hands
+     * out the rows read so far and then streams the rest from rsIn, so a huge result is never held on the heap.
+     * Otherwise, returns the materialized result and closes rsIn.
+     */
+    static ResultSet load(Cache<String, Entry> cache, String key, Map<AtomicLong, Long> dependencies, ResultSet rsIn, boolean scrollable, @Nullable StackTraceElement[] stackTrace, QueryLogging queryLogging) throws SQLException
+    {
+        ResultSet rs = new LoggingResultSetWrapper(rsIn, queryLogging);
+        boolean close = true;
+
+        try
+        {
+            ResultSetMetaData md = rs.getMetaData();
+            int maxRows = _maxCells / Math.max(md.getColumnCount(), 1);
+            ResultSetRowMapFactory factory = ResultSetRowMapFactory.create(rs);
+            ArrayList<RowMap<Object>> list = new ArrayList<>();
+
+            while (list.size() <= maxRows && rs.next())
+                list.add(factory.getRowMap(rs));
+
+            if (list.size() <= maxRows)
+            {
+                CachedResultSet crs = new CachedResultSet(md, true, list, true, stackTrace);
+                put(cache, key, dependencies, crs);
+                return crs;
+            }
+
+            cache.put(key, new Entry(md, null, dependencies));
+            close = false;
+
+            // A scrollable result can simply start over
+            if (scrollable)
+            {
+                rs.beforeFirst();
+                return rs;
+            }
+
+            return new PrefixedResultSet(new CachedResultSet(md, true, list, true, stackTrace), rs);
+        }
+        finally
+        {
+            if (close)
+                rs.close();
+        }
+    }
+
+    /**
+     * Stashes a copy of the materialized result. The caller hands rs itself to its handler, which may modify it, so
+     * the cached copy shares no mutable state with it.
+     */
+    static void put(Cache<String, Entry> cache, String key, Map<AtomicLong, Long> dependencies, CachedResultSet rs) throws SQLException
+    {
+        ResultSetMetaData md = rs.getMetaData();
+        int columnCount = md.getColumnCount();
+
+        if ((long)rs.getSize() * Math.max(columnCount, 1) > _maxCells)
+        {
+            cache.put(key, new Entry(md, null, dependencies));
+            return;
+        }
+
+        List<Object[]> rows = new ArrayList<>(rs.getSize());
+
+        while (rs.next())
+        {
+            Object[] row = new Object[columnCount];
+            for (int i = 0; i < columnCount; i++)
+                row[i] = rs.getObject(i + 1);
+            rows.add(row);
+        }
+
+        rs.beforeFirst();
+        cache.put(key, new Entry(md, rows, dependencies));
+    }
+
+    /** Invalidate results that select from this database table */
+    public static void invalidate(TableInfo table)
+    {
+        if (CACHES.isEmpty() || null == table.getSelectName())
+            return;
+
+        invalidate(table.getSchema().getScope(), getQualifiedNames(table.getSelectName(), QUALIFIED_NAME, 0));
+    }
+
+    /** Invalidate results that select from any table this (INSERT, UPDATE, DELETE, etc.) SQL modifies */
+    public static void invalidate(DbScope scope, CharSequence sql)
+    {
+        if (CACHES.isEmpty())
+            return;
+
+        invalidate(scope, getQualifiedNames(sql, DML_TARGET, 1));
+    }
+
+    private static void invalidate(DbScope scope, Set<String> names)
+    {
+        for (String name : names)
+        {
+            Invalidation invalidation = new Invalidation(getGenerationKey(scope, name));
+
+            // Bump now so no in-flight query caches a result read before the write, and again after commit since
+            // another thread could cache the pre-commit data in the meantime. addCommitTask() dedupes by key.
+            invalidation.run();
+            scope.addCommitTask(invalidation, DbScope.CommitTaskOption.POSTCOMMIT);
+        }
+    }
+
+    public static void clear()
+    {
+        CACHES.values().forEach(Cache::clear);
+    }
+
+    private static String getGenerationKey(DbScope scope, String name)
+    {
+        return scope.getDataSourceName() + "|" + name;
+    }
+
+    // Returns the lower-cased, unquoted "schema.table" names matched by the pattern, starting at the given group
+    private static Set<String> getQualifiedNames(CharSequence sql, Pattern pattern, int offset)
+    {
+        Set<String> names = new HashSet<>();
+        Matcher m = pattern.matcher(sql);
+
+        while (m.find())
+            names.add(getIdentifier(m, offset + 1) + "." + getIdentifier(m, offset + 5));
+
+        return names;
+    }
+
+    private static String getIdentifier(Matcher m, int firstGroup)
+    {
+        for (int group = firstGroup; group < firstGroup + 4; group++)
+        {
+            String identifier = m.group(group);
+
+            if (null != identifier)
+                return (group == firstGroup ? identifier.replace("\"\"", "\"") : identifier).toLowerCase();
+        }
+
+        throw new IllegalStateException("No identifier matched");
+    }
+
+    private static class Invalidation implements Runnable
+    {
+        private final String _generationKey;
+
+        private Invalidation(String generationKey)
+        {
+            _generationKey = generationKey;
+        }
+
+        @Override
+        public void run()
+        {
+            AtomicLong generation = GENERATIONS.get(_generationKey);
+
+            if (null != generation)
+                generation.incrementAndGet();
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof Invalidation && _generationKey.equals(((Invalidation)o)._generationKey);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return _generationKey.hashCode();
+        }
+    }
+
+    // Hands out the rows already read from a result, then the rest of it
+    private static class PrefixedResultSet extends ResultSetWrapper
+    {
+        private @Nullable ResultSet _rest;
+        private int _row = 0;
+
+        private PrefixedResultSet(CachedResultSet prefix, ResultSet rest)
+        {
+            super(prefix);
+            _rest = rest;
+        }
+
+        @Override
+        public boolean next() throws SQLException
+        {
+            if (!resultset.next())
+            {
+                if (null == _rest)
+                    return false;
+
+                resultset.close();
+                resultset = _rest;
+                _rest = null;
+
+                if (!resultset.next())
+                    return false;
+            }
+
+            _row++;
+            return true;
+        }
+
+        @Override
+        public int getRow()
+        {
+            return _row;
+        }
+
+        @Override
+        public Statement getStatement() throws SQLException
+        {
+            return null != _rest ? _rest.getStatement() : resultset.getStatement();
+        }
+
+        @Override
+        public void close() throws SQLException
+        {
+            try
+            {
+                resultset.close();
+            }
+            finally
+            {
+                if (null != _rest)
+                    _rest.close();
+            }
+        }
+    }
+
+    static class Entry
+    {
+        private final ResultSetMetaData _md;
+        private final @Nullable List<Object[]> _rows;
+        // Holding the generations themselves keeps them from being dropped while this entry is cached
+        private final Map<AtomicLong, Long> _dependencies;
+
+        private Entry(ResultSetMetaData md, @Nullable List<Object[]> rows, Map<AtomicLong, Long> dependencies)
+        {
+            _md = md;
+            _rows = null == rows ? null : Collections.unmodifiableList(rows);
+            _dependencies = dependencies;
+        }
+
+        /** True if we tried to cache this result and found it too large; the caller should just stream it */
+        boolean isOversized()
+        {
+            return null == _rows;
+        }
+
+        private boolean isCurrent()
+        {
+            for (Map.Entry<AtomicLong, Long> e : _dependencies.entrySet())
+                if (e.getKey().get() != e.getValue())
+                    return false;
+
+            return true;
+        }
+
+        /** Returns a fresh copy of the cached result */
+        CachedResultSet createResultSet()
+        {
+            assert null != _rows;
+
+            try
+            {
+                // New factory each time, so a consumer that adds keys to its row maps can't affect other copies
+                ResultSetRowMapFactory factory = ResultSetRowMapFactory.create(_md);
+                ArrayList<RowMap<Object>> maps = new ArrayList<>(_rows.size());
+
+                for (int i = 0; i < _rows.size(); i++)
+                {
+                    Object[] values = _rows.get(i);
+                    List<Object> row = new ArrayList<>(values.length + 1);
+                    row.add(i + 1);
+                    row.addAll(Arrays.asList(values));
+                    maps.add(factory.getRowMap(row));
+                }
+
+                return new CachedResultSet(_md, false, maps, true, null);
+            }
+            catch (SQLException e)
+            {
+                throw new RuntimeSQLException(e);
+            }
+        }
+    }
+
+
+    public static class TestCase extends Assert
+    {
+        private Container _c;
+        private User _user;
+        private TableInfo _table;
+        private final List<Integer> _rowIds = new ArrayList<>();
+
+        @Before
+        public void setup()
+        {
+            _c = JunitUtil.getTestContainer();
+            _user = TestContext.get().getUser();
+            _table = TestSchema.getInstance().getTableInfoTestTable();
+        }
+
+        @After
+        public void cleanup()
+        {
+            for (Integer rowId : _rowIds)
+                Table.delete(_table, rowId);
+        }
+
+        private void insert(int value)
+        {
+            Map<String, Object> map = new HashMap<>();
+            map.put("Container", _c);
+            map.put("IntNotNull", value);
+            map.put("DateTimeNotNull", new Date());
+            map.put("BitNotNull", true);
+
+            map = Table.insert(_user, _table, map);
+            _rowIds.add((Integer)map.get("RowId"));
+        }
+
+        private List<Integer> select()
+        {
+            return new TableSelector(_table.getColumn("IntNotNull"), SimpleFilter.createContainerFilter(_c), new Sort("IntNotNull"))
+                .setResultCaching(true)
+                .getArrayList(Integer.class);
+        }
+
+        private CacheStats getStats()
+        {
+            return CacheManager.getCacheStats(getCache(_table, true).getTrackingCache());
+        }
+
+        @Test
+        public void testInvalidation()
+        {
+            insert(1);
+            assertEquals(List.of(1), select());
+
+            // Second select is served from the cache
+            long gets = getStats().getGets();
+            long misses = getStats().getMisses();
+            assertEquals(List.of(1), select());
+            assertEquals(gets + 1, getStats().getGets());
+            assertEquals(misses, getStats().getMisses());
+
+            // Table.insert()
+            insert(2);
+            assertEquals(List.of(1, 2), select());
+
+            // Raw SQL
+            new SqlExecutor(_table.getSchema()).execute(new SQLFragment("UPDATE " + _table.getSelectName() + " SET IntNotNull = 3 WHERE RowId = ?", _rowIds.get(1)));
+            assertEquals(List.of(1, 3), select());
+
+            // Uncommitted writes are visible inside the transaction, but nothing gets cached until it's over
+            try (DbScope.Transaction ignored = _table.getSchema().getScope().beginTransaction())
+            {
+                new SqlExecutor(_table.getSchema()).execute(new SQLFragment("DELETE FROM " + _table.getSelectName() + " WHERE RowId = ?", _rowIds.get(0)));
+                assertEquals(List.of(3), select());
+            }
+            assertEquals(List.of(1, 3), select());
+        }
+
+        @Test
+        public void testCopies() throws SQLException
+        {
+            insert(5);
+
+            // First pass is a miss, the rest are hits; modifying a handed-out result set can't affect the cached copy
+            for (int i = 0; i < 3; i++)
+            {
+                try (ResultSet rs = new TableSelector(_table, SimpleFilter.createContainerFilter(_c), null).setResultCaching(true).getResultSet())
+                {
+                    assertTrue(rs.next());
+                    assertEquals(5, rs.getInt("IntNotNull"));
+                    rs.updateObject("IntNotNull", 6);
+                    assertFalse(rs.next());
+                }
+            }
+        }
+
+        @Test
+        public void testOversized()
+        {
+            for (int i = 1; i <= 5; i++)
+                insert(i);
+
+            _maxCells = 3;
+
+            try
+            {
+                // Both times, every row streams through without the whole result being read into memory first
+                for (int pass = 0; pass < 2; pass++)
+                {
+                    List<Integer> values = new ArrayList<>();
+                    Set<Class<?>> classes = new HashSet<>();
+                    new TableSelector(_table.getColumn("IntNotNull"), SimpleFilter.createContainerFilter(_c), new Sort("IntNotNull"))
+                        .setResultCaching(true)
+                        .forEach(rs -> {
+                            values.add(rs.getInt(1));
+                            classes.add(rs.getClass());
+                        });
+
+                    assertEquals(List.of(1, 2, 3, 4, 5), values);
+                    assertFalse(classes.contains(CachedResultSet.class));
+                }
+            }
+            finally
+            {
+                _maxCells = MAX_CELLS;
+            }
+
+            // Nothing was cached, so lowering the limit didn't leave a truncated result behind
+            assertEquals(List.of(1, 2, 3, 4, 5), select());
+        }
+
+        @Test
+        public void testViews()
+        {
+            assertNull(getCache(CoreSchema.getInstance().getTableInfoUsers(), true));
+            assertNotNull(getCache(_table, true));
+        }
+
+        @Test
+        public void testNames()
+        {
+            assertEquals(Set.of("list.c5d12_people", "p.name", "core.containers"),
+                getQualifiedNames("SELECT p.Name FROM list.c5d12_people p INNER JOIN \"core\".\"Containers\" c ON 1 = 1", QUALIFIED_NAME, 0));
+            assertEquals(Set.of("study.dataset", "temp.x"),
+                getQualifiedNames("UPDATE [study].[Dataset] SET X = 1; DELETE FROM temp.x; SELECT a.b FROM c.d", DML_TARGET, 1));
+            assertEquals(Set.of("test.testtable"), getQualifiedNames("INSERT INTO test.TestTable (a) VALUES (?)", DML_TARGET, 1));
+        }
+
+        @Test
+        public void testKeys()
+        {
+            DbScope scope = DbScope.getLabKeyScope();
+            assertNotEquals(getKey(scope, new SQLFragment("SELECT ?", 1)), getKey(scope, new SQLFragment("SELECT ?", "1")));
+            assertEquals(getKey(scope, new SQLFragment("SELECT ?", new Date(1000))), getKey(scope, new SQLFragment("SELECT ?", new Date(1000))));
+            assertNull(getKey(scope, new SQLFragment("SELECT ?", new Object())));
+        }
+    }
+}
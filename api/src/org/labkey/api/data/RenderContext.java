@@ -26,6 +26,7 @@ import org.labkey.api.action.LabKeyError;
 import org.labkey.api.collections.NullPreventingSet;
 import org.labkey.api.query.CustomView;
 import org.labkey.api.query.FieldKey;
+import org.labkey.api.query.FilteredTable;
 import org.labkey.api.query.QueryService;
 import org.labkey.api.query.QuerySettings;
 import org.labkey.api.util.HtmlString;
@@ -77,6 +78,7 @@ public class RenderContext implements Map<String, Object>, Serializable
     private Map<FieldKey, List<String>> _analyticsProviderNamesByFieldKey;
 
     private Results _results;
+    private @Nullable KeysetPagination _keysetPagination;
 
     public RenderContext(ViewContext context)
     {
@@ -322,10 +324,101 @@ public class RenderContext implements Map<String, Object>, Serializable
         if (null != QueryService.get())
             cols = QueryService.get().ensureRequiredColumns(tinfo, cols, filter, sort, _ignoredColumnFilters);
 
+        // Keyset pagination swaps the offset for a seek clause. Applied after buildFilter(), so aggregates and the
+        // total row count still cover every page.
+        _keysetPagination = null;
+        if (null != settings && settings.isKeysetPagination() && maxRows > 0)
+        {
+            _keysetPagination = KeysetPagination.create(tinfo, sort, Table.createColumnMap(null, cols));
+
+            if (null != _keysetPagination)
+            {
+                sort = _keysetPagination.getSort();
+                offset = Table.NO_OFFSET;
+
+                if (settings.hasContinuationToken())
+                    filter.addClause(_keysetPagination.createSeekClause(settings.getContinuationToken()));
+            }
+        }
+
         _results = selectForDisplay(tinfo, cols, parameters, filter, sort, maxRows, offset, async);
         return _results;
     }
 
+    /**
+     * The selector getResults() would run for a data region (same sort, filters and required columns), without
+     * running it. Doesn't apply keyset pagination or subclass overrides of selectForDisplay().
+     */
+    public TableSelector getSelector(Map<FieldKey, ColumnInfo> fieldMap, List<DisplayColumn> displayColumns, TableInfo tinfo, QuerySettings settings, Map<String, Object> parameters, int maxRows, long offset, String name)
+    {
+        ActionURL url;
+        if (null != settings)
+            url = settings.getSortFilterURL();
+        else
+            url = getViewContext().cloneActionURL();
+
+        Sort sort = buildSort(tinfo, url, name);
+        SimpleFilter filter = buildFilter(tinfo, getColumnInfos(displayColumns), url, name, maxRows, offset, sort);
+
+        Collection<ColumnInfo> cols = fieldMap.values();
+        if (null != QueryService.get())
+            cols = QueryService.get().ensureRequiredColumns(tinfo, cols, filter, sort, _ignoredColumnFilters);
+
+        return createSelector(tinfo, cols, parameters, filter, sort, maxRows, offset);
+    }
+
+    /**
+     * Valid after call to getResults(). Null unless keyset pagination was requested and the table supports it (i.e.,
+     * has a primary key); otherwise the query fell back to offset paging.
+     */
+    public @Nullable KeysetPagination getKeysetPagination()
+    {
+        return _keysetPagination;
+    }
+
+    /**
+     * Estimated number of rows the query would return, or null if there's no estimate. Only available when no URL
+     * filter applies. For a table that returns every row of its database table, this comes from the database's
+     * statistics. If the table has a container or base filter, it's estimated by counting the matching rows in a
+     * sample of a very large table (see {@link SampledAggregates}); smaller tables are left to be counted exactly.
+     */
+    public @Nullable Long getEstimatedRowCount(TableInfo tinfo, QuerySettings settings, String dataRegionName)
+    {
+        ActionURL url;
+        if (null != settings)
+            url = settings.getSortFilterURL();
+        else
+            url = getViewContext().cloneActionURL();
+
+        SimpleFilter filter = buildFilter(tinfo, Collections.emptyList(), url, dataRegionName, Table.ALL_ROWS, Table.NO_OFFSET, new Sort());
+        if (!filter.getClauses().isEmpty())
+            return null;
+
+        TableInfo realTable = null;
+        if (tinfo instanceof SchemaTableInfo)
+            realTable = tinfo;
+        else if (tinfo instanceof FilteredTable && ((FilteredTable<?>) tinfo).isUnfilteredRootTable())
+            realTable = ((FilteredTable<?>) tinfo).getRealTable();
+
+        if (realTable instanceof SchemaTableInfo && realTable.getTableType() == DatabaseTableType.TABLE)
+        {
+            DbSchema schema = realTable.getSchema();
+            return schema.getSqlDialect().getEstimatedRowCount(schema.getScope(), schema.getName(), realTable.getMetaDataName());
+        }
+
+        // The physical table's statistics would count rows in every container, so sample with the table's filter instead
+        SampledAggregates sampled = SampledAggregates.create(tinfo, null);
+        if (null == sampled)
+            return null;
+
+        Map<String, List<Aggregate.Result>> results = sampled.getAggregates(List.of(Aggregate.createCountStar()));
+        List<Aggregate.Result> count = null == results ? null : results.get(Aggregate.STAR);
+        if (null == count || count.isEmpty() || !(count.get(0).getValue() instanceof Number))
+            return null;
+
+        return ((Number) count.get(0).getValue()).longValue();
+    }
+
     @NotNull
     public Map<String, List<Aggregate.Result>> getAggregates(List<DisplayColumn> displayColumns, TableInfo tinfo, QuerySettings settings, String dataRegionName, List<Aggregate> aggregatesIn, Map<String, Object> parameters, boolean async) throws IOException
     {
@@ -398,12 +491,54 @@ public class RenderContext implements Map<String, Object>, Serializable
 
         if (!aggregates.isEmpty())
         {
-            TableSelector selector = new TableSelector(tinfo, cols, filter, null).setNamedParameters(parameters);
+            boolean exact = null != settings && settings.isExactAggregates();
+            List<Aggregate> exactAggregates = aggregates;
+            Map<String, List<Aggregate.Result>> estimated = Collections.emptyMap();
+
+            // On very large tables, estimate what we can from a sample unless exact values were asked for. The total
+            // row count is only estimated if the grid is already showing an estimated total.
+            SampledAggregates sampled = exact || (null != parameters && !parameters.isEmpty()) ? null : SampledAggregates.create(tinfo, filter);
+            if (null != sampled)
+            {
+                boolean estimateCount = null != settings && settings.isEstimateTotalRows();
+                List<Aggregate> sampledAggregates = new ArrayList<>();
+                exactAggregates = new ArrayList<>();
 
-            if (async)
-                return selector.getAggregatesAsync(aggregates, getViewContext().getResponse());
-            else
-                return selector.getAggregates(aggregates);
+                for (Aggregate aggregate : aggregates)
+                {
+                    if (sampled.canEstimate(aggregate) && (!aggregate.isCountStar() || estimateCount))
+                        sampledAggregates.add(aggregate);
+                    else
+                        exactAggregates.add(aggregate);
+                }
+
+                if (!sampledAggregates.isEmpty())
+                {
+                    Map<String, List<Aggregate.Result>> sampledResults = sampled.getAggregates(sampledAggregates);
+                    if (null != sampledResults)
+                        estimated = sampledResults;
+                    else
+                        exactAggregates = aggregates;
+                }
+            }
+
+            // Distinct counts can use the database's own approximation, where it has one
+            for (Aggregate aggregate : exactAggregates)
+                aggregate.setAllowApproximate(!exact);
+
+            Map<String, List<Aggregate.Result>> results = Collections.emptyMap();
+
+            if (!exactAggregates.isEmpty())
+            {
+                TableSelector selector = new TableSelector(tinfo, cols, filter, null).setNamedParameters(parameters);
+
+                if (async)
+                    results = selector.getAggregatesAsync(exactAggregates, getViewContext().getResponse());
+                else
+                    results = selector.getAggregates(exactAggregates);
+            }
+
+            return estimated.isEmpty() ? results : SampledAggregates.merge(aggregates, results, estimated);
         }
 
         return Collections.emptyMap();
@@ -495,12 +630,7 @@ public class RenderContext implements Map<String, Object>, Serializable
 
     protected Results selectForDisplay(TableInfo table, Collection<ColumnInfo> columns, Map<String, Object> parameters, SimpleFilter filter, Sort sort, int maxRows, long offset, boolean async) throws SQLException, IOException
     {
-        TableSelector selector = new TableSelector(table, columns, filter, sort)
-            .setJdbcCaching(getCache())  // #39888
-            .setNamedParameters(parameters)
-            .setMaxRows(maxRows)
-            .setOffset(offset)
-            .setForDisplay(true);
+        TableSelector selector = createSelector(table, columns, parameters, filter, sort, maxRows, offset);
 
         if (async)
         {
@@ -512,6 +642,16 @@ public class RenderContext implements Map<String, Object>, Serializable
         }
     }
 
+    private TableSelector createSelector(TableInfo table, Collection<ColumnInfo> columns, Map<String, Object> parameters, SimpleFilter filter, Sort sort, int maxRows, long offset)
+    {
+        return new TableSelector(table, columns, filter, sort)
+            .setJdbcCaching(getCache())  // #39888
+            .setNamedParameters(parameters)
+            .setMaxRows(maxRows)
+            .setOffset(offset)
+            .setForDisplay(true);
+    }
+
     /**
      * If false, callers should anticipate very large ResultSets. They should ensure that they don't cache the ResultSet
      * in memory, e.g., don't use CachedResultSet and call setJdbcCaching(getCache()).
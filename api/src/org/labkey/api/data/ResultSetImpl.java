@@ -164,7 +164,9 @@ public class ResultSetImpl extends LoggingResultSetWrapper implements TableResul
                 {
                     stmt.close();
                 }
-                _scope.releaseConnection(_connection);
+                // Results served from QueryResultCache have no connection
+                if (null != _connection)
+                    _scope.releaseConnection(_connection);
             }
             else
                 super.close();
@@ -0,0 +1,397 @@
+/*
+ * Copyright (c) 2021 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.api.data;
+
+import org.jetbrains.annotations.Nullable;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.api.collections.CaseInsensitiveHashMap;
+import org.labkey.api.data.dialect.SqlDialect;
+import org.labkey.api.query.FieldKey;
+import org.labkey.api.query.FilteredTable;
+import org.labkey.api.query.QueryService;
+import org.labkey.api.query.UserSchema;
+import org.labkey.api.security.User;
+import org.labkey.api.util.JunitUtil;
+import org.labkey.api.util.TestContext;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estimates aggregates over a very large table from a random sample of its pages (TABLESAMPLE), so grid footers and
+ * column summaries don't have to scan millions of rows on every page view. Only applies to a FilteredTable over a
+ * database table whose dialect can sample, and only to aggregates of the table's own columns whose types say how a
+ * sample's value relates to the table's (see {@link Aggregate.Type#getSampleScaling()}). Everything else, and any
+ * query whose filter leaves too few sampled rows for a useful estimate, is left to be computed exactly.
+ */
+public class SampledAggregates
+{
+    // Sample only tables at least this big, going by the database's statistics
+    private static final long MIN_TABLE_ROWS = 1_000_000;
+    // Read about this many rows of the table
+    private static final long TARGET_SAMPLE_ROWS = 100_000;
+    // With fewer matching rows than this in the sample (i.e., a selective filter), estimates are too rough to show
+    private static final long MIN_SAMPLE_ROWS = 1_000;
+
+    private static long _minSampleRows = MIN_SAMPLE_ROWS;   // Lowered by tests
+
+    private static final String ALIAS = "x";
+    private static final String SAMPLE_ROW_COUNT = "SampleRowCount";
+
+    private final FilteredTable<?> _table;
+    private final SimpleFilter _filter;
+    private final double _percent;
+
+    private SampledAggregates(FilteredTable<?> table, SimpleFilter filter, double percent)
+    {
+        _table = table;
+        _filter = filter;
+        _percent = percent;
+    }
+
+    /** @return null if the table is too small to bother sampling, or it or the filter can't be sampled */
+    public static @Nullable SampledAggregates create(TableInfo table, @Nullable SimpleFilter filter)
+    {
+        if (!(table instanceof FilteredTable))
+            return null;
+
+        FilteredTable<?> filteredTable = (FilteredTable<?>) table;
+        TableInfo realTable = filteredTable.getRealTable();
+        if (!(realTable instanceof SchemaTableInfo) || realTable.getTableType() != DatabaseTableType.TABLE)
+            return null;
+
+        DbSchema schema = realTable.getSchema();
+        Long estimate = schema.getSqlDialect().getEstimatedRowCount(schema.getScope(), schema.getName(), realTable.getMetaDataName());
+        if (null == estimate || estimate < MIN_TABLE_ROWS)
+            return null;
+
+        if (null == filter)
+            filter = new SimpleFilter();
+
+        for (FieldKey key : filter.getAllFieldKeys())
+        {
+            if (!isSampleable(table.getColumn(key)))
+                return null;
+        }
+
+        double percent = 100.0 * TARGET_SAMPLE_ROWS / estimate;
+        if (null == filteredTable.getSampledFromSQL(ALIAS, percent))
+            return null;
+
+        return new SampledAggregates(filteredTable, filter, percent);
+    }
+
+    // Columns computed from the table's own row, so they can be selected from the sample without QueryService's joins
+    private static boolean isSampleable(@Nullable ColumnInfo col)
+    {
+        if (null == col || null != col.getFieldKey().getParent())
+            return false;
+
+        Map<String, SQLFragment> joins = new HashMap<>();
+        col.declareJoins(ALIAS, joins);
+        return joins.isEmpty();
+    }
+
+    public double getSamplePercent()
+    {
+        return _percent;
+    }
+
+    public boolean canEstimate(Aggregate aggregate)
+    {
+        if (aggregate.isDistinct())
+            return false;
+        if (aggregate.isCountStar())
+            return true;
+
+        ColumnInfo col = _table.getColumn(aggregate.getFieldKey());
+        return isSampleable(col) && null != aggregate.getType().getSampleScaling() && aggregate.getType().isLegal(col.getJdbcType());
+    }
+
+    /**
+     * Computes the aggregates, all of which must pass canEstimate(), over the sample. Results are keyed and ordered as
+     * in {@link TableSelector#getAggregates(List)} and flagged as approximate.
+     * @return null if too few rows in the sample matched the filter, in which case the aggregates should be computed exactly
+     */
+    public @Nullable Map<String, List<Aggregate.Result>> getAggregates(List<Aggregate> aggregates)
+    {
+        SqlDialect dialect = _table.getSqlDialect();
+        Map<FieldKey, ColumnInfo> columnMap = new LinkedHashMap<>();
+
+        for (Aggregate aggregate : aggregates)
+        {
+            if (!aggregate.isCountStar())
+                columnMap.put(aggregate.getFieldKey(), _table.getColumn(aggregate.getFieldKey()));
+        }
+
+        SQLFragment innerSql = new SQLFragment("SELECT ");
+        String sep = "";
+
+        for (ColumnInfo col : columnMap.values())
+        {
+            innerSql.append(sep).append(col.getValueSql(ALIAS)).append(" AS ").append(dialect.getColumnSelectName(col.getAlias()));
+            sep = ", ";
+        }
+
+        if (columnMap.isEmpty())
+            innerSql.append("1 AS One");
+
+        innerSql.append(" FROM ").append(_table.getSampledFromSQL(ALIAS, _percent));
+        innerSql.append("\n").append(_filter.getSQLFragment(_table, ALIAS));
+
+        SQLFragment sql = new SQLFragment("SELECT COUNT(*) AS ").append(SAMPLE_ROW_COUNT);
+
+        for (Aggregate aggregate : aggregates)
+        {
+            SQLFragment aggregateSql = aggregate.getSQL(dialect, columnMap, innerSql);
+            if (null != aggregateSql)
+                sql.append(",\n").append(aggregateSql);
+        }
+
+        sql.append(" FROM (").append(innerSql).append(") S");
+
+        try (ResultSet rs = new SqlSelector(_table.getSchema().getScope(), sql).getResultSet(false))
+        {
+            if (!rs.next() || rs.getLong(SAMPLE_ROW_COUNT) < _minSampleRows)
+                return null;
+
+            double factor = 100.0 / _percent;
+            Map<String, List<Aggregate.Result>> results = new CaseInsensitiveHashMap<>();
+
+            for (Aggregate aggregate : aggregates)
+            {
+                Object value = aggregate.getResult(rs, columnMap, true).getValue();
+                if (Aggregate.SampleScaling.PROPORTIONAL == aggregate.getType().getSampleScaling())
+                    value = scale(value, factor);
+
+                results.computeIfAbsent(aggregate.getFieldKey().toString(), key -> new ArrayList<>()).add(new Aggregate.Result(aggregate, value, true));
+            }
+
+            return results;
+        }
+        catch (SQLException e)
+        {
+            throw new RuntimeSQLException(e);
+        }
+    }
+
+    // Keeps the value's type, so formatting is the same as for an exact value
+    static @Nullable Object scale(@Nullable Object value, double factor)
+    {
+        if (value instanceof BigDecimal)
+        {
+            BigDecimal decimal = (BigDecimal) value;
+            return decimal.multiply(BigDecimal.valueOf(factor)).setScale(decimal.scale(), RoundingMode.HALF_UP);
+        }
+        if (value instanceof Long || value instanceof Integer)
+            return Math.round(((Number) value).doubleValue() * factor);
+        if (value instanceof Number)
+            return ((Number) value).doubleValue() * factor;
+
+        return value;
+    }
+
+    /**
+     * Combines the results of aggregates computed exactly and those estimated, in the order of the original list, so
+     * footers show the same statistics in the same order either way.
+     */
+    public static Map<String, List<Aggregate.Result>> merge(List<Aggregate> aggregates, Map<String, List<Aggregate.Result>> exact, Map<String, List<Aggregate.Result>> estimated)
+    {
+        Map<Aggregate, Aggregate.Result> resultMap = new IdentityHashMap<>();
+
+        for (List<Aggregate.Result> results : exact.values())
+            results.forEach(result -> resultMap.put(result.getAggregate(), result));
+        for (List<Aggregate.Result> results : estimated.values())
+            results.forEach(result -> resultMap.put(result.getAggregate(), result));
+
+        Map<String, List<Aggregate.Result>> merged = new CaseInsensitiveHashMap<>();
+
+        for (Aggregate aggregate : aggregates)
+        {
+            Aggregate.Result result = resultMap.get(aggregate);
+            if (null != result)
+                merged.computeIfAbsent(aggregate.getFieldKey().toString(), key -> new ArrayList<>()).add(result);
+        }
+
+        return merged;
+    }
+
+    public static class TestCase extends Assert
+    {
+        @Test
+        public void testScale()
+        {
+            assertEquals(2500L, scale(25L, 100.0));
+            assertEquals(new BigDecimal("1234.5700"), scale(new BigDecimal("12.3457"), 100.0));
+            assertEquals(12.5, (Double) scale(0.125, 100.0), 0.0000001);
+            assertNull(scale(null, 100.0));
+        }
+
+        @Test
+        public void testMerge()
+        {
+            FieldKey a = FieldKey.fromParts("A");
+            Aggregate sum = new Aggregate(a, Aggregate.BaseType.SUM);
+            Aggregate min = new Aggregate(a, Aggregate.BaseType.MIN);
+            Aggregate mean = new Aggregate(a, Aggregate.BaseType.MEAN);
+            Aggregate countStar = Aggregate.createCountStar();
+
+            Map<String, List<Aggregate.Result>> exact = new CaseInsensitiveHashMap<>();
+            exact.put("A", List.of(new Aggregate.Result(min, 1)));
+
+            Map<String, List<Aggregate.Result>> estimated = new CaseInsensitiveHashMap<>();
+            estimated.put("A", List.of(new Aggregate.Result(sum, 100L, true), new Aggregate.Result(mean, 5.0, true)));
+            estimated.put(Aggregate.STAR, List.of(new Aggregate.Result(countStar, 20L, true)));
+
+            Map<String, List<Aggregate.Result>> merged = merge(List.of(sum, min, mean, countStar), exact, estimated);
+            List<Aggregate.Result> results = merged.get("a");
+
+            assertEquals(3, results.size());
+            assertSame(sum, results.get(0).getAggregate());
+            assertSame(min, results.get(1).getAggregate());
+            assertFalse(results.get(1).isApproximate());
+            assertSame(mean, results.get(2).getAggregate());
+            assertTrue(merged.get(Aggregate.STAR).get(0).isApproximate());
+        }
+    }
+
+    public static class SampleTestCase extends Assert
+    {
+        private Container _c;
+        private User _user;
+        private final List<Integer> _rowIds = new ArrayList<>();
+
+        @Before
+        public void setup()
+        {
+            _c = JunitUtil.getTestContainer();
+            _user = TestContext.get().getUser();
+
+            for (int i = 1; i <= 10; i++)
+                insert(i);
+        }
+
+        @After
+        public void cleanup()
+        {
+            for (Integer rowId : _rowIds)
+                Table.delete(TestSchema.getInstance().getTableInfoTestTable(), rowId);
+        }
+
+        private void insert(int value)
+        {
+            Map<String, Object> map = new HashMap<>();
+            map.put("Container", _c);
+            map.put("IntNotNull", value);
+            map.put("DateTimeNotNull", new Date());
+            map.put("BitNotNull", true);
+
+            map = Table.insert(_user, TestSchema.getInstance().getTableInfoTestTable(), map);
+            _rowIds.add((Integer)map.get("RowId"));
+        }
+
+        private FilteredTable<?> createTable(boolean supportsTableSample)
+        {
+            UserSchema schema = QueryService.get().getUserSchema(_user, _c, "core");
+            FilteredTable<?> table = new FilteredTable<>(TestSchema.getInstance().getTableInfoTestTable(), schema)
+            {
+                @Override
+                protected boolean supportsTableSample()
+                {
+                    return supportsTableSample;
+                }
+            };
+            table.wrapAllColumns(true);
+            table.addCondition(table.getRealTable().getColumn("Container"), _c);
+            return table;
+        }
+
+        @Test
+        public void testOptIn()
+        {
+            assertNull(createTable(false).getSampledFromSQL(ALIAS, 100.0));
+        }
+
+        @Test
+        public void testAggregates()
+        {
+            FilteredTable<?> table = createTable(true);
+
+            // Nothing to run if the dialect can't sample
+            if (null == table.getSampledFromSQL(ALIAS, 100.0))
+                return;
+
+            FieldKey intNotNull = FieldKey.fromParts("IntNotNull");
+            List<Aggregate> aggregates = List.of(
+                Aggregate.createCountStar(),
+                new Aggregate(intNotNull, Aggregate.BaseType.SUM),
+                new Aggregate(intNotNull, Aggregate.BaseType.MEAN),
+                new Aggregate(intNotNull, Aggregate.BaseType.MAX));
+
+            SimpleFilter filter = new SimpleFilter(intNotNull, 3, CompareType.GT);
+            SampledAggregates sampled = new SampledAggregates(table, filter, 100.0);
+            aggregates.forEach(aggregate -> assertTrue(sampled.canEstimate(aggregate)));
+
+            // Ten rows are far too few to estimate from
+            assertNull(sampled.getAggregates(aggregates));
+
+            Map<String, List<Aggregate.Result>> estimated;
+            _minSampleRows = 1;
+
+            try
+            {
+                estimated = sampled.getAggregates(aggregates);
+            }
+            finally
+            {
+                _minSampleRows = MIN_SAMPLE_ROWS;
+            }
+
+            // Sampling 100% of the table reads every row, so estimates match the exact values
+            Map<String, List<Aggregate.Result>> exact = new TableSelector(table, filter, null).getAggregates(aggregates);
+            assertNotNull(estimated);
+            assertEquals(exact.keySet(), estimated.keySet());
+
+            for (Map.Entry<String, List<Aggregate.Result>> entry : exact.entrySet())
+            {
+                List<Aggregate.Result> exactResults = entry.getValue();
+                List<Aggregate.Result> estimatedResults = estimated.get(entry.getKey());
+                assertEquals(exactResults.size(), estimatedResults.size());
+
+                for (int i = 0; i < exactResults.size(); i++)
+                {
+                    assertSame(exactResults.get(i).getAggregate(), estimatedResults.get(i).getAggregate());
+                    assertTrue(estimatedResults.get(i).isApproximate());
+                    assertEquals(((Number)exactResults.get(i).getValue()).doubleValue(), ((Number)estimatedResults.get(i).getValue()).doubleValue(), 0.0001);
+                }
+            }
+
+            assertEquals(7L, ((Number)estimated.get(Aggregate.STAR).get(0).getValue()).longValue());
+        }
+    }
+}
@@ -0,0 +1,824 @@
+/*
+ * Copyright (c) 2021 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.api.data;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.api.action.ApiUsageException;
+import org.labkey.api.cache.CacheManager;
+import org.labkey.api.dataiterator.ColumnarRowStore;
+import org.labkey.api.query.FieldKey;
+import org.labkey.api.query.QueryException;
+import org.labkey.api.query.QueryService;
+import org.labkey.api.query.QueryView;
+import org.labkey.api.query.UserSchema;
+import org.labkey.api.security.User;
+import org.labkey.api.util.ContextListener;
+import org.labkey.api.util.ExceptionUtil;
+import org.labkey.api.util.GUID;
+import org.labkey.api.util.JobRunner;
+import org.labkey.api.util.JunitUtil;
+import org.labkey.api.util.ResultSetUtil;
+import org.labkey.api.util.ShutdownListener;
+import org.labkey.api.util.TestContext;
+import org.labkey.api.util.UnexpectedException;
+import org.labkey.api.view.ActionURL;
+import org.labkey.api.view.NotFoundException;
+import org.labkey.api.view.ViewContext;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A query that runs in the background and spools its results to a compressed columnar temp file, so a long export
+ * or report doesn't hold a request thread and a database connection while the client reads. Submitting returns
+ * immediately with a handle; clients then poll the status, read pages of the rows spooled so far, and download the
+ * full result once it's complete. The Results are closed, releasing the connection, as soon as the last row has been
+ * spooled. Spools are discarded when cancelled or when they haven't been read for a while after finishing; a timer
+ * sweeps out expired spools, and each user can hold only a few live spools at once.
+ */
+public class SpooledQuery
+{
+    private static final Logger _log = LogManager.getLogger(SpooledQuery.class);
+
+    // Each running spool holds a connection, so cap them well below the pool size
+    private static final int MAX_RUNNING = 4;
+    // Each live spool holds a connection or a temp file, so don't let one user pile them up
+    private static final int MAX_PER_USER = 10;
+    private static final int BLOCK_SIZE = 1000;
+    // Pages are read while holding the query's lock, which also blocks the spool thread, so keep them bounded
+    public static final int MAX_PAGE_ROWS = 10_000;
+    private static final long EXPIRATION = 30 * CacheManager.MINUTE;
+    private static final long CLEANUP_INTERVAL = 5 * CacheManager.MINUTE;
+
+    private static final JobRunner RUNNER = new JobRunner("Spooled Query", MAX_RUNNING);
+    private static final Map<String, SpooledQuery> QUERIES = new ConcurrentHashMap<>();
+    private static Timer TIMER = null;
+
+    public enum Status
+    {
+        PENDING, RUNNING, COMPLETE, CANCELLED, ERROR;
+
+        public boolean isDone()
+        {
+            return this == COMPLETE || this == CANCELLED || this == ERROR;
+        }
+
+        /** Whether a spool in this state is still holding a connection or a spool file */
+        public boolean isLive()
+        {
+            return this != CANCELLED && this != ERROR;
+        }
+    }
+
+    private final String _id = GUID.makeGUID();
+    private final User _user;
+    private final Container _container;
+    private final String _name;
+    private final long _created = System.currentTimeMillis();
+
+    // Guarded by this
+    private ResultsFactory _factory;
+    private Status _status = Status.PENDING;
+    private @Nullable String _error = null;
+    private @Nullable Results _results = null;
+    private @Nullable ColumnarRowStore _store = null;
+    private List<ColumnInfo> _columns = Collections.emptyList();
+    private long _finished = 0;
+    private long _lastAccess = _created;
+
+    private SpooledQuery(User user, Container container, String name, ResultsFactory factory)
+    {
+        _user = user;
+        _container = container;
+        _name = name;
+        _factory = factory;
+    }
+
+    /**
+     * Queues the query to be spooled. The factory is invoked on a background thread after the request has completed,
+     * so it mustn't depend on the request or its ViewContext; use QueryView.getDetachedResults() or
+     * TableSelector.getDetachedResults() to generate the SQL on the calling thread.
+     * @throws ApiUsageException if the user already has the maximum number of live spools
+     */
+    public static SpooledQuery submit(User user, Container container, String name, ResultsFactory factory)
+    {
+        startCleanup();
+        removeExpired();
+
+        SpooledQuery query = new SpooledQuery(user, container, name, factory);
+
+        // Count and add under a lock, so concurrent submits by the same user can't both squeeze under the cap
+        synchronized (QUERIES)
+        {
+            if (getLiveCount(user) >= MAX_PER_USER)
+                throw new ApiUsageException("You already have " + MAX_PER_USER + " spooled queries. Cancel one, or wait for a completed one to expire, before submitting another.");
+            QUERIES.put(query._id, query);
+        }
+
+        QueryService qs = QueryService.get();
+        Object environment = qs.cloneEnvironment();
+
+        RUNNER.execute(() -> {
+            qs.copyEnvironment(environment);
+            try
+            {
+                query.spool();
+            }
+            finally
+            {
+                qs.clearEnvironment();
+            }
+        });
+
+        return query;
+    }
+
+    /** @return the spooled query with this id, or null if there isn't one that this user submitted in this container */
+    public static @Nullable SpooledQuery get(String id, User user, Container container)
+    {
+        SpooledQuery query = null == id ? null : QUERIES.get(id);
+        if (null == query || !query._user.equals(user) || !query._container.equals(container))
+            return null;
+
+        synchronized (query)
+        {
+            query._lastAccess = System.currentTimeMillis();
+        }
+        return query;
+    }
+
+    private static int getLiveCount(User user)
+    {
+        int count = 0;
+
+        for (SpooledQuery query : QUERIES.values())
+            if (query._user.equals(user) && query.getStatus().isLive())
+                count++;
+
+        return count;
+    }
+
+    private static synchronized void startCleanup()
+    {
+        if (null == TIMER)
+        {
+            // Expired spools are otherwise only removed on the next submit, which may never come
+            TIMER = new Timer("Spooled query cleanup", true);
+            TIMER.scheduleAtFixedRate(new TimerTask()
+            {
+                @Override
+                public void run()
+                {
+                    try
+                    {
+                        removeExpired();
+                    }
+                    catch (Throwable t)
+                    {
+                        _log.error("Error removing expired spooled queries", t);
+                    }
+                }
+            }, CLEANUP_INTERVAL, CLEANUP_INTERVAL);
+
+            ContextListener.addShutdownListener(new ShutdownListener()
+            {
+                @Override
+                public String getName()
+                {
+                    return "Spooled query cleanup timer";
+                }
+
+                @Override
+                public void shutdownPre() {}
+
+                @Override
+                public void shutdownStarted()
+                {
+                    TIMER.cancel();
+                    for (SpooledQuery query : QUERIES.values())
+                        query.cancel();
+                }
+            });
+        }
+    }
+
+    private static void removeExpired()
+    {
+        long now = System.currentTimeMillis();
+
+        for (SpooledQuery query : QUERIES.values())
+        {
+            synchronized (query)
+            {
+                if (query._status.isDone() && now - Math.max(query._finished, query._lastAccess) > EXPIRATION)
+                {
+                    QUERIES.remove(query._id);
+                    query.closeStore();
+                }
+            }
+        }
+    }
+
+    private void spool()
+    {
+        ResultsFactory factory;
+
+        synchronized (this)
+        {
+            if (Status.PENDING != _status)
+                return;
+
+            _status = Status.RUNNING;
+            factory = _factory;
+            _factory = null;
+        }
+
+        Results results = null;
+
+        try
+        {
+            results = factory.get();
+            if (null == results)
+                throw new NotFoundException("Query returned no results");
+
+            List<ColumnInfo> columns = new ArrayList<>(results.getFieldMap().values());
+
+            synchronized (this)
+            {
+                if (Status.CANCELLED == _status)
+                    return;
+
+                _results = results;
+                _columns = columns;
+                _store = new ColumnarRowStore(columns.size(), "spool", true);
+            }
+
+            int[] indexes = new int[columns.size()];
+            for (int i = 0; i < indexes.length; i++)
+                indexes[i] = results.findColumn(columns.get(i).getFieldKey());
+
+            List<Object[]> block = new ArrayList<>(BLOCK_SIZE);
+
+            while (results.next())
+            {
+                Object[] row = new Object[indexes.length];
+                for (int i = 0; i < indexes.length; i++)
+                    row[i] = toSpoolable(results.getObject(indexes[i]));
+                block.add(row);
+
+                if (block.size() == BLOCK_SIZE && !append(block))
+                    return;
+            }
+
+            if (!append(block))
+                return;
+
+            // Release the connection before marking the spool complete, so pollers never see a finished query
+            // that's still holding one
+            results.close();
+            results = null;
+            finish(Status.COMPLETE, null);
+        }
+        catch (Throwable t)
+        {
+            synchronized (this)
+            {
+                // Cancelling the statement makes the driver throw; that's not an error
+                if (Status.CANCELLED == _status)
+                    return;
+            }
+
+            if (t instanceof RuntimeSQLException)
+                t = ((RuntimeSQLException) t).getSQLException();
+            if (!(t instanceof SQLException || t instanceof QueryException || t instanceof NotFoundException))
+                ExceptionUtil.logExceptionToMothership(null, t);
+
+            finish(Status.ERROR, null == t.getMessage() ? t.toString() : t.getMessage());
+        }
+        finally
+        {
+            synchronized (this)
+            {
+                _results = null;
+            }
+            ResultSetUtil.close(results);
+        }
+    }
+
+    // Returns false if the query was cancelled while the block was being read
+    private boolean append(List<Object[]> block) throws IOException
+    {
+        synchronized (this)
+        {
+            if (Status.RUNNING != _status)
+                return false;
+
+            _store.append(block);
+        }
+
+        block.clear();
+        return true;
+    }
+
+    private synchronized void finish(Status status, @Nullable String error)
+    {
+        if (Status.RUNNING != _status)
+            return;
+
+        _status = status;
+        _error = error;
+        _finished = System.currentTimeMillis();
+
+        if (Status.ERROR == status)
+            closeStore();
+    }
+
+    // The store serializes anything it doesn't have an encoding for, so reduce driver-specific objects to strings
+    private static @Nullable Object toSpoolable(@Nullable Object value) throws SQLException
+    {
+        if (value instanceof java.sql.Array)
+            return toSpoolable(((java.sql.Array) value).getArray());
+        if (value instanceof Object[])
+        {
+            Object[] array = (Object[]) value;
+            List<Object> list = new ArrayList<>(array.length);
+            for (Object o : array)
+                list.add(toSpoolable(o));
+            return list;
+        }
+        if (null == value || value instanceof Serializable)
+            return value;
+        return value.toString();
+    }
+
+    /** Stops the query if it's still running and discards anything spooled so far */
+    public void cancel()
+    {
+        Results results;
+
+        synchronized (this)
+        {
+            if (_status.isDone())
+                return;
+
+            _status = Status.CANCELLED;
+            _finished = System.currentTimeMillis();
+            results = _results;
+            closeStore();
+        }
+
+        // Abort the statement so the driver stops sending rows. If the query is still executing, the spool thread
+        // notices the cancellation as soon as execution returns.
+        if (null != results)
+        {
+            try
+            {
+                Statement stmt = results.getResultSet().getStatement();
+                if (null != stmt)
+                    stmt.cancel();
+            }
+            catch (SQLException e)
+            {
+                _log.debug("Error cancelling spooled query statement", e);
+            }
+        }
+    }
+
+    private void closeStore()
+    {
+        if (null != _store)
+        {
+            try
+            {
+                _store.close();
+            }
+            catch (IOException e)
+            {
+                _log.warn("Error deleting query spool file", e);
+            }
+            _store = null;
+        }
+    }
+
+    public String getId()
+    {
+        return _id;
+    }
+
+    public String getName()
+    {
+        return _name;
+    }
+
+    public synchronized Status getStatus()
+    {
+        return _status;
+    }
+
+    public synchronized @Nullable String getError()
+    {
+        return _error;
+    }
+
+    /** The columns of the result, in order; empty until the query has started returning rows */
+    public synchronized List<ColumnInfo> getColumns()
+    {
+        return _columns;
+    }
+
+    /** Number of rows spooled so far */
+    public synchronized int getRowCount()
+    {
+        return null == _store ? 0 : _store.getRowCount();
+    }
+
+    public synchronized long getSpoolSize()
+    {
+        return null == _store ? 0 : _store.getFileSize();
+    }
+
+    public long getCreated()
+    {
+        return _created;
+    }
+
+    /**
+     * Reads spooled rows, which can be done while the query is still running. Reading counts as an access, so a spool
+     * that's being read doesn't expire.
+     * @return up to maxRows (but no more than MAX_PAGE_ROWS) rows starting at offset, keyed by column name; fewer if
+     * fewer have been spooled so far
+     */
+    public synchronized @NotNull List<Map<String, Object>> getRows(int offset, int maxRows) throws IOException
+    {
+        _lastAccess = System.currentTimeMillis();
+
+        List<Map<String, Object>> rows = new ArrayList<>();
+        if (null == _store || offset >= _store.getRowCount())
+            return rows;
+
+        List<Object[]> values = new ArrayList<>();
+        _store.read(offset, Math.min(Math.min(maxRows, MAX_PAGE_ROWS), _store.getRowCount() - offset), values);
+
+        for (Object[] row : values)
+        {
+            Map<String, Object> map = new LinkedHashMap<>();
+            for (int i = 0; i < row.length; i++)
+                map.put(getColumnName(_columns.get(i)), row[i]);
+            rows.add(map);
+        }
+
+        return rows;
+    }
+
+    // Unlike getRows(), fails if the spool has been discarded, so a download in progress errors out instead of ending early
+    private synchronized List<Map<String, Object>> getBlock(int offset) throws IOException
+    {
+        if (null == _store)
+            throw new IllegalStateException("Spooled query " + _id + " was " + (Status.CANCELLED == _status ? "cancelled" : "discarded") + " while its rows were being read");
+
+        return getRows(offset, BLOCK_SIZE);
+    }
+
+    /**
+     * Iterates every spooled row, a block at a time, for writing out a completed query
+     * @throws IllegalStateException from the iterator if the spool is cancelled or discarded part way through
+     */
+    public Iterable<Map<String, Object>> getAllRows()
+    {
+        return () -> new Iterator<>()
+        {
+            private int _offset = 0;
+            private Iterator<Map<String, Object>> _block = Collections.emptyIterator();
+
+            @Override
+            public boolean hasNext()
+            {
+                if (!_block.hasNext())
+                {
+                    try
+                    {
+                        List<Map<String, Object>> rows = getBlock(_offset);
+                        _offset += rows.size();
+                        _block = rows.iterator();
+                    }
+                    catch (IOException e)
+                    {
+                        throw UnexpectedException.wrap(e);
+                    }
+                }
+                return _block.hasNext();
+            }
+
+            @Override
+            public Map<String, Object> next()
+            {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return _block.next();
+            }
+        };
+    }
+
+    public static String getColumnName(ColumnInfo col)
+    {
+        FieldKey key = col.getFieldKey();
+        return null == key.getParent() ? key.getName() : key.toString();
+    }
+
+    public static class TestCase extends Assert
+    {
+        private static final long TIMEOUT = 30 * CacheManager.SECOND;
+
+        private User _user;
+        private Container _c;
+        private TableInfo _table;
+        private final List<SpooledQuery> _queries = new ArrayList<>();
+
+        @Before
+        public void setup()
+        {
+            _user = TestContext.get().getUser();
+            _c = JunitUtil.getTestContainer();
+            _table = CoreSchema.getInstance().getTableInfoContainers();
+        }
+
+        @After
+        public void cleanup()
+        {
+            for (SpooledQuery query : _queries)
+            {
+                query.cancel();
+                QUERIES.remove(query._id);
+                synchronized (query)
+                {
+                    query.closeStore();
+                }
+            }
+        }
+
+        private SpooledQuery submitRowIds()
+        {
+            SpooledQuery query = submit(_user, _c, "test", () -> new TableSelector(_table.getColumn("RowId"), null, new Sort("RowId")).getResults());
+            _queries.add(query);
+            return query;
+        }
+
+        private SpooledQuery submitBlocked(CountDownLatch latch)
+        {
+            SpooledQuery query = submit(_user, _c, "test", () -> {
+                try
+                {
+                    latch.await(TIMEOUT, TimeUnit.MILLISECONDS);
+                }
+                catch (InterruptedException e)
+                {
+                    throw UnexpectedException.wrap(e);
+                }
+                return new TableSelector(_table.getColumn("RowId"), null, new Sort("RowId")).getResults();
+            });
+            _queries.add(query);
+            return query;
+        }
+
+        private void waitUntilDone(SpooledQuery query) throws InterruptedException
+        {
+            long end = System.currentTimeMillis() + TIMEOUT;
+            while (!query.getStatus().isDone())
+            {
+                assertTrue("Timed out waiting for spooled query", System.currentTimeMillis() < end);
+                Thread.sleep(50);
+            }
+        }
+
+        @Test
+        public void testSubmitAndPage() throws Exception
+        {
+            List<Integer> expected = new TableSelector(_table.getColumn("RowId"), null, new Sort("RowId")).getArrayList(Integer.class);
+
+            SpooledQuery query = submitRowIds();
+            waitUntilDone(query);
+            assertEquals(query.getError(), Status.COMPLETE, query.getStatus());
+            assertEquals(expected.size(), query.getRowCount());
+            assertEquals(1, query.getColumns().size());
+
+            List<Integer> all = new ArrayList<>();
+            for (Map<String, Object> row : query.getAllRows())
+                all.add(((Number) row.get("RowId")).intValue());
+            assertEquals(expected, all);
+
+            // Pages, including one that runs off the end and one that starts past it
+            int pageSize = Math.max(1, expected.size() / 3);
+            List<Integer> paged = new ArrayList<>();
+            for (int offset = 0; offset < expected.size(); offset += pageSize)
+            {
+                List<Map<String, Object>> page = query.getRows(offset, pageSize);
+                assertEquals(Math.min(pageSize, expected.size() - offset), page.size());
+                for (Map<String, Object> row : page)
+                    paged.add(((Number) row.get("RowId")).intValue());
+            }
+            assertEquals(expected, paged);
+            assertTrue(query.getRows(expected.size(), pageSize).isEmpty());
+        }
+
+        @Test
+        public void testQueryView() throws Exception
+        {
+            List<String> expectedNames = new ArrayList<>();
+            int expectedRows = 0;
+            ResultsFactory factory;
+
+            try (ViewContext.StackResetter resetter = ViewContext.pushMockViewContext(_user, _c, new ActionURL("query", "executeQuery", _c)))
+            {
+                ViewContext context = resetter.getContext();
+                UserSchema schema = QueryService.get().getUserSchema(_user, _c, "core");
+                QueryView view = schema.createView(context, schema.getSettings(context, QueryView.DATAREGIONNAME_DEFAULT, "Containers"), null);
+                factory = view.getDetachedResults();
+
+                try (Results results = view.getResults())
+                {
+                    for (ColumnInfo col : results.getFieldMap().values())
+                        expectedNames.add(getColumnName(col));
+                    while (results.next())
+                        expectedRows++;
+                }
+            }
+
+            // The view's context has been popped before the spool runs
+            SpooledQuery query = submit(_user, _c, "Containers", factory);
+            _queries.add(query);
+            waitUntilDone(query);
+            assertEquals(query.getError(), Status.COMPLETE, query.getStatus());
+            assertEquals(expectedRows, query.getRowCount());
+
+            List<String> names = new ArrayList<>();
+            for (ColumnInfo col : query.getColumns())
+                names.add(getColumnName(col));
+            assertEquals(expectedNames, names);
+        }
+
+        @Test
+        public void testCancel() throws Exception
+        {
+            CountDownLatch latch = new CountDownLatch(1);
+            SpooledQuery query = submitBlocked(latch);
+            assertFalse(query.getStatus().isDone());
+
+            query.cancel();
+            assertEquals(Status.CANCELLED, query.getStatus());
+
+            // Let the spool thread see the cancellation; it mustn't start spooling or report an error
+            latch.countDown();
+            Thread.sleep(200);
+            assertEquals(Status.CANCELLED, query.getStatus());
+            assertEquals(0, query.getRowCount());
+            assertTrue(query.getRows(0, 10).isEmpty());
+            assertNull(query.getError());
+        }
+
+        @Test
+        public void testExpiry() throws Exception
+        {
+            SpooledQuery query = submitRowIds();
+            waitUntilDone(query);
+            assertEquals(Status.COMPLETE, query.getStatus());
+
+            // Still readable, so not expired
+            removeExpired();
+            assertNotNull(get(query.getId(), _user, _c));
+
+            synchronized (query)
+            {
+                query._finished -= EXPIRATION + CacheManager.MINUTE;
+                query._lastAccess -= EXPIRATION + CacheManager.MINUTE;
+            }
+            removeExpired();
+            assertNull(get(query.getId(), _user, _c));
+            assertEquals(0, query.getSpoolSize());
+        }
+
+        @Test
+        public void testReadWhileExpiring() throws Exception
+        {
+            SpooledQuery query = submitRowIds();
+            waitUntilDone(query);
+            assertEquals(Status.COMPLETE, query.getStatus());
+
+            // Reading a page counts as an access
+            synchronized (query)
+            {
+                query._finished -= EXPIRATION + CacheManager.MINUTE;
+                query._lastAccess -= EXPIRATION + CacheManager.MINUTE;
+            }
+            assertFalse(query.getRows(0, 1).isEmpty());
+            removeExpired();
+            assertSame(query, QUERIES.get(query.getId()));
+
+            // A download that loses its spool part way through fails rather than ending early
+            Iterator<Map<String, Object>> iter = query.getAllRows().iterator();
+            assertTrue(iter.hasNext());
+            iter.next();
+            synchronized (query)
+            {
+                query.closeStore();     // As removeExpired() does
+            }
+            try
+            {
+                while (iter.hasNext())
+                    iter.next();
+                fail("Expected reading a discarded spool to fail");
+            }
+            catch (IllegalStateException e)
+            {
+                // expected
+            }
+        }
+
+        @Test
+        public void testPageLimit() throws Exception
+        {
+            SpooledQuery query = submitRowIds();
+            waitUntilDone(query);
+            assertEquals(Math.min(query.getRowCount(), MAX_PAGE_ROWS), query.getRows(0, Integer.MAX_VALUE).size());
+        }
+
+        @Test
+        public void testPermissions() throws Exception
+        {
+            SpooledQuery query = submitRowIds();
+            waitUntilDone(query);
+
+            assertSame(query, get(query.getId(), _user, _c));
+            assertNull("Another user shouldn't see the spool", get(query.getId(), User.guest, _c));
+            assertNull("The spool shouldn't be visible from another container", get(query.getId(), _user, ContainerManager.getSharedContainer()));
+            assertNull(get(GUID.makeGUID(), _user, _c));
+            assertNull(get(null, _user, _c));
+        }
+
+        @Test
+        public void testPerUserLimit()
+        {
+            CountDownLatch latch = new CountDownLatch(1);
+
+            try
+            {
+                int live = getLiveCount(_user);
+                for (int i = live; i < MAX_PER_USER; i++)
+                    submitBlocked(latch);
+
+                try
+                {
+                    submitBlocked(latch);
+                    fail("Expected the per-user limit to be enforced");
+                }
+                catch (ApiUsageException e)
+                {
+                    // expected
+                }
+
+                // Cancelled spools no longer count against the user
+                _queries.get(0).cancel();
+                submitBlocked(latch);
+            }
+            finally
+            {
+                for (SpooledQuery query : _queries)
+                    query.cancel();
+                latch.countDown();
+            }
+        }
+    }
+}
@@ -20,6 +20,7 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.labkey.api.cache.Cache;
 import org.labkey.api.data.dialect.SqlDialect;
 import org.labkey.api.data.dialect.StatementWrapper;
 import org.labkey.api.util.ExceptionUtil;
@@ -35,6 +36,7 @@ import java.sql.Statement;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Selector that is driven by SQL, which subclasses can control how it's interpreted (LabKey SQL, raw DB SQL, etc)
@@ -45,6 +47,8 @@ public abstract class SqlExecutingSelector<FACTORY extends SqlFactory, SELECTOR
     protected long _offset = Table.NO_OFFSET;
     @Nullable Map<String, Object> _namedParameters = null;
     private ConnectionFactory _connectionFactory = super::getConnection;
+    private boolean _jdbcCaching = true;
+    private @Nullable Boolean _resultCaching = null;
 
     private @Nullable AsyncQueryRequest _asyncRequest = null;
     private @Nullable StackTraceElement[] _loggingStacktrace = null;
@@ -122,9 +126,42 @@ public abstract class SqlExecutingSelector<FACTORY extends SqlFactory, SELECTOR
             _connectionFactory = super::getConnection;
         }
 
+        _jdbcCaching = cache;
+
+        return getThis();
+    }
+
+    /**
+     * <p>Calling this method with true caches small results of this selector's queries across requests, keyed by the
+     * generated SQL and parameters, until a write to one of the tables they select from invalidates them. Calling it
+     * with false turns off caching that would otherwise apply because the table's schema has been enabled via
+     * QueryResultCache.enableSchema(). See QueryResultCache for details and limitations.</p>
+     *
+     * <p>Results are never cached inside a transaction, when a Connection was provided at construction time, or when
+     * JDBC caching has been disabled.</p>
+     *
+     * @return this SqlExecutingSelector, to allow chaining of setters
+     */
+    public SELECTOR setResultCaching(boolean resultCaching)
+    {
+        _resultCaching = resultCaching;
         return getThis();
     }
 
+    // The table whose result cache holds this selector's results, or null if it's not driven by a table
+    protected @Nullable TableInfo getResultCacheTable()
+    {
+        return null;
+    }
+
+    private @Nullable Cache<String, QueryResultCache.Entry> getResultCache(DbScope scope)
+    {
+        if (Boolean.FALSE.equals(_resultCaching) || null != _conn || !_jdbcCaching || scope.isTransactionActive())
+            return null;
+
+        return QueryResultCache.getCache(getResultCacheTable(), _resultCaching);
+    }
+
     @Override
     protected ResultSetFactory getStandardResultSetFactory()
     {
@@ -399,6 +436,22 @@ public abstract class SqlExecutingSelector<FACTORY extends SqlFactory, SELECTOR
                 if (null != _sql)
                 {
                     DbScope scope = getScope();
+                    Cache<String, QueryResultCache.Entry> resultCache = getResultCache(scope);
+                    String key = null == resultCache ? null : QueryResultCache.getKey(scope, _sql);
+                    QueryResultCache.Entry entry = null == key ? null : QueryResultCache.get(resultCache, key);
+
+                    // Cache hit: the handler gets its own copy of the rows and no connection
+                    if (null != entry && !entry.isOversized())
+                    {
+                        rs = entry.createResultSet();
+                        T ret = handler.handle(rs, null);
+                        success = true;
+
+                        return ret;
+                    }
+
+                    // Capture generations before executing, so a write that commits mid-query invalidates the result
+                    Map<AtomicLong, Long> dependencies = null == key || null != entry ? null : QueryResultCache.getDependencies(scope, _sql);
                     conn = getConnection();
 
                     try
@@ -450,6 +503,9 @@ public abstract class SqlExecutingSelector<FACTORY extends SqlFactory, SELECTOR
                         if (close)
                             close(rs, null);  // Connection will be released by caller
                     }
+
+                    if (null != dependencies)
+                        rs = QueryResultCache.load(resultCache, key, dependencies, rs, _scrollable, _loggingStacktrace, getQueryLogging());
                 }
 
                 T ret = handler.handle(rs, conn);
@@ -110,7 +110,10 @@ public class SqlExecutor extends JdbcCommand<SqlExecutor>
         try
         {
             conn = getConnection();
-            return statementExecutor.execute(conn, getScope().getSqlDialect(), sql, context);
+            T ret = statementExecutor.execute(conn, getScope().getSqlDialect(), sql, context);
+            QueryResultCache.invalidate(getScope(), sql.getSQL());
+
+            return ret;
         }
         catch(SQLException e)
         {
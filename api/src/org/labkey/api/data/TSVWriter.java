@@ -16,17 +16,28 @@
 
 package org.labkey.api.data;
 
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.junit.Assert;
 import org.junit.Test;
+import org.labkey.api.test.TestWhen;
 import org.labkey.api.util.FileUtil;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Writes out a TSV-style file (can also be configured to use other delimiters)
@@ -328,6 +339,8 @@ public abstract class TSVWriter extends TextWriter
 
     public static class TestCase extends Assert
     {
+        private static final Logger LOG = LogManager.getLogger(TSVWriter.class);
+
         private static class FakeTSVWriter extends TSVWriter
         {
             @Override
@@ -411,5 +424,66 @@ public abstract class TSVWriter extends TextWriter
             w.writeLine(Arrays.asList("three", "es\"caped", "four"));
             assertEquals("one\t\"es@@caped\"\ttwo@@three\t\"es\"\"caped\"\tfour@@", sw.getBuffer().toString());
         }
+
+        @Test
+        public void testPipelinedExport() throws IOException
+        {
+            // Enough rows for several chunks, so some are encoded on other threads
+            ByteArrayOutputStream[] outs = new ByteArrayOutputStream[] {new ByteArrayOutputStream(), new ByteArrayOutputStream(), new ByteArrayOutputStream()};
+            export(20_000, outs);
+
+            byte[] direct = outs[0].toByteArray();
+            assertTrue(direct.length > 0);
+            assertArrayEquals(direct, outs[1].toByteArray());
+            assertArrayEquals(direct, IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(outs[2].toByteArray()))));
+        }
+
+        /* Writes the same rows on the calling thread, pipelined, and pipelined with gzip, to the three streams, logging how long each takes */
+        static void export(final int ROWS, OutputStream[] outs) throws IOException
+        {
+            String[] modes = new String[] {"direct", "pipelined", "pipelined gzip"};
+
+            for (int m = 0; m < modes.length; m++)
+            {
+                TSVWriter w = new TSVWriter()
+                {
+                    @Override
+                    protected void writeBody()
+                    {
+                        for (int i = 0; i < ROWS; i++)
+                            writeLine(Arrays.asList(String.valueOf(i), "name " + i, String.valueOf(i * 0.5), i % 7 == 0 ? "says \"hi\"" : "", "2021-03-04 05:06:07"));
+                    }
+                };
+                w.setPipelined(m > 0);
+                w.setCompressed(m == 2);
+
+                CountingOutputStream out = new CountingOutputStream(outs[m]);
+                long start = System.nanoTime();
+                w.write(out);
+                w.close();
+
+                LOG.info("TSVWriter " + modes[m] + " export of " + ROWS + " rows: " + (out.getByteCount() / 1024) + " KB in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+            }
+        }
+    }
+
+
+    /** Benchmarks a large export written each way; not part of the regular test runs */
+    @TestWhen(TestWhen.When.PERFORMANCE)
+    public static class ExportPerfTestCase extends Assert
+    {
+        @Test
+        public void testExportThroughput() throws IOException
+        {
+            // Write to streams that discard the output
+            CountingOutputStream[] outs = new CountingOutputStream[3];
+            for (int m = 0; m < outs.length; m++)
+                outs[m] = new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+
+            TestCase.export(1_000_000, outs);
+
+            assertEquals(outs[0].getByteCount(), outs[1].getByteCount());
+            assertTrue(outs[2].getByteCount() > 0 && outs[2].getByteCount() < outs[0].getByteCount());
+        }
     }
 }
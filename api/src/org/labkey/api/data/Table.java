@@ -211,6 +211,7 @@ public class Table
                 }
             }
             stmt.executeBatch();
+            QueryResultCache.invalidate(schema.getScope(), sql);
         }
         catch (SQLException|RuntimeSQLException e)
         {
@@ -251,6 +252,7 @@ public class Table
                 }
             }
             stmt.executeBatch();
+            QueryResultCache.invalidate(schema.getScope(), sql);
         }
         catch (SQLException e)
         {
@@ -330,6 +332,8 @@ public class Table
                     if (paramCounter > 0)
                         stmt1.executeBatch();
                 }
+
+                QueryResultCache.invalidate(schema.getScope(), sql1);
             }
             catch (SQLException e)
             {
@@ -1105,6 +1109,7 @@ public class Table
     public static void notifyTableUpdate(/*String operation,*/ TableInfo table/*, Container c*/)
     {
         DbCache.invalidateAll(table);
+        QueryResultCache.invalidate(table);
     }
 
 
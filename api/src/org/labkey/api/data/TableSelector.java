@@ -336,6 +336,23 @@ public class TableSelector extends SqlExecutingSelector<TableSelector.TableSqlFa
         return asyncRequest.waitForResult(() -> getResults(cache, scrollable));
     }
 
+    /**
+     * Generates the SQL and resolves the selected columns now, on the calling thread, and returns a factory that just
+     * executes that SQL and streams its Results. The factory doesn't consult the table, its schema, or the query
+     * environment, so it can be run on a background thread after the request that built this selector has completed.
+     */
+    public ResultsFactory getDetachedResults()
+    {
+        ensureStableColumnOrder("getDetachedResults()");
+        TableSqlFactory tableSqlFactory = getSqlFactory(true);
+        SQLFragment sql = tableSqlFactory.getSql();
+        Collection<ColumnInfo> columns = tableSqlFactory.getSelectedColumns();
+        DbScope scope = getScope();
+        QueryLogging queryLogging = getQueryLogging();
+
+        return () -> new ResultsImpl(new SqlSelector(scope, sql, queryLogging).getResultSet(false), columns);
+    }
+
     public TableSelector setForDisplay(boolean forDisplay)
     {
         _forDisplay = forDisplay;
@@ -440,7 +457,7 @@ public class TableSelector extends SqlExecutingSelector<TableSelector.TableSqlFa
                         if (!results.containsKey(agg.getFieldKey().toString()))
                             results.put(agg.getFieldKey().toString(), new ArrayList<>());
 
-                        results.get(agg.getFieldKey().toString()).add(agg.getResult(rs, sqlFactory._columnMap));
+                        results.get(agg.getFieldKey().toString()).add(agg.getResult(rs, sqlFactory._columnMap, agg.isApproximate(_table.getSqlDialect())));
                     }
                 }
             }
@@ -479,6 +496,12 @@ public class TableSelector extends SqlExecutingSelector<TableSelector.TableSqlFa
         return getSqlFactory(true).getSql();
     }
 
+    @Override
+    protected @Nullable TableInfo getResultCacheTable()
+    {
+        return _table;
+    }
+
     public Collection<ColumnInfo> getSelectedColumns()
     {
         return getSqlFactory(true).getSelectedColumns();
@@ -24,6 +24,7 @@ import org.labkey.api.writer.PrintWriters;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletResponse;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
@@ -42,6 +43,9 @@ public abstract class TextWriter implements AutoCloseable
     private ServletOutputStream _outputStream = null;
     protected PrintWriter _pw = null;
 
+    private boolean _pipelined = true;
+    private boolean _compressed = false;
+
     protected abstract String getFilename();
     protected abstract void write();
 
@@ -66,15 +70,48 @@ public abstract class TextWriter implements AutoCloseable
     }
 
 
+    public boolean isPipelined()
+    {
+        return _pipelined;
+    }
+
+
+    /**
+     * By default, once an export grows past a single chunk, text written to a file, stream, or response is encoded on
+     * a small dedicated pool while this thread renders more (see PipelinedWriter); smaller exports stay on the calling
+     * thread. Turn off to do everything on the calling thread. Must be set before writing.
+     */
+    public void setPipelined(boolean pipelined)
+    {
+        _pipelined = pipelined;
+    }
+
+
+    public boolean isCompressed()
+    {
+        return _compressed;
+    }
+
+
+    /**
+     * Gzip compress the output written to a file, stream, or response. Responses are sent as application/gzip with
+     * ".gz" appended to the filename. Must be set before writing.
+     */
+    public void setCompressed(boolean compressed)
+    {
+        _compressed = compressed;
+    }
+
+
     // Prepare the writer to write to the file system
     public void prepare(File file) throws IOException
     {
-        _pw = PrintWriters.getPrintWriter(file);
+        _pw = _pipelined || _compressed ? PrintWriters.getPipelinedPrintWriter(new FileOutputStream(file), _compressed) : PrintWriters.getPrintWriter(file);
     }
 
     public void prepare(OutputStream os)
     {
-        _pw = PrintWriters.getPrintWriter(os);
+        _pw = _pipelined || _compressed ? PrintWriters.getPipelinedPrintWriter(os, _compressed) : PrintWriters.getPrintWriter(os);
     }
 
     public void prepare(StringBuilder builder)
@@ -95,13 +132,13 @@ public abstract class TextWriter implements AutoCloseable
             response.setHeader("X-Robots-Tag", "noindex");
 
         // Set the content-type so the browser knows which application to launch
-        response.setContentType(getContentType());
-        response.setHeader("Content-disposition", "attachment; filename=\"" + getFilename() + "\"");
+        response.setContentType(_compressed ? "application/gzip" : getContentType());
+        response.setHeader("Content-disposition", "attachment; filename=\"" + getFilename() + (_compressed ? ".gz" : "") + "\"");
 
         // Get the outputstream of the servlet (BTW, always get the outputstream AFTER you've
         // set the content-disposition and content-type)
         _outputStream = response.getOutputStream();
-        _pw = PrintWriters.getPrintWriter(_outputStream);
+        prepare(_outputStream);
     }
 
     // Create a file and stream it to the browser.
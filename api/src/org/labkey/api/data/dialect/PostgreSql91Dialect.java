@@ -1815,6 +1815,21 @@ public abstract class PostgreSql91Dialect extends SqlDialect
         return true;
     }
 
+    @Override
+    public boolean isNullSortedHigh()
+    {
+        return true;
+    }
+
+    @Override
+    public @Nullable Long getEstimatedRowCount(DbScope scope, String schemaName, String tableName)
+    {
+        // reltuples is maintained by VACUUM, ANALYZE, and CREATE INDEX. It's -1 (0 before PostgreSQL 14) for a table
+        // that has never been analyzed, which can't be told apart from an empty table, so callers count those instead.
+        Long estimate = new SqlSelector(scope, "SELECT CAST(c.reltuples AS BIGINT) FROM pg_catalog.pg_class c INNER JOIN pg_catalog.pg_namespace n ON n.oid = c.relnamespace WHERE n.nspname = ? AND c.relname = ?", schemaName, tableName).getObject(Long.class);
+        return null != estimate && estimate > 0 ? estimate : null;
+    }
+
     @Override
     protected Collection<String> getQueryExecutionPlan(Connection conn, DbScope scope, SQLFragment sql)
     {
@@ -1899,6 +1914,18 @@ public abstract class PostgreSql91Dialect extends SqlDialect
         return true;
     }
 
+    @Override
+    public boolean supportsBulkLoad()
+    {
+        return true;
+    }
+
+    @Override
+    public BulkLoader createBulkLoader(Connection conn, String tableSelectName, List<ColumnInfo> columns) throws SQLException
+    {
+        return new PostgreSqlBulkLoader(conn, tableSelectName, columns);
+    }
+
     public void setAdminWarning(HtmlString warning)
     {
         _adminWarning = warning;
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2021 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.api.data.dialect;
+
+import org.labkey.api.attachments.AttachmentFile;
+import org.labkey.api.data.ColumnInfo;
+import org.labkey.api.data.JdbcType;
+import org.labkey.api.data.Parameter;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Streams rows to PostgreSQL with COPY ... FROM STDIN in text format. Rows are encoded into a buffer that's sent to the
+ * server whenever it fills up; the server parses each value using the target column's type, just as it would for a
+ * string literal.
+ */
+class PostgreSqlBulkLoader implements BulkLoader
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final CopyIn _copyIn;
+    private final JdbcType[] _types;
+    private final boolean[] _fileAsName;
+    private final StringBuilder _buffer = new StringBuilder(BUFFER_SIZE + 1024);
+    private boolean _finished = false;
+
+    PostgreSqlBulkLoader(Connection conn, String tableSelectName, List<ColumnInfo> columns) throws SQLException
+    {
+        _types = new JdbcType[columns.size()];
+        _fileAsName = new boolean[columns.size()];
+
+        for (int i = 0; i < columns.size(); i++)
+        {
+            ColumnInfo column = columns.get(i);
+            _types[i] = column.getJdbcType();
+            // match Parameter, which binds the name of an uploaded file to a text column
+            _fileAsName[i] = "file".equalsIgnoreCase(column.getInputType()) && _types[i] == JdbcType.VARCHAR;
+        }
+
+        String sql = "COPY " + tableSelectName + " (" +
+            columns.stream().map(ColumnInfo::getSelectName).collect(Collectors.joining(", ")) +
+            ") FROM STDIN";
+
+        _copyIn = getPGConnection(conn).getCopyAPI().copyIn(sql);
+    }
+
+    // conn is usually a ConnectionWrapper around the pool's connection, which in turn wraps the driver's
+    private static PGConnection getPGConnection(Connection conn) throws SQLException
+    {
+        if (conn.isWrapperFor(PGConnection.class))
+            return conn.unwrap(PGConnection.class);
+
+        Connection inner = conn.unwrap(Connection.class);
+        if (null != inner && inner != conn && inner.isWrapperFor(PGConnection.class))
+            return inner.unwrap(PGConnection.class);
+
+        throw new SQLException("Connection does not support COPY: " + conn.getClass().getName());
+    }
+
+    @Override
+    public void addRow(Object[] values) throws SQLException
+    {
+        for (int i = 0; i < _types.length; i++)
+        {
+            if (i > 0)
+                _buffer.append('\t');
+            appendValue(values[i], i);
+        }
+        _buffer.append('\n');
+
+        if (_buffer.length() >= BUFFER_SIZE)
+            flush();
+    }
+
+    private void appendValue(Object in, int i)
+    {
+        Object value = Parameter.getValueToBind(in, _types[i]);
+
+        if (null == value)
+            _buffer.append("\\N");
+        else if (value instanceof Boolean)
+            _buffer.append((Boolean)value ? 't' : 'f');
+        else if (value instanceof BigDecimal)
+            _buffer.append(((BigDecimal)value).toPlainString());
+        else if (value instanceof Number || value instanceof java.util.Date)
+            // java.sql.Date, Time, and Timestamp (all we get from getValueToBind()) format as ISO 8601
+            _buffer.append(value);
+        else if (value instanceof AttachmentFile && _fileAsName[i])
+            appendEscaped(((AttachmentFile)value).getFilename());
+        else if (value instanceof AttachmentFile || value instanceof Object[] || value instanceof byte[])
+            throw new IllegalArgumentException("Bulk load does not support values of type " + value.getClass().getName());
+        else
+            appendEscaped(value.toString());
+    }
+
+    private void appendEscaped(String s)
+    {
+        for (int i = 0; i < s.length(); i++)
+        {
+            char c = s.charAt(i);
+            switch (c)
+            {
+                case '\\': _buffer.append("\\\\"); break;
+                case '\t': _buffer.append("\\t"); break;
+                case '\n': _buffer.append("\\n"); break;
+                case '\r': _buffer.append("\\r"); break;
+                default: _buffer.append(c);
+            }
+        }
+    }
+
+    private void flush() throws SQLException
+    {
+        if (_buffer.length() == 0)
+            return;
+        byte[] bytes = _buffer.toString().getBytes(StandardCharsets.UTF_8);
+        _copyIn.writeToCopy(bytes, 0, bytes.length);
+        _buffer.setLength(0);
+    }
+
+    @Override
+    public long finish() throws SQLException
+    {
+        flush();
+        _finished = true;
+        return _copyIn.endCopy();
+    }
+
+    @Override
+    public void close() throws SQLException
+    {
+        if (!_finished && _copyIn.isActive())
+            _copyIn.cancelCopy();
+    }
+}
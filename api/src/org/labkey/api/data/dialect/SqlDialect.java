@@ -43,6 +43,8 @@ import javax.servlet.ServletException;
 import javax.sql.DataSource;
 import java.io.IOException;
 import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.MathContext;
 import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
@@ -1392,6 +1394,48 @@ public abstract class SqlDialect
         }
     }
 
+    /**
+     * Does NULL sort after every non-null value in ascending order (and before them in descending order) when the
+     * ORDER BY doesn't say otherwise? Keyset pagination needs to know to seek past NULLs.
+     */
+    public boolean isNullSortedHigh()
+    {
+        return false;
+    }
+
+    /**
+     * Estimated number of rows in a table, from the database's statistics rather than a count, or null if there's no
+     * usable estimate. Intended for very large tables, where an exact COUNT(*) is too slow to show alongside a grid.
+     */
+    public @Nullable Long getEstimatedRowCount(DbScope scope, String schemaName, String tableName)
+    {
+        return null;
+    }
+
+    /**
+     * Clause that follows a table reference (and its alias) in a FROM list to read only a random sample of the table's
+     * pages, or null if the database can't sample. Only applies to base tables, not views or subqueries.
+     * @param percent of the table to read, greater than 0 and less than 100
+     */
+    public @Nullable String getTableSampleClause(double percent)
+    {
+        return null;
+    }
+
+    protected static String formatSamplePercent(double percent)
+    {
+        return BigDecimal.valueOf(percent).round(new MathContext(3)).toPlainString();
+    }
+
+    /**
+     * Name of an aggregate function that estimates COUNT(DISTINCT x) in bounded memory, for example with HyperLogLog,
+     * or null if the database doesn't have one.
+     */
+    public @Nullable String getApproximateCountDistinctFunction()
+    {
+        return null;
+    }
+
     // Add any database configuration warnings (e.g., missing aggregate function or deprecated database server version)
     // to display in the page header for administrators. This will be called:
     // - Only on the LabKey DataSource's dialect instance (not external data sources)
@@ -1626,4 +1670,19 @@ public abstract class SqlDialect
     // Does this driver allow stmt.executeBatch() to be called on different thread?
     // Seems to work reliably for postgres but not mssql
     public boolean allowAsynchronousExecute() { return false; }
+
+    // Can rows be streamed into a table using a bulk load protocol (e.g. COPY), instead of batched INSERT statements?
+    public boolean supportsBulkLoad()
+    {
+        return false;
+    }
+
+    /**
+     * Starts a bulk load of the specified columns into a table, on the specified connection (and therefore in its
+     * transaction). Callers must check supportsBulkLoad() first.
+     */
+    public BulkLoader createBulkLoader(Connection conn, String tableSelectName, List<ColumnInfo> columns) throws SQLException
+    {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not support bulk load");
+    }
 }
@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2021 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.api.data.queryprofiler;
+
+import java.util.Arrays;
+
+/**
+ * Compact, mergeable histogram of execution times (in ms), in the style of HdrHistogram. Values below 32 are counted
+ * exactly; larger values go into log-linear buckets, 16 per power of two, so percentiles are accurate to within about
+ * 6%. The counts array only grows as far as the largest value recorded, so histograms of fast queries stay small.
+ * Not thread-safe; callers synchronize.
+ */
+class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final long[] EMPTY = new long[0];
+
+    private long[] _counts = EMPTY;
+    private long _totalCount = 0;
+    private long _max = 0;
+
+    void record(long value)
+    {
+        int index = getIndex(value);
+        ensureCapacity(index + 1);
+        _counts[index]++;
+        _totalCount++;
+
+        if (value > _max)
+            _max = value;
+    }
+
+    void add(LatencyHistogram other)
+    {
+        ensureCapacity(other._counts.length);
+
+        for (int i = 0; i < other._counts.length; i++)
+            _counts[i] += other._counts[i];
+
+        _totalCount += other._totalCount;
+
+        if (other._max > _max)
+            _max = other._max;
+    }
+
+    void clear()
+    {
+        Arrays.fill(_counts, 0);
+        _totalCount = 0;
+        _max = 0;
+    }
+
+    long getTotalCount()
+    {
+        return _totalCount;
+    }
+
+    /** @return the smallest recorded value (to bucket precision) that's greater than or equal to the given percent of values; 0 if empty */
+    long getValueAtPercentile(double percentile)
+    {
+        if (0 == _totalCount)
+            return 0;
+
+        long target = Math.max(1, (long)Math.ceil(percentile / 100.0 * _totalCount));
+        long cumulative = 0;
+
+        for (int i = 0; i < _counts.length; i++)
+        {
+            cumulative += _counts[i];
+
+            if (cumulative >= target)
+                return Math.min(getHighestEquivalentValue(i), _max);
+        }
+
+        return _max;
+    }
+
+    private void ensureCapacity(int length)
+    {
+        if (length > _counts.length)
+        {
+            // Round up to a whole power of two's worth of buckets to limit reallocation
+            int rounded = (length + SUB_BUCKET_COUNT - 1) / SUB_BUCKET_COUNT * SUB_BUCKET_COUNT;
+            _counts = Arrays.copyOf(_counts, rounded);
+        }
+    }
+
+    static int getIndex(long value)
+    {
+        if (value < 2 * SUB_BUCKET_COUNT)
+            return (int)Math.max(value, 0);
+
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int)(value >>> shift) - SUB_BUCKET_COUNT;
+    }
+
+    static long getHighestEquivalentValue(int index)
+    {
+        if (index < 2 * SUB_BUCKET_COUNT)
+            return index;
+
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long mantissa = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
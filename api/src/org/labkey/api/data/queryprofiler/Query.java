@@ -26,33 +26,69 @@ import org.labkey.api.view.WebPartView;
 
 import javax.servlet.http.HttpServlet;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.regex.Pattern;
 
 /**
-* User: jeckels
-* Date: 2/13/14
-*/
+ * Invocations of a single SQL string recorded by one {@link ShardedQueryCollector} shard since the profiler thread
+ * last drained it. After the first invocation, recording another is a few field updates plus a map lookup to count its
+ * stack trace; nothing is allocated unless the stack trace or the longest running parameters are new. The expensive
+ * work (transforming the SQL, formatting and compressing stack traces, re-sorting QueryTrackerSets) happens when the
+ * profiler merges this into a {@link QueryTracker}.
+ * User: jeckels
+ * Date: 2/13/14
+ */
 public class Query
 {
-    private final @Nullable
-    DbScope _scope;
+    private static final int MAX_STACK_TRACES = 100;  // Distinct stack traces kept per drain; more than this are counted but not attributed
+
+    private final @Nullable DbScope _scope;
     private final String _sql;
-    private final @Nullable
-    List<Object> _parameters;
-    private final long _elapsed;
-    private final StackTraceElement[] _stackTrace;
-    private final boolean _isRequestThread;
+    private final long _firstInvocation;
+    private final Map<StackTraceKey, int[]> _stackTraces = new HashMap<>();
+    private final StackTraceKey _probe = new StackTraceKey(null);
+    private final LatencyHistogram _histogram = new LatencyHistogram();
+
+    private @Nullable List<Object> _parameters = null;  // Parameters of the longest running invocation
+    private long _count = 0;
+    private long _cumulative = 0;
+    private long _max = 0;
+    private long _lastInvocation;
+    private String _transformedSql = null;
     private Boolean _validSql = null;
 
-    Query(@Nullable DbScope scope, String sql, @Nullable List<Object> parameters, long elapsed, StackTraceElement[] stackTrace, boolean isRequestThread)
+    Query(@Nullable DbScope scope, String sql, long firstInvocation)
     {
         _scope = scope;
         _sql = sql;
-        _parameters = null != parameters ? new ArrayList<>(parameters) : null;    // Make a copy... callers might modify the collection
-        _elapsed = elapsed;
-        _stackTrace = stackTrace;
-        _isRequestThread = isRequestThread;
+        _firstInvocation = firstInvocation;
+    }
+
+    // Caller must synchronize
+    void addInvocation(@Nullable List<Object> parameters, long elapsed, @Nullable StackTraceElement[] stackTrace, long now)
+    {
+        if (0 == _count || elapsed > _max)
+        {
+            _max = elapsed;
+            _parameters = null != parameters ? new ArrayList<>(parameters) : null;    // Make a copy... callers might modify the collection
+        }
+
+        _count++;
+        _cumulative += elapsed;
+        _lastInvocation = now;
+        _histogram.record(elapsed);
+
+        _probe.set(stackTrace);
+        int[] frequency = _stackTraces.get(_probe);
+        _probe.set(null);
+
+        if (null != frequency)
+            frequency[0]++;
+        else if (_stackTraces.size() < MAX_STACK_TRACES)
+            _stackTraces.put(new StackTraceKey(stackTrace), new int[]{1});
     }
 
     @Nullable
@@ -64,7 +100,10 @@ public class Query
     public String getSql()
     {
         // Do any transformations on the SQL on the way out, in the background thread
-        return transform(_sql);
+        if (null == _transformedSql)
+            _transformedSql = transform(_sql);
+
+        return _transformedSql;
     }
 
     public boolean isValidSql()
@@ -81,22 +120,58 @@ public class Query
         return _parameters;  // TODO: Check parameters? Ignore InputStream, BLOBs, etc.?
     }
 
-    public long getElapsed()
+    public long getCount()
     {
-        return _elapsed;
+        return _count;
     }
 
-    public String getStackTrace()
+    public long getCumulative()
     {
-        if (_stackTrace == null)
+        return _cumulative;
+    }
+
+    public long getMax()
+    {
+        return _max;
+    }
+
+    public long getFirstInvocation()
+    {
+        return _firstInvocation;
+    }
+
+    public long getLastInvocation()
+    {
+        return _lastInvocation;
+    }
+
+    LatencyHistogram getHistogram()
+    {
+        return _histogram;
+    }
+
+    /** Formatted stack traces and the number of invocations from each */
+    public Map<String, Integer> getStackTraces()
+    {
+        Map<String, Integer> stackTraces = new HashMap<>();
+
+        for (Map.Entry<StackTraceKey, int[]> entry : _stackTraces.entrySet())
+            stackTraces.merge(formatStackTrace(entry.getKey()._stackTrace), entry.getValue()[0], Integer::sum);
+
+        return stackTraces;
+    }
+
+    private static String formatStackTrace(@Nullable StackTraceElement[] stackTrace)
+    {
+        if (stackTrace == null)
         {
             return MiniProfiler.NO_STACK_TRACE_AVAILABLE;
         }
         StringBuilder sb = new StringBuilder();
 
-        for (int i = 3; i < _stackTrace.length; i++)
+        for (int i = 3; i < stackTrace.length; i++)
         {
-            String line = _stackTrace[i].toString();
+            String line = stackTrace[i].toString();
 
             // Ignore all the servlet container stuff, #11159
             // Ignore everything before HttpView.render, standard action classes, etc., #13753
@@ -121,11 +196,6 @@ public class Query
         return sb.toString();
     }
 
-    public boolean isRequestThread()
-    {
-        return _isRequestThread;
-    }
-
 
     private static final Pattern TEMP_TABLE_PATTERN = Pattern.compile("([ix_|temp\\.][\\w]+)\\$?\\p{XDigit}{32}");
     private static final Pattern SPECIMEN_TEMP_TABLE_PATTERN = Pattern.compile("(SpecimenUpload)\\d{9}");
@@ -151,4 +221,34 @@ public class Query
 
         return out;
     }
+
+    // Stack traces are fresh arrays at every invocation, so compare by content. The hash is computed once per lookup.
+    private static class StackTraceKey
+    {
+        private @Nullable StackTraceElement[] _stackTrace;
+        private int _hashCode;
+
+        private StackTraceKey(@Nullable StackTraceElement[] stackTrace)
+        {
+            set(stackTrace);
+        }
+
+        private void set(@Nullable StackTraceElement[] stackTrace)
+        {
+            _stackTrace = stackTrace;
+            _hashCode = Arrays.hashCode(stackTrace);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            return o instanceof StackTraceKey && Arrays.equals(_stackTrace, ((StackTraceKey)o)._stackTrace);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return _hashCode;
+        }
+    }
 }
@@ -19,6 +19,7 @@ package org.labkey.api.data.queryprofiler;
 import org.apache.commons.collections4.map.AbstractReferenceMap.ReferenceStrength;
 import org.apache.commons.collections4.map.ReferenceMap;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.time.DateUtils;
 import org.apache.logging.log4j.Level;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -26,15 +27,20 @@ import org.apache.logging.log4j.core.LoggerContext;
 import org.apache.logging.log4j.core.config.Configuration;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.junit.Assert;
+import org.junit.Test;
 import org.labkey.api.data.Container;
 import org.labkey.api.data.ContainerManager;
 import org.labkey.api.data.DbScope;
 import org.labkey.api.data.QueryLogging;
 import org.labkey.api.data.SQLFragment;
 import org.labkey.api.data.TSVWriter;
+import org.labkey.api.mbean.LabKeyManagement;
+import org.labkey.api.mbean.QueryProfilerMXBean;
 import org.labkey.api.miniprofiler.MiniProfiler;
 import org.labkey.api.query.QueryService;
 import org.labkey.api.security.User;
+import org.labkey.api.test.TestWhen;
 import org.labkey.api.util.ContextListener;
 import org.labkey.api.util.DateUtil;
 import org.labkey.api.util.Formats;
@@ -48,6 +54,7 @@ import org.labkey.api.view.HttpView;
 import org.labkey.api.view.ViewServlet;
 import org.labkey.api.view.template.ClientDependency;
 
+import javax.management.StandardMBean;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.lang.management.ManagementFactory;
@@ -62,7 +69,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
 
 /*
 * User: adam
@@ -74,16 +85,15 @@ public class QueryProfiler
     private static final Logger LOG = LogManager.getLogger(QueryProfiler.class);
     private static final QueryProfiler INSTANCE = new QueryProfiler();
 
-    private final BlockingQueue<Query> _queue = new LinkedBlockingQueue<>(1000);
+    private static final long MERGE_INTERVAL = 1000;  // How often the profiler thread merges collected queries into the trackers, in ms
+    private static final int MBEAN_TOP_QUERIES = 100;
+
+    private final ShardedQueryCollector _collector = new ShardedQueryCollector(Runtime.getRuntime().availableProcessors() * 2);
     private final Map<String, QueryTracker> _queries = new ReferenceMap<>(ReferenceStrength.HARD, ReferenceStrength.WEAK);
     private final Object _lock = new Object();
     private final Collection<QueryTrackerSet> _trackerSets = new ArrayList<>();
 
     // All access to these guarded by LOCK
-    private long _requestQueryCount;
-    private long _requestQueryTime;
-    private long _backgroundQueryCount;
-    private long _backgroundQueryTime;
     private long _uniqueQueryCountEstimate;  // This is a ceiling; true unique count is likely less than this since we're limiting capacity
     private int _requestCountAtLastReset;
     private long _upTimeAtLastReset;
@@ -145,6 +155,21 @@ public class QueryProfiler
             }
         }));
 
+        getTrackerSets().add(new QueryTrackerSet("P95", "highest 95th percentile execution time", false, true, new QueryTrackerComparator()
+        {
+            @Override
+            long getPrimaryStatisticValue(QueryTracker qt)
+            {
+                return qt.getPercentile(95);
+            }
+
+            @Override
+            long getSecondaryStatisticValue(QueryTracker qt)
+            {
+                return qt.getCumulative();
+            }
+        }));
+
         getTrackerSets().add(new QueryTrackerSet("Last", "most recent invocation time", false, true, new QueryTrackerComparator()
         {
             @Override
@@ -189,6 +214,8 @@ public class QueryProfiler
         ContextListener.addShutdownListener(thread);
 
         thread.start();
+
+        LabKeyManagement.register(new StandardMBean(new QueryProfilerMBean(), QueryProfilerMXBean.class, true), "QueryProfiler", "Queries");
     }
 
     public void addListener(DatabaseQueryListener listener)
@@ -232,8 +259,8 @@ public class QueryProfiler
 
         MiniProfiler.addQuery(elapsed, sql, stackTrace);
 
-        // Don't block if queue is full
-        _queue.offer(new Query(scope, sql, parameters, elapsed, stackTrace, requestThread));
+        // Never blocks on the profiler thread or report rendering
+        _collector.record(scope, sql, parameters, elapsed, stackTrace, requestThread);
         return stackTrace;
     }
 
@@ -241,6 +268,9 @@ public class QueryProfiler
     {
         synchronized (_lock)
         {
+            // Discard anything collected but not yet merged
+            _collector.drain(query -> {});
+
             for (QueryTrackerSet set : getTrackerSets())
                 set.clear();
 
@@ -256,10 +286,7 @@ public class QueryProfiler
     {
         synchronized (_lock)
         {
-            _requestQueryCount = 0;
-            _requestQueryTime = 0;
-            _backgroundQueryCount = 0;
-            _backgroundQueryTime = 0;
+            _collector.resetCounters();
             _uniqueQueryCountEstimate = 0;
             _requestCountAtLastReset = ViewServlet.getRequestCount();
 
@@ -269,6 +296,49 @@ public class QueryProfiler
         }
     }
 
+    // Merge everything collected since the last call into the trackers. Caller must hold _lock; collection continues
+    // into the shards while we work.
+    private void mergePending()
+    {
+        _collector.drain(this::merge);
+    }
+
+    private void merge(Query query)
+    {
+        String sql = query.getSql();
+        QueryTracker tracker = _queries.get(sql);
+
+        if (null == tracker)
+        {
+            tracker = new QueryTracker(query.getScope(), sql, query.getFirstInvocation(), query.isValidSql());
+            tracker.addInvocations(query);
+
+            // First instance of this query, so always save its parameters
+            tracker.setParameters(query.getParameters());
+
+            _uniqueQueryCountEstimate++;
+
+            for (QueryTrackerSet set : getTrackerSets())
+                set.add(tracker);
+
+            _queries.put(sql, tracker);
+        }
+        else
+        {
+            for (QueryTrackerSet set : getTrackerSets())
+                set.beforeUpdate(tracker);
+
+            tracker.addInvocations(query);
+
+            for (QueryTrackerSet set : getTrackerSets())
+                set.update(tracker);
+
+            // Save the parameters of the longest running query
+            if (tracker.getMax() == query.getMax())
+                tracker.setParameters(query.getParameters());
+        }
+    }
+
     private class ReportView extends HttpView
     {
         private final String _statName;
@@ -293,29 +363,33 @@ public class QueryProfiler
                 {
                     out.println("\n<table>");
 
-                    // Don't update anything while we're rendering the report or vice versa
+                    // Don't merge anything while we're rendering the report or vice versa
                     synchronized (_lock)
                     {
+                        mergePending();
+
+                        long requestQueryCount = _collector.getRequestQueryCount();
+                        long requestQueryTime = _collector.getRequestQueryTime();
                         int requests = ViewServlet.getRequestCount() - _requestCountAtLastReset;
 
                         out.println("  <tr><td colspan=5>" + _buttonHTML + "</td></tr>");
 
                         out.println("  <tr><td style=\"border-top:1px solid;text-align:center\" colspan=5>Queries Executed Within HTTP Requests</td></tr>");
-                        out.println("  <tr><td>Query Count:</td><td style=\"text-align:right\">" + Formats.commaf0.format(_requestQueryCount) + "</td>");
+                        out.println("  <tr><td>Query Count:</td><td style=\"text-align:right\">" + Formats.commaf0.format(requestQueryCount) + "</td>");
                         out.println("<td style=\"width:10px\">&nbsp;</td>");
-                        out.println("<td>Query Time:</td><td style=\"text-align:right\">" + Formats.commaf0.format(_requestQueryTime) + "</td>");
+                        out.println("<td>Query Time:</td><td style=\"text-align:right\">" + Formats.commaf0.format(requestQueryTime) + "</td>");
                         out.println("</tr>\n  <tr>");
-                        out.println("<td>Queries per Request:</td><td style=\"text-align:right\">" + Formats.f1.format((double) _requestQueryCount / requests) + "</td>");
+                        out.println("<td>Queries per Request:</td><td style=\"text-align:right\">" + Formats.f1.format((double) requestQueryCount / requests) + "</td>");
                         out.println("<td style=\"width:10px\">&nbsp;</td>");
-                        out.println("<td>Query Time per Request:</td><td style=\"text-align:right\">" + Formats.f1.format((double) _requestQueryTime / requests) + "</td>");
+                        out.println("<td>Query Time per Request:</td><td style=\"text-align:right\">" + Formats.f1.format((double) requestQueryTime / requests) + "</td>");
                         out.println("</tr>\n  <tr>");
                         out.println("<td>" + (_hasBeenReset ? "Request Count Since Last Reset" : "Request Count") + ":</td><td style=\"text-align:right\">" + Formats.commaf0.format(requests) + "</td><td colspan=3></td></tr>");
                         out.println("  <tr><td style=\"border-top:1px solid\" colspan=5>&nbsp;</td></tr>");
 
                         out.println("  <tr><td style=\"border-top:1px solid;text-align:center\" colspan=5>Queries Executed Within Background Threads</td></tr>");
-                        out.println("  <tr><td>Query Count:</td><td style=\"text-align:right\">" + Formats.commaf0.format(_backgroundQueryCount) + "</td>");
+                        out.println("  <tr><td>Query Count:</td><td style=\"text-align:right\">" + Formats.commaf0.format(_collector.getBackgroundQueryCount()) + "</td>");
                         out.println("<td style=\"width:10px\">&nbsp;</td>");
-                        out.println("<td>Query Time:</td><td style=\"text-align:right\">" + Formats.commaf0.format(_backgroundQueryTime) + "</td>");
+                        out.println("<td>Query Time:</td><td style=\"text-align:right\">" + Formats.commaf0.format(_collector.getBackgroundQueryTime()) + "</td>");
                         out.println("</tr>");
                         out.println("  <tr><td style=\"border-top:1px solid\" colspan=5>&nbsp;</td></tr>");
                         out.println("  <tr><td colspan=5>&nbsp;</td></tr>");
@@ -336,6 +410,7 @@ public class QueryProfiler
                             out.println("<td>" + (_hasBeenReset ? "Elapsed Time Since Last Reset" : "Server Uptime") + ":</td><td style=\"text-align:right\">" + DateUtil.formatDuration(upTime) + "</td>");
                         }
                         out.println("</tr>");
+                        out.println("  <tr><td title=\"Invocations included in the counts above but not in the tables below, because too many distinct queries ran between merges\">Untracked Invocations:</td><td style=\"text-align:right\">" + Formats.commaf0.format(_collector.getUntrackedQueryCount()) + "</td><td colspan=3></td></tr>");
                         out.println("</table><br><br>");
 
                         out.println("<table>");
@@ -381,9 +456,10 @@ public class QueryProfiler
             @Override
             protected void renderInternal(Object model, PrintWriter out)
             {
-                // Don't update anything while we're rendering the report or vice versa
+                // Don't merge anything while we're rendering the report or vice versa
                 synchronized (_lock)
                 {
+                    mergePending();
                     QueryTracker tracker = findTracker(hashCode);
 
                     if (null == tracker)
@@ -509,9 +585,10 @@ public class QueryProfiler
                 }
             };
 
-            // Don't update anything while we're rendering the report or vice versa
+            // Don't merge anything while we're rendering the report or vice versa
             synchronized (getInstance()._lock)
             {
+                getInstance().mergePending();
                 getInstance().getTrackerSets()
                     .stream()
                     .filter(QueryTrackerSet::shouldDisplay)
@@ -524,11 +601,11 @@ public class QueryProfiler
                     upTime = runtimeBean.getUptime() - getInstance()._upTimeAtLastReset;
                     upTime = upTime - (upTime % 1000);
                 }
-                _pw.printf("#Summary - unique queries: %,d, elapsed time: %s\n", getInstance()._uniqueQueryCountEstimate, DateUtil.formatDuration(upTime));
+                _pw.printf("#Summary - unique queries: %,d, untracked invocations: %,d, elapsed time: %s\n", getInstance()._uniqueQueryCountEstimate, getInstance()._collector.getUntrackedQueryCount(), DateUtil.formatDuration(upTime));
 
                 int requests = ViewServlet.getRequestCount() - getInstance()._requestCountAtLastReset;
-                _pw.printf("#HTTP Requests - query count: %,d, query time (ms): %,d, request count: %d\n", getInstance()._requestQueryCount, getInstance()._requestQueryTime, requests);
-                _pw.printf("#Background Threads - query count: %,d, query time (ms): %,d\n", getInstance()._backgroundQueryCount, getInstance()._backgroundQueryTime);
+                _pw.printf("#HTTP Requests - query count: %,d, query time (ms): %,d, request count: %d\n", getInstance()._collector.getRequestQueryCount(), getInstance()._collector.getRequestQueryTime(), requests);
+                _pw.printf("#Background Threads - query count: %,d, query time (ms): %,d\n", getInstance()._collector.getBackgroundQueryCount(), getInstance()._collector.getBackgroundQueryTime());
 
                 QueryTracker.exportRowHeader(_pw);
 
@@ -554,52 +631,12 @@ public class QueryProfiler
                 //noinspection InfiniteLoopStatement
                 while (!interrupted())
                 {
-                    Query query = _queue.take();
+                    sleep(MERGE_INTERVAL);
 
-                    // Don't update or add while we're rendering the report or vice versa
+                    // Don't merge while we're rendering the report or vice versa
                     synchronized (_lock)
                     {
-                        if (query.isRequestThread())
-                        {
-                            _requestQueryCount++;
-                            _requestQueryTime += query.getElapsed();
-                        }
-                        else
-                        {
-                            _backgroundQueryCount++;
-                            _backgroundQueryTime += query.getElapsed();
-                        }
-
-                        QueryTracker tracker = _queries.get(query.getSql());
-
-                        if (null == tracker)
-                        {
-                            tracker = new QueryTracker(query.getScope(), query.getSql(), query.getElapsed(), query.getStackTrace(), query.isValidSql());
-
-                            // First instance of this query, so always save its parameters
-                            tracker.setParameters(query.getParameters());
-
-                            _uniqueQueryCountEstimate++;
-
-                            for (QueryTrackerSet set : getTrackerSets())
-                                set.add(tracker);
-
-                            _queries.put(query.getSql(), tracker);
-                        }
-                        else
-                        {
-                            for (QueryTrackerSet set : getTrackerSets())
-                                set.beforeUpdate(tracker);
-
-                            tracker.addInvocation(query.getElapsed(), query.getStackTrace());
-
-                            for (QueryTrackerSet set : getTrackerSets())
-                                set.update(tracker);
-
-                            // Save the parameters of the longest running query
-                            if (tracker.getMax() == query.getElapsed())
-                                tracker.setParameters(query.getParameters());
-                        }
+                        mergePending();
                     }
                 }
             }
@@ -670,8 +707,316 @@ public class QueryProfiler
         }
     }
 
+    private class QueryProfilerMBean implements QueryProfilerMXBean
+    {
+        @Override
+        public long getRequestQueryCount()
+        {
+            return _collector.getRequestQueryCount();
+        }
+
+        @Override
+        public long getRequestQueryTime()
+        {
+            return _collector.getRequestQueryTime();
+        }
+
+        @Override
+        public long getBackgroundQueryCount()
+        {
+            return _collector.getBackgroundQueryCount();
+        }
+
+        @Override
+        public long getBackgroundQueryTime()
+        {
+            return _collector.getBackgroundQueryTime();
+        }
+
+        @Override
+        public long getUntrackedQueryCount()
+        {
+            return _collector.getUntrackedQueryCount();
+        }
+
+        @Override
+        public long getUniqueQueryCountEstimate()
+        {
+            synchronized (_lock)
+            {
+                return _uniqueQueryCountEstimate;
+            }
+        }
+
+        @Override
+        public QueryStatistics[] getTopQueries()
+        {
+            synchronized (_lock)
+            {
+                mergePending();
+                long now = System.currentTimeMillis();
+
+                return getTrackerSets().stream()
+                    .filter(set -> set.getCaption().equals("Total"))
+                    .flatMap(set -> set.descendingSet().stream())
+                    .limit(MBEAN_TOP_QUERIES)
+                    .map(tracker -> tracker.getStatistics(now))
+                    .toArray(QueryStatistics[]::new);
+            }
+        }
+    }
+
     public interface ActionURLFactory
     {
         ActionURL getActionURL(String name);
     }
+
+    public static class TestCase extends Assert
+    {
+        private static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+        private static final int INVOCATIONS = 50_000;
+        private static final String[] SQL = new String[50];
+        private static final StackTraceElement[][] STACK_TRACES = new StackTraceElement[3][];
+
+        static
+        {
+            for (int i = 0; i < SQL.length; i++)
+                SQL[i] = "SELECT * FROM test.TestTable WHERE RowId = ? -- " + i;
+
+            for (int i = 0; i < STACK_TRACES.length; i++)
+                STACK_TRACES[i] = new Throwable().getStackTrace();
+        }
+
+        @Test
+        public void testConcurrentCollection() throws InterruptedException
+        {
+            ShardedQueryCollector collector = new ShardedQueryCollector(THREADS);
+            Map<String, long[]> merged = new HashMap<>();  // SQL -> count, cumulative time, stack trace count
+            AtomicBoolean done = new AtomicBoolean(false);
+
+            // Merge concurrently with collection, as the profiler thread does
+            Thread merger = new Thread(() -> {
+                while (!done.get())
+                    collector.drain(query -> merge(merged, query));
+            });
+            merger.start();
+
+            runThreads(t -> {
+                List<Object> parameters = List.of(t);
+
+                for (int i = 0; i < INVOCATIONS; i++)
+                    collector.record(null, SQL[i % SQL.length], parameters, i % 7, STACK_TRACES[i % STACK_TRACES.length], 0 == t % 2);
+            });
+
+            done.set(true);
+            merger.join();
+            collector.drain(query -> merge(merged, query));
+
+            long expectedCount = (long)THREADS * INVOCATIONS;
+            long expectedTime = 0;
+            for (int i = 0; i < INVOCATIONS; i++)
+                expectedTime += i % 7;
+            expectedTime *= THREADS;
+
+            assertEquals(0, collector.getUntrackedQueryCount());
+            assertEquals(expectedCount, collector.getRequestQueryCount() + collector.getBackgroundQueryCount());
+            assertEquals(expectedTime, collector.getRequestQueryTime() + collector.getBackgroundQueryTime());
+            assertEquals(SQL.length, merged.size());
+            assertEquals(expectedCount, merged.values().stream().mapToLong(stats -> stats[0]).sum());
+            assertEquals(expectedTime, merged.values().stream().mapToLong(stats -> stats[1]).sum());
+            assertEquals(expectedCount, merged.values().stream().mapToLong(stats -> stats[2]).sum());
+        }
+
+        @Test
+        public void testPendingLimit()
+        {
+            ShardedQueryCollector collector = new ShardedQueryCollector(1);
+
+            for (int i = 0; i <= ShardedQueryCollector.MAX_PENDING_QUERIES; i++)
+                collector.record(null, "SELECT " + i, null, 1, null, true);
+
+            assertEquals(ShardedQueryCollector.MAX_PENDING_QUERIES + 1, collector.getRequestQueryCount());
+            assertEquals(1, collector.getUntrackedQueryCount());
+
+            LongAdder drained = new LongAdder();
+            collector.drain(query -> drained.add(query.getCount()));
+            assertEquals(ShardedQueryCollector.MAX_PENDING_QUERIES, drained.sum());
+
+            // Draining makes room again
+            collector.record(null, "SELECT -1", null, 1, null, true);
+            assertEquals(1, collector.getUntrackedQueryCount());
+        }
+
+        @Test
+        public void testHistogram()
+        {
+            LatencyHistogram histogram = new LatencyHistogram();
+            assertEquals(0, histogram.getValueAtPercentile(50));
+
+            for (long value = 1; value <= 10_000; value++)
+                histogram.record(value);
+
+            assertEquals(10_000, histogram.getTotalCount());
+            assertWithinPrecision(5_000, histogram.getValueAtPercentile(50));
+            assertWithinPrecision(9_500, histogram.getValueAtPercentile(95));
+            assertWithinPrecision(9_900, histogram.getValueAtPercentile(99));
+            assertEquals(10_000, histogram.getValueAtPercentile(100));
+
+            // Small values are exact
+            LatencyHistogram small = new LatencyHistogram();
+            for (long value = 0; value < 20; value++)
+                small.record(value);
+            assertEquals(9, small.getValueAtPercentile(50));
+            assertEquals(18, small.getValueAtPercentile(95));
+
+            // Every bucket's range starts right after the previous one's
+            for (int index = 1; index < 500; index++)
+                assertEquals(index, LatencyHistogram.getIndex(LatencyHistogram.getHighestEquivalentValue(index - 1) + 1));
+
+            // Merging is the same as recording everything in one histogram
+            LatencyHistogram odd = new LatencyHistogram();
+            LatencyHistogram even = new LatencyHistogram();
+            for (long value = 1; value <= 10_000; value++)
+                (0 == value % 2 ? even : odd).record(value);
+            odd.add(even);
+
+            assertEquals(histogram.getTotalCount(), odd.getTotalCount());
+            for (double percentile : new double[]{1, 50, 90, 95, 99, 99.9, 100})
+                assertEquals(histogram.getValueAtPercentile(percentile), odd.getValueAtPercentile(percentile));
+        }
+
+        @Test
+        public void testRollingWindows()
+        {
+            RollingLatencyHistogram rolling = new RollingLatencyHistogram();
+            long start = 100 * DateUtils.MILLIS_PER_HOUR;
+
+            // One invocation per minute, each taking as many ms as minutes since start
+            for (int minute = 0; minute < 90; minute++)
+            {
+                LatencyHistogram histogram = new LatencyHistogram();
+                histogram.record(minute);
+                rolling.add(histogram, start + minute * DateUtils.MILLIS_PER_MINUTE);
+            }
+
+            long now = start + 89 * DateUtils.MILLIS_PER_MINUTE;
+            LatencyHistogram lastFiveMinutes = rolling.getLastFiveMinutes(now);
+            assertEquals(5, lastFiveMinutes.getTotalCount());
+            assertWithinPrecision(87, lastFiveMinutes.getValueAtPercentile(50));
+
+            // Five-minute slots; the current one is partly filled (85 - 89)
+            LatencyHistogram lastHour = rolling.getLastHour(now);
+            assertEquals(60, lastHour.getTotalCount());
+            assertWithinPrecision(60, lastHour.getValueAtPercentile(50));
+
+            // Windows empty out as time passes without invocations
+            assertEquals(0, rolling.getLastFiveMinutes(now + 10 * DateUtils.MILLIS_PER_MINUTE).getTotalCount());
+            assertEquals(0, rolling.getLastHour(now + 2 * DateUtils.MILLIS_PER_HOUR).getTotalCount());
+        }
+
+        private static void assertWithinPrecision(long expected, long actual)
+        {
+            assertEquals(expected, actual, expected * 0.07);
+        }
+
+        private static void merge(Map<String, long[]> merged, Query query)
+        {
+            long[] stats = merged.computeIfAbsent(query.getSql(), sql -> new long[3]);
+            stats[0] += query.getCount();
+            stats[1] += query.getCumulative();
+            stats[2] += query.getStackTraces().values().stream().mapToInt(Integer::intValue).sum();
+        }
+
+        // Runs the task on THREADS threads, started together, and returns the elapsed wall clock time in nanoseconds
+        private static long runThreads(IntConsumer task) throws InterruptedException
+        {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<>(THREADS);
+
+            for (int t = 0; t < THREADS; t++)
+            {
+                int thread = t;
+                threads.add(new Thread(() -> {
+                    try
+                    {
+                        start.await();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        throw new RuntimeException(e);
+                    }
+                    task.accept(thread);
+                }));
+            }
+
+            threads.forEach(Thread::start);
+            long begin = System.nanoTime();
+            start.countDown();
+
+            for (Thread thread : threads)
+                thread.join();
+
+            return System.nanoTime() - begin;
+        }
+    }
+
+    @TestWhen(TestWhen.When.PERFORMANCE)
+    public static class OverheadPerfTestCase extends Assert
+    {
+        // Compares the per-invocation cost of collection against the previous design (a bounded queue feeding a single
+        // consumer). Logs the results rather than asserting on timings, which vary too much across machines.
+        @Test
+        public void testOverhead() throws InterruptedException
+        {
+            ShardedQueryCollector collector = new ShardedQueryCollector(TestCase.THREADS);
+            AtomicBoolean done = new AtomicBoolean(false);
+            Thread merger = new Thread(() -> {
+                while (!done.get())
+                    collector.drain(query -> query.getStackTraces());
+            });
+            merger.start();
+
+            long shardedNanos = TestCase.runThreads(t -> {
+                List<Object> parameters = List.of(t);
+
+                for (int i = 0; i < TestCase.INVOCATIONS; i++)
+                    collector.record(null, TestCase.SQL[i % TestCase.SQL.length], parameters, 1, TestCase.STACK_TRACES[i % TestCase.STACK_TRACES.length], true);
+            });
+
+            done.set(true);
+            merger.join();
+
+            BlockingQueue<Object> queue = new LinkedBlockingQueue<>(1000);
+            LongAdder dropped = new LongAdder();
+            Thread consumer = new Thread(() -> {
+                try
+                {
+                    //noinspection InfiniteLoopStatement
+                    while (true)
+                        queue.take();
+                }
+                catch (InterruptedException ignored)
+                {
+                }
+            });
+            consumer.start();
+
+            long queueNanos = TestCase.runThreads(t -> {
+                List<Object> parameters = List.of(t);
+
+                for (int i = 0; i < TestCase.INVOCATIONS; i++)
+                    if (!queue.offer(new Object[]{TestCase.SQL[i % TestCase.SQL.length], new ArrayList<>(parameters), TestCase.STACK_TRACES[i % TestCase.STACK_TRACES.length]}))
+                        dropped.increment();
+            });
+
+            consumer.interrupt();
+            consumer.join();
+
+            double invocations = (double)TestCase.THREADS * TestCase.INVOCATIONS;
+            LOG.info(String.format("QueryProfiler collection with %d threads: sharded %.1f ns/invocation, %d untracked; bounded queue %.1f ns/invocation, %d dropped",
+                TestCase.THREADS, shardedNanos / invocations, collector.getUntrackedQueryCount(), queueNanos / invocations, dropped.sum()));
+
+            assertEquals(0, collector.getUntrackedQueryCount());
+        }
+    }
 }
@@ -24,6 +24,7 @@ import org.labkey.api.collections.ByteArrayHashKey;
 import org.labkey.api.data.DbScope;
 import org.labkey.api.data.SQLFragment;
 import org.labkey.api.data.Table;
+import org.labkey.api.mbean.QueryProfilerMXBean;
 import org.labkey.api.util.Compress;
 import org.labkey.api.util.ExceptionUtil;
 import org.labkey.api.util.Formats;
@@ -54,6 +55,8 @@ class QueryTracker
     private final boolean _validSql;
     private final long _firstInvocation;
     private final Map<ByteArrayHashKey, AtomicInteger> _stackTraces = new ReferenceMap<>(ReferenceStrength.SOFT, ReferenceStrength.HARD, true); // Not sure about purgeValues
+    private final LatencyHistogram _histogram = new LatencyHistogram();
+    private final RollingLatencyHistogram _recent = new RollingLatencyHistogram();
 
     private @Nullable List<Object> _parameters = null;  // Keep parameters from the longest running query
 
@@ -62,32 +65,38 @@ class QueryTracker
     private long _cumulative = 0;
     private long _lastInvocation;
 
-    QueryTracker(@Nullable DbScope scope, @NotNull String sql, long elapsed, String stackTrace, boolean validSql)
+    QueryTracker(@Nullable DbScope scope, @NotNull String sql, long firstInvocation, boolean validSql)
     {
         _scope = scope;
         _sql = sql;
         _validSql = validSql;
-        _firstInvocation = System.currentTimeMillis();
-
-        addInvocation(elapsed, stackTrace);
+        _firstInvocation = firstInvocation;
     }
 
-    public void addInvocation(long elapsed, String stackTrace)
+    // Merge invocations collected since the last drain
+    public void addInvocations(Query query)
     {
-        _count++;
-        _cumulative += elapsed;
-        _lastInvocation = System.currentTimeMillis();
+        _count += query.getCount();
+        _cumulative += query.getCumulative();
+        _lastInvocation = Math.max(_lastInvocation, query.getLastInvocation());
+
+        if (query.getMax() > _max)
+            _max = query.getMax();
 
-        if (elapsed > _max)
-            _max = elapsed;
+        // A drain covers about a second, so attributing all of it to the last invocation is close enough for the windows
+        _histogram.add(query.getHistogram());
+        _recent.add(query.getHistogram(), query.getLastInvocation());
 
-        ByteArrayHashKey compressed = new ByteArrayHashKey(Compress.deflate(stackTrace));
-        AtomicInteger frequency = _stackTraces.get(compressed);
+        for (Map.Entry<String, Integer> entry : query.getStackTraces().entrySet())
+        {
+            ByteArrayHashKey compressed = new ByteArrayHashKey(Compress.deflate(entry.getKey()));
+            AtomicInteger frequency = _stackTraces.get(compressed);
 
-        if (null == frequency)
-            _stackTraces.put(compressed, new AtomicInteger(1));
-        else
-            frequency.incrementAndGet();
+            if (null == frequency)
+                _stackTraces.put(compressed, new AtomicInteger(entry.getValue()));
+            else
+                frequency.addAndGet(entry.getValue());
+        }
     }
 
     @Nullable
@@ -157,6 +166,34 @@ class QueryTracker
         return _cumulative / _count;
     }
 
+    /** Execution time at the given percentile of all invocations since the last reset, to within the histogram's precision */
+    public long getPercentile(double percentile)
+    {
+        return _histogram.getValueAtPercentile(percentile);
+    }
+
+    /** Execution times of invocations in the last five minutes */
+    LatencyHistogram getLastFiveMinutes(long now)
+    {
+        return _recent.getLastFiveMinutes(now);
+    }
+
+    /** Execution times of invocations in the last hour */
+    LatencyHistogram getLastHour(long now)
+    {
+        return _recent.getLastHour(now);
+    }
+
+    /** Snapshot for the MBean, which reads it outside the profiler's lock */
+    QueryProfilerMXBean.QueryStatistics getStatistics(long now)
+    {
+        LatencyHistogram lastFiveMinutes = getLastFiveMinutes(now);
+        LatencyHistogram lastHour = getLastHour(now);
+
+        return new Statistics(_sql, _count, _cumulative, _max, getPercentile(50), getPercentile(95), getPercentile(99),
+            lastFiveMinutes.getTotalCount(), lastFiveMinutes.getValueAtPercentile(95), lastHour.getTotalCount(), lastHour.getValueAtPercentile(95));
+    }
+
     public int getStackTraceCount()
     {
         return _stackTraces.size();
@@ -240,6 +277,26 @@ class QueryTracker
         return _sql.hashCode();
     }
 
+    // Displayed after the QueryTrackerSet columns but not sortable: the windowed values change as time passes, which
+    // would corrupt a sorted set
+    private static final String[] LATENCY_CAPTIONS = {"P50", "P99", "5 Min Count", "5 Min P95", "1 Hr Count", "1 Hr P95"};
+
+    // In LATENCY_CAPTIONS order
+    private long[] getLatencyStatistics(long now)
+    {
+        LatencyHistogram lastFiveMinutes = getLastFiveMinutes(now);
+        LatencyHistogram lastHour = getLastHour(now);
+
+        return new long[]{
+            getPercentile(50),
+            getPercentile(99),
+            lastFiveMinutes.getTotalCount(),
+            lastFiveMinutes.getValueAtPercentile(95),
+            lastHour.getTotalCount(),
+            lastHour.getValueAtPercentile(95)
+        };
+    }
+
     public static void renderRowHeader(PrintWriter out, QueryTrackerSet currentSet, QueryProfiler.ActionURLFactory factory)
     {
         out.print("  <tr>");
@@ -248,6 +305,9 @@ class QueryTracker
             if (set.shouldDisplay())
                 renderColumnHeader(set.getCaption(), set == currentSet, out, factory);
 
+        for (String caption : LATENCY_CAPTIONS)
+            out.print("<td class=\"labkey-column-header\">" + caption + "</td>");
+
         out.print("<td class=\"labkey-column-header\">");
         out.print("Traces");
         out.print("</td><td class=\"labkey-column-header\" style=\"padding-left:10;\">");
@@ -287,6 +347,13 @@ class QueryTracker
             }
         }
 
+        for (String caption : LATENCY_CAPTIONS)
+        {
+            out.print(tab);
+            out.print(caption);
+            tab = "\t";
+        }
+
         out.print(tab);
         out.print("SQL\n");
     }
@@ -299,6 +366,9 @@ class QueryTracker
             if (set.shouldDisplay())
                 out.println("<td style=\"text-align:right;vertical-align:top;\">" + ((QueryTrackerComparator) set.comparator()).getFormattedPrimaryStatistic(this) + "</td>");
 
+        for (long statistic : getLatencyStatistics(System.currentTimeMillis()))
+            out.println("<td style=\"text-align:right;vertical-align:top;\">" + Formats.commaf0.format(statistic) + "</td>");
+
         ActionURL url = factory.getActionURL(getSql());
         out.println("<td style=\"text-align:right;vertical-align:top;\"><a href=\"" + PageFlowUtil.filter(url.getLocalURIString()) + "\">" + Formats.commaf0.format(getStackTraceCount()) + "</a></td>");
         // In the full grid view, limit SQL to 2,000 characters (before encoding). Individual detail view still shows full SQL with and without parameters. See #29642.
@@ -319,7 +389,110 @@ class QueryTracker
             }
         }
 
+        for (long statistic : getLatencyStatistics(System.currentTimeMillis()))
+        {
+            out.print(tab + Formats.commaf0.format(statistic));
+            tab = "\t";
+        }
+
         out.print(tab + getSql().trim().replaceAll("(\\s)+", " "));
         out.print('\n');
     }
+
+    private static class Statistics implements QueryProfilerMXBean.QueryStatistics
+    {
+        private final String _sql;
+        private final long _count;
+        private final long _cumulative;
+        private final long _max;
+        private final long _p50;
+        private final long _p95;
+        private final long _p99;
+        private final long _lastFiveMinutesCount;
+        private final long _lastFiveMinutesP95;
+        private final long _lastHourCount;
+        private final long _lastHourP95;
+
+        private Statistics(String sql, long count, long cumulative, long max, long p50, long p95, long p99,
+                           long lastFiveMinutesCount, long lastFiveMinutesP95, long lastHourCount, long lastHourP95)
+        {
+            _sql = sql;
+            _count = count;
+            _cumulative = cumulative;
+            _max = max;
+            _p50 = p50;
+            _p95 = p95;
+            _p99 = p99;
+            _lastFiveMinutesCount = lastFiveMinutesCount;
+            _lastFiveMinutesP95 = lastFiveMinutesP95;
+            _lastHourCount = lastHourCount;
+            _lastHourP95 = lastHourP95;
+        }
+
+        @Override
+        public String getSql()
+        {
+            return _sql;
+        }
+
+        @Override
+        public long getCount()
+        {
+            return _count;
+        }
+
+        @Override
+        public long getCumulative()
+        {
+            return _cumulative;
+        }
+
+        @Override
+        public long getMax()
+        {
+            return _max;
+        }
+
+        @Override
+        public long getP50()
+        {
+            return _p50;
+        }
+
+        @Override
+        public long getP95()
+        {
+            return _p95;
+        }
+
+        @Override
+        public long getP99()
+        {
+            return _p99;
+        }
+
+        @Override
+        public long getLastFiveMinutesCount()
+        {
+            return _lastFiveMinutesCount;
+        }
+
+        @Override
+        public long getLastFiveMinutesP95()
+        {
+            return _lastFiveMinutesP95;
+        }
+
+        @Override
+        public long getLastHourCount()
+        {
+            return _lastHourCount;
+        }
+
+        @Override
+        public long getLastHourP95()
+        {
+            return _lastHourP95;
+        }
+    }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2021 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.api.data.queryprofiler;
+
+import org.labkey.api.cache.CacheManager;
+
+/**
+ * Execution time histograms for recent activity: the last five minutes in one-minute slots and the last hour in
+ * five-minute slots. Each window includes its slot in progress, so "last five minutes" covers between four and five
+ * full minutes plus the current one. Slots are allocated on first use and reused as the ring wraps. Not thread-safe;
+ * callers synchronize.
+ */
+class RollingLatencyHistogram
+{
+    private final Ring _minutes = new Ring(5, CacheManager.MINUTE);
+    private final Ring _fiveMinutes = new Ring(12, 5 * CacheManager.MINUTE);
+
+    void add(LatencyHistogram histogram, long time)
+    {
+        _minutes.add(histogram, time);
+        _fiveMinutes.add(histogram, time);
+    }
+
+    LatencyHistogram getLastFiveMinutes(long now)
+    {
+        return _minutes.merge(now);
+    }
+
+    LatencyHistogram getLastHour(long now)
+    {
+        return _fiveMinutes.merge(now);
+    }
+
+    private static class Ring
+    {
+        private final long _slotLength;
+        private final LatencyHistogram[] _slots;
+        private final long[] _periods;
+
+        private Ring(int slots, long slotLength)
+        {
+            _slotLength = slotLength;
+            _slots = new LatencyHistogram[slots];
+            _periods = new long[slots];
+        }
+
+        private void add(LatencyHistogram histogram, long time)
+        {
+            long period = time / _slotLength;
+            int i = (int)(period % _slots.length);
+
+            if (null == _slots[i])
+            {
+                _slots[i] = new LatencyHistogram();
+            }
+            else if (_periods[i] != period)
+            {
+                // A straggler from a period that's already been overwritten is outside every window anyway
+                if (_periods[i] > period)
+                    return;
+
+                _slots[i].clear();
+            }
+
+            _periods[i] = period;
+            _slots[i].add(histogram);
+        }
+
+        private LatencyHistogram merge(long now)
+        {
+            long current = now / _slotLength;
+            LatencyHistogram merged = new LatencyHistogram();
+
+            for (int i = 0; i < _slots.length; i++)
+                if (null != _slots[i] && _periods[i] > current - _slots.length && _periods[i] <= current)
+                    merged.add(_slots[i]);
+
+            return merged;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2021 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.api.data.queryprofiler;
+
+import org.jetbrains.annotations.Nullable;
+import org.labkey.api.data.DbScope;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Collects query invocations from every thread without a shared queue or lock. Each thread records into one of a fixed
+ * number of shards, picked by thread id, where invocations of the same SQL are coalesced into a single {@link Query}.
+ * The profiler thread periodically swaps out each shard's pending map and merges it into the QueryTrackers, so
+ * collection only ever waits on another thread that shares its shard, never on merging or report rendering.
+ */
+class ShardedQueryCollector
+{
+    // Per shard; invocations of additional unique SQL before the next drain are counted in the totals but not tracked
+    static final int MAX_PENDING_QUERIES = 1000;
+
+    private final Shard[] _shards;
+    private final int _mask;
+
+    private final LongAdder _requestQueryCount = new LongAdder();
+    private final LongAdder _requestQueryTime = new LongAdder();
+    private final LongAdder _backgroundQueryCount = new LongAdder();
+    private final LongAdder _backgroundQueryTime = new LongAdder();
+    private final LongAdder _untrackedQueryCount = new LongAdder();
+
+    ShardedQueryCollector(int minimumShards)
+    {
+        int shards = 1;
+
+        while (shards < minimumShards)
+            shards <<= 1;
+
+        _shards = new Shard[shards];
+        _mask = shards - 1;
+
+        for (int i = 0; i < shards; i++)
+            _shards[i] = new Shard();
+    }
+
+    void record(@Nullable DbScope scope, String sql, @Nullable List<Object> parameters, long elapsed, @Nullable StackTraceElement[] stackTrace, boolean requestThread)
+    {
+        if (requestThread)
+        {
+            _requestQueryCount.increment();
+            _requestQueryTime.add(elapsed);
+        }
+        else
+        {
+            _backgroundQueryCount.increment();
+            _backgroundQueryTime.add(elapsed);
+        }
+
+        long now = System.currentTimeMillis();
+        Shard shard = _shards[(int)Thread.currentThread().getId() & _mask];
+
+        synchronized (shard)
+        {
+            Query query = shard._pending.get(sql);
+
+            if (null == query)
+            {
+                if (shard._pending.size() >= MAX_PENDING_QUERIES)
+                {
+                    _untrackedQueryCount.increment();
+                    return;
+                }
+
+                query = new Query(scope, sql, now);
+                shard._pending.put(sql, query);
+            }
+
+            query.addInvocation(parameters, elapsed, stackTrace, now);
+        }
+    }
+
+    /** Hands everything recorded since the last drain to the consumer. Shards are locked only long enough to swap maps. */
+    void drain(Consumer<Query> consumer)
+    {
+        for (Shard shard : _shards)
+        {
+            Map<String, Query> pending;
+
+            synchronized (shard)
+            {
+                if (shard._pending.isEmpty())
+                    continue;
+
+                pending = shard._pending;
+                shard._pending = new HashMap<>();
+            }
+
+            pending.values().forEach(consumer);
+        }
+    }
+
+    void resetCounters()
+    {
+        _requestQueryCount.reset();
+        _requestQueryTime.reset();
+        _backgroundQueryCount.reset();
+        _backgroundQueryTime.reset();
+        _untrackedQueryCount.reset();
+    }
+
+    long getRequestQueryCount()
+    {
+        return _requestQueryCount.sum();
+    }
+
+    long getRequestQueryTime()
+    {
+        return _requestQueryTime.sum();
+    }
+
+    long getBackgroundQueryCount()
+    {
+        return _backgroundQueryCount.sum();
+    }
+
+    long getBackgroundQueryTime()
+    {
+        return _backgroundQueryTime.sum();
+    }
+
+    long getUntrackedQueryCount()
+    {
+        return _untrackedQueryCount.sum();
+    }
+
+    private static class Shard
+    {
+        private Map<String, Query> _pending = new HashMap<>();
+    }
+}
@@ -65,7 +65,7 @@ public class CachingDataIterator extends AbstractDataIterator implements Scrolla
     {
         if (in instanceof ScrollableDataIterator && ((ScrollableDataIterator)in).isScrollable())
             return (ScrollableDataIterator)in;
-        return new DiskCachingDataIterator(in);
+        return overflowToDisk ? new DiskCachingDataIterator(in) : new CachingDataIterator(in);
     }
 
 
@@ -0,0 +1,552 @@
+/*
+ * Copyright (c) 2021 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.api.dataiterator;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.labkey.api.arrays.IntegerArray;
+import org.labkey.api.util.FileUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.EOFException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Append-only spill file for DiskCachingDataIterator and SpooledQuery. Rows are written in blocks, and each block is stored by column:
+ * a null bitmap plus a primitive array for numbers, booleans and dates, dictionary-encoded strings, and Java
+ * serialization only for columns whose values don't fit one of those. The encoding is chosen per column per block
+ * from the actual values, since a column's JdbcType doesn't guarantee the type of the values an iterator returns.
+ *
+ * Blocks are read back through a read-ahead buffer over the file, so re-scanning is sequential I/O plus decoding
+ * primitives, rather than object deserialization. The file is read through its channel rather than memory-mapped, since
+ * a mapping can't be released on demand and would keep the file from being deleted on close() (on Windows, at least). A compressed store additionally deflates each block, trading
+ * some CPU for a much smaller file when it's kept around for a while rather than re-scanned right away.
+ *
+ * Not thread-safe; callers that read while another thread appends must synchronize.
+ */
+public class ColumnarRowStore implements AutoCloseable
+{
+    private static final byte NULLS = 0;
+    private static final byte INT = 1;
+    private static final byte LONG = 2;
+    private static final byte DOUBLE = 3;
+    private static final byte BOOLEAN = 4;
+    private static final byte STRING = 5;
+    private static final byte DATE = 6;
+    private static final byte OBJECT = 7;
+
+    private static final List<Class<?>> DATE_CLASSES = List.of(java.util.Date.class, java.sql.Date.class, java.sql.Time.class, java.sql.Timestamp.class);
+
+    private static final Logger LOG = LogManager.getLogger(ColumnarRowStore.class);
+
+    private static final int WINDOW_SIZE = 4 * 1024 * 1024;
+
+    private final int _width;       // values per row
+    private final boolean _compressed;
+    private final File _file;
+    private final FileChannel _channel;
+
+    private final IntegerArray _blockFirstRows = new IntegerArray();
+    private long[] _blockOffsets = new long[16];
+    private int _rowCount = 0;
+    private long _fileSize = 0;
+
+    private ByteBuffer _window = null;      // bytes [_windowStart, _windowStart + _window.limit()) of the file
+    private long _windowStart = 0;
+
+    ColumnarRowStore(int width) throws IOException
+    {
+        this(width, "scrollable", false);
+    }
+
+    public ColumnarRowStore(int width, String prefix, boolean compressed) throws IOException
+    {
+        _width = width;
+        _compressed = compressed;
+        _file = File.createTempFile(prefix, ".dat", FileUtil.getTempDirectory());
+        _file.deleteOnExit();
+        _channel = FileChannel.open(_file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /** Number of rows written; rows are numbered from 0 in the order they were appended */
+    public int getRowCount()
+    {
+        return _rowCount;
+    }
+
+    /** Size of the file on disk, in bytes */
+    public long getFileSize()
+    {
+        return _fileSize;
+    }
+
+    File getFile()
+    {
+        return _file;
+    }
+
+    public void append(List<Object[]> rows) throws IOException
+    {
+        if (rows.isEmpty())
+            return;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(rows.size() * _width * 8);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(rows.size());
+        for (int col = 0; col < _width; col++)
+            writeColumn(out, rows, col);
+        out.flush();
+
+        int block = _blockFirstRows.size();
+        if (block == _blockOffsets.length)
+            _blockOffsets = Arrays.copyOf(_blockOffsets, block * 2);
+        _blockOffsets[block] = _fileSize;
+        _blockFirstRows.add(_rowCount);
+
+        ByteBuffer buffer = ByteBuffer.wrap(_compressed ? deflate(bytes.toByteArray()) : bytes.toByteArray());
+        while (buffer.hasRemaining())
+            _fileSize += _channel.write(buffer, _fileSize);
+        _rowCount += rows.size();
+    }
+
+    /** Adds rows [start, start+count) to the list */
+    public void read(int start, int count, List<Object[]> into) throws IOException
+    {
+        if (start < 0 || count < 0 || start + count > _rowCount)
+            throw new IndexOutOfBoundsException("Rows " + start + "-" + (start + count - 1) + " of " + _rowCount);
+
+        int end = start + count;
+        int block = findBlock(start);
+        while (start < end)
+        {
+            int blockFirst = _blockFirstRows.get(block);
+            Object[][] rows = readBlock(block);
+            int from = start - blockFirst;
+            int to = Math.min(rows.length, end - blockFirst);
+            into.addAll(Arrays.asList(rows).subList(from, to));
+            start = blockFirst + to;
+            block++;
+        }
+    }
+
+    private int findBlock(int row)
+    {
+        int lo = 0;
+        int hi = _blockFirstRows.size() - 1;
+        while (lo < hi)
+        {
+            int mid = (lo + hi + 1) >>> 1;
+            if (_blockFirstRows.get(mid) <= row)
+                lo = mid;
+            else
+                hi = mid - 1;
+        }
+        return lo;
+    }
+
+    private Object[][] readBlock(int block) throws IOException
+    {
+        long offset = _blockOffsets[block];
+        long end = block + 1 < _blockFirstRows.size() ? _blockOffsets[block + 1] : _fileSize;
+        ByteBuffer in = read(offset, end);
+        if (_compressed)
+            in = inflate(in, (int)(end - offset));
+
+        int n = in.getInt();
+        Object[][] rows = new Object[n][_width];
+        for (int col = 0; col < _width; col++)
+            readColumn(in, rows, col);
+        return rows;
+    }
+
+    // Returns a buffer positioned at offset, refilling the window from the file if [offset, end) isn't within it
+    private ByteBuffer read(long offset, long end) throws IOException
+    {
+        if (null == _window || offset < _windowStart || end > _windowStart + _window.limit())
+        {
+            int size = (int)Math.min(Math.max(WINDOW_SIZE, end - offset), _fileSize - offset);
+            if (null == _window || _window.capacity() < size)
+                _window = ByteBuffer.allocate(size);
+
+            _window.clear().limit(size);
+            while (_window.hasRemaining())
+            {
+                if (_channel.read(_window, offset + _window.position()) < 0)
+                    throw new EOFException("Unexpected end of " + _file + " at " + (offset + _window.position()));
+            }
+            _window.flip();
+            _windowStart = offset;
+        }
+        ByteBuffer in = _window.duplicate();
+        in.position((int)(offset - _windowStart));
+        return in;
+    }
+
+    // Uncompressed length, followed by the deflated bytes
+    private static byte[] deflate(byte[] block)
+    {
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try
+        {
+            deflater.setInput(block);
+            deflater.finish();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream(block.length / 2 + 16);
+            new DataOutputStream(out).writeInt(block.length);
+            byte[] buffer = new byte[64 * 1024];
+            while (!deflater.finished())
+                out.write(buffer, 0, deflater.deflate(buffer));
+            return out.toByteArray();
+        }
+        catch (IOException x)
+        {
+            throw new IllegalStateException(x);     // Can't happen writing to a ByteArrayOutputStream
+        }
+        finally
+        {
+            deflater.end();
+        }
+    }
+
+    private static ByteBuffer inflate(ByteBuffer in, int length) throws IOException
+    {
+        byte[] block = new byte[in.getInt()];
+        byte[] deflated = new byte[length - Integer.BYTES];
+        in.get(deflated);
+
+        Inflater inflater = new Inflater();
+        try
+        {
+            inflater.setInput(deflated);
+            int n = 0;
+            while (n < block.length)
+            {
+                int inflated = inflater.inflate(block, n, block.length - n);
+                if (0 == inflated && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                n += inflated;
+            }
+            if (n != block.length)
+                throw new IOException("Truncated block: expected " + block.length + " bytes, inflated " + n);
+            return ByteBuffer.wrap(block);
+        }
+        catch (DataFormatException x)
+        {
+            throw new IOException(x);
+        }
+        finally
+        {
+            inflater.end();
+        }
+    }
+
+
+    private static byte chooseEncoding(List<Object[]> rows, int col)
+    {
+        Class<?> cls = null;
+        for (Object[] row : rows)
+        {
+            Object value = row[col];
+            if (null == value)
+                continue;
+            if (null == cls)
+                cls = value.getClass();
+            else if (cls != value.getClass())
+                return OBJECT;
+        }
+
+        if (null == cls)
+            return NULLS;
+        if (cls == Integer.class)
+            return INT;
+        if (cls == Long.class)
+            return LONG;
+        if (cls == Double.class)
+            return DOUBLE;
+        if (cls == Boolean.class)
+            return BOOLEAN;
+        if (cls == String.class)
+            return STRING;
+        if (DATE_CLASSES.contains(cls))
+            return DATE;
+        return OBJECT;
+    }
+
+    private static void writeColumn(DataOutputStream out, List<Object[]> rows, int col) throws IOException
+    {
+        byte encoding = chooseEncoding(rows, col);
+        out.writeByte(encoding);
+
+        if (NULLS == encoding)
+            return;
+
+        if (OBJECT == encoding)
+        {
+            Object[] values = new Object[rows.size()];
+            for (int i = 0; i < values.length; i++)
+                values[i] = rows.get(i)[col];
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(bytes))
+            {
+                oos.writeObject(values);
+            }
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+            return;
+        }
+
+        // null bitmap
+        byte[] nulls = new byte[(rows.size() + 7) / 8];
+        for (int i = 0; i < rows.size(); i++)
+        {
+            if (null == rows.get(i)[col])
+                nulls[i >> 3] |= 1 << (i & 7);
+        }
+        out.write(nulls);
+
+        switch (encoding)
+        {
+            case INT:
+                for (Object[] row : rows)
+                    out.writeInt(null == row[col] ? 0 : (Integer)row[col]);
+                break;
+            case LONG:
+                for (Object[] row : rows)
+                    out.writeLong(null == row[col] ? 0 : (Long)row[col]);
+                break;
+            case DOUBLE:
+                for (Object[] row : rows)
+                    out.writeDouble(null == row[col] ? 0 : (Double)row[col]);
+                break;
+            case BOOLEAN:
+                for (Object[] row : rows)
+                    out.writeByte(Boolean.TRUE.equals(row[col]) ? 1 : 0);
+                break;
+            case STRING:
+                writeStrings(out, rows, col);
+                break;
+            case DATE:
+                writeDates(out, rows, col);
+                break;
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, List<Object[]> rows, int col) throws IOException
+    {
+        Map<String, Integer> dictionary = new HashMap<>();
+        int[] codes = new int[rows.size()];
+        ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        DataOutputStream entriesOut = new DataOutputStream(entries);
+
+        for (int i = 0; i < codes.length; i++)
+        {
+            String s = (String)rows.get(i)[col];
+            if (null == s)
+                continue;
+            Integer code = dictionary.get(s);
+            if (null == code)
+            {
+                code = dictionary.size();
+                dictionary.put(s, code);
+                byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+                entriesOut.writeInt(utf8.length);
+                entriesOut.write(utf8);
+            }
+            codes[i] = code;
+        }
+
+        entriesOut.flush();
+        out.writeInt(dictionary.size());
+        entries.writeTo(out);
+        for (int code : codes)
+            out.writeInt(code);
+    }
+
+    private static void writeDates(DataOutputStream out, List<Object[]> rows, int col) throws IOException
+    {
+        Class<?> cls = null;
+        for (Object[] row : rows)
+        {
+            if (null != row[col])
+            {
+                cls = row[col].getClass();
+                break;
+            }
+        }
+        boolean timestamp = cls == java.sql.Timestamp.class;
+        out.writeByte(DATE_CLASSES.indexOf(cls));
+
+        for (Object[] row : rows)
+            out.writeLong(null == row[col] ? 0 : ((java.util.Date)row[col]).getTime());
+        if (timestamp)
+        {
+            for (Object[] row : rows)
+                out.writeInt(null == row[col] ? 0 : ((java.sql.Timestamp)row[col]).getNanos());
+        }
+    }
+
+
+    private static void readColumn(ByteBuffer in, Object[][] rows, int col) throws IOException
+    {
+        byte encoding = in.get();
+        int n = rows.length;
+
+        if (NULLS == encoding)
+            return;
+
+        if (OBJECT == encoding)
+        {
+            byte[] bytes = new byte[in.getInt()];
+            in.get(bytes);
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes)))
+            {
+                Object[] values = (Object[])ois.readObject();
+                for (int i = 0; i < n; i++)
+                    rows[i][col] = values[i];
+            }
+            catch (ClassNotFoundException x)
+            {
+                throw new IOException(x);
+            }
+            return;
+        }
+
+        byte[] nulls = new byte[(n + 7) / 8];
+        in.get(nulls);
+
+        switch (encoding)
+        {
+            case INT:
+                for (int i = 0; i < n; i++)
+                {
+                    int v = in.getInt();
+                    if (!isNull(nulls, i))
+                        rows[i][col] = v;
+                }
+                break;
+            case LONG:
+                for (int i = 0; i < n; i++)
+                {
+                    long v = in.getLong();
+                    if (!isNull(nulls, i))
+                        rows[i][col] = v;
+                }
+                break;
+            case DOUBLE:
+                for (int i = 0; i < n; i++)
+                {
+                    double v = in.getDouble();
+                    if (!isNull(nulls, i))
+                        rows[i][col] = v;
+                }
+                break;
+            case BOOLEAN:
+                for (int i = 0; i < n; i++)
+                {
+                    byte v = in.get();
+                    if (!isNull(nulls, i))
+                        rows[i][col] = v != 0;
+                }
+                break;
+            case STRING:
+                String[] dictionary = new String[in.getInt()];
+                for (int d = 0; d < dictionary.length; d++)
+                {
+                    byte[] utf8 = new byte[in.getInt()];
+                    in.get(utf8);
+                    dictionary[d] = new String(utf8, StandardCharsets.UTF_8);
+                }
+                for (int i = 0; i < n; i++)
+                {
+                    int code = in.getInt();
+                    if (!isNull(nulls, i))
+                        rows[i][col] = dictionary[code];
+                }
+                break;
+            case DATE:
+                readDates(in, rows, col, nulls);
+                break;
+            default:
+                throw new IOException("Unknown column encoding: " + encoding);
+        }
+    }
+
+    private static void readDates(ByteBuffer in, Object[][] rows, int col, byte[] nulls)
+    {
+        Class<?> cls = DATE_CLASSES.get(in.get());
+        int n = rows.length;
+        long[] millis = new long[n];
+        for (int i = 0; i < n; i++)
+            millis[i] = in.getLong();
+
+        if (cls == java.sql.Timestamp.class)
+        {
+            for (int i = 0; i < n; i++)
+            {
+                int nanos = in.getInt();
+                if (isNull(nulls, i))
+                    continue;
+                java.sql.Timestamp ts = new java.sql.Timestamp(millis[i]);
+                ts.setNanos(nanos);
+                rows[i][col] = ts;
+            }
+            return;
+        }
+
+        for (int i = 0; i < n; i++)
+        {
+            if (isNull(nulls, i))
+                continue;
+            if (cls == java.sql.Date.class)
+                rows[i][col] = new java.sql.Date(millis[i]);
+            else if (cls == java.sql.Time.class)
+                rows[i][col] = new java.sql.Time(millis[i]);
+            else
+                rows[i][col] = new java.util.Date(millis[i]);
+        }
+    }
+
+    private static boolean isNull(byte[] nulls, int i)
+    {
+        return 0 != (nulls[i >> 3] & (1 << (i & 7)));
+    }
+
+
+    @Override
+    public void close() throws IOException
+    {
+        _window = null;
+        _channel.close();
+        if (!_file.delete())
+            LOG.warn("Could not delete " + _file.getAbsolutePath());
+    }
+}
@@ -22,8 +22,12 @@ import org.labkey.api.query.BatchValidationException;
 import org.labkey.api.query.QueryUpdateService;
 
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.labkey.api.query.QueryUpdateService.InsertOption.INSERT;
 
@@ -56,6 +60,7 @@ public class DataIteratorContext
     int _maxRowErrors = 1;
 
     private final Map<Enum, Object> _configParameters = new HashMap<>();
+    private final List<StatementWorkerStats> _statementWorkerStats = new CopyOnWriteArrayList<>();
 
     public DataIteratorContext()
     {
@@ -223,4 +228,70 @@ public class DataIteratorContext
     {
         return Boolean.TRUE == getConfigParameter(key);
     }
+
+    /** Per-worker row rates, when statements were executed in parallel (see QueryUpdateService.ConfigParameters.ParallelInsertWorkers) */
+    @NotNull
+    public List<StatementWorkerStats> getStatementWorkerStats()
+    {
+        return _statementWorkerStats;
+    }
+
+    void addStatementWorkerStats(StatementWorkerStats stats)
+    {
+        _statementWorkerStats.add(stats);
+    }
+
+
+    public static class StatementWorkerStats
+    {
+        private final String _name;
+        private final AtomicLong _rows = new AtomicLong();
+        private final AtomicLong _batches = new AtomicLong();
+        private final AtomicLong _executeNanos = new AtomicLong();
+
+        StatementWorkerStats(String name)
+        {
+            _name = name;
+        }
+
+        void addBatch(int rows, long nanos)
+        {
+            _rows.addAndGet(rows);
+            _batches.incrementAndGet();
+            _executeNanos.addAndGet(nanos);
+        }
+
+        public String getName()
+        {
+            return _name;
+        }
+
+        public long getRows()
+        {
+            return _rows.get();
+        }
+
+        public long getBatches()
+        {
+            return _batches.get();
+        }
+
+        public long getExecuteMillis()
+        {
+            return TimeUnit.NANOSECONDS.toMillis(_executeNanos.get());
+        }
+
+        /** Rows per second of time spent executing batches */
+        public double getRowsPerSecond()
+        {
+            long nanos = _executeNanos.get();
+            return 0 == nanos ? 0 : _rows.get() * 1e9 / nanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%s: %d rows in %d batches, %d ms, %.0f rows/sec", _name, getRows(), getBatches(), getExecuteMillis(), getRowsPerSecond());
+        }
+    }
 }
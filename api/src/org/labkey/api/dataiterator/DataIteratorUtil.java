@@ -367,9 +367,10 @@ public class DataIteratorUtil
      * Wrapping functions to add functionality to existing DataIterators
      */
 
+    // Caches rows for scrolling, spilling to disk once there are too many to keep on the heap
     public static ScrollableDataIterator wrapScrollable(DataIterator di)
     {
-        return CachingDataIterator.wrap(di);
+        return CachingDataIterator.wrap(di, true);
     }
 
 
@@ -1,35 +1,34 @@
 package org.labkey.api.dataiterator;
 
-import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
-import com.fasterxml.jackson.databind.util.ByteBufferBackedOutputStream;
-import org.apache.commons.collections.map.AbstractReferenceMap;
-import org.apache.commons.collections.map.ReferenceMap;
-import org.apache.tika.io.IOUtils;
 import org.junit.Assert;
 import org.junit.Test;
-import org.labkey.api.arrays.IntegerArray;
 import org.labkey.api.query.BatchValidationException;
 import org.labkey.api.util.GUID;
 import org.labkey.api.util.UnexpectedException;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.io.RandomAccessFile;
-import java.nio.Buffer;
-import java.nio.BufferOverflowException;
-import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+/**
+ * CachingDataIterator that keeps at most `limit` rows on the heap. Older rows are spilled to a ColumnarRowStore in
+ * batches, and read back from it in batches when the iterator is scrolled back with beforeFirst() or reset().
+ */
 public class DiskCachingDataIterator extends CachingDataIterator
 {
     final int limit;         // max _data.size()
     final int batchSize;     // number or rows to read/write at a time <= limit
 
     int _diskMarkPosition;
+    ColumnarRowStore _store = null;     // holds rows [0, _store.getRowCount())
 
     DiskCachingDataIterator(DataIterator in)
     {
@@ -82,126 +81,72 @@ public class DiskCachingDataIterator extends CachingDataIterator
     protected void reset()
     {
         _currentPosition = _diskMarkPosition-1;
+        _currentRowArray = null;
         if (_currentPosition < _markPosition-1 || _currentPosition >= _markPosition+_data.size())
         {
+            // rows that are only on the heap must be spilled before they're dropped, so they can be reloaded
+            writeToDisk(_data.size());
             _markPosition = _diskMarkPosition;
             _data.clear();
         }
     }
 
-    File _tempFile;
-    RandomAccessFile _randomAccessFile;
-    MappedByteBuffer _buffer;
-    ObjectOutputStream _objectOutputStream;
-
-    int _bufferEndPosition=0;     // I don't think the buffer will tell where the end of the data is???
-    IntegerArray _index = new IntegerArray();
-    Map<Integer,Object[]> _map = (Map<Integer,Object[]>)new ReferenceMap(AbstractReferenceMap.HARD, AbstractReferenceMap.SOFT);
-    int firstRowOnDisk = -1;    // index of first row written to disk
-    int lastRowOnDisk = -1;     // index of last row written (number or rows = lastRowOnDisk-firstRowOnDisk+1)
-
     private void writeToDisk()
     {
-        if (null == _buffer)
-        {
-            try
-            {
-                _tempFile = File.createTempFile("buffer", "dat");
-                _tempFile.deleteOnExit();
-                _randomAccessFile = new RandomAccessFile(_tempFile, "rw");
-                _buffer = _randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, 128 * 1024);
-            }
-                catch (IOException x)
-            {
-                throw UnexpectedException.wrap(x);
-            }
-        }
         int copyCount = Math.min(batchSize, _data.size());
-        for (int i=0 ; i<copyCount ; i++)
-        {
-            writeRowToDisk(_markPosition + i, _data.get(i));
-        }
+        writeToDisk(copyCount);
         _data.removeRange(0,copyCount);
         _markPosition += copyCount;
     }
 
-    void writeRowToDisk(int pos, Object[] row)
+    // Write the rows in _data[0, count) that aren't already on disk (rows that were reloaded from disk are)
+    private void writeToDisk(int count)
     {
-        _map.put(pos, row);
-        if (pos == lastRowOnDisk+1)
+        if (0 == count)
+            return;
+        try
         {
-            try
-            {
-                _index.add(_bufferEndPosition);
-                while (true)
-                {
-                    try
-                    {
-                        _buffer.position(_bufferEndPosition);
-                        ObjectOutputStream objectOutputStream = new ObjectOutputStream(new ByteBufferBackedOutputStream(_buffer));
-                        objectOutputStream.writeObject(row);
-                        objectOutputStream.close();
-                        break;
-                    }
-                    catch (BufferOverflowException x)
-                    {
-                        int capacity = _buffer.capacity();
-                        if (capacity < 1025*1024)
-                            capacity += capacity < 1024*1024 ? 128 * 1024 : 1024*1024;
-                        _buffer = _randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
-                    }
-                }
-                _bufferEndPosition = _buffer.position();
-                lastRowOnDisk = pos;
-            }
-            catch (IOException x)
-            {
-                throw UnexpectedException.wrap(x);
-            }
+            if (null == _store)
+                _store = new ColumnarRowStore(_columnCount+1);
+
+            int first = _store.getRowCount() - _markPosition;
+            if (first < 0)
+                throw new IllegalStateException("Rows " + _store.getRowCount() + " to " + (_markPosition-1) + " were not written to disk");
+            if (first < count)
+                _store.append(_data.subList(first, count));
+        }
+        catch (IOException x)
+        {
+            throw UnexpectedException.wrap(x);
         }
-        if (pos > lastRowOnDisk+1 || pos < firstRowOnDisk)
-            throw new IllegalStateException();
     }
 
     private void loadFromDisk(int start)
     {
-        int end = start + batchSize;
-        boolean assertEnabled = false;
-        assert true==(assertEnabled=true);
-        for (int row=start ; row<end ; row++)
+        try
         {
-            try
-            {
-                Object[] data = _map.get(row);
-                if (null == data || assertEnabled)
-                {
-                    int pos = _index.get(row);
-                    _buffer.position(pos);
-                    ObjectInputStream objectInputStream = new ObjectInputStream(new ByteBufferBackedInputStream(_buffer));
-                    Object[] dataDisk = (Object[])objectInputStream.readObject();
-                    objectInputStream.close();
-                    assert null==data || Arrays.equals(data,dataDisk);
-                    data = dataDisk;
-                }
-                _data.add(data);
-            }
-            catch (IOException|ClassNotFoundException x)
-            {
-                throw UnexpectedException.wrap(x);
-            }
+            int count = Math.min(batchSize, _store.getRowCount() - start);
+            _store.read(start, count, _data);
+        }
+        catch (IOException x)
+        {
+            throw UnexpectedException.wrap(x);
         }
-        //return (_cu) < _data.size();
     }
 
     @Override
     public void close() throws IOException
     {
-        //_map.clear();
-        IOUtils.closeQuietly(_objectOutputStream);
-        if (null != _randomAccessFile)
-            _randomAccessFile.close();
-        if (null != _tempFile && _tempFile.isFile())
-            _tempFile.delete();
+        try
+        {
+            super.close();
+        }
+        finally
+        {
+            if (null != _store)
+                _store.close();
+            _store = null;
+        }
     }
 
     private static String[] as(String... arr)
@@ -265,5 +210,95 @@ public class DiskCachingDataIterator extends CachingDataIterator
             assertEquals("2",scrollable.get(1));
             scrollable.close();
         }
+
+        @Test
+        public void typedColumnsTest() throws Exception
+        {
+            int rowCount = 2_500;
+            List<Map<String,Object>> rows = new ArrayList<>(rowCount);
+            for (int i=0 ; i<rowCount ; i++)
+            {
+                Map<String,Object> row = new HashMap<>();
+                row.put("int", i);
+                row.put("long", i % 7 == 0 ? null : (long)i << 33);
+                row.put("double", i * 0.5);
+                row.put("bool", i % 3 == 0);
+                row.put("text", i % 11 == 0 ? null : "value " + (i % 13) + "\u00e9");
+                Timestamp ts = new Timestamp(1_600_000_000_000L + i * 1000L);
+                ts.setNanos(123_456_789);
+                row.put("timestamp", ts);
+                row.put("date", new java.sql.Date(1_600_000_000_000L));
+                row.put("mixed", i % 2 == 0 ? (Object)i : "odd");
+                row.put("decimal", new BigDecimal(i).movePointLeft(2));
+                row.put("empty", null);
+                rows.add(row);
+            }
+            Set<String> names = new LinkedHashSet<>(List.of("int", "long", "double", "bool", "text", "timestamp", "date", "mixed", "decimal", "empty"));
+
+            DiskCachingDataIterator scrollable = new DiskCachingDataIterator(new ListofMapsDataIterator(names, rows), 500, 100);
+            try
+            {
+                verifyRows(scrollable, rows, 0, rowCount);
+                assertFalse(scrollable.next());
+                assertTrue(scrollable._store.getRowCount() > 0);
+
+                scrollable.beforeFirst();
+                verifyRows(scrollable, rows, 0, 1_234);
+                scrollable.mark();
+                verifyRows(scrollable, rows, 1_234, rowCount);
+                scrollable.reset();
+                verifyRows(scrollable, rows, 1_234, rowCount);
+                assertFalse(scrollable.next());
+            }
+            finally
+            {
+                scrollable.close();
+            }
+        }
+
+        @Test
+        public void compressedStoreTest() throws Exception
+        {
+            List<Object[]> rows = new ArrayList<>();
+            for (int i=0 ; i<3_000 ; i++)
+                rows.add(new Object[] {i, i % 5 == 0 ? null : "value " + (i % 17), new Timestamp(1_600_000_000_000L + i), new BigDecimal(i).movePointLeft(1)});
+
+            File file;
+            try (ColumnarRowStore store = new ColumnarRowStore(4, "compressed", true))
+            {
+                file = store.getFile();
+                for (int i=0 ; i<rows.size() ; i+=1_000)
+                    store.append(rows.subList(i, i + 1_000));
+                assertEquals(rows.size(), store.getRowCount());
+
+                List<Object[]> read = new ArrayList<>();
+                store.read(999, 1_002, read);
+                assertEquals(1_002, read.size());
+                for (int i=0 ; i<read.size() ; i++)
+                    assertArrayEquals("Row " + (999 + i), rows.get(999 + i), read.get(i));
+
+                // Appending after a read extends the file past the buffered window, so the next read must refill it
+                store.append(rows.subList(0, 1_000));
+                read.clear();
+                store.read(2_500, 1_000, read);
+                assertArrayEquals(rows.get(2_999), read.get(499));
+                assertArrayEquals(rows.get(0), read.get(500));
+            }
+            // Nothing holds the file open or mapped once the store is closed
+            assertFalse(file.exists());
+        }
+
+        private void verifyRows(DataIterator it, List<Map<String,Object>> expected, int from, int to) throws BatchValidationException
+        {
+            for (int r=from ; r<to ; r++)
+            {
+                assertTrue(it.next());
+                for (int i=1 ; i<=it.getColumnCount() ; i++)
+                {
+                    String name = it.getColumnInfo(i).getName();
+                    assertEquals("Row " + r + " column " + name, expected.get(r).get(name), it.get(i));
+                }
+            }
+        }
     }
 }
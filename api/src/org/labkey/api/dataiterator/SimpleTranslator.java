@@ -62,6 +62,7 @@ import org.labkey.api.query.UserSchema;
 import org.labkey.api.query.ValidationException;
 import org.labkey.api.security.User;
 import org.labkey.api.security.permissions.UpdatePermission;
+import org.labkey.api.test.TestWhen;
 import org.labkey.api.util.GUID;
 import org.labkey.api.util.JunitUtil;
 import org.labkey.api.util.Pair;
@@ -118,6 +119,18 @@ public class SimpleTranslator extends AbstractDataIterator implements DataIterat
     private Map<String,String> _missingValues = Collections.emptyMap();
     private Map<String,Integer> _inputNameMap = null;
 
+    // Batch mode, see setBatchSize()
+    private int _batchSize = 0;
+    private Boolean _batchable = null;
+    private Object[][] _batchInputRows = null;
+    private Object[][] _batchOutputRows = null;
+    private ValidationException[] _batchErrors = null;
+    private @Nullable Object[][] _batchInput = null;    // Non-null only while converting a batch
+    private int _batchCount = 0;
+    private int _batchRow = -1;
+    private @Nullable List<ValidationException> _heldErrors = null;   // Errors the input reported while the batch was read
+    private int _heldErrorsRow = -1;                                   // Batch row they belong to, or _batchCount if after the last
+
     protected final ArrayList<Pair<ColumnInfo, Supplier>> _outputColumns = new ArrayList<>()
     {
         @Override
@@ -140,6 +153,32 @@ public class SimpleTranslator extends AbstractDataIterator implements DataIterat
         return _data;
     }
 
+    /**
+     * Read rows from the input in batches of this size and convert each batch a column at a time, which keeps each
+     * converter hot across many values instead of cycling through every column's converter for each row. Rows are
+     * still returned one at a time and errors are reported with the row they belong to, when next() returns it.
+     * Only takes effect if every output column depends on nothing but the current input row (see isBatchable()), so
+     * subclasses that override processNextInput() shouldn't turn it on.
+     */
+    public void setBatchSize(int batchSize)
+    {
+        assert null == _row;
+        _batchSize = batchSize;
+    }
+
+    protected boolean isBatchable()
+    {
+        for (Pair<ColumnInfo, Supplier> column : _outputColumns)
+        {
+            Supplier c = column.getValue();
+            if (!(c instanceof PassthroughColumn || c instanceof SimpleConvertColumn || c instanceof DerivationScopedColumn ||
+                    c instanceof SharedTableLookupColumn || c instanceof ConstantColumn || c instanceof NullColumn ||
+                    c instanceof TimestampColumn || c instanceof GuidColumn))
+                return false;
+        }
+        return true;
+    }
+
     public void setInput(DataIterator it)
     {
         _data = it;
@@ -432,7 +471,7 @@ public class SimpleTranslator extends AbstractDataIterator implements DataIterat
         @Override
         public Object get()
         {
-            return _data.get(index);
+            return getInputColumnValue(index);
         }
     }
 
@@ -492,7 +531,7 @@ public class SimpleTranslator extends AbstractDataIterator implements DataIterat
         @Override
         public Object get()
         {
-            Object thisValue =  _data.get(index);
+            Object thisValue =  getInputColumnValue(index);
             return getDerivationData(thisValue, derivationDataColInd, isDerivation, presentDerivationWarning, presentNonDerivationWarning);
         }
     }
@@ -507,7 +546,7 @@ public class SimpleTranslator extends AbstractDataIterator implements DataIterat
      */
     private Object getDerivationData(Object thisValue, int derivationDataColInd, boolean isDerivationField, @Nullable String presentDerivationWarning, @Nullable String presentNonDerivationWarning)
     {
-        Object derivationData = derivationDataColInd < 0 ? null : _data.get(derivationDataColInd);
+        Object derivationData = derivationDataColInd < 0 ? null : getInputColumnValue(derivationDataColInd);
         if ((isDerivationField && derivationData != null)
                 || (!isDerivationField && derivationData == null))
             return thisValue;
@@ -622,7 +661,7 @@ public class SimpleTranslator extends AbstractDataIterator implements DataIterat
 
         protected Object getSourceValue()
         {
-            return _data.get(index);
+            return getInputColumnValue(index);
         }
     }
 
@@ -760,7 +799,7 @@ public class SimpleTranslator extends AbstractDataIterator implements DataIterat
             if (value instanceof MvFieldWrapper)
                 return value;
 
-            Object mv = NO_MV_INDEX ==indicator ? null : _data.get(indicator);
+            Object mv = NO_MV_INDEX ==indicator ? null : getInputColumnValue(indicator);
 
             if (value instanceof String && StringUtils.isEmpty((String)value))
                 value = null;
@@ -1032,7 +1071,7 @@ public class SimpleTranslator extends AbstractDataIterator implements DataIterat
         @Override
         public Object get()
         {
-            Object value = _data.get(_first);
+            Object value = getInputColumnValue(_first);
 
             // shared tables should be Integer->Integer
             Integer valueAsInt = null;
@@ -1044,7 +1083,7 @@ public class SimpleTranslator extends AbstractDataIterator implements DataIterat
             }
             else if (null != _second && !_lookupStringToRowIdMap.isEmpty())
             {
-                String lookupString = (String)_data.get(_second);
+                String lookupString = (String)getInputColumnValue(_second);
                 Integer mappedValue = _lookupStringToRowIdMap.get(lookupString);
                 if (null != mappedValue)
                     value = mappedValue;
@@ -1743,6 +1782,14 @@ public class SimpleTranslator extends AbstractDataIterator implements DataIterat
     {
         _rowError = null;
 
+        if (_batchSize > 0)
+        {
+            if (null == _batchable)
+                _batchable = isBatchable();
+            if (_batchable)
+                return nextFromBatch();
+        }
+
         boolean hasNext = _data.next();
         if (!hasNext)
             return false;
@@ -1753,31 +1800,181 @@ public class SimpleTranslator extends AbstractDataIterator implements DataIterat
         processNextInput();
 
         for (int i=0 ; i<_row.length ; ++i)
+            _row[i] = getOutputValue(i);
+        checkShouldCancel();
+        return true;
+    }
+
+    private Object getOutputValue(int i)
+    {
+        try
         {
-            _row[i] = null;
-            try
-            {
-                _row[i] = _outputColumns.get(i).getValue().get();
-            }
-            catch (ConversionException x)
+            return _outputColumns.get(i).getValue().get();
+        }
+        catch (ConversionException x)
+        {
+            // preferable to handle in call()
+            return addConversionException(_outputColumns.get(i).getKey().getName(), null, null, x);
+        }
+        catch (RuntimeException x)
+        {
+            throw x;
+        }
+        catch (Exception x)
+        {
+            // undone source field name???
+            addFieldError(_outputColumns.get(i).getKey().getName(), x.getMessage());
+            return null;
+        }
+    }
+
+    private boolean nextFromBatch() throws BatchValidationException
+    {
+        if (++_batchRow >= _batchCount)
+        {
+            releaseHeldErrors();
+            if (!readBatch())
+                return false;
+        }
+
+        _row = _batchOutputRows[_batchRow];
+
+        // Errors the input reported for this row come first, just as if it had only now been read
+        releaseHeldErrors();
+
+        // Errors were collected while converting the batch; report them now, as if the row had just been converted.
+        // If the input already reported an error for this row, the conversion errors were added to that one.
+        ValidationException rowError = _batchErrors[_batchRow];
+        if (null != rowError)
+        {
+            if (rowError != _errors.getLastRowError())
+                _errors.addRowError(rowError);
+            _rowError = rowError;
+        }
+
+        checkShouldCancel();
+        return true;
+    }
+
+    private void releaseHeldErrors()
+    {
+        if (null != _heldErrors && _batchRow == _heldErrorsRow)
+        {
+            for (ValidationException heldError : _heldErrors)
+                _errors.addRowError(heldError);
+            _heldErrors = null;
+        }
+    }
+
+    // Reads up to _batchSize rows from the input and converts them a column at a time
+    private boolean readBatch() throws BatchValidationException
+    {
+        int inputWidth = _data.getColumnCount() + 1;
+        int outputWidth = _outputColumns.size();
+
+        if (null == _batchInputRows)
+        {
+            _batchInputRows = new Object[_batchSize][];
+            _batchOutputRows = new Object[_batchSize][];
+            _batchErrors = new ValidationException[_batchSize];
+        }
+
+        _batchCount = 0;
+        _batchRow = 0;
+        _heldErrors = null;
+
+        List<ValidationException> errors = _errors.getRowErrors();
+        int errorCount = errors.size();
+
+        while (_batchCount < _batchSize && _data.next())
+        {
+            // Allocate rows as they're first needed, so a small import doesn't pay for a full batch
+            if (null == _batchInputRows[_batchCount])
             {
-                // preferable to handle in call()
-                _row[i] = addConversionException(_outputColumns.get(i).getKey().getName(), null, null, x);
+                _batchInputRows[_batchCount] = new Object[inputWidth];
+                _batchOutputRows[_batchCount] = new Object[outputWidth];
             }
-            catch (RuntimeException x)
+
+            Object[] input = _batchInputRows[_batchCount];
+            for (int i = 0; i < inputWidth; i++)
+                input[i] = _data.get(i);
+            _batchErrors[_batchCount] = null;
+            _batchCount++;
+
+            // The input reported errors for this row. Hold them back until next() returns the row, so they don't
+            // get ahead of the conversion errors for the rows before it, and stop reading ahead so no later row's
+            // errors can either. Conversion errors for this row are added to the input's error for it, as they
+            // would be without batching, rather than reported as a second error for the same row.
+            if (errors.size() > errorCount)
             {
-                throw x;
+                holdErrors(errors, errorCount, _batchCount - 1);
+
+                ValidationException last = _heldErrors.get(_heldErrors.size() - 1);
+                if (input[0] instanceof Integer && (Integer) input[0] == last.getRowNumber())
+                    _batchErrors[_batchCount - 1] = last;
+                break;
             }
-            catch (Exception x)
+        }
+
+        // Likewise for errors reported at the end of the input, which belong after every row of the batch
+        if (null == _heldErrors && _batchCount > 0 && errors.size() > errorCount)
+            holdErrors(errors, errorCount, _batchCount);
+
+        if (0 == _batchCount)
+            return false;
+
+        // Point getInputColumnValue(), get() and getRowError() at each row of the batch in turn
+        _batchInput = _batchInputRows;
+        try
+        {
+            for (int i = 0; i < outputWidth; i++)
             {
-                // undone source field name???
-                addFieldError(_outputColumns.get(i).getKey().getName(), x.getMessage());
+                for (_batchRow = 0; _batchRow < _batchCount; _batchRow++)
+                {
+                    _row = _batchOutputRows[_batchRow];
+                    _row[i] = getOutputValue(i);
+                }
             }
         }
-        checkShouldCancel();
+        finally
+        {
+            _batchInput = null;
+        }
+
+        _batchRow = 0;
         return true;
     }
 
+    private void holdErrors(List<ValidationException> errors, int from, int batchRow)
+    {
+        synchronized (errors)
+        {
+            List<ValidationException> added = errors.subList(from, errors.size());
+            _heldErrors = new ArrayList<>(added);
+            _heldErrorsRow = batchRow;
+            added.clear();
+        }
+    }
+
+    @Override
+    protected ValidationException getRowError()
+    {
+        if (null == _batchInput)
+            return super.getRowError();
+
+        // Converting a batch: hold each row's errors until next() returns that row
+        ValidationException rowError = _batchErrors[_batchRow];
+        if (null == rowError)
+        {
+            rowError = new ValidationException();
+            Object row = _batchInput[_batchRow][0];
+            if (row instanceof Integer)
+                rowError.setRowNumber((Integer) row);
+            _batchErrors[_batchRow] = rowError;
+        }
+        return rowError;
+    }
+
     /**
      * Allow sublcasses to process the input data before the output column are called.
      */
@@ -1803,7 +2000,7 @@ public class SimpleTranslator extends AbstractDataIterator implements DataIterat
     // use carefully!  Mostly for implementing classes used for addColumn(Callable)
     public Object getInputColumnValue(int i)
     {
-        return _data.get(i);
+        return null == _batchInput ? _data.get(i) : _batchInput[_batchRow][i];
     }
 
 
@@ -1811,6 +2008,9 @@ public class SimpleTranslator extends AbstractDataIterator implements DataIterat
     public void beforeFirst()
     {
         _row = null;
+        _batchCount = 0;
+        _batchRow = -1;
+        _heldErrors = null;
         ((ScrollableDataIterator)_data).beforeFirst();
     }
 
@@ -2033,6 +2233,137 @@ public class SimpleTranslator extends AbstractDataIterator implements DataIterat
             }
         }
 
+        @Test
+        public void batchConvertTest() throws Exception
+        {
+            // errors are reported with their own row even though rows are converted ahead in batches
+            DataIteratorContext context = new DataIteratorContext();
+            context.setFailFast(false);
+            context.setVerbose(true);
+            simpleData.beforeFirst();
+            SimpleTranslator t = new SimpleTranslator(simpleData, context);
+            t.setBatchSize(3);
+            t.addConvertColumn("IntNotNull", 1, JdbcType.INTEGER, null, false);
+            t.addConvertColumn("Text", 2, JdbcType.INTEGER, null, false);
+            for (int i=1 ; i<=4 ; i++)
+            {
+                assertTrue(t.next());
+                assertEquals(i, t.get(0));
+                assertEquals(i, t.get(1));
+                assertNull(t.get(2));
+                assertEquals(i, context.getErrors().getRowErrors().size());
+                assertEquals(i, context.getErrors().getRowErrors().get(i-1).getRowNumber());
+            }
+            assertFalse(t.next());
+            assertEquals(4, context.getErrors().getRowErrors().size());
+        }
+
+        @Test
+        public void batchUpstreamErrorsTest() throws Exception
+        {
+            // The input reports its own errors for rows 2 and 3, and every row has a conversion error as well. Batching
+            // must report the same errors in the same order as converting a row at a time, one per row.
+            List<String> expected = null;
+            for (int batchSize : new int[] {0, 1, 2, 3, 10})
+            {
+                DataIteratorContext context = new DataIteratorContext();
+                context.setFailFast(false);
+                context.setVerbose(true);
+                simpleData.beforeFirst();
+                SimpleTranslator upstream = new SimpleTranslator(simpleData, context);
+                upstream.selectAll();
+                upstream.addConvertColumn("LookupInt", 5, JdbcType.INTEGER, null, false);
+                SimpleTranslator t = new SimpleTranslator(upstream, context);
+                t.setBatchSize(batchSize);
+                t.addConvertColumn("IntNotNull", 1, JdbcType.INTEGER, null, false);
+                t.addConvertColumn("Text", 2, JdbcType.INTEGER, null, false);
+
+                List<String> actual = new ArrayList<>();
+                for (int i=1 ; i<=4 ; i++)
+                {
+                    assertTrue(t.next());
+                    assertEquals(i, t.get(0));
+                    // Record the errors as of each row, so errors reported too early show up as well
+                    List<ValidationException> rowErrors = context.getErrors().getRowErrors();
+                    StringBuilder sb = new StringBuilder();
+                    for (ValidationException rowError : rowErrors)
+                        sb.append(rowError.getRowNumber()).append(": ").append(rowError.getMessage()).append("; ");
+                    actual.add(sb.toString());
+                }
+                assertFalse(t.next());
+
+                Set<Integer> rowNumbers = new HashSet<>();
+                for (ValidationException rowError : context.getErrors().getRowErrors())
+                    assertTrue("Duplicate error for row " + rowError.getRowNumber(), rowNumbers.add(rowError.getRowNumber()));
+                assertEquals(Set.of(1, 2, 3, 4), rowNumbers);
+
+                if (null == expected)
+                    expected = actual;
+                else
+                    assertEquals("Batch size " + batchSize, expected, actual);
+            }
+        }
+
+        @Test
+        public void batchRowModeTest() throws Exception
+        {
+            // Enough rows to span several batches, with a partial one at the end
+            compareRowAndBatchConversion(3 * StandardDataIteratorBuilder.CONVERT_BATCH_SIZE + 17, 20);
+        }
+
+        /* Converts the same rows a row at a time and in batches, checks that the results match, and logs the rates */
+        static void compareRowAndBatchConversion(final int ROWS, final int COLUMNS) throws Exception
+        {
+            final JdbcType[] TYPES = {JdbcType.INTEGER, JdbcType.DOUBLE, JdbcType.VARCHAR, JdbcType.DECIMAL, JdbcType.BOOLEAN};
+
+            List<String> names = new ArrayList<>();
+            for (int c=0 ; c<COLUMNS ; c++)
+                names.add("col" + c);
+            List<String[]> rows = new ArrayList<>();
+            for (int r=0 ; r<ROWS ; r++)
+            {
+                String[] row = new String[COLUMNS];
+                for (int c=0 ; c<COLUMNS ; c++)
+                {
+                    JdbcType type = TYPES[c % TYPES.length];
+                    row[c] = type == JdbcType.BOOLEAN ? String.valueOf(r % 2 == 0) : type == JdbcType.VARCHAR ? "value" + r : String.valueOf(r * c);
+                }
+                rows.add(row);
+            }
+            StringTestIterator data = new StringTestIterator(names, rows);
+            data.setScrollable(true);
+
+            List<Object[]> expected = new ArrayList<>(ROWS);
+            for (int batchSize : new int[] {0, StandardDataIteratorBuilder.CONVERT_BATCH_SIZE})
+            {
+                DataIteratorContext context = new DataIteratorContext();
+                data.beforeFirst();
+                SimpleTranslator t = new SimpleTranslator(data, context);
+                t.setBatchSize(batchSize);
+                for (int c=1 ; c<=COLUMNS ; c++)
+                    t.addConvertColumn(names.get(c-1), c, TYPES[(c-1) % TYPES.length], null, false);
+
+                long start = System.nanoTime();
+                int r = 0;
+                while (t.next())
+                {
+                    Object[] row = new Object[COLUMNS+1];
+                    for (int c=0 ; c<=COLUMNS ; c++)
+                        row[c] = t.get(c);
+                    if (0 == batchSize)
+                        expected.add(row);
+                    else
+                        assertArrayEquals(expected.get(r), row);
+                    r++;
+                }
+                long elapsed = Math.max(1, System.nanoTime() - start);
+
+                assertEquals(ROWS, r);
+                assertFalse(context.getErrors().hasErrors());
+                LOG.info("SimpleTranslator " + (0 == batchSize ? "row" : "batch") + " conversion: " + (ROWS * 1_000_000_000L / elapsed) + " rows/sec (" + ROWS + " x " + COLUMNS + ")");
+            }
+        }
+
         @Test
         public void convertRemapTest() throws Exception
         {
@@ -2110,4 +2441,15 @@ public class SimpleTranslator extends AbstractDataIterator implements DataIterat
             TableInfo t = TestSchema.getInstance().getTableInfoTestTable();
         }
     }
+
+    /** Benchmarks row and batch conversion of a full-size wide import; not part of the regular test runs */
+    @TestWhen(TestWhen.When.PERFORMANCE)
+    public static class ConversionPerfTestCase extends Assert
+    {
+        @Test
+        public void batchThroughputTest() throws Exception
+        {
+            TranslateTestCase.compareRowAndBatchConversion(20_000, 200);
+        }
+    }
 }
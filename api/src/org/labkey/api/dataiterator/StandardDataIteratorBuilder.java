@@ -55,6 +55,9 @@ import java.util.Map;
 
 public class StandardDataIteratorBuilder implements DataIteratorBuilder
 {
+    // Rows the convert step reads ahead and converts a column at a time, see SimpleTranslator.setBatchSize()
+    static final int CONVERT_BATCH_SIZE = 256;
+
     final DataIteratorBuilder _inputBuilder;
     final TableInfo _target;
     boolean _useImportAliases = false;
@@ -240,6 +243,7 @@ public class StandardDataIteratorBuilder implements DataIteratorBuilder
         SimpleTranslator convert = new SimpleTranslator(input, context);
         convert.setDebugName("StandardDIB convert");
         convert.setMvContainer(_c);
+        convert.setBatchSize(CONVERT_BATCH_SIZE);
 
         for (TranslateHelper pair : convertTargetCols)
         {
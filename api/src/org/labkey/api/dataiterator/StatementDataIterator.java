@@ -60,8 +60,14 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
@@ -83,6 +89,14 @@ public class StatementDataIterator extends AbstractDataIterator
     volatile Thread _asyncThread = null;
     AtomicReference<Exception> _backgroundException = new AtomicReference<>();
 
+    // coordinate parallel statement execution: each statement (usually on its own connection) is executed by a worker
+    // thread, while this thread binds the next batch into whichever statement is idle
+    private boolean _useParallelExecute = false;
+    private BlockingQueue<Integer> _idleStatements = null;
+    private ExecutorService _workers = null;
+    private DataIteratorContext.StatementWorkerStats[] _workerStats = null;
+    int _currentIndex = 0;
+
     protected DataIterator _data;
     int _currentRowNumber = -1;
     int _backgroundRowNumber = -1;
@@ -124,6 +138,19 @@ public class StatementDataIterator extends AbstractDataIterator
     }
 
 
+    /**
+     * Execute batches on all statements concurrently, one worker thread per statement. Each statement should have its
+     * own connection, and the statements must be independent of row order and of each other (e.g. inserts into a
+     * staging table), since batches complete in no particular order. Requires batching; not compatible with
+     * reselecting keys, an EmbargoDataIterator, or a TransactionSize config parameter. Subclasses can override
+     * afterParallelExecute() to do work once every batch has been executed.
+     */
+    protected void setUseParallelExecute(boolean useParallelExecute)
+    {
+        _useParallelExecute = useParallelExecute && null == _rowIdIndex && null == _objectIdIndex && null == _objectUriIndex && null == _embargoDataIterator;
+    }
+
+
     /*
      * EmbargoDataIterator and a StatementDataIterator can be paired such that the EmbargoDataIterator
      * does not 'release' rows until the statement that operates on that row (e.g. inserts it) has been
@@ -225,7 +252,14 @@ public class StatementDataIterator extends AbstractDataIterator
         if (contextTxSize != null && contextTxSize > 1)
             _txSize = contextTxSize;
 
-        if (_stmts.length > 1)
+        if (_useParallelExecute)
+        {
+            // the caller has set up statements that only make sense in parallel mode (e.g. staging tables), so don't fall back
+            if (_stmts.length < 2 || _batchSize < 2 || _txSize != -1)
+                throw new IllegalStateException("Parallel execute requires multiple statements, batching, and no TransactionSize");
+            initParallelExecute();
+        }
+        else if (_stmts.length > 1)
         {
             _asyncThread = new Thread(new _Runnable(_stmts[1]), "StatementDataIterator executor");
             _asyncThread.start();
@@ -238,6 +272,29 @@ public class StatementDataIterator extends AbstractDataIterator
     }
 
 
+    private void initParallelExecute()
+    {
+        int count = _stmts.length;
+        _idleStatements = new ArrayBlockingQueue<>(count);
+        _workerStats = new DataIteratorContext.StatementWorkerStats[count];
+        String name = null != getDebugName() ? getDebugName() : "StatementDataIterator";
+
+        for (int i = 0; i < count; i++)
+        {
+            _workerStats[i] = new DataIteratorContext.StatementWorkerStats(name + " worker " + (i + 1));
+            _context.addStatementWorkerStats(_workerStats[i]);
+            _idleStatements.add(i);
+        }
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        _workers = Executors.newFixedThreadPool(count, r -> new Thread(r, "StatementDataIterator worker " + threadNumber.incrementAndGet()));
+
+        _currentIndex = _idleStatements.remove();
+        _currentStmt = _stmts[_currentIndex];
+        _currentBinding = _bindings[_currentIndex];
+    }
+
+
     private static class Triple
     {
         Triple(Supplier from, Parameter to, Parameter mv)
@@ -345,6 +402,28 @@ public class StatementDataIterator extends AbstractDataIterator
             }
         }
         log("</join() on _asyncThread>");
+
+        ExecutorService workers = _workers;
+        if (null != workers)
+        {
+            log("<shutdown() on _workers>");
+            workers.shutdown();
+            while (true)
+            {
+                try
+                {
+                    Thread.interrupted(); // clear interrupted status
+                    if (workers.awaitTermination(1, TimeUnit.MINUTES))
+                        break;
+                }
+                catch (InterruptedException x)
+                {
+                    log("awaitTermination() was interrupted!", x);
+                }
+            }
+            _workers = null;
+            log("</shutdown() on _workers>");
+        }
     }
 
     private boolean _next() throws BatchValidationException
@@ -396,6 +475,13 @@ public class StatementDataIterator extends AbstractDataIterator
                 processBatch(_currentBatchSize, _currentRowNumber);
             }
 
+            if (!hasNextRow && _useParallelExecute)
+            {
+                waitForIdleStatements();
+                checkBackgroundException();
+                afterParallelExecute();
+            }
+
             // This allows specifying more granular commits than the transaction wrapping the entire operation
             if (_currentTxSize == _txSize && _currentStmt.getScope().isTransactionActive() && hasNextRow)
             {
@@ -459,6 +545,15 @@ public class StatementDataIterator extends AbstractDataIterator
             afterExecute(_currentStmt, batchSize, rowNumber);
             log("</execute() on " + _currentStmt + ">");
         }
+        else if (_useParallelExecute)
+        {
+            final int index = _currentIndex;
+            log("<submit() - " + _currentStmt + ">");
+            _workers.execute(() -> executeInParallel(index, batchSize));
+            _currentIndex = takeIdleStatement();
+            _currentStmt = _stmts[_currentIndex];
+            log("</submit() - new: " + _currentStmt + ">");
+        }
         else if (_useAsynchronousExecute && _stmts.length > 1 && _txSize==-1)
         {
             while (true)
@@ -494,11 +589,104 @@ public class StatementDataIterator extends AbstractDataIterator
         }
 
         _currentBatchSize = 0;
-        _currentBinding = (_currentStmt == _stmts[0] ? _bindings[0] : _bindings[1]);
+        if (_useParallelExecute)
+            _currentBinding = _bindings[_currentIndex];
+        else
+            _currentBinding = (_currentStmt == _stmts[0] ? _bindings[0] : _bindings[1]);
 
         assert _execute.stop();
     }
 
+    // Runs on a worker thread
+    private void executeInParallel(int index, int batchSize)
+    {
+        ParameterMapStatement stmt = _stmts[index];
+        long start = System.nanoTime();
+
+        try
+        {
+            if (null == _backgroundException.get())
+            {
+                log("<executeBatch() on " + stmt + ">");
+                stmt.executeBatch();
+                _workerStats[index].addBatch(batchSize, System.nanoTime() - start);
+                log("</executeBatch() on " + stmt + ">");
+            }
+        }
+        catch (RuntimeSQLException rtsqlx)
+        {
+            SQLException sqlx = rtsqlx.getSQLException();
+            if (sqlx instanceof BatchUpdateException && null != sqlx.getNextException())
+                sqlx = sqlx.getNextException();
+            log("executeBatch() threw", sqlx);
+            // NOTE treat all sql exceptions as fatal, see _Runnable
+            synchronized (_backgroundException)
+            {
+                if (null == _backgroundException.get())
+                {
+                    getRowError().addGlobalError(sqlx);
+                    _backgroundException.set(_context.getErrors());
+                }
+            }
+            _foregroundThread.interrupt();
+        }
+        catch (Exception x)
+        {
+            log("executeBatch() threw", x);
+            _backgroundException.compareAndSet(null, x);
+            _foregroundThread.interrupt();
+        }
+        finally
+        {
+            _idleStatements.add(index);
+        }
+    }
+
+
+    private int takeIdleStatement() throws BatchValidationException
+    {
+        while (true)
+        {
+            checkBackgroundException();
+            try
+            {
+                Integer index = _idleStatements.poll(1, TimeUnit.SECONDS);
+                if (null != index)
+                    return index;
+            }
+            catch (InterruptedException x)
+            {
+                // a worker failed, or we're being cancelled; checkBackgroundException() will tell
+            }
+        }
+    }
+
+
+    // Wait for the workers to finish every submitted batch. The statement this thread holds is already idle.
+    private void waitForIdleStatements()
+    {
+        List<Integer> idle = new ArrayList<>(_stmts.length);
+        while (idle.size() < _stmts.length - 1)
+        {
+            try
+            {
+                idle.add(_idleStatements.take());
+            }
+            catch (InterruptedException x)
+            {
+                // a worker failed; the caller checks
+            }
+        }
+        _idleStatements.addAll(idle);
+    }
+
+
+    /** Called once all batches have been executed in parallel mode, before next() returns false */
+    protected void afterParallelExecute() throws BatchValidationException
+    {
+    }
+
+
     private void log(String message)
     {
         if (null != _log)
@@ -16,6 +16,7 @@
 
 package org.labkey.api.dataiterator;
 
+import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.labkey.api.collections.CaseInsensitiveHashMap;
@@ -23,26 +24,38 @@ import org.labkey.api.collections.CaseInsensitiveHashSet;
 import org.labkey.api.data.BaseColumnInfo;
 import org.labkey.api.data.ColumnInfo;
 import org.labkey.api.data.Container;
+import org.labkey.api.data.DbSchema;
 import org.labkey.api.data.DbScope;
 import org.labkey.api.data.Parameter;
 import org.labkey.api.data.ParameterMapStatement;
+import org.labkey.api.data.QueryResultCache;
 import org.labkey.api.data.RuntimeSQLException;
 import org.labkey.api.data.SQLFragment;
 import org.labkey.api.data.SqlExecutor;
 import org.labkey.api.data.StatementUtils;
 import org.labkey.api.data.TableInfo;
+import org.labkey.api.data.TempTableTracker;
 import org.labkey.api.data.UpdateableTableInfo;
+import org.labkey.api.data.WrappedColumn;
+import org.labkey.api.data.dialect.BulkLoader;
+import org.labkey.api.exp.MvFieldWrapper;
 import org.labkey.api.exp.property.DomainProperty;
+import org.labkey.api.gwt.client.AuditBehaviorType;
+import org.labkey.api.query.BatchValidationException;
 import org.labkey.api.query.FieldKey;
+import org.labkey.api.query.QueryUpdateService;
 import org.labkey.api.query.QueryUpdateService.InsertOption;
 import org.labkey.api.query.column.BuiltInColumnTypes;
+import org.labkey.api.util.GUID;
 
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -61,6 +74,22 @@ public class TableInsertDataIterator extends StatementDataIterator implements Da
     private Connection _conn = null;
     private Set<DomainProperty> _adhocPropColumns = new LinkedHashSet<>();
 
+    // ParallelInsertWorkers: batches are inserted into a staging table on separate connections, then copied to the
+    // target table on _conn in a single statement
+    private Connection[] _workerConns = null;
+    private TempTableTracker _staging = null;
+    private String _stagingSelectName = null;
+    private List<ColumnInfo> _stagingColumns = null;
+    private ColumnInfo _containerColumn = null;
+    private boolean _stagingDropScheduled = false;
+
+    // BulkLoad: rows are streamed to the target table with the dialect's bulk load protocol as they pass through
+    private Boolean _useBulkLoad = null;
+    private BulkLoader _bulkLoader = null;
+    private int[] _bulkTargetIndexes = null;    // data column index -> index in the loaded columns, or -1
+    private int[] _bulkMvIndexes = null;        // index in the loaded columns -> index of its MV indicator column, or -1
+    private Object[] _bulkRow = null;
+
     /**
      * Creates and configures a TableInsertDataIterator. DO NOT call this method directly.
      * Instead instantiate a {@link TableInsertDataIteratorBuilder}.
@@ -236,8 +265,13 @@ public class TableInsertDataIterator extends StatementDataIterator implements Da
             _scope = ((UpdateableTableInfo)_table).getSchemaTableInfo().getSchema().getScope();
             _conn = _scope.getConnection();
 
+            int workers = getParallelInsertWorkers();
             ParameterMapStatement stmt;
-            if (_insertOption.mergeRows)
+            if (workers > 1)
+            {
+                stmt = null;
+            }
+            else if (_insertOption.mergeRows)
             {
                 stmt = getMergeStatement(constants);
             }
@@ -246,7 +280,12 @@ public class TableInsertDataIterator extends StatementDataIterator implements Da
                 stmt = getInsertStatement(constants);
             }
 
-            if (_table.getSqlDialect().allowAsynchronousExecute() && _context.getInsertOption().batch && null == _rowIdIndex && null == _objectIdIndex)
+            if (null == stmt)
+            {
+                _stmts = getStagingStatements(workers);
+                setUseParallelExecute(true);
+            }
+            else if (_table.getSqlDialect().allowAsynchronousExecute() && _context.getInsertOption().batch && null == _rowIdIndex && null == _objectIdIndex)
             {
                 _stmts = new ParameterMapStatement[]{stmt, stmt.copy()};
                 setUseAsynchronousExecute(true);
@@ -304,6 +343,378 @@ public class TableInsertDataIterator extends StatementDataIterator implements Da
     }
 
 
+    /**
+     * Can rows be inserted without anything coming back from the database per row? That's required for set-based
+     * insert paths (parallel staging, bulk load) where rows don't reach the target table one statement at a time: no
+     * merge, no reselected ids or triggers, no exp.Object rows or vocabulary properties, and no TransactionSize or
+     * EmbargoDataIterator.
+     */
+    private boolean isPlainInsert()
+    {
+        if (_insertOption.mergeRows || _insertOption.identity_insert || _selectIds || _context.supportsAutoIncrementKey())
+            return false;
+        if (null != _rowIdIndex || null != _objectIdIndex || null != _objectUriIndex || null != _embargoDataIterator)
+            return false;
+        if (!_adhocPropColumns.isEmpty())
+            return false;
+        Integer txSize = (Integer)_context.getConfigParameter(QueryUpdateService.ConfigParameters.TransactionSize);
+        if (null != txSize && txSize > 1)
+            return false;
+
+        UpdateableTableInfo updatable = (UpdateableTableInfo)_table;
+        TableInfo schemaTable = updatable.getSchemaTableInfo();
+        if (null == schemaTable.getSelectName() || null != StringUtils.trimToNull(updatable.getObjectIdColumnName()))
+            return false;
+        if (null != updatable.remapSchemaColumns() && !updatable.remapSchemaColumns().isEmpty())
+            return false;
+        String objectURIColumnName = updatable.getObjectURIColumnName();
+        if (null != objectURIColumnName && null != schemaTable.getColumn(objectURIColumnName) && updatable.isAlwaysInsertExpObject())
+            return false;
+        if (null != updatable.getDomain() && (null == updatable.getDomainKind() || StringUtils.isEmpty(updatable.getDomainKind().getStorageSchemaName())))
+            return false;
+
+        return true;
+    }
+
+
+    /** Returns the number of parallel insert workers to use, or 0 if this insert isn't eligible */
+    private int getParallelInsertWorkers()
+    {
+        Integer workers = (Integer)_context.getConfigParameter(QueryUpdateService.ConfigParameters.ParallelInsertWorkers);
+        if (null == workers || workers < 2)
+            return 0;
+        if (!_insertOption.batch || 1 == _batchSize || !isPlainInsert())
+            return 0;
+        // the staging table must be in the same database as the target
+        if (!_scope.equals(DbSchema.getTemp().getScope()))
+            return 0;
+        return workers;
+    }
+
+
+    /**
+     * The columns StatementUtils would insert, in table order. If there's a container constant, the container column
+     * is returned separately in _containerColumn.
+     */
+    private List<ColumnInfo> getInsertColumns()
+    {
+        TableInfo schemaTable = ((UpdateableTableInfo)_table).getSchemaTableInfo();
+        ColumnInfo colModified = schemaTable.getColumn("Modified");
+
+        List<ColumnInfo> columns = new ArrayList<>();
+        for (ColumnInfo column : schemaTable.getColumns())
+        {
+            if (column instanceof WrappedColumn || column.isAutoIncrement())
+                continue;
+            if (column.isVersionColumn() && column != colModified)
+                continue;
+            if (_skipColumnNames.contains(column.getName()))
+                continue;
+            if (null != _container && "container".equalsIgnoreCase(column.getName()))
+            {
+                _containerColumn = column;
+                continue;
+            }
+            columns.add(column);
+        }
+        return columns;
+    }
+
+
+    /**
+     * Create the staging table, with the columns StatementUtils would insert, and one INSERT statement per worker, each
+     * on its own pooled connection. The staging table is created and filled on separate autocommit connections, never
+     * the caller's connection, so the workers can see it and don't wait on the caller's transaction. Only the final
+     * copy to the target table is part of the caller's transaction. The staging table is dropped once that transaction
+     * completes, or when this iterator is closed if there isn't one.
+     */
+    private ParameterMapStatement[] getStagingStatements(int workers) throws SQLException
+    {
+        TableInfo schemaTable = ((UpdateableTableInfo)_table).getSchemaTableInfo();
+        // the container is a constant, so it's added when copying to the target table
+        _stagingColumns = getInsertColumns();
+
+        DbSchema temp = DbSchema.getTemp();
+        String name = "insert_" + GUID.makeHash();
+        _stagingSelectName = "\"" + temp.getName() + "\".\"" + name + "\"";
+        _staging = TempTableTracker.track(name, this);
+
+        try
+        {
+            SQLFragment selectInto = new SQLFragment("SELECT ").append(getColumnList(_stagingColumns));
+            selectInto.append(" INTO ").append(_stagingSelectName);
+            selectInto.append(" FROM ").append(schemaTable.getSelectName()).append(" WHERE 1=0");
+
+            Connection ddl = getAutoCommitConnection();
+            try
+            {
+                new SqlExecutor(_scope, ddl).execute(selectInto);
+            }
+            finally
+            {
+                _scope.releaseConnection(ddl);
+            }
+
+            return getWorkerStatements(workers);
+        }
+        catch (SQLException | RuntimeException x)
+        {
+            releaseWorkerConnections();
+            scheduleStagingDrop();
+            throw x;
+        }
+    }
+
+
+    private ParameterMapStatement[] getWorkerStatements(int workers) throws SQLException
+    {
+        ParameterMapStatement[] stmts = new ParameterMapStatement[workers];
+        _workerConns = new Connection[workers];
+        for (int i = 0; i < workers; i++)
+        {
+            _workerConns[i] = getAutoCommitConnection();
+
+            SQLFragment insert = new SQLFragment("INSERT INTO ").append(_stagingSelectName);
+            insert.append(" (").append(getColumnList(_stagingColumns)).append(")\nVALUES (");
+            String comma = "";
+            for (ColumnInfo column : _stagingColumns)
+            {
+                insert.append(comma).append("?");
+                insert.add(new Parameter(column, null));
+                comma = ", ";
+            }
+            insert.append(")");
+            stmts[i] = new ParameterMapStatement(_scope, _workerConns[i], insert, null);
+        }
+        return stmts;
+    }
+
+
+    // a pooled connection is never the caller's transaction connection, but make sure each statement commits on its own
+    private Connection getAutoCommitConnection() throws SQLException
+    {
+        Connection conn = _scope.getPooledConnection();
+        try
+        {
+            if (!conn.getAutoCommit())
+                conn.setAutoCommit(true);
+            return conn;
+        }
+        catch (SQLException x)
+        {
+            _scope.releaseConnection(conn);
+            throw x;
+        }
+    }
+
+
+    private void releaseWorkerConnections()
+    {
+        if (null == _workerConns)
+            return;
+        for (Connection conn : _workerConns)
+        {
+            if (null != conn)
+                _scope.releaseConnection(conn);
+        }
+        _workerConns = null;
+    }
+
+
+    private static String getColumnList(List<ColumnInfo> columns)
+    {
+        return columns.stream().map(ColumnInfo::getSelectName).collect(Collectors.joining(", "));
+    }
+
+
+    // Every batch has been staged, so copy the rows to the target table in the caller's transaction
+    @Override
+    protected void afterParallelExecute() throws BatchValidationException
+    {
+        TableInfo schemaTable = ((UpdateableTableInfo)_table).getSchemaTableInfo();
+        String columns = getColumnList(_stagingColumns);
+
+        SQLFragment copy = new SQLFragment("INSERT INTO ").append(schemaTable.getSelectName()).append(" (").append(columns);
+        if (null != _containerColumn)
+            copy.append(", ").append(_containerColumn.getSelectName());
+        copy.append(")\nSELECT ").append(columns);
+        if (null != _containerColumn)
+            copy.append(", ?").add(_container.getId());
+        copy.append("\nFROM ").append(_stagingSelectName);
+
+        try
+        {
+            new SqlExecutor(_scope, _conn).execute(copy);
+        }
+        catch (RuntimeSQLException x)
+        {
+            getRowError().addGlobalError(x.getSQLException());
+            throw _context.getErrors();
+        }
+        finally
+        {
+            scheduleStagingDrop();
+        }
+    }
+
+
+    private void scheduleStagingDrop()
+    {
+        if (null == _staging || _stagingDropScheduled)
+            return;
+        _stagingDropScheduled = true;
+        // runs immediately if there's no transaction
+        _scope.addCommitTask(_staging::delete, DbScope.CommitTaskOption.POSTCOMMIT, DbScope.CommitTaskOption.POSTROLLBACK);
+    }
+
+
+    @Override
+    public boolean next() throws BatchValidationException
+    {
+        // decide on first use, since the embargo and vocabulary columns are configured after construction
+        if (null == _useBulkLoad)
+            _useBulkLoad = useBulkLoad();
+        if (!_useBulkLoad)
+            return super.next();
+
+        try
+        {
+            if (null == _bulkLoader)
+                startBulkLoad();
+
+            boolean hasNextRow = _data.next();
+            if (hasNextRow)
+            {
+                Arrays.fill(_bulkRow, null);
+                if (null != _containerColumn)
+                    _bulkRow[_bulkRow.length - 1] = _container.getId();
+
+                for (int i = 1; i <= _data.getColumnCount(); i++)
+                {
+                    int target = _bulkTargetIndexes[i];
+                    if (target < 0)
+                        continue;
+                    Object value = _data.get(i);
+                    if (null == value)
+                        continue;
+                    if (value instanceof MvFieldWrapper)
+                    {
+                        if (_bulkMvIndexes[target] >= 0)
+                            _bulkRow[_bulkMvIndexes[target]] = ((MvFieldWrapper) value).getMvIndicator();
+                        value = ((MvFieldWrapper) value).getValue();
+                    }
+                    _bulkRow[target] = value;
+                }
+
+                checkShouldCancel();
+                _bulkLoader.addRow(_bulkRow);
+            }
+            else
+            {
+                _bulkLoader.finish();
+            }
+            return hasNextRow;
+        }
+        catch (SQLException sqlx)
+        {
+            // the server reports bad values and constraint violations for the whole load, not the row that caused them
+            if (StringUtils.startsWith(sqlx.getSQLState(), "22") || RuntimeSQLException.isConstraintException(sqlx))
+            {
+                getRowError().addGlobalError(sqlx);
+                throw _errors;
+            }
+            throw new RuntimeSQLException(sqlx);
+        }
+    }
+
+
+    /**
+     * Stream rows with the dialect's bulk load protocol instead of INSERT batches? It's opt-in, and only for plain
+     * inserts that don't need generated keys or row-at-a-time behavior, including detailed (per-row) auditing.
+     */
+    private boolean useBulkLoad()
+    {
+        if (!_context.getConfigParameterBoolean(QueryUpdateService.ConfigParameters.BulkLoad))
+            return false;
+        if (!_table.getSqlDialect().supportsBulkLoad() || !isPlainInsert())
+            return false;
+        if (_table.supportsAuditTracking() && AuditBehaviorType.DETAILED == _table.getAuditBehavior((AuditBehaviorType)_context.getConfigParameter(DetailedAuditLogDataIterator.AuditConfigs.AuditBehavior)))
+            return false;
+
+        for (ColumnInfo column : getInsertColumns())
+        {
+            switch (column.getJdbcType())
+            {
+                case BINARY:
+                case VARBINARY:
+                case LONGVARBINARY:
+                case OTHER:
+                case NULL:
+                    return false;
+            }
+        }
+        return true;
+    }
+
+
+    private void startBulkLoad() throws SQLException
+    {
+        TableInfo schemaTable = ((UpdateableTableInfo)_table).getSchemaTableInfo();
+        _scope = schemaTable.getSchema().getScope();
+        _conn = _scope.getConnection();
+
+        List<ColumnInfo> bulkColumns = getInsertColumns();
+        if (null != _containerColumn)
+            bulkColumns.add(_containerColumn);
+        _bulkRow = new Object[bulkColumns.size()];
+
+        // match data columns to target columns the way StatementDataIterator matches them to parameters
+        Map<String, Integer> targets = new CaseInsensitiveHashMap<>();
+        for (int i = 0; i < bulkColumns.size(); i++)
+        {
+            ColumnInfo column = bulkColumns.get(i);
+            targets.put(column.getJdbcRsName(), i);
+            if (null != column.getPropertyURI())
+                targets.put(column.getPropertyURI(), i);
+        }
+
+        _bulkTargetIndexes = new int[_data.getColumnCount() + 1];
+        Arrays.fill(_bulkTargetIndexes, -1);
+        for (int i = 1; i <= _data.getColumnCount(); i++)
+        {
+            ColumnInfo col = _data.getColumnInfo(i);
+            Integer target = null;
+            if (null != col.getPropertyURI())
+                target = targets.get(col.getPropertyURI());
+            if (null == target)
+                target = targets.get(col.getName());
+            if (null != target && (null == _containerColumn || target != bulkColumns.size() - 1))
+                _bulkTargetIndexes[i] = target;
+        }
+
+        _bulkMvIndexes = new int[bulkColumns.size()];
+        Arrays.fill(_bulkMvIndexes, -1);
+        for (int i = 0; i < bulkColumns.size(); i++)
+        {
+            FieldKey mvFieldKey = bulkColumns.get(i).getMvColumnName();
+            if (null == mvFieldKey)
+                continue;
+            Integer mv = targets.get(mvFieldKey.getName());
+            if (null == mv)
+            {
+                // Issue #33549, see getMvParameter()
+                ColumnInfo mvColumn = _table.getColumn(mvFieldKey);
+                if (null != mvColumn)
+                    mv = targets.get(BaseColumnInfo.jdbcRsNameFromName(mvColumn.getMetaDataName()));
+            }
+            if (null != mv)
+                _bulkMvIndexes[i] = mv;
+        }
+
+        _bulkLoader = _scope.getSqlDialect().createBulkLoader(_conn, schemaTable.getSelectName(), bulkColumns);
+    }
+
+
     @Override
     public DataIterator getDataIterator(DataIteratorContext context)
     {
@@ -336,7 +747,26 @@ public class TableInsertDataIterator extends StatementDataIterator implements Da
         if (_closed)
             return;
         _closed = true;
+        if (null != _bulkLoader)
+        {
+            try
+            {
+                _bulkLoader.close();
+            }
+            catch (SQLException x)
+            {
+                throw new RuntimeSQLException(x);
+            }
+            finally
+            {
+                _bulkLoader = null;
+            }
+        }
         super.close();
+        if (null != _scope)
+            QueryResultCache.invalidate(((UpdateableTableInfo)_table).getSchemaTableInfo());
+        releaseWorkerConnections();
+        scheduleStagingDrop();
         if (null != _scope && null != _conn)
         {
             if (_insertOption.identity_insert ||
@@ -410,6 +410,15 @@ public interface ExperimentService extends ExperimentRunTypeSource
     @NotNull
     ExpLineage getLineage(Container c, User user, @NotNull Identifiable start, @NotNull ExpLineageOptions options);
 
+    /**
+     * Get the lineage of many seeds at once, e.g. every row on a page of a grid, in a single query pass.
+     * The result maps each seed objectId to the objectIds of the parents and/or children that match the options,
+     * along with their depth as reported by the lineage lookup columns: parents have a negative depth (the farthest
+     * path wins) and children have a positive depth (the nearest path wins). Seeds without lineage are omitted.
+     */
+    @NotNull
+    Map<Integer, Map<Integer, Integer>> getLineageObjectIds(@NotNull Collection<Integer> seedObjectIds, @NotNull ExpLineageOptions options);
+
     /**
      * The following methods return TableInfo's suitable for using in queries.
      * These TableInfo's initially have no columns, but have methods to
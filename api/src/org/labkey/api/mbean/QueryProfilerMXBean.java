@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2021 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.api.mbean;
+
+/**
+ * Query profiler statistics since server start or the last reset. Times are in milliseconds; percentiles are accurate
+ * to within a few percent.
+ */
+public interface QueryProfilerMXBean
+{
+    long getRequestQueryCount();
+    long getRequestQueryTime();
+    long getBackgroundQueryCount();
+    long getBackgroundQueryTime();
+    /** Invocations included in the counts but not tracked by query, because too many distinct queries ran between merges */
+    long getUntrackedQueryCount();
+    long getUniqueQueryCountEstimate();
+
+    /** Queries with the highest cumulative execution time, in descending order */
+    QueryStatistics[] getTopQueries();
+
+    interface QueryStatistics
+    {
+        String getSql();
+        long getCount();
+        long getCumulative();
+        long getMax();
+        long getP50();
+        long getP95();
+        long getP99();
+        long getLastFiveMinutesCount();
+        long getLastFiveMinutesP95();
+        long getLastHourCount();
+        long getLastHourP95();
+    }
+}
@@ -100,6 +100,7 @@ import java.io.StringReader;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -1174,6 +1175,142 @@ public abstract class AbstractQueryUpdateService implements QueryUpdateService
             assertNull(rows.get(3).get("i"));
         }
 
+        @Test
+        public void IMPORT_BULKLOAD() throws Exception
+        {
+            if (null == ListService.get())
+                return;
+            User user = TestContext.get().getUser();
+            Container c = JunitUtil.getTestContainer();
+            TableInfo rTableInfo = ((UserSchema)DefaultSchema.get(user, c).getSchema("lists")).getTable("R", null);
+            assert(getRows().size()==0);
+            QueryUpdateService qus = requireNonNull(rTableInfo.getUpdateService());
+            BatchValidationException errors = new BatchValidationException();
+            Map<Enum, Object> config = Map.of(ConfigParameters.BulkLoad, true, AuditBehavior, AuditBehaviorType.NONE);
+            var count = qus.importRows(user, c, getTestData(), errors, config, null);
+            assertFalse(errors.hasErrors());
+            assertEquals(3, count);
+            validateDefaultData(getRows());
+
+            qus.importRows(user, c, getTestData(), errors, config, null);
+            assertTrue(errors.hasErrors());
+        }
+
+        // Inserts batches concurrently into a staging table (see ConfigParameters.ParallelInsertWorkers), both with and
+        // without a transaction open on the caller's connection
+        @Test
+        public void IMPORT_PARALLEL() throws Exception
+        {
+            if (null == ListService.get())
+                return;
+            assertParallelImport(false);
+            resetList();
+            assertParallelImport(true);
+        }
+
+        private void assertParallelImport(boolean inTransaction) throws Exception
+        {
+            User user = TestContext.get().getUser();
+            Container c = JunitUtil.getTestContainer();
+            TableInfo rTableInfo = ((UserSchema)DefaultSchema.get(user, c).getSchema("lists")).getTable("R", null);
+            QueryUpdateService qus = requireNonNull(rTableInfo.getUpdateService());
+            assertEquals(0, getRows().size());
+
+            int rowCount = 5_000;
+            int workers = 4;
+            var rows = new ArrayList<Map<String,Object>>(rowCount);
+            for (int i=0 ; i<rowCount ; i++)
+                rows.add(CaseInsensitiveHashMap.of("pk",i,"i",i*7,"s","row " + i));
+
+            DataIteratorContext context = new DataIteratorContext();
+            context.setInsertOption(InsertOption.IMPORT);
+            context.setConfigParameters(Map.of(ConfigParameters.ParallelInsertWorkers, workers, AuditBehavior, AuditBehaviorType.NONE));
+            int count;
+            if (inTransaction)
+            {
+                try (var tx = rTableInfo.getSchema().getScope().ensureTransaction())
+                {
+                    count = qus.loadRows(user, c, new ListofMapsDataIterator.Builder(rows.get(0).keySet(), rows), context, null);
+                    assertFalse(context.getErrors().hasErrors());
+                    tx.commit();
+                }
+            }
+            else
+            {
+                count = qus.loadRows(user, c, new ListofMapsDataIterator.Builder(rows.get(0).keySet(), rows), context, null);
+            }
+            assertFalse(context.getErrors().hasErrors());
+            assertEquals(rowCount, count);
+
+            // every row was staged by one of the workers
+            List<DataIteratorContext.StatementWorkerStats> stats = context.getStatementWorkerStats();
+            assertEquals("Parallel insert wasn't used" + (inTransaction ? " in a transaction" : ""), workers, stats.size());
+            assertEquals(rowCount, stats.stream().mapToLong(DataIteratorContext.StatementWorkerStats::getRows).sum());
+
+            // getRows() is sorted by pk
+            var loaded = getRows();
+            assertEquals(rowCount, loaded.size());
+            for (int i=0 ; i<rowCount ; i++)
+            {
+                assertEquals(i, loaded.get(i).get("pk"));
+                assertEquals(i*7, loaded.get(i).get("i"));
+                assertEquals("row " + i, loaded.get(i).get("s"));
+            }
+        }
+
+        // Bulk load must write the same rows as INSERT batches, including values with tabs and backslashes
+        @Test
+        public void IMPORT_BULKLOAD_COMPARE() throws Exception
+        {
+            if (null == ListService.get())
+                return;
+            compareBulkLoad(500);
+        }
+
+        // Imports the same rows with INSERT batches and with the dialect's bulk load path (when it has one), checks
+        // that both write every row, and logs the time each took
+        static void compareBulkLoad(int rowCount) throws Exception
+        {
+            User user = TestContext.get().getUser();
+            Container c = JunitUtil.getTestContainer();
+            TableInfo rTableInfo = ((UserSchema)DefaultSchema.get(user, c).getSchema("lists")).getTable("R", null);
+            QueryUpdateService qus = requireNonNull(rTableInfo.getUpdateService());
+            assertEquals(0, getRows().size());
+
+            var rows = new ArrayList<Map<String,Object>>(rowCount);
+            for (int i=0 ; i<rowCount ; i++)
+                rows.add(CaseInsensitiveHashMap.of("pk",i,"i",i*7,"s","row\t" + i + "\\n" + GUID.makeHash()));
+
+            long insert = timeImport(user, c, qus, rows, Map.of(AuditBehavior, AuditBehaviorType.NONE));
+            assertEquals(rowCount, getRows().size());
+            qus.truncateRows(user, c, null, null);
+
+            long bulkLoad = timeImport(user, c, qus, rows, Map.of(ConfigParameters.BulkLoad, true, AuditBehavior, AuditBehaviorType.NONE));
+            // compare by key, bulk load doesn't promise to keep the input order
+            Map<Object, Object> loaded = new HashMap<>();
+            for (Map<String,Object> row : getRows())
+                loaded.put(row.get("pk"), row.get("s"));
+            assertEquals(rowCount, loaded.size());
+            for (Map<String,Object> row : rows)
+                assertEquals(row.get("s"), loaded.get(row.get("pk")));
+
+            Logger.getLogger(AbstractQueryUpdateService.class).info("List import of " + rowCount + " rows on " + rTableInfo.getSqlDialect().getProductName() +
+                    ": " + insert + "ms with INSERT batches, " + bulkLoad + "ms with bulk load" + (rTableInfo.getSqlDialect().supportsBulkLoad() ? "" : " (not supported, so INSERT batches again)"));
+        }
+
+        private static long timeImport(User user, Container c, QueryUpdateService qus, List<Map<String,Object>> rows, Map<Enum, Object> config) throws Exception
+        {
+            BatchValidationException errors = new BatchValidationException();
+            long start = System.currentTimeMillis();
+            try (var tx = DbScope.getLabKeyScope().ensureTransaction())
+            {
+                qus.importRows(user, c, new ListofMapsDataIterator.Builder(rows.get(0).keySet(), rows), errors, config, null);
+                assertFalse(errors.hasErrors());
+                tx.commit();
+            }
+            return System.currentTimeMillis() - start;
+        }
+
         @Test
         public void IMPORT_IDENTITY()
         {
@@ -1182,4 +1319,34 @@ public abstract class AbstractQueryUpdateService implements QueryUpdateService
             // TODO
         }
     }
+
+    @TestWhen(TestWhen.When.PERFORMANCE)
+    public static class BulkLoadPerfTestCase extends Assert
+    {
+        @BeforeClass
+        public static void createList() throws Exception
+        {
+            TestCase.createList();
+        }
+
+        @Before
+        public void resetList() throws Exception
+        {
+            new TestCase().resetList();
+        }
+
+        @AfterClass
+        public static void deleteList() throws Exception
+        {
+            TestCase.deleteList();
+        }
+
+        @Test
+        public void BULKLOAD_BENCHMARK() throws Exception
+        {
+            if (null == ListService.get())
+                return;
+            TestCase.compareBulkLoad(20_000);
+        }
+    }
 }
@@ -30,6 +30,7 @@ import org.labkey.api.data.ColumnLogging;
 import org.labkey.api.data.Container;
 import org.labkey.api.data.ContainerFilter;
 import org.labkey.api.data.ContainerFilterable;
+import org.labkey.api.data.DatabaseTableType;
 import org.labkey.api.data.MutableColumnInfo;
 import org.labkey.api.data.PHI;
 import org.labkey.api.data.SQLFragment;
@@ -492,6 +493,48 @@ public class FilteredTable<SchemaType extends UserSchema> extends AbstractContai
         return skipTransform ? ret : getTransformedFromSQL(ret);
     }
 
+    /**
+     * Same as getFromSQL(alias), except that only a random sample of the root table's pages is read, for estimating
+     * aggregates over very large tables. Null if the root table can't be sampled: it isn't a database table, the
+     * dialect doesn't support sampling, or the table doesn't opt in with supportsTableSample().
+     * @param percent of the root table to read
+     */
+    @Nullable
+    public SQLFragment getSampledFromSQL(String alias, double percent)
+    {
+        String sampleClause = _rootTable.getSqlDialect().getTableSampleClause(percent);
+        String selectName = _rootTable.getSelectName();
+        if (null == sampleClause || null == selectName || getFromTable() != _rootTable || _rootTable.getTableType() != DatabaseTableType.TABLE || !supportsTableSample())
+            return null;
+
+        SQLFragment ret = new SQLFragment("(SELECT ").append(getInnerFromColumns()).append(" FROM ").append(selectName).append(" ").append(sampleClause);
+
+        Map<FieldKey, ColumnInfo> columnMap = Table.createColumnMap(getFromTable(), getFromTable().getColumns());
+        SQLFragment filterFrag = getFilter().getSQLFragment(_rootTable.getSqlDialect(), alias, columnMap);
+        ret.append("\n").append(filterFrag).append(") ").append(alias);
+        return getTransformedFromSQL(ret);
+    }
+
+    /**
+     * True if this table returns every row of its root database table: there's no container or base filter and the
+     * table's FROM SQL is just its root table (see supportsTableSample()). Only then do the database's statistics for
+     * the root table apply to it.
+     */
+    public boolean isUnfilteredRootTable()
+    {
+        return getFromTable() == _rootTable && _rootTable.getTableType() == DatabaseTableType.TABLE && getFilter().getClauses().isEmpty() && supportsTableSample();
+    }
+
+    /**
+     * Whether this table's rows are exactly the root table's rows that pass getFilter(), so that getSampledFromSQL()
+     * can read a sample of the root table in place of getFromSQL(). Subclasses whose getFromSQL() adds joins, unions,
+     * parameters or rows of its own must not return true.
+     */
+    protected boolean supportsTableSample()
+    {
+        return false;
+    }
+
     public SQLFragment getTransformedFromSQL(SQLFragment sqlFrom)
     {
         return _rules.getSqlTransformer().apply(sqlFrom);
@@ -29,12 +29,16 @@ public enum QueryParam implements SafeToRenderEnum
 
     offset,
     maxRows,
+    /** Keyset pagination: token from the previous page's response, or an empty value to request the first page */
+    continuationToken,
     showRows,
     ignoreFilter,
 
     defaultTab,
 
     allowHeaderLock,
+    /** Compute summary statistics over every row, even when the table is large enough to estimate them from a sample */
+    exactAggregates,
     dataRegionName,
     /** Use {@link ActionURL.Param#returnUrl} and {@link ActionURL#addReturnURL(URLHelper)} instead. */
     @Deprecated
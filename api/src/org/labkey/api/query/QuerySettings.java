@@ -21,6 +21,7 @@ import org.apache.commons.beanutils.ConvertUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.json.JSONArray;
 import org.labkey.api.action.ReturnUrlForm;
 import org.labkey.api.collections.CaseInsensitiveHashMap;
@@ -76,6 +77,9 @@ public class QuerySettings
     private int _maxRows = 100;
     private boolean _maxRowsSet = false; // Explicitly track setting maxRows, allows for different defaults
     private long _offset = 0;
+    private @Nullable String _continuationToken = null;
+    private boolean _estimateTotalRows = false;
+    private boolean _exactAggregates = false;
     private String _selectionKey = null;
 
     @NotNull
@@ -271,6 +275,10 @@ public class QuerySettings
                 }
             }
 
+            String continuationTokenParam = _getParameter(param(QueryParam.continuationToken));
+            if (null != continuationTokenParam)
+                _continuationToken = continuationTokenParam.trim();
+
             String maxRowsParam = _getParameter(param(QueryParam.maxRows));
             if (isNotBlank(maxRowsParam))
             {
@@ -361,6 +369,19 @@ public class QuerySettings
                 throw new BadRequestException(String.format(parseError, "allowHeaderLock", allowHeaderLock), e);
             }
         }
+
+        String exactAggregates = StringUtils.trimToNull(_getParameter(param(QueryParam.exactAggregates)));
+        if (null != exactAggregates)
+        {
+            try
+            {
+                setExactAggregates((Boolean) ConvertUtils.convert(exactAggregates, Boolean.class));
+            }
+            catch (ConversionException e)
+            {
+                throw new BadRequestException(String.format(parseError, "exactAggregates", exactAggregates), e);
+            }
+        }
     }
 
     public @NotNull Map<String, Object> getQueryParameters()
@@ -641,6 +662,58 @@ public class QuerySettings
         _offset = offset;
     }
 
+    /**
+     * Keyset pagination replaces the offset: pages are positioned by the sort and primary key values of the previous
+     * page's last row, so deep pages don't get slower. Only applies when {@link ShowRows#PAGINATED}.
+     * @return true if a continuation token (possibly empty, for the first page) was supplied
+     */
+    public boolean isKeysetPagination()
+    {
+        return _showRows == ShowRows.PAGINATED && null != _continuationToken;
+    }
+
+    /** @return true if this is a page after the first in keyset pagination mode */
+    public boolean hasContinuationToken()
+    {
+        return isKeysetPagination() && !_continuationToken.isEmpty();
+    }
+
+    public @Nullable String getContinuationToken()
+    {
+        return isKeysetPagination() ? _continuationToken : null;
+    }
+
+    /** @param continuationToken token from the previous page, empty for the first page of keyset pagination, or null to use the offset */
+    public void setContinuationToken(@Nullable String continuationToken)
+    {
+        _continuationToken = continuationToken;
+    }
+
+    /** Use the database's table statistics instead of counting, where they apply, for the total row count */
+    public boolean isEstimateTotalRows()
+    {
+        return _estimateTotalRows;
+    }
+
+    public void setEstimateTotalRows(boolean estimateTotalRows)
+    {
+        _estimateTotalRows = estimateTotalRows;
+    }
+
+    /**
+     * Summary statistics and the total row count are normally estimated from a sample of very large tables; this
+     * forces them to be computed over every row.
+     */
+    public boolean isExactAggregates()
+    {
+        return _exactAggregates;
+    }
+
+    public void setExactAggregates(boolean exactAggregates)
+    {
+        _exactAggregates = exactAggregates;
+    }
+
     public ShowRows getShowRows()
     {
         return _showRows;
@@ -90,6 +90,8 @@ public interface QueryUpdateService extends HasPermission
         TrimString,         // (Bool) Trim strings on insert
         TrimStringRight,     // (Bool) TrimRight strings on insert
         PreserveEmptyString, // (Bool) When source field is an empty string, insert it instead of replacing with null
+        ParallelInsertWorkers, // (Integer) For large plain inserts, the # of connections that insert batches concurrently into a staging table, which is then copied to the target in one statement
+        BulkLoad, // (Bool) For large plain inserts, stream rows with the dialect's bulk load protocol (e.g. PostgreSQL COPY) when it's supported, see SqlDialect.supportsBulkLoad()
         // used by Dataspace currently
         TargetMultipleContainers    // (Bool) allow multi container import
     }
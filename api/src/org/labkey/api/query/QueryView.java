@@ -2373,6 +2373,30 @@ public class QueryView extends WebPartView<Object>
         }
     }
 
+    /**
+     * Resolves the query that getResults(ShowRows.ALL) would run, and generates its SQL, on the calling thread. The
+     * returned factory just executes that SQL, without touching this view, its ViewContext, or the request's query
+     * environment, so it can run on a background thread after the request has completed.
+     */
+    public ResultsFactory getDetachedResults()
+    {
+        _exportView = true;
+        DataView view = createDataView();
+        DataRegion rgn = view.getDataRegion();
+        ShowRows prevShowRows = getSettings().getShowRows();
+        try
+        {
+            getSettings().setShowRows(ShowRows.ALL);
+            RenderContext ctx = view.getRenderContext();
+            ctx.setCache(false);
+            return rgn.getSelector(ctx).getDetachedResults();
+        }
+        finally
+        {
+            getSettings().setShowRows(prevShowRows);
+        }
+    }
+
 
     @Nullable
     public ResultSet getResultSet() throws SQLException, IOException
@@ -2677,23 +2701,30 @@ public class QueryView extends WebPartView<Object>
     }
 
     public void exportToTsv(final HttpServletResponse response, final TSVWriter.DELIM delim, final TSVWriter.QUOTE quote, ColumnHeaderType headerType, @NotNull Map<String, String> renameColumnMap) throws IOException
+    {
+        exportToTsv(response, delim, quote, headerType, renameColumnMap, false);
+    }
+
+    /** @param compressed gzip compress the download */
+    public void exportToTsv(final HttpServletResponse response, final TSVWriter.DELIM delim, final TSVWriter.QUOTE quote, ColumnHeaderType headerType, @NotNull Map<String, String> renameColumnMap, boolean compressed) throws IOException
     {
         _exportView = true;
         TableInfo table = getTable();
 
         if (table != null)
         {
-            int rowCount = doExport(response, delim, quote, headerType, renameColumnMap);
+            int rowCount = doExport(response, delim, quote, headerType, renameColumnMap, compressed);
             logAuditEvent("Exported to TSV", rowCount);
         }
     }
 
-    private int doExport(HttpServletResponse response, final TSVWriter.DELIM delim, final TSVWriter.QUOTE quote, ColumnHeaderType headerType, @NotNull Map<String, String> renameColumnMap) throws IOException
+    private int doExport(HttpServletResponse response, final TSVWriter.DELIM delim, final TSVWriter.QUOTE quote, ColumnHeaderType headerType, @NotNull Map<String, String> renameColumnMap, boolean compressed) throws IOException
     {
         try (TSVGridWriter tsv = renameColumnMap.isEmpty() ? getTsvWriter(headerType) : getTsvWriter(headerType, renameColumnMap))
         {
             tsv.setDelimiterCharacter(delim);
             tsv.setQuoteCharacter(quote);
+            tsv.setCompressed(compressed);
             tsv.write(response);
             return tsv.getDataRowCount();
         }
@@ -730,6 +730,11 @@ public abstract class DataLoader implements Iterable<Map<String, Object>>, Loade
                                 values[i] = mvWrapper;
                             }
                         }
+                        else if (null != fld && !(fld instanceof String) && column.clazz == fld.getClass())
+                        {
+                            // Already the column type, e.g., parsed straight from the line by TabLoader or a typed Excel cell
+                            values[i] = fld;
+                        }
                         else
                         {
                             values[i] = ("".equals(fld)) ?
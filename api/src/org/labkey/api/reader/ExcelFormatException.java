@@ -29,4 +29,9 @@ public class ExcelFormatException extends IOException
     {
         super("Unable to open Excel file." + (e.getMessage() == null ? "" : " (" + e.getMessage() + ")"));
     }
+
+    public ExcelFormatException(String message)
+    {
+        super(message);
+    }
 }
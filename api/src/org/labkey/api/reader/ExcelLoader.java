@@ -16,7 +16,11 @@
 package org.labkey.api.reader;
 
 import org.apache.commons.collections4.iterators.ArrayIterator;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.apache.poi.UnsupportedFileFormatException;
 import org.apache.poi.ooxml.POIXMLException;
 import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
@@ -30,39 +34,49 @@ import org.apache.poi.ss.usermodel.DataFormatter;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
 import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
 import org.apache.poi.xssf.eventusermodel.XSSFReader;
 import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFCellStyle;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.junit.Assert;
 import org.junit.Test;
 import org.labkey.api.data.Container;
 import org.labkey.api.exp.PropertyType;
 import org.labkey.api.iterator.CloseableIterator;
+import org.labkey.api.test.TestWhen;
 import org.labkey.api.util.DateUtil;
 import org.labkey.api.util.FileType;
 import org.labkey.api.util.FileUtil;
 import org.labkey.api.util.JunitUtil;
 import org.xml.sax.Attributes;
-import org.xml.sax.InputSource;
-import org.xml.sax.XMLReader;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
 import org.xml.sax.helpers.DefaultHandler;
 
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.text.DecimalFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.GregorianCalendar;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -74,10 +88,17 @@ import java.util.Map;
  */
 public class ExcelLoader extends DataLoader
 {
+    private static final Logger _log = LogManager.getLogger(ExcelLoader.class);
+
     public static FileType FILE_TYPE = new FileType(Arrays.asList(".xlsx", ".xls"), ".xlsx",
             Arrays.asList("application/" + ExcelFactory.SUB_TYPE_BIFF8, "application/" + ExcelFactory.SUB_TYPE_XSSF, "application/" + ExcelFactory.SUB_TYPE_BIFF5));
     private Boolean _isStartDate1904 = null;
 
+    // A full workbook (.xls, or .xlsx read through the usermodel API) takes many times its file size in heap, so refuse
+    // to build one from a file bigger than this rather than risk running the server out of memory. Streamed .xlsx
+    // sheets aren't limited.
+    static final long MAX_WORKBOOK_FILE_SIZE = 100L * 1024 * 1024;
+
     static {
         FILE_TYPE.setExtensionsMutuallyExclusive(false);
     }
@@ -168,6 +189,8 @@ public class ExcelLoader extends DataLoader
     // We are not using getDateCellValue in that case, which knows how to determine which date system is in use, so
     // we hack up our own way to detect this.  This is derived from this posting:
     // https://alandix.com/code2/apache-poi-detect-1904-date-option/
+    // When streaming an .xlsx file, XlsxRowReader instead reads the date1904 flag straight from the workbook part, so
+    // the workbook never has to be built.
     void computeIsStartDate1904()
     {
         try
@@ -208,6 +231,12 @@ public class ExcelLoader extends DataLoader
                 }
                 else if (null != _file)
                 {
+                    if (_file.length() > MAX_WORKBOOK_FILE_SIZE)
+                    {
+                        throw new ExcelFormatException("Unable to open Excel file " + _file.getName() + ". At " + FileUtils.byteCountToDisplaySize(_file.length()) +
+                                ", it is too large to load into memory; the limit is " + FileUtils.byteCountToDisplaySize(MAX_WORKBOOK_FILE_SIZE) +
+                                ". Save it in .xlsx format, which can be read a row at a time, or split it into smaller files.");
+                    }
                     _workbook = ExcelFactory.create(_file);
                 }
             }
@@ -222,6 +251,18 @@ public class ExcelLoader extends DataLoader
 
     public List<String> getSheetNames() throws IOException
     {
+        if (null != _file && null == _workbook)
+        {
+            try
+            {
+                return getSheetNamesXLSX();
+            }
+            catch (InvalidFormatException x)
+            {
+                /* fall through */
+            }
+        }
+
         List<String> names = new ArrayList<>();
 
         Workbook workbook = getWorkbook();
@@ -267,12 +308,29 @@ public class ExcelLoader extends DataLoader
         {
             try
             {
-                List<List<?>> grid = getParsedGridXLSX();
+                if (null == _prefixReader)
+                {
+                    _prefixReader = new XlsxRowReader();
+                    _prefixRows.clear();
+                }
+
                 List<String[]> cells = new ArrayList<>();
 
-                for (int i=0 ; cells.size() < n && i<grid.size() ; i++)
+                for (int i=0 ; cells.size() < n ; i++)
                 {
-                    List<?> currentRow = grid.get(i);
+                    List<Object> currentRow;
+                    if (i < _prefixRows.size())
+                    {
+                        currentRow = _prefixRows.get(i);
+                    }
+                    else
+                    {
+                        currentRow = _prefixReader.next();
+                        if (null == currentRow)
+                            break;
+                        _prefixRows.add(currentRow);
+                    }
+
                     List<String> rowData = new ArrayList<>(currentRow.size());
                     boolean foundData = false;
 
@@ -293,6 +351,13 @@ public class ExcelLoader extends DataLoader
             {
                 /* fall through */
             }
+            finally
+            {
+                // Unless an iterator is about to continue from these rows, don't hold the file (and any spilled
+                // strings) open for a caller that may only have wanted the columns and may never close the loader
+                if (!_continuePrefix)
+                    releasePrefixReader();
+            }
         }
 
         try
@@ -360,6 +425,7 @@ public class ExcelLoader extends DataLoader
         {
             if (null != _file)
             {
+                _continuePrefix = true;
                 try
                 {
                     return new XlsxIterator();
@@ -368,6 +434,10 @@ public class ExcelLoader extends DataLoader
                 {
                     /* fall through */
                 }
+                finally
+                {
+                    _continuePrefix = false;
+                }
             }
             return new ExcelIterator();
         }
@@ -388,6 +458,17 @@ public class ExcelLoader extends DataLoader
     @Override
     public void close()
     {
+        releasePrefixReader();
+    }
+
+    private void releasePrefixReader()
+    {
+        if (null != _prefixReader)
+        {
+            _prefixReader.close();
+            _prefixReader = null;
+        }
+        _prefixRows.clear();
     }
 
 
@@ -417,87 +498,269 @@ public class ExcelLoader extends DataLoader
 //    }
 
 
-    private List<List<?>> _parsedGridXLSX = null;
+    // Rows read by getFirstNLines() for type inference, along with the reader they came from, so that iterating the
+    // data afterwards picks up where inference stopped instead of parsing the sheet a second time. They're only kept
+    // while iterator() is inferring the columns; otherwise they're released as soon as getFirstNLines() returns.
+    private XlsxRowReader _prefixReader = null;
+    private final List<List<Object>> _prefixRows = new ArrayList<>();
+    private boolean _continuePrefix = false;
 
-    private List<List<?>> getParsedGridXLSX() throws IOException, InvalidFormatException
+    private OPCPackage openXLSX() throws IOException, InvalidFormatException
     {
-        if (null == _parsedGridXLSX)
-            _parsedGridXLSX = loadSheetFromXLSX();
-        return _parsedGridXLSX;
+        try
+        {
+            return OPCPackage.open(_file.getPath(), PackageAccess.READ);
+        }
+        catch (InvalidOperationException | UnsupportedFileFormatException x)
+        {
+            throw new InvalidFormatException("File is not an xlsx file: " + _file.getPath());
+        }
     }
 
-    private List<List<?>> loadSheetFromXLSX() throws IOException, InvalidFormatException
+    private List<String> getSheetNamesXLSX() throws IOException, InvalidFormatException
     {
-        OPCPackage xlsxPackage = null;
+        OPCPackage xlsxPackage = openXLSX();
         try
         {
-            List<List<Object>> collect = new LinkedList<>();
-            xlsxPackage = OPCPackage.open(_file.getPath(), PackageAccess.READ);
-            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(xlsxPackage);
-            XSSFReader xssfReader = new XSSFReader(xlsxPackage);
-            StylesTable styles = xssfReader.getStylesTable();
-            XSSFReader.SheetIterator iter = (XSSFReader.SheetIterator) xssfReader.getSheetsData();
+            List<String> names = new ArrayList<>();
+            XSSFReader.SheetIterator iter = (XSSFReader.SheetIterator) new XSSFReader(xlsxPackage).getSheetsData();
             while (iter.hasNext())
             {
-                InputStream stream = iter.next();
-                if (getSheet().getSheetName().equals(iter.getSheetName()))
-                {
-                    InputSource sheetSource = new InputSource(stream);
-                    SAXParserFactory saxFactory = SAXParserFactory.newInstance();
-                    SAXParser saxParser = saxFactory.newSAXParser();
-                    XMLReader sheetParser = saxParser.getXMLReader();
-                    SheetHandler handler = new SheetHandler(styles, strings, 1, collect, getIsStartDate1904());
-                    sheetParser.setContentHandler(handler);
-                    sheetParser.parse(sheetSource);
-                    break;
-                }
+                iter.next().close();
+                names.add(iter.getSheetName());
             }
-            List<List<?>> ret = new ArrayList<>(collect.size());
-            ret.addAll(collect);
-            return ret;
+            return names;
         }
         catch (POIXMLException x)
         {
             throw new InvalidFormatException("File is not a valid xlsx file: " + _file.getName() + (x.getMessage() == null ? "" : x.getMessage()));
         }
-        catch (InvalidOperationException | UnsupportedFileFormatException x)
+        finally
         {
-            throw new InvalidFormatException("File is not an xlsx file: " + _file.getPath());
+            xlsxPackage.revert();
         }
-        catch (InvalidFormatException | IOException x)
+    }
+
+
+    /**
+     * Reads the selected sheet of an .xlsx file a row at a time, pulling just enough of the sheet's XML through
+     * SheetHandler for each row. The sheet is found, and the date system read, without building the workbook, and cell
+     * text comes from a SharedStringsIndex, so neither the sheet nor the workbook's strings need to fit on the heap.
+     * The file is closed when the last row has been read or on close().
+     */
+    private class XlsxRowReader implements Closeable
+    {
+        private final ArrayDeque<List<Object>> _rows = new ArrayDeque<>();
+        private final AttributesImpl _attributes = new AttributesImpl();
+
+        private OPCPackage _package;
+        private SharedStringsIndex _strings;
+        private InputStream _stream;
+        private SimpleXMLStreamReader _xml;
+        private SheetHandler _handler;
+        private boolean _closed = false;
+
+        XlsxRowReader() throws IOException, InvalidFormatException
         {
-            throw x;
+            boolean opened = false;
+            try
+            {
+                _package = openXLSX();
+                XSSFReader xssfReader = new XSSFReader(_package);
+                boolean isStartDate1904 = isStartDate1904(xssfReader);
+                _stream = openSheet(xssfReader);
+                _strings = SharedStringsIndex.load(_package);
+                _xml = new SimpleXMLStreamReader(_stream);
+                _handler = new SheetHandler(xssfReader.getStylesTable(), _strings, 1, _rows, isStartDate1904);
+                opened = true;
+            }
+            catch (POIXMLException x)
+            {
+                throw new InvalidFormatException("File is not a valid xlsx file: " + _file.getName() + (x.getMessage() == null ? "" : x.getMessage()));
+            }
+            catch (InvalidFormatException | IOException x)
+            {
+                throw x;
+            }
+            catch (Exception x)
+            {
+                throw new IOException(x);
+            }
+            finally
+            {
+                if (!opened)
+                    close();
+            }
         }
-        catch (Exception x)
+
+        private boolean isStartDate1904(XSSFReader xssfReader) throws IOException, InvalidFormatException, XMLStreamException
         {
-            throw new IOException(x);
+            if (null == _isStartDate1904)
+            {
+                try (InputStream is = xssfReader.getWorkbookData())
+                {
+                    SimpleXMLStreamReader xml = new SimpleXMLStreamReader(is);
+                    try
+                    {
+                        String date1904 = xml.skipToStart("workbookPr") ? xml.getAttributeValue(null, "date1904") : null;
+                        _isStartDate1904 = "1".equals(date1904) || "true".equalsIgnoreCase(date1904);
+                    }
+                    finally
+                    {
+                        xml.close();
+                    }
+                }
+            }
+            return _isStartDate1904;
         }
-        finally
+
+        // Sheet names match case-insensitively and indexes follow the workbook's order of sheets, as with Workbook.getSheet() and getSheetAt()
+        private InputStream openSheet(XSSFReader xssfReader) throws IOException, InvalidFormatException
         {
-            if (null != xlsxPackage)
-                xlsxPackage.revert();
+            int targetIndex = null != sheetIndex ? sheetIndex : 0;
+            XSSFReader.SheetIterator iter = (XSSFReader.SheetIterator) xssfReader.getSheetsData();
+
+            for (int index = 0; iter.hasNext(); index++)
+            {
+                InputStream stream = iter.next();
+                if (null != sheetName ? sheetName.equalsIgnoreCase(iter.getSheetName()) : index == targetIndex)
+                    return stream;
+                stream.close();
+            }
+
+            throw new IOException(null != sheetName ? "Sheet '" + sheetName + "' not found in Excel file" : "Invalid Excel file");
+        }
+
+        /** @return the next row of the sheet, or null at the end */
+        @Nullable List<Object> next() throws IOException
+        {
+            if (_closed)
+                return null;
+
+            try
+            {
+                // SheetHandler queues each row when it starts, so a row is ready once the handler has seen its end
+                while ((_rows.isEmpty() || null != _handler.currentRow) && _xml.hasNext())
+                {
+                    switch (_xml.next())
+                    {
+                        case XMLStreamConstants.START_ELEMENT:
+                            String startName = _xml.getLocalName();
+                            _handler.startElement(null, startName, startName, "c".equals(startName) ? getAttributes() : null);
+                            break;
+                        case XMLStreamConstants.END_ELEMENT:
+                            String endName = _xml.getLocalName();
+                            _handler.endElement(null, endName, endName);
+                            break;
+                        case XMLStreamConstants.CHARACTERS:
+                        case XMLStreamConstants.CDATA:
+                        case XMLStreamConstants.SPACE:
+                            _handler.characters(_xml.getTextCharacters(), _xml.getTextStart(), _xml.getTextLength());
+                            break;
+                    }
+                }
+            }
+            catch (XMLStreamException | SAXException x)
+            {
+                close();
+                throw new IOException("Error reading Excel file " + _file.getName(), x);
+            }
+
+            List<Object> row = _rows.pollFirst();
+            if (null == row)
+                close();
+            return row;
+        }
+
+        // Only cell elements have attributes that SheetHandler reads
+        private Attributes getAttributes()
+        {
+            _attributes.clear();
+            for (int i = 0; i < _xml.getAttributeCount(); i++)
+            {
+                String name = _xml.getAttributeLocalName(i);
+                _attributes.addAttribute("", name, name, "CDATA", _xml.getAttributeValue(i));
+            }
+            return _attributes;
+        }
+
+        @Override
+        public void close()
+        {
+            if (_closed)
+                return;
+            _closed = true;
+
+            try
+            {
+                if (null != _xml)
+                    _xml.close();
+            }
+            catch (XMLStreamException ignored)
+            {
+            }
+            IOUtils.closeQuietly(_stream);
+            IOUtils.closeQuietly(_strings);
+            if (null != _package)
+                _package.revert();
         }
     }
 
 
     private class XlsxIterator extends DataLoaderIterator
     {
-        final List<List<?>> grid;
+        private final XlsxRowReader reader;
+        private final List<List<Object>> prefix;
+        private int rowsRead = 0;
 
         XlsxIterator() throws IOException, InvalidFormatException
         {
             super(_skipLines == -1 ? 1 : _skipLines);
-            grid = getParsedGridXLSX();
+
+            // Inferring the columns (in the super constructor, if not before) read the start of the sheet; continue from there
+            if (null != _prefixReader)
+            {
+                reader = _prefixReader;
+                prefix = new ArrayList<>(_prefixRows);
+                _prefixReader = null;
+                _prefixRows.clear();
+            }
+            else
+            {
+                reader = new XlsxRowReader();
+                prefix = Collections.emptyList();
+            }
+        }
+
+        private @Nullable List<Object> nextRow() throws IOException
+        {
+            List<Object> row;
+            if (rowsRead < prefix.size())
+            {
+                row = prefix.get(rowsRead);
+                prefix.set(rowsRead, null);
+            }
+            else
+            {
+                row = reader.next();
+            }
+            rowsRead++;
+            return row;
         }
 
         @Override
         protected Object[] readFields() throws IOException
         {
-            if (lineNum() >= grid.size())
-                return null;
+            // Skip the header lines, then read the row at lineNum()
+            List<Object> row = null;
+            while (rowsRead <= lineNum())
+            {
+                row = nextRow();
+                if (null == row)
+                    return null;
+            }
 
             ColumnDescriptor[] allColumns = getColumns();
-            List<?> row = grid.get(lineNum());
             Object[] fields = new Object[_activeColumns.length];
             for (int columnIndex = 0, fieldIndex = 0; columnIndex < row.size() && columnIndex < allColumns.length; columnIndex++)
             {
@@ -509,6 +772,13 @@ public class ExcelLoader extends DataLoader
             }
             return fields;
         }
+
+        @Override
+        public void close() throws IOException
+        {
+            reader.close();
+            super.close();
+        }
     }
 
 
@@ -712,6 +982,179 @@ public class ExcelLoader extends DataLoader
             assertEquals("2.4409999999999998", xl._toString("2.4409999999999998", false));
             assertEquals("0.000001572", xl._toString("0.000001572", true));
         }
+
+        @Test
+        public void testStreamingXlsx() throws Exception
+        {
+            File file = new File(JunitUtil.getSampleData(null, "dataLoading/excel"), "SimpleExcelFile.xlsx");
+
+            try (ExcelLoader loader = new ExcelLoader(file, true))
+            {
+                assertFalse(loader.getSheetNames().isEmpty());
+
+                // The first load continues from the rows read to infer the columns; the second reads the sheet afresh
+                List<Map<String, Object>> first = loader.load();
+                assertNull(loader._prefixReader);
+                List<Map<String, Object>> second = loader.load();
+
+                assertFalse(first.isEmpty());
+                assertEquals(first, second);
+
+                // Inferring the columns on their own doesn't leave the file open
+                try (ExcelLoader columnsOnly = new ExcelLoader(file, true))
+                {
+                    assertTrue(columnsOnly.getColumns().length > 0);
+                    assertNull(columnsOnly._prefixReader);
+                    assertEquals(first, columnsOnly.load());
+                }
+            }
+
+            try (ExcelLoader loader = new ExcelLoader(file, true))
+            {
+                loader.setSheetIndex(99);
+                loader.getFirstNLines(1);
+                fail("Expected an invalid sheet index to fail");
+            }
+            catch (IOException e)
+            {
+                assertEquals("Invalid Excel file", e.getMessage());
+            }
+        }
+
+        @Test
+        public void testStreamingGenerated() throws Exception
+        {
+            final int ROWS = 500;
+            File file = createSpreadsheet(ROWS, 5);
+
+            try
+            {
+                // Loading everything and iterating must both return every row, past the rows read to infer the columns
+                List<Map<String, Object>> expected;
+                try (ExcelLoader loader = new ExcelLoader(file, true))
+                {
+                    expected = loader.load();
+                }
+                assertEquals(ROWS, expected.size());
+                for (int r = 1; r <= ROWS; r++)
+                {
+                    Map<String, Object> row = expected.get(r - 1);
+                    assertEquals(r, ((Number) row.get("col0")).intValue());
+                    assertEquals("value " + r + "-4", row.get("col4"));
+                }
+
+                try (ExcelLoader loader = new ExcelLoader(file, true); CloseableIterator<Map<String, Object>> it = loader.iterator())
+                {
+                    List<Map<String, Object>> rows = new ArrayList<>();
+                    while (it.hasNext())
+                        rows.add(it.next());
+                    assertEquals(expected, rows);
+                }
+            }
+            finally
+            {
+                file.delete();
+            }
+        }
+
+        static File createSpreadsheet(int rows, int columns) throws IOException
+        {
+            File file = File.createTempFile("streaming", ".xlsx", FileUtil.getTempDirectory());
+
+            SXSSFWorkbook workbook = new SXSSFWorkbook(new XSSFWorkbook(), 100, true, true);
+            try (OutputStream out = new FileOutputStream(file))
+            {
+                Sheet sheet = workbook.createSheet("data");
+                Row header = sheet.createRow(0);
+                for (int c = 0; c < columns; c++)
+                    header.createCell(c).setCellValue("col" + c);
+                for (int r = 1; r <= rows; r++)
+                {
+                    Row row = sheet.createRow(r);
+                    row.createCell(0).setCellValue(r);
+                    for (int c = 1; c < columns; c++)
+                        row.createCell(c).setCellValue("value " + r + "-" + c);
+                }
+                workbook.write(out);
+            }
+            finally
+            {
+                workbook.dispose();
+                workbook.close();
+            }
+
+            return file;
+        }
+    }
+
+
+    /** Benchmarks reading a large spreadsheet; not part of the regular test runs */
+    @TestWhen(TestWhen.When.PERFORMANCE)
+    public static class StreamingPerfTestCase extends Assert
+    {
+        // Peak heap while reading a generated spreadsheet row by row, compared with holding all of its rows (as the
+        // .xlsx reader used to, before handing them out) and with building the workbook. Peaks are summed over the
+        // heap pools, so they're only a rough guide.
+        @Test
+        public void testStreamingPeakHeap() throws Exception
+        {
+            final int ROWS = 200_000;
+            final int COLUMNS = 5;
+
+            File file = ExcelLoaderTestCase.createSpreadsheet(ROWS, COLUMNS);
+
+            try
+            {
+                for (String mode : new String[] {"workbook", "all rows", "streaming"})
+                {
+                    System.gc();
+                    List<MemoryPoolMXBean> pools = new ArrayList<>();
+                    long baseline = 0;
+                    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+                    {
+                        if (pool.getType() == MemoryType.HEAP && pool.isValid())
+                        {
+                            pool.resetPeakUsage();
+                            pools.add(pool);
+                            baseline += pool.getUsage().getUsed();
+                        }
+                    }
+                    long start = System.currentTimeMillis();
+                    int count = 0;
+
+                    try (ExcelLoader loader = "workbook".equals(mode) ? new ExcelLoader(ExcelFactory.create(file), true, null) : new ExcelLoader(file, true))
+                    {
+                        if ("all rows".equals(mode))
+                        {
+                            count = loader.load().size();
+                        }
+                        else
+                        {
+                            try (CloseableIterator<Map<String, Object>> it = loader.iterator())
+                            {
+                                while (it.hasNext())
+                                {
+                                    it.next();
+                                    count++;
+                                }
+                            }
+                        }
+                    }
+
+                    long peak = 0;
+                    for (MemoryPoolMXBean pool : pools)
+                        peak += pool.getPeakUsage().getUsed();
+
+                    assertEquals(ROWS, count);
+                    _log.info("ExcelLoader " + mode + " read of " + ROWS + " x " + COLUMNS + " .xlsx (" + FileUtils.byteCountToDisplaySize(file.length()) + "): " +
+                            ((peak - baseline) / 1024) + " KB peak heap above baseline, " + (System.currentTimeMillis() - start) + " ms");
+                }
+            }
+            finally
+            {
+                file.delete();
+            }
+        }
     }
 
 
@@ -756,7 +1199,7 @@ public class ExcelLoader extends DataLoader
         /**
          * Table with unique strings
          */
-        private final ReadOnlySharedStringsTable sharedStringsTable;
+        private final SharedStringsIndex sharedStringsTable;
 
         /**
          * Destination for data
@@ -800,7 +1243,7 @@ public class ExcelLoader extends DataLoader
          */
         SheetHandler(
                 StylesTable styles,
-                ReadOnlySharedStringsTable strings,
+                SharedStringsIndex strings,
                 int cols,
                 Collection<List<Object>> target, boolean isStartDate1904)
         {
@@ -892,7 +1335,7 @@ public class ExcelLoader extends DataLoader
            * @see org.xml.sax.helpers.DefaultHandler#endElement(java.lang.String, java.lang.String, java.lang.String)
            */
         @Override
-        public void endElement(String uri, String localName, String name)
+        public void endElement(String uri, String localName, String name) throws SAXException
         {
             Object thisValue = null;
 
@@ -929,7 +1372,7 @@ public class ExcelLoader extends DataLoader
                         try
                         {
                             int idx = Integer.parseInt(sstIndex);
-                            String raw = sharedStringsTable.getEntryAt(idx);
+                            String raw = sharedStringsTable.get(idx);
 //                          XSSFRichTextString is really expensive, put this back if we need it (examples anyone?)
 //                            XSSFRichTextString rtss = new XSSFRichTextString(sharedStringsTable.getEntryAt(idx));
 //                            thisValue = rtss.toString();
@@ -939,6 +1382,10 @@ public class ExcelLoader extends DataLoader
                         {
                             thisValue = "Failed to parse SST index '" + sstIndex + "': " + ex.toString();
                         }
+                        catch (IOException ex)
+                        {
+                            throw new SAXException(ex);
+                        }
                         break;
 
                     case NUMBER:
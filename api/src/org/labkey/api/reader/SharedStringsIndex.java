@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2021 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.api.reader;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackagePart;
+import org.apache.poi.xssf.usermodel.XSSFRelation;
+import org.jetbrains.annotations.Nullable;
+import org.junit.Assert;
+import org.junit.Test;
+import org.labkey.api.util.FileUtil;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The shared strings table of an .xlsx workbook, which holds the text of every string cell in every sheet. Small
+ * tables are kept on the heap, like POI's ReadOnlySharedStringsTable. Once the text passes a threshold, it's spilled
+ * to a temp file as UTF-8, with the offset of each string in a second file, so a workbook with millions of distinct
+ * strings can be read without holding them all in memory. Spilled strings are read with positional reads through a
+ * small LRU cache, since nearby rows tend to repeat values. Not thread-safe.
+ */
+public class SharedStringsIndex implements Closeable
+{
+    // Keep up to this many characters of text on the heap before spilling to disk
+    private static final long MAX_IN_MEMORY_CHARS = 4 * 1024 * 1024;
+    private static final int CACHE_SIZE = 10_000;
+
+    private final long _maxInMemoryChars;
+
+    private @Nullable List<String> _strings = new ArrayList<>();
+    private long _chars = 0;
+    private int _count = 0;
+
+    // Set once spilled
+    private File _dataFile = null;
+    private File _offsetsFile = null;
+    private DataOutputStream _data = null;
+    private DataOutputStream _offsets = null;
+    private long _dataSize = 0;
+    private RandomAccessFile _dataReader = null;
+    private RandomAccessFile _offsetsReader = null;
+    private final ByteBuffer _offsetBuffer = ByteBuffer.allocate(2 * Long.BYTES);
+
+    private final Map<Integer, String> _cache = new LinkedHashMap<>(16, 0.75f, true)
+    {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest)
+        {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    SharedStringsIndex(long maxInMemoryChars)
+    {
+        _maxInMemoryChars = maxInMemoryChars;
+    }
+
+    /** Reads the package's shared strings part, if it has one */
+    static SharedStringsIndex load(OPCPackage pkg) throws IOException, XMLStreamException
+    {
+        SharedStringsIndex index = new SharedStringsIndex(MAX_IN_MEMORY_CHARS);
+        List<PackagePart> parts = pkg.getPartsByContentType(XSSFRelation.SHARED_STRINGS.getContentType());
+
+        if (!parts.isEmpty())
+        {
+            try (InputStream is = parts.get(0).getInputStream())
+            {
+                index.read(is);
+            }
+            catch (IOException | XMLStreamException | RuntimeException e)
+            {
+                index.close();
+                throw e;
+            }
+        }
+
+        return index;
+    }
+
+    // Each <si> is a plain <t> or a list of rich text runs, each with a <t>; as in ReadOnlySharedStringsTable, a
+    // string's text is all of its <t> contents concatenated
+    void read(InputStream is) throws IOException, XMLStreamException
+    {
+        SimpleXMLStreamReader xml = new SimpleXMLStreamReader(is);
+        StringBuilder text = new StringBuilder();
+        boolean inString = false;
+        boolean inText = false;
+
+        try
+        {
+            while (xml.hasNext())
+            {
+                switch (xml.next())
+                {
+                    case XMLStreamConstants.START_ELEMENT:
+                        if ("si".equals(xml.getLocalName()))
+                        {
+                            inString = true;
+                            text.setLength(0);
+                        }
+                        else if (inString && "t".equals(xml.getLocalName()))
+                        {
+                            inText = true;
+                        }
+                        break;
+                    case XMLStreamConstants.END_ELEMENT:
+                        if ("si".equals(xml.getLocalName()))
+                        {
+                            inString = false;
+                            add(text.toString());
+                        }
+                        else if ("t".equals(xml.getLocalName()))
+                        {
+                            inText = false;
+                        }
+                        break;
+                    case XMLStreamConstants.CHARACTERS:
+                    case XMLStreamConstants.CDATA:
+                    case XMLStreamConstants.SPACE:
+                        if (inText)
+                            text.append(xml.getTextCharacters(), xml.getTextStart(), xml.getTextLength());
+                        break;
+                }
+            }
+        }
+        finally
+        {
+            xml.close();
+        }
+
+        finishLoading();
+    }
+
+    void add(String s) throws IOException
+    {
+        if (null != _strings)
+        {
+            _strings.add(s);
+            _chars += s.length();
+            _count++;
+
+            if (_chars > _maxInMemoryChars)
+                spill();
+        }
+        else
+        {
+            write(s);
+        }
+    }
+
+    private void spill() throws IOException
+    {
+        _dataFile = File.createTempFile("sharedStrings", ".dat", FileUtil.getTempDirectory());
+        _dataFile.deleteOnExit();
+        _offsetsFile = File.createTempFile("sharedStrings", ".idx", FileUtil.getTempDirectory());
+        _offsetsFile.deleteOnExit();
+        _data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(_dataFile), 64 * 1024));
+        _offsets = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(_offsetsFile), 64 * 1024));
+
+        List<String> strings = _strings;
+        _strings = null;
+        _count = 0;
+
+        for (String s : strings)
+            write(s);
+    }
+
+    private void write(String s) throws IOException
+    {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        _offsets.writeLong(_dataSize);
+        _data.write(bytes);
+        _dataSize += bytes.length;
+        _count++;
+    }
+
+    // Done adding: close the spill files and open them for reading, with a final offset marking the end of the last string
+    void finishLoading() throws IOException
+    {
+        if (null == _data)
+            return;
+
+        _offsets.writeLong(_dataSize);
+        _offsets.close();
+        _offsets = null;
+        _data.close();
+        _data = null;
+
+        _dataReader = new RandomAccessFile(_dataFile, "r");
+        _offsetsReader = new RandomAccessFile(_offsetsFile, "r");
+    }
+
+    boolean isSpilled()
+    {
+        return null == _strings;
+    }
+
+    int size()
+    {
+        return _count;
+    }
+
+    String get(int idx) throws IOException
+    {
+        if (idx < 0 || idx >= _count)
+            throw new IndexOutOfBoundsException("Shared string index " + idx + " is out of range; the workbook has " + _count + " shared strings");
+
+        if (null != _strings)
+            return _strings.get(idx);
+
+        String s = _cache.get(idx);
+        if (null == s)
+        {
+            s = readSpilled(idx);
+            _cache.put(idx, s);
+        }
+        return s;
+    }
+
+    private String readSpilled(int idx) throws IOException
+    {
+        _offsetBuffer.clear();
+        readFully(_offsetsReader.getChannel(), _offsetBuffer, (long) idx * Long.BYTES);
+        _offsetBuffer.flip();
+        long start = _offsetBuffer.getLong();
+        long end = _offsetBuffer.getLong();
+
+        ByteBuffer bytes = ByteBuffer.allocate((int) (end - start));
+        readFully(_dataReader.getChannel(), bytes, start);
+        return new String(bytes.array(), 0, bytes.position(), StandardCharsets.UTF_8);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining())
+        {
+            int read = channel.read(buffer, position);
+            if (read < 0)
+                throw new IOException("Unexpected end of shared strings file");
+            position += read;
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        _strings = null;
+        _cache.clear();
+        IOUtils.closeQuietly(_data);
+        IOUtils.closeQuietly(_offsets);
+        IOUtils.closeQuietly(_dataReader);
+        IOUtils.closeQuietly(_offsetsReader);
+        _data = _offsets = null;
+        _dataReader = _offsetsReader = null;
+
+        if (null != _dataFile)
+            _dataFile.delete();
+        if (null != _offsetsFile)
+            _offsetsFile.delete();
+    }
+
+    public static class TestCase extends Assert
+    {
+        private static final String XML =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n" +
+            "<sst xmlns=\"http://schemas.openxmlformats.org/spreadsheetml/2006/main\" count=\"4\" uniqueCount=\"4\">" +
+            "<si><t>Alpha</t></si>" +
+            "<si><t xml:space=\"preserve\"> spaced </t></si>" +
+            "<si><r><rPr><b/></rPr><t>Rich</t></r><r><t xml:space=\"preserve\"> text</t></r></si>" +
+            "<si><t>ünicøde &amp; entities</t></si>" +
+            "</sst>";
+
+        private static SharedStringsIndex read(long maxInMemoryChars) throws Exception
+        {
+            SharedStringsIndex index = new SharedStringsIndex(maxInMemoryChars);
+            index.read(new ByteArrayInputStream(XML.getBytes(StandardCharsets.UTF_8)));
+            return index;
+        }
+
+        private static void check(SharedStringsIndex index) throws IOException
+        {
+            assertEquals(4, index.size());
+            assertEquals("Alpha", index.get(0));
+            assertEquals(" spaced ", index.get(1));
+            assertEquals("Rich text", index.get(2));
+            assertEquals("ünicøde & entities", index.get(3));
+            assertEquals("Alpha", index.get(0));
+        }
+
+        @Test
+        public void testInMemory() throws Exception
+        {
+            try (SharedStringsIndex index = read(MAX_IN_MEMORY_CHARS))
+            {
+                assertFalse(index.isSpilled());
+                check(index);
+            }
+        }
+
+        @Test
+        public void testSpilled() throws Exception
+        {
+            SharedStringsIndex index = read(6);
+            File dataFile = index._dataFile;
+
+            try
+            {
+                assertTrue(index.isSpilled());
+                check(index);
+            }
+            finally
+            {
+                index.close();
+            }
+
+            assertFalse(dataFile.exists());
+        }
+
+        @Test(expected = IndexOutOfBoundsException.class)
+        public void testOutOfRange() throws Exception
+        {
+            try (SharedStringsIndex index = read(6))
+            {
+                index.get(4);
+            }
+        }
+    }
+}
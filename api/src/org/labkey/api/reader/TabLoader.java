@@ -15,6 +15,7 @@
  */
 package org.labkey.api.reader;
 
+import org.apache.commons.beanutils.ConvertUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.io.input.CharSequenceReader;
 import org.apache.commons.lang3.StringEscapeUtils;
@@ -30,10 +31,13 @@ import org.labkey.api.dataiterator.HashDataIterator;
 import org.labkey.api.iterator.BeanIterator;
 import org.labkey.api.iterator.CloseableFilteredIterator;
 import org.labkey.api.iterator.CloseableIterator;
+import org.labkey.api.test.TestWhen;
 import org.labkey.api.util.FileType;
 import org.labkey.api.util.FileUtil;
 import org.labkey.api.util.Filter;
+import org.labkey.api.util.JobRunner;
 import org.labkey.api.util.JunitUtil;
+import org.labkey.api.util.UnexpectedException;
 import org.labkey.api.writer.PrintWriters;
 
 import java.io.File;
@@ -46,6 +50,7 @@ import java.io.StringReader;
 import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
@@ -53,6 +58,9 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.function.Consumer;
 import java.util.regex.Pattern;
 
@@ -173,6 +181,14 @@ public class TabLoader extends DataLoader
 
     protected static char COMMENT_CHAR = '#';
 
+    // Files at least this big are tokenized in parallel by default, see setParallelParsing()
+    private static final long PARALLEL_PARSING_MIN_FILE_SIZE = 64 * 1024 * 1024;
+    // Records per chunk handed to the parsing pool
+    private static final int PARALLEL_CHUNK_RECORDS = 1000;
+    // A dedicated pool, so big imports neither starve nor wait behind other users of the common pool
+    private static final int PARSER_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    private static final JobRunner PARSER = new JobRunner("Tab parsing", PARSER_THREADS);
+
     // source data
     private final ReaderFactory _readerFactory;
     private final Map<String, String> _comments = new HashMap<>();
@@ -183,10 +199,15 @@ public class TabLoader extends DataLoader
     private String _strDelimiter = new String(new char[]{_chDelimiter});
     private String _lineDelimiter = null;
 
-    private String _strQuote = null;
-    private String _strQuoteQuote = null;
+    private static final char QUOTE = '"';
+    private static final String STR_QUOTE = "\"";
+    private static final String STR_QUOTE_QUOTE = "\"\"";
+    private static final Pattern DOUBLE_QUOTES = Pattern.compile("\"\"");
+
     private boolean _parseQuotes = true;
     private boolean _unescapeBackslashes = true;
+    private boolean _parallelParsing = false;
+    private boolean _directParsing = true;
     private Filter<Map<String, Object>> _mapFilter;
 
     // Infer whether there are headers
@@ -209,6 +230,7 @@ public class TabLoader extends DataLoader
         }, hasColumnHeaders, mvIndicatorContainer);
 
         setScrollable(true);
+        setParallelParsing(inputFile.length() >= PARALLEL_PARSING_MIN_FILE_SIZE);
     }
 
     // Infer whether there are headers
@@ -332,7 +354,7 @@ public class TabLoader extends DataLoader
         return value;
     }
 
-    private final ArrayList<String> listParse = new ArrayList<>(30);
+    private final ArrayList<Object> listParse = new ArrayList<>(30);
 
     private CharSequence readLine(TabBufferedReader r, boolean skipComments, boolean skipBlankLines)
     {
@@ -376,15 +398,114 @@ public class TabLoader extends DataLoader
         }
     }
 
-    Pattern _replaceDoubleQuotes = null;
-
     private String[] readFields(TabBufferedReader r, @Nullable ColumnDescriptor[] columns)
+    {
+        return (String[]) readFields(r, columns, null);
+    }
+
+    private Object[] readFields(TabBufferedReader r, @Nullable ColumnDescriptor[] columns, @Nullable boolean[] directParse)
     {
         CharSequence line = readLine(r, true, !isIncludeBlankLines());
 
         if (line == null)
             return null;
 
+        return splitFields(line, columns, directParse, r, listParse);
+    }
+
+    /**
+     * Reads the next record, joining lines while a quoted value continues onto the next one, without parsing its
+     * fields. The record can then be split on any thread with splitFields().
+     */
+    private @Nullable CharSequence readRecord(TabBufferedReader r)
+    {
+        CharSequence line = readLine(r, true, !isIncludeBlankLines());
+
+        if (line == null || !_parseQuotes)
+            return line;
+
+        StringBuilder buf = null;
+
+        while (!isRecordComplete(line))
+        {
+            CharSequence nextLine = readLine(r, false, false);
+            if (nextLine == null)
+                break;
+
+            if (buf == null)
+                buf = new StringBuilder(line);
+            buf.append('\n');
+            buf.append(nextLine);
+            line = buf;
+        }
+
+        return line;
+    }
+
+    // Walks the fields the same way splitFields() does, just to find out whether a quoted value is still open
+    private boolean isRecordComplete(CharSequence line)
+    {
+        String buf = line.toString();
+        int start = 0;
+
+        while (start < buf.length())
+        {
+            int end;
+            char ch = buf.charAt(start);
+
+            if (ch == _chDelimiter)
+            {
+                end = start;
+            }
+            else if (ch == QUOTE)
+            {
+                end = start;
+
+                while (true)
+                {
+                    end = buf.indexOf(QUOTE, end + 1);
+                    if (end == -1)
+                        return false;
+                    if (end == buf.length() - 1 || buf.charAt(end + 1) != QUOTE)
+                        break;
+                    end++;
+                }
+
+                end++;
+
+                if (end < buf.length() && buf.charAt(end) != _chDelimiter)
+                {
+                    end = buf.indexOf(_strDelimiter, end);
+                    if (-1 == end)
+                        end = buf.length();
+                }
+            }
+            else
+            {
+                end = buf.indexOf(_strDelimiter, start);
+                if (end == -1)
+                    end = buf.length();
+            }
+
+            end += _strDelimiter.length();
+
+            while (end < buf.length() && buf.charAt(end) != _chDelimiter && Character.isWhitespace(buf.charAt(end)))
+                end++;
+
+            start = end;
+        }
+
+        return true;
+    }
+
+    /**
+     * Splits a record into its fields. Safe to call from any thread as long as fieldList isn't shared.
+     * @param directParse columns whose unquoted values are parsed to numbers straight from the line, see getDirectParseColumns();
+     * if null, every field is a String (or null)
+     * @param r supplies more lines if a quoted value continues past the end of the line; null if the record is complete
+     */
+    private Object[] splitFields(CharSequence line, @Nullable ColumnDescriptor[] columns, @Nullable boolean[] directParse, @Nullable TabBufferedReader r, ArrayList<Object> fieldList)
+    {
         if (!_parseQuotes)
         {
             String[] fields = StringUtils.splitByWholeSeparator(line.toString(), _strDelimiter);
@@ -395,16 +516,15 @@ public class TabLoader extends DataLoader
 
         StringBuilder buf = line instanceof StringBuilder ? (StringBuilder)line : new StringBuilder(line);
 
-        String field = null;
+        Object field = null;
         int start = 0, colIndex = 0;
-        listParse.clear();
+        fieldList.clear();
 
         while (start < buf.length())
         {
             boolean loadThisColumn = null==columns || colIndex >= columns.length || columns[colIndex].load;
             int end;
             char ch = buf.charAt(start);
-            char chQuote = '"';
 
             colIndex++;
 
@@ -413,26 +533,19 @@ public class TabLoader extends DataLoader
                 end = start;
                 field = _preserveEmptyString ? null : "";
             }
-            else if (ch == chQuote)
+            else if (ch == QUOTE)
             {
-                if (_strQuote == null)
-                {
-                    _strQuote = new String(new char[] {chQuote});
-                    _strQuoteQuote = new String(new char[] {chQuote, chQuote});
-                    _replaceDoubleQuotes = Pattern.compile("\\" + chQuote + "\\" + chQuote);
-                }
-
                 end = start;
                 boolean hasQuotes = false;
 
                 while (true)
                 {
-                    end = buf.indexOf(_strQuote, end + 1);
+                    end = buf.indexOf(STR_QUOTE, end + 1);
 
                     if (end == -1)
                     {
                         // XXX: limit number of lines we read
-                        CharSequence nextLine = readLine(r, false, false);
+                        CharSequence nextLine = null == r ? null : readLine(r, false, false);
                         end = buf.length();
                         if (nextLine == null)
                         {
@@ -445,15 +558,19 @@ public class TabLoader extends DataLoader
                         continue;
                     }
 
-                    if (end == buf.length() - 1 || buf.charAt(end + 1) != chQuote)
+                    if (end == buf.length() - 1 || buf.charAt(end + 1) != QUOTE)
                         break;
                     hasQuotes = true;
                     end++; // skip double ""
                 }
 
-                field = buf.substring(start + 1, end);
-                if (hasQuotes && field.contains(_strQuoteQuote))
-                    field = _replaceDoubleQuotes.matcher(field).replaceAll("\"");
+                String quoted = null;
+                if (loadThisColumn)
+                {
+                    quoted = buf.substring(start + 1, end);
+                    if (hasQuotes && quoted.contains(STR_QUOTE_QUOTE))
+                        quoted = DOUBLE_QUOTES.matcher(quoted).replaceAll("\"");
+                }
 
                 // eat final "
                 end++;
@@ -469,8 +586,10 @@ public class TabLoader extends DataLoader
                     end = buf.indexOf(_strDelimiter, end);
                     if (-1 == end)
                         end = buf.length();
-                    field = field + buf.substring(start, end);
+                    if (loadThisColumn)
+                        quoted = quoted + buf.substring(start, end);
                 }
+                field = quoted;
             }
             else
             {
@@ -481,14 +600,15 @@ public class TabLoader extends DataLoader
                 // Grab and parse the field only if we're going to load it
                 if (loadThisColumn)
                 {
-                    field = buf.substring(start, end);
-                    field = parseValue(field);
+                    field = null == directParse || colIndex > directParse.length || !directParse[colIndex - 1] ? null : parseNumber(buf, start, end, columns[colIndex - 1].clazz);
+                    if (null == field)
+                        field = parseValue(buf, start, end);
                 }
             }
 
             // Add the field value only if we're inferring columns or column.load == true
             if (loadThisColumn)
-                listParse.add(field);
+                fieldList.add(field);
 
             // there should be a delimiter or an EOL here
             if (end < buf.length() && buf.charAt(end) != _chDelimiter)
@@ -502,7 +622,81 @@ public class TabLoader extends DataLoader
             start = end;
         }
 
-        return listParse.toArray(new String[listParse.size()]);
+        return fieldList.toArray(null == directParse ? new String[fieldList.size()] : new Object[fieldList.size()]);
+    }
+
+    // Trims before copying the value out of the line, so each value costs a single String
+    private String parseValue(CharSequence buf, int start, int end)
+    {
+        while (start < end && buf.charAt(start) <= ' ')
+            start++;
+        while (end > start && buf.charAt(end - 1) <= ' ')
+            end--;
+
+        return parseValue(buf.subSequence(start, end).toString());
+    }
+
+    /**
+     * Columns whose values can be parsed straight from the line into an Integer or Long, which is what their
+     * converter would return, without creating a String first. Only columns with the standard converter and no
+     * missing value handling qualify.
+     */
+    private static @Nullable boolean[] getDirectParseColumns(@Nullable ColumnDescriptor[] columns)
+    {
+        if (null == columns)
+            return null;
+
+        boolean[] directParse = new boolean[columns.length];
+        boolean any = false;
+
+        for (int i = 0; i < columns.length; i++)
+        {
+            ColumnDescriptor col = columns[i];
+            directParse[i] = col.load && !col.isMvEnabled() && !col.isMvIndicator() &&
+                    (col.clazz == Integer.class || col.clazz == Long.class) && col.converter == ConvertUtils.lookup(col.clazz);
+            any |= directParse[i];
+        }
+
+        return any ? directParse : null;
+    }
+
+    /**
+     * Parses an optionally signed run of decimal digits, ignoring surrounding whitespace, the same as
+     * Integer.parseInt() or Long.parseLong() would.
+     * @return null if the value is anything else (empty, "\N", out of range...), so the caller falls back to the String
+     */
+    static @Nullable Number parseNumber(CharSequence buf, int start, int end, Class<?> clazz)
+    {
+        while (start < end && buf.charAt(start) <= ' ')
+            start++;
+        while (end > start && buf.charAt(end - 1) <= ' ')
+            end--;
+
+        boolean negative = false;
+        if (start < end && (buf.charAt(start) == '-' || buf.charAt(start) == '+'))
+            negative = buf.charAt(start++) == '-';
+
+        // 18 digits always fit in a long
+        if (start == end || end - start > 18)
+            return null;
+
+        long value = 0;
+        for (int i = start; i < end; i++)
+        {
+            char ch = buf.charAt(i);
+            if (ch < '0' || ch > '9')
+                return null;
+            value = value * 10 + (ch - '0');
+        }
+
+        if (negative)
+            value = -value;
+
+        if (clazz == Long.class)
+            return value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE)
+            return null;
+        return (int) value;
     }
 
     @Deprecated // Just use a CloseableFilteredIterator.  TODO: Remove
@@ -569,6 +763,15 @@ public class TabLoader extends DataLoader
         _unescapeBackslashes = unescapeBackslashes;
     }
 
+    /**
+     * Split records into fields on a small dedicated thread pool, a chunk of records at a time, while the iterating thread
+     * reads ahead and consumes rows in file order. On by default for files of at least 64MB.
+     */
+    public void setParallelParsing(boolean parallelParsing)
+    {
+        _parallelParsing = parallelParsing;
+    }
+
     @Override
     public void close()
     {
@@ -656,6 +859,8 @@ public class TabLoader extends DataLoader
     public class TabLoaderIterator extends DataLoaderIterator
     {
         private final TabBufferedReader reader;
+        private final @Nullable boolean[] directParse;
+        private final @Nullable ParallelFieldReader parallelReader;
 
         protected TabLoaderIterator(boolean includeRowHash) throws IOException
         {
@@ -676,6 +881,10 @@ public class TabLoader extends DataLoader
                 if (col.converter == StringConverter && col.clazz == String.class)
                     col.converter = noopConverter;
             }
+
+            // The row hash is of the text as read, so don't parse any values early when we're computing it
+            directParse = _directParsing && !includeRowHash ? getDirectParseColumns(_columns) : null;
+            parallelReader = _parallelParsing ? new ParallelFieldReader(reader, _columns, directParse) : null;
         }
 
         @Override
@@ -683,6 +892,8 @@ public class TabLoader extends DataLoader
         {
             try
             {
+                if (null != parallelReader)
+                    parallelReader.cancel();
                 TabLoader.this.close();
             }
             finally
@@ -692,9 +903,129 @@ public class TabLoader extends DataLoader
         }
 
         @Override
-        protected String[] readFields()
+        protected Object[] readFields()
         {
-            return TabLoader.this.readFields(reader, _columns);
+            if (null != parallelReader)
+                return parallelReader.readFields();
+            return TabLoader.this.readFields(reader, _columns, directParse);
+        }
+    }
+
+    /**
+     * Reads records on the iterating thread and splits them into fields on the parsing pool, keeping a few
+     * chunks of records in flight ahead of the one being consumed. Rows come back in file order. A record that fails
+     * to parse throws when its turn comes, just as it would if parsed serially.
+     */
+    private class ParallelFieldReader
+    {
+        private final TabBufferedReader _reader;
+        private final @Nullable ColumnDescriptor[] _columns;
+        private final @Nullable boolean[] _directParse;
+        private final int _maxChunks = PARSER_THREADS + 1;
+        private final ArrayDeque<Future<Object[]>> _chunks = new ArrayDeque<>();
+
+        private Object[] _current = null;   // Object[] fields or the RuntimeException thrown parsing each record
+        private int _index = 0;
+        private boolean _eof = false;
+
+        private ParallelFieldReader(TabBufferedReader reader, @Nullable ColumnDescriptor[] columns, @Nullable boolean[] directParse)
+        {
+            _reader = reader;
+            _columns = columns;
+            _directParse = directParse;
+        }
+
+        private @Nullable Object[] readFields()
+        {
+            while (null == _current || _index >= _current.length)
+            {
+                submitChunks();
+                if (_chunks.isEmpty())
+                    return null;
+                _current = next();
+                _index = 0;
+            }
+
+            Object fields = _current[_index];
+            _current[_index++] = null;
+
+            if (fields instanceof RuntimeException)
+                throw (RuntimeException) fields;
+            return (Object[]) fields;
+        }
+
+        private Object[] next()
+        {
+            try
+            {
+                return _chunks.removeFirst().get();
+            }
+            catch (InterruptedException e)
+            {
+                cancel();
+                Thread.currentThread().interrupt();
+                throw UnexpectedException.wrap(e);
+            }
+            catch (ExecutionException e)
+            {
+                // split() captures parse failures per record, so this is something worse
+                cancel();
+                throw UnexpectedException.wrap(e.getCause());
+            }
+        }
+
+        private void submitChunks()
+        {
+            while (!_eof && _chunks.size() < _maxChunks)
+            {
+                List<CharSequence> records = new ArrayList<>(PARALLEL_CHUNK_RECORDS);
+
+                while (records.size() < PARALLEL_CHUNK_RECORDS)
+                {
+                    CharSequence record = readRecord(_reader);
+                    if (null == record)
+                    {
+                        _eof = true;
+                        break;
+                    }
+                    records.add(record);
+                }
+
+                if (!records.isEmpty())
+                {
+                    FutureTask<Object[]> task = new FutureTask<>(() -> split(records));
+                    PARSER.execute(task);
+                    _chunks.addLast(task);
+                }
+            }
+        }
+
+        private Object[] split(List<CharSequence> records)
+        {
+            ArrayList<Object> fieldList = new ArrayList<>(30);
+            Object[] result = new Object[records.size()];
+
+            for (int i = 0; i < result.length; i++)
+            {
+                try
+                {
+                    result[i] = splitFields(records.get(i), _columns, _directParse, null, fieldList);
+                }
+                catch (RuntimeException e)
+                {
+                    result[i] = e;
+                }
+            }
+
+            return result;
+        }
+
+        private void cancel()
+        {
+            _chunks.forEach(chunk -> chunk.cancel(false));
+            _chunks.clear();
+            _current = null;
+            _eof = true;
         }
     }
 
@@ -752,7 +1083,7 @@ public class TabLoader extends DataLoader
                 "1/2/2006\t96\t1543.3401\t858.3246\tFALSE\t1714.6346\t2029.6295\t2\t1\t0.19630894\t26.471083\t12.982442\t4\t92\t100\t9\t20248.762\tdescription\n" +
                 "2 January 2006\t164\t1624.442\t783.8968\tFALSE\t1565.779\t771.20935\t2\t1\t0.024676466\t11.3547325\t3.3645654\t5\t156\t187\t32\t12656.351\t\n";
 
-        private File _createTempFile(String data, String ext) throws IOException
+        private static File _createTempFile(String data, String ext) throws IOException
         {
             File f = File.createTempFile("junit", ext);
             f.deleteOnExit();
@@ -1108,6 +1439,154 @@ public class TabLoader extends DataLoader
             }
         }
 
+        /* Parallel parsing must return exactly what serial parsing does, across several chunks with a partial one last */
+        @Test
+        public void testParallelParsing() throws IOException
+        {
+            compareParallelParsing(600);
+        }
+
+        /* Parses the same file serially and in parallel, checks that the results match, and logs the rates */
+        static void compareParallelParsing(final int REPEAT) throws IOException
+        {
+            final String rows =
+                "Bob\t\"apple\norange\tgrape\"\t3\n" +
+                "# comment\n" +
+                "Bob\t\"one\n\"\"two\"\"\tthree\"\n" +
+                "\n" +
+                "\tred\\nblue\\tgreen\t4\n" +
+                "Fred\t\"quoted stuff\" unquoted\t1\n";
+
+            StringBuilder sb = new StringBuilder("Name\tMulti-Line\tAge\n");
+            for (int i = 0; i < REPEAT; i++)
+                sb.append(rows);
+            File f = _createTempFile(sb.toString(), ".tsv");
+
+            try
+            {
+                List<Map<String, Object>> expected = null;
+
+                for (boolean parallel : new boolean[] {false, true})
+                {
+                    try (TabLoader loader = new TabLoader(f, true))
+                    {
+                        loader.setParallelParsing(parallel);
+                        long start = System.nanoTime();
+                        List<Map<String, Object>> maps = loader.load();
+                        long elapsed = Math.max(1, System.nanoTime() - start);
+
+                        assertEquals(4 * REPEAT, maps.size());
+                        if (null == expected)
+                            expected = maps;
+                        else
+                            assertEquals(expected, maps);
+
+                        _log.info("TabLoader " + (parallel ? "parallel" : "serial") + " parsing: " + (f.length() * 1_000_000_000L / elapsed / 1024) + " KB/sec");
+                    }
+                }
+            }
+            finally
+            {
+                f.delete();
+            }
+        }
+
+        @Test
+        public void testParseNumber()
+        {
+            assertEquals(42, parseNumber("42", 0, 2, Integer.class));
+            assertEquals(-7, parseNumber("a\t -7 \tb", 2, 7, Integer.class));
+            assertEquals(5, parseNumber("+005", 0, 4, Integer.class));
+            assertEquals(Integer.MIN_VALUE, parseNumber("-2147483648", 0, 11, Integer.class));
+            assertNull(parseNumber("2147483648", 0, 10, Integer.class));
+            assertEquals(2147483648L, parseNumber("2147483648", 0, 10, Long.class));
+            assertNull(parseNumber("1234567890123456789", 0, 19, Long.class));
+            assertNull(parseNumber("1.5", 0, 3, Integer.class));
+            assertNull(parseNumber("\\N", 0, 2, Integer.class));
+            assertNull(parseNumber(" - ", 0, 3, Integer.class));
+            assertNull(parseNumber("", 0, 0, Integer.class));
+        }
+
+        /* Parsing values straight from the line must return exactly what parsing them from Strings does */
+        @Test
+        public void testDirectParsing() throws IOException
+        {
+            compareDirectParsing(200, 20);
+        }
+
+        /*
+         * Loads a wide integer file with and without parsing values straight from the line, checks that the results
+         * match, and logs the heap and GC cost of each
+         * @return bytes allocated without and with direct parsing, or zeros if the JVM can't measure allocation
+         */
+        static long[] compareDirectParsing(final int ROWS, final int COLUMNS) throws IOException
+        {
+            StringBuilder sb = new StringBuilder();
+            for (int c = 0; c < COLUMNS; c++)
+                sb.append(c == 0 ? "" : "\t").append("col").append(c);
+            sb.append("\n");
+            for (int r = 0; r < ROWS; r++)
+            {
+                for (int c = 0; c < COLUMNS; c++)
+                    sb.append(c == 0 ? "" : "\t").append(r * c - 1000);
+                sb.append("\n");
+            }
+            File f = _createTempFile(sb.toString(), ".tsv");
+
+            java.lang.management.ThreadMXBean threads = java.lang.management.ManagementFactory.getThreadMXBean();
+            boolean measureAllocation = threads instanceof com.sun.management.ThreadMXBean && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported();
+            long[] allocated = new long[2];
+
+            try
+            {
+                List<Map<String, Object>> expected = null;
+
+                for (boolean direct : new boolean[] {false, true})
+                {
+                    try (TabLoader loader = new TabLoader(f, true))
+                    {
+                        loader._directParsing = direct;
+                        loader.setParallelParsing(false);
+                        assertEquals(Integer.class, loader.getColumns()[1].clazz);
+
+                        long gcCount = 0, gcTime = 0;
+                        for (java.lang.management.GarbageCollectorMXBean gc : java.lang.management.ManagementFactory.getGarbageCollectorMXBeans())
+                        {
+                            gcCount -= gc.getCollectionCount();
+                            gcTime -= gc.getCollectionTime();
+                        }
+                        long bytes = measureAllocation ? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+
+                        List<Map<String, Object>> maps = loader.load();
+
+                        if (measureAllocation)
+                            allocated[direct ? 1 : 0] = ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+                        for (java.lang.management.GarbageCollectorMXBean gc : java.lang.management.ManagementFactory.getGarbageCollectorMXBeans())
+                        {
+                            gcCount += gc.getCollectionCount();
+                            gcTime += gc.getCollectionTime();
+                        }
+
+                        assertEquals(ROWS, maps.size());
+                        if (null == expected)
+                            expected = maps;
+                        else
+                            assertEquals(expected, maps);
+
+                        _log.info("TabLoader " + (direct ? "direct" : "String") + " parsing of " + ROWS + " x " + COLUMNS + " integers: " +
+                                (allocated[direct ? 1 : 0] / 1024) + " KB allocated, " + gcCount + " collections, " + gcTime + " ms in GC");
+                    }
+                }
+
+            }
+            finally
+            {
+                f.delete();
+            }
+
+            return allocated;
+        }
+
         @Test
         public void testMySql() throws IOException
         {
@@ -1225,4 +1704,23 @@ public class TabLoader extends DataLoader
             assertFalse(isType(TabLoader.TSV_FILE_TYPE, JunitUtil.getSampleData(null, "FolderExport/Sample.folder.zip")));
         }
     }
+
+    /** Benchmarks parallel and direct parsing of large files; not part of the regular test runs */
+    @TestWhen(TestWhen.When.PERFORMANCE)
+    public static class ParsingPerfTestCase extends Assert
+    {
+        @Test
+        public void testParallelParsing() throws IOException
+        {
+            TabLoaderTestCase.compareParallelParsing(250_000);
+        }
+
+        @Test
+        public void testDirectParsingAllocation() throws IOException
+        {
+            long[] allocated = TabLoaderTestCase.compareDirectParsing(20_000, 200);
+            if (allocated[0] > 0)
+                assertTrue("Parsing directly should allocate less: " + allocated[1] + " vs. " + allocated[0], allocated[1] < allocated[0]);
+        }
+    }
 }
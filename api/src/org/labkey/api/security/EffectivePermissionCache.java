@@ -0,0 +1,562 @@
+/*
+ * Copyright (c) 2021 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.api.security;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.labkey.api.cache.Cache;
+import org.labkey.api.cache.CacheManager;
+import org.labkey.api.data.Container;
+import org.labkey.api.data.ContainerManager;
+import org.labkey.api.security.UserManager.UserListener;
+import org.labkey.api.security.impersonation.NotImpersonatingContext;
+import org.labkey.api.security.permissions.AdminPermission;
+import org.labkey.api.security.permissions.DeletePermission;
+import org.labkey.api.security.permissions.InsertPermission;
+import org.labkey.api.security.permissions.Permission;
+import org.labkey.api.security.permissions.ReadPermission;
+import org.labkey.api.security.permissions.UpdatePermission;
+import org.labkey.api.security.roles.AuthorRole;
+import org.labkey.api.security.roles.EditorRole;
+import org.labkey.api.security.roles.ReaderRole;
+import org.labkey.api.security.roles.Role;
+import org.labkey.api.security.roles.RoleManager;
+import org.labkey.api.test.TestWhen;
+import org.labkey.api.util.JunitUtil;
+
+import java.beans.PropertyChangeEvent;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Caches the permissions that each SecurityPolicy grants each principal, as bitmasks over the registered permission
+ * classes, so that repeated checks (grids, menus, container filters walking a folder tree) don't resolve role
+ * assignments against the principal's flattened group list every time. Role permissions are precomputed as masks too,
+ * so that contextual roles are OR'ed in rather than merged as sets. Each entry remembers the policy object and group
+ * list it was computed from and is recomputed if either differs, so a stale entry is never used; SecurityPolicyManager,
+ * GroupManager, UserManager, and role changes also evict entries as soon as they're out of date. Hit rates show up on
+ * the admin caches page.
+ *
+ * Only plain users, guests, and groups are cached. Impersonating and limited users get their groups, contextual roles,
+ * and permission filtering from elsewhere, so SecurityManager computes their permissions the uncached way.
+ */
+public class EffectivePermissionCache
+{
+    private static final Logger LOG = LogManager.getLogger(EffectivePermissionCache.class);
+    private static final String CONTEXTUAL_PREFIX = "Contextual/";
+
+    // Keyed by <resourceId>/<principalId> for a policy's own permissions, or Contextual/<userId> for a user's site-wide roles
+    private static final Cache<String, Entry> CACHE = CacheManager.getStringKeyCache(100_000, CacheManager.DAY, "Effective Permissions");
+
+    // Bit index of each permission class, assigned on first use and never reused
+    private static final Map<Class<? extends Permission>, Integer> INDEXES = new ConcurrentHashMap<>();
+    private static final List<Class<? extends Permission>> PERMISSIONS = new CopyOnWriteArrayList<>();
+    private static final Map<Role, PermissionSet> ROLE_MASKS = new ConcurrentHashMap<>();
+
+    static
+    {
+        UserManager.addUserListener(new EffectivePermissionUserListener());
+    }
+
+    private static class Entry
+    {
+        private final Object _source;
+        private final int[] _groups;
+        private final PermissionSet _permissions;
+
+        private Entry(Object source, int[] groups, PermissionSet permissions)
+        {
+            _source = source;
+            _groups = groups;
+            _permissions = permissions;
+        }
+
+        private boolean isValid(Object source, int[] groups)
+        {
+            return _source == source && Arrays.equals(_groups, groups);
+        }
+    }
+
+    /**
+     * @return everything the policy grants the principal, including its contextual roles and the passed-in ones, or
+     * null if this principal's permissions aren't cached and should be computed directly
+     */
+    static @Nullable Set<Class<? extends Permission>> getPermissions(SecurityPolicy policy, UserPrincipal principal, @Nullable Set<Role> contextualRoles)
+    {
+        if (!isCacheable(policy, principal))
+            return null;
+
+        int[] groups = principal.getGroups();
+        PermissionSet permissions = getOwnPermissions(policy, principal, groups);
+
+        if (principal instanceof User)
+            permissions = permissions.or(getStandardContextualPermissions((User) principal, groups));
+
+        if (null != contextualRoles)
+        {
+            for (Role role : contextualRoles)
+                permissions = permissions.or(getRolePermissions(role));
+        }
+
+        return permissions;
+    }
+
+    // MutableSecurityPolicy can change under an entry. Subclasses of User and Group, and users that are impersonating
+    // or impersonated, may override the groups, contextual roles, or permission filtering that entries assume.
+    private static boolean isCacheable(SecurityPolicy policy, UserPrincipal principal)
+    {
+        if (policy.getClass() != SecurityPolicy.class)
+            return false;
+
+        if (principal.getClass() == Group.class)
+            return true;
+
+        return (principal.getClass() == User.class || principal.getClass() == GuestUser.class) &&
+            ((User) principal).getImpersonationContext() == NotImpersonatingContext.get();
+    }
+
+    private static PermissionSet getOwnPermissions(SecurityPolicy policy, UserPrincipal principal, int[] groups)
+    {
+        String key = policy.getResourceId() + "/" + principal.getUserId();
+        Entry entry = CACHE.get(key);
+
+        if (null == entry || !entry.isValid(policy, groups))
+        {
+            PermissionSet permissions = PermissionSet.EMPTY;
+            for (Role role : policy.getRoles(groups))
+                permissions = permissions.or(getRolePermissions(role));
+
+            entry = new Entry(policy, groups, permissions);
+            CACHE.put(key, entry);
+        }
+
+        return entry._permissions;
+    }
+
+    // A plain user's contextual roles are the site-wide ones, which come from the root policy and the user's groups
+    private static PermissionSet getStandardContextualPermissions(User user, int[] groups)
+    {
+        SecurityPolicy rootPolicy = ContainerManager.getRoot().getPolicy();
+        String key = CONTEXTUAL_PREFIX + user.getUserId();
+        Entry entry = CACHE.get(key);
+
+        if (null == entry || !entry.isValid(rootPolicy, groups))
+        {
+            PermissionSet permissions = PermissionSet.EMPTY;
+            for (Role role : user.getStandardContextualRoles())
+                permissions = permissions.or(getRolePermissions(role));
+
+            entry = new Entry(rootPolicy, groups, permissions);
+            CACHE.put(key, entry);
+        }
+
+        return entry._permissions;
+    }
+
+    static PermissionSet getRolePermissions(Role role)
+    {
+        PermissionSet permissions = ROLE_MASKS.get(role);
+        if (null == permissions)
+        {
+            permissions = PermissionSet.of(role.getPermissions());
+            ROLE_MASKS.put(role, permissions);
+        }
+        return permissions;
+    }
+
+    private static int getIndex(Class<? extends Permission> permission)
+    {
+        Integer index = INDEXES.get(permission);
+        return null != index ? index : assignIndex(permission);
+    }
+
+    private static synchronized int assignIndex(Class<? extends Permission> permission)
+    {
+        Integer index = INDEXES.get(permission);
+        if (null == index)
+        {
+            index = PERMISSIONS.size();
+            PERMISSIONS.add(permission);
+            INDEXES.put(permission, index);
+        }
+        return index;
+    }
+
+    /** Called when a resource's policy is saved or deleted */
+    public static void policyChanged(String resourceId)
+    {
+        CACHE.removeUsingFilter(new Cache.StringPrefixFilter(resourceId + "/"));
+
+        // Site-wide roles come from the root policy
+        if (resourceId.equals(ContainerManager.getRoot().getResourceId()))
+            CACHE.removeUsingFilter(new Cache.StringPrefixFilter(CONTEXTUAL_PREFIX));
+    }
+
+    /** Called when a principal joins or leaves a group, or a user's account changes */
+    public static void principalChanged(UserPrincipal principal)
+    {
+        // A group's members, and their members, all have new group lists
+        if (principal instanceof Group)
+        {
+            CACHE.clear();
+        }
+        else
+        {
+            String suffix = "/" + principal.getUserId();
+            CACHE.removeUsingFilter(key -> key.endsWith(suffix));
+        }
+    }
+
+    /** Called when all policies are uncached, or when the permissions of a role change */
+    public static void clear()
+    {
+        ROLE_MASKS.clear();
+        CACHE.clear();
+    }
+
+    private static class EffectivePermissionUserListener implements UserListener
+    {
+        @Override
+        public void userAddedToSite(User user)
+        {
+        }
+
+        @Override
+        public void userDeletedFromSite(User user)
+        {
+            principalChanged(user);
+        }
+
+        @Override
+        public void userAccountDisabled(User user)
+        {
+            principalChanged(user);
+        }
+
+        @Override
+        public void userAccountEnabled(User user)
+        {
+            principalChanged(user);
+        }
+
+        @Override
+        public void propertyChange(PropertyChangeEvent evt)
+        {
+        }
+    }
+
+    /**
+     * An immutable set of permission classes stored as a bitmask, one bit per permission class. Membership tests and
+     * unions don't hash or allocate per permission, and sets that are shared (e.g., role masks) can't be modified by callers.
+     */
+    static class PermissionSet extends AbstractSet<Class<? extends Permission>>
+    {
+        static final PermissionSet EMPTY = new PermissionSet(new long[0]);
+
+        private final long[] _words;
+
+        private PermissionSet(long[] words)
+        {
+            _words = words;
+        }
+
+        static PermissionSet of(Collection<Class<? extends Permission>> permissions)
+        {
+            long[] words = new long[0];
+            for (Class<? extends Permission> permission : permissions)
+            {
+                int index = getIndex(permission);
+                if (index >> 6 >= words.length)
+                    words = Arrays.copyOf(words, (index >> 6) + 1);
+                words[index >> 6] |= 1L << index;
+            }
+            return new PermissionSet(words);
+        }
+
+        PermissionSet or(PermissionSet other)
+        {
+            if (other._words.length == 0 || other == this)
+                return this;
+            if (_words.length == 0)
+                return other;
+
+            long[] longer = _words.length >= other._words.length ? _words : other._words;
+            long[] shorter = longer == _words ? other._words : _words;
+            long[] words = null;
+
+            for (int i = 0; i < shorter.length; i++)
+            {
+                if ((longer[i] | shorter[i]) != longer[i])
+                {
+                    if (null == words)
+                        words = longer.clone();
+                    words[i] |= shorter[i];
+                }
+            }
+
+            // Reuse whichever set already holds every bit
+            if (null == words)
+                return longer == _words ? this : other;
+            return new PermissionSet(words);
+        }
+
+        @Override
+        public boolean contains(Object o)
+        {
+            @SuppressWarnings("SuspiciousMethodCalls")
+            Integer index = INDEXES.get(o);
+            if (null == index || index >> 6 >= _words.length)
+                return false;
+            return (_words[index >> 6] & (1L << index)) != 0;
+        }
+
+        @Override
+        public int size()
+        {
+            int size = 0;
+            for (long word : _words)
+                size += Long.bitCount(word);
+            return size;
+        }
+
+        @Override
+        public @NotNull Iterator<Class<? extends Permission>> iterator()
+        {
+            return new Iterator<>()
+            {
+                private int _next = nextSetBit(0);
+
+                @Override
+                public boolean hasNext()
+                {
+                    return _next >= 0;
+                }
+
+                @Override
+                public Class<? extends Permission> next()
+                {
+                    if (_next < 0)
+                        throw new NoSuchElementException();
+                    Class<? extends Permission> permission = PERMISSIONS.get(_next);
+                    _next = nextSetBit(_next + 1);
+                    return permission;
+                }
+            };
+        }
+
+        private int nextSetBit(int from)
+        {
+            int i = from >> 6;
+            if (i >= _words.length)
+                return -1;
+
+            long word = _words[i] & (-1L << from);
+            while (true)
+            {
+                if (word != 0)
+                    return (i << 6) + Long.numberOfTrailingZeros(word);
+                if (++i == _words.length)
+                    return -1;
+                word = _words[i];
+            }
+        }
+    }
+
+    public static class TestCase extends Assert
+    {
+        private Container _project;
+        private Group _outer;
+        private Group _inner;
+
+        @Before
+        public void setUp() throws InvalidGroupMembershipException
+        {
+            _project = JunitUtil.getTestContainer().getProject();
+            _outer = SecurityManager.createGroup(_project, "EffectivePermissionCacheOuter");
+            _inner = SecurityManager.createGroup(_project, "EffectivePermissionCacheInner");
+            SecurityManager.addMember(_outer, _inner);
+        }
+
+        @After
+        public void tearDown()
+        {
+            SecurityManager.deleteGroup(_inner);
+            SecurityManager.deleteGroup(_outer);
+        }
+
+        private SecurityPolicy createPolicy()
+        {
+            List<RoleAssignment> assignments = new ArrayList<>();
+            assignments.add(new RoleAssignment(_project.getResourceId(), _outer, RoleManager.getRole(ReaderRole.class)));
+            assignments.add(new RoleAssignment(_project.getResourceId(), _inner, RoleManager.getRole(AuthorRole.class)));
+            return new SecurityPolicy(_project, assignments);
+        }
+
+        private static boolean isCached(SecurityPolicy policy, UserPrincipal principal)
+        {
+            return null != CACHE.get(policy.getResourceId() + "/" + principal.getUserId());
+        }
+
+        @Test
+        public void testPermissionSet()
+        {
+            Set<Class<? extends Permission>> expected = Set.of(ReadPermission.class, InsertPermission.class);
+            PermissionSet set = PermissionSet.of(expected);
+            assertEquals(expected, set);
+            assertEquals(2, set.size());
+            assertTrue(set.contains(ReadPermission.class));
+            assertFalse(set.contains(DeletePermission.class));
+            assertFalse(set.contains("not a permission"));
+            assertEquals(expected, new HashSet<>(set));
+
+            PermissionSet union = set.or(PermissionSet.of(Set.of(UpdatePermission.class, ReadPermission.class)));
+            assertEquals(Set.of(ReadPermission.class, InsertPermission.class, UpdatePermission.class), union);
+            assertSame(union, union.or(set));
+            assertSame(set, set.or(PermissionSet.EMPTY));
+            assertSame(set, PermissionSet.EMPTY.or(set));
+            assertTrue(PermissionSet.EMPTY.isEmpty());
+
+            assertEquals(new HashSet<>(RoleManager.getRole(EditorRole.class).getPermissions()), getRolePermissions(RoleManager.getRole(EditorRole.class)));
+        }
+
+        @Test
+        public void testMatchesUncached()
+        {
+            SecurityPolicy policy = createPolicy();
+            Set<Role> contextual = Set.of(RoleManager.getRole(EditorRole.class));
+            User guest = UserManager.getGuestUser();
+
+            for (UserPrincipal principal : List.of(_outer, _inner, guest))
+            {
+                for (Set<Role> roles : Arrays.asList(null, Set.<Role>of(), contextual))
+                {
+                    Set<Class<? extends Permission>> expected = new HashSet<>(SecurityManager.computePermissions(policy, principal, roles));
+                    assertEquals(expected, getPermissions(policy, principal, roles));
+                    // Second time is served from the cache
+                    assertEquals(expected, getPermissions(policy, principal, roles));
+                }
+            }
+
+            assertTrue(getPermissions(policy, _inner, null).containsAll(Set.of(ReadPermission.class, InsertPermission.class)));
+            assertFalse(getPermissions(policy, _outer, null).contains(InsertPermission.class));
+            assertFalse(getPermissions(policy, _outer, null).contains(AdminPermission.class));
+            assertTrue(SecurityManager.hasAllPermissions(null, policy, _inner, Set.of(ReadPermission.class, InsertPermission.class), Set.of()));
+            assertFalse(SecurityManager.hasAnyPermissions(null, policy, _outer, Set.of(InsertPermission.class, DeletePermission.class), Set.of()));
+
+            // A mutable policy could change under an entry, so it isn't cached
+            assertNull(getPermissions(new MutableSecurityPolicy(policy), _inner, null));
+        }
+
+        @Test
+        public void testInvalidation() throws InvalidGroupMembershipException
+        {
+            SecurityPolicy policy = createPolicy();
+            assertTrue(getPermissions(policy, _inner, null).contains(ReadPermission.class));
+            assertTrue(isCached(policy, _inner));
+
+            // Leaving the group evicts the member's entries, and the member loses the group's role
+            SecurityManager.deleteMember(_outer, _inner);
+            assertFalse(isCached(policy, _inner));
+            Set<Class<? extends Permission>> permissions = getPermissions(policy, _inner, null);
+            assertFalse(permissions.contains(ReadPermission.class));
+            assertTrue(permissions.contains(InsertPermission.class));
+
+            SecurityManager.addMember(_outer, _inner);
+            assertTrue(getPermissions(policy, _inner, null).contains(ReadPermission.class));
+
+            policyChanged(policy.getResourceId());
+            assertFalse(isCached(policy, _inner));
+
+            // A different policy object for the resource (i.e., one loaded after a change) isn't answered from the old entry
+            getPermissions(policy, _inner, null);
+            SecurityPolicy changed = new SecurityPolicy(_project, List.of(new RoleAssignment(_project.getResourceId(), _outer, RoleManager.getRole(EditorRole.class))));
+            permissions = getPermissions(changed, _inner, null);
+            assertTrue(permissions.contains(DeletePermission.class));
+            assertEquals(new HashSet<>(SecurityManager.computePermissions(changed, _inner, null)), permissions);
+        }
+    }
+
+
+    /** Compares cached and uncached permission checks; not part of the regular test runs */
+    @TestWhen(TestWhen.When.PERFORMANCE)
+    public static class PerfTestCase extends Assert
+    {
+        private final TestCase _fixture = new TestCase();
+
+        @Before
+        public void setUp() throws InvalidGroupMembershipException
+        {
+            _fixture.setUp();
+        }
+
+        @After
+        public void tearDown()
+        {
+            _fixture.tearDown();
+        }
+
+        @Test
+        public void testThroughput()
+        {
+            SecurityPolicy policy = _fixture.createPolicy();
+            Set<Class<? extends Permission>> required = Set.of(ReadPermission.class);
+            final int checks = 1_000_000;
+
+            for (int pass = 0; pass < 2; pass++)
+            {
+                int granted = 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < checks; i++)
+                {
+                    if (SecurityManager.computePermissions(policy, _fixture._inner, null).containsAll(required))
+                        granted++;
+                }
+                long uncached = System.nanoTime() - start;
+                assertEquals(checks, granted);
+
+                granted = 0;
+                start = System.nanoTime();
+                for (int i = 0; i < checks; i++)
+                {
+                    if (getPermissions(policy, _fixture._inner, null).containsAll(required))
+                        granted++;
+                }
+                long cached = System.nanoTime() - start;
+                assertEquals(checks, granted);
+
+                // First pass warms up the JIT
+                if (pass > 0)
+                    LOG.info("Permission checks per second: " + (checks * 1_000_000_000L / Math.max(1, uncached)) + " uncached, " + (checks * 1_000_000_000L / Math.max(1, cached)) + " cached");
+            }
+        }
+    }
+}
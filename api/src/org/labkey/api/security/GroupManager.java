@@ -332,6 +332,7 @@ public class GroupManager
         public void principalAddedToGroup(Group group, UserPrincipal principal)
         {
             GroupMembershipCache.handleGroupChange(group, principal);
+            EffectivePermissionCache.principalChanged(principal);
             addAuditEvent(group, principal, principal.getPrincipalType().getDescription() + ": " + principal.getName() + " was added as a member to Group: " + group.getName());
         }
 
@@ -339,6 +340,7 @@ public class GroupManager
         public void principalDeletedFromGroup(Group group, UserPrincipal principal)
         {
             GroupMembershipCache.handleGroupChange(group, principal);
+            EffectivePermissionCache.principalChanged(principal);
             addAuditEvent(group, principal, principal.getPrincipalType().getDescription() + ": " + principal.getName() + " was deleted from Group: " + group.getName());
         }
 
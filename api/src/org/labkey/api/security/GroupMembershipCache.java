@@ -19,6 +19,7 @@ import org.jetbrains.annotations.NotNull;
 import org.labkey.api.cache.Cache;
 import org.labkey.api.cache.CacheLoader;
 import org.labkey.api.cache.CacheManager;
+import org.labkey.api.data.ContainerFilter;
 import org.labkey.api.data.CoreSchema;
 import org.labkey.api.data.SQLFragment;
 import org.labkey.api.data.Selector;
@@ -109,6 +110,9 @@ public class GroupMembershipCache
         // invalidate all computed group lists (getAllGroups())
         if (principal instanceof Group)
             CACHE.removeUsingFilter(new Cache.StringPrefixFilter(ALL_GROUP_MEMBERSHIPS_PREFIX));
+
+        // container filters computed from the old memberships
+        ContainerFilter.clearIdCache();
     }
 
 
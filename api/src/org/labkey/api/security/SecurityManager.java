@@ -3064,6 +3064,13 @@ public class SecurityManager
         if (null != c && (principal instanceof User && c.isForbiddenProject((User) principal)))
             return Set.of();
 
+        Set<Class<? extends Permission>> cached = EffectivePermissionCache.getPermissions(policy, principal, contextualRoles);
+        return null != cached ? cached : computePermissions(policy, principal, contextualRoles);
+    }
+
+    // Resolves the policy's assignments, the principal's groups, and its contextual roles from scratch
+    static Set<Class<? extends Permission>> computePermissions(SecurityPolicy policy, UserPrincipal principal, @Nullable Set<Role> contextualRoles)
+    {
         var granted = policy.getOwnPermissions(principal);
         principal.getContextualRoles(policy).forEach(r -> granted.addAll(r.getPermissions()));
         if (null != contextualRoles)
@@ -23,6 +23,7 @@ import org.labkey.api.admin.ImportContext;
 import org.labkey.api.cache.Cache;
 import org.labkey.api.cache.CacheManager;
 import org.labkey.api.data.Container;
+import org.labkey.api.data.ContainerFilter;
 import org.labkey.api.data.ContainerManager;
 import org.labkey.api.data.CoreSchema;
 import org.labkey.api.data.DatabaseCache;
@@ -308,18 +309,24 @@ public class SecurityPolicyManager
     private static void remove(SecurableResource resource)
     {
         CACHE.remove(cacheKey(resource));
+        EffectivePermissionCache.policyChanged(resource.getResourceId());
+        ContainerFilter.clearIdCache();
     }
 
 
     private static void remove(SecurityPolicy policy)
     {
         CACHE.remove(cacheKey(policy));
+        EffectivePermissionCache.policyChanged(policy.getResourceId());
+        ContainerFilter.clearIdCache();
     }
 
     /** Clear all cached SecurityPolicy instances */
     public static void removeAll()
     {
         CACHE.clear();
+        EffectivePermissionCache.clear();
+        ContainerFilter.clearIdCache();
     }
 
     public static void exportRoleAssignments(SecurityPolicy policy, RoleAssignmentsType roleAssignments)
@@ -23,6 +23,7 @@ import org.labkey.api.data.Container;
 import org.labkey.api.data.JdbcType;
 import org.labkey.api.module.Module;
 import org.labkey.api.module.ModuleLoader;
+import org.labkey.api.security.EffectivePermissionCache;
 import org.labkey.api.security.Group;
 import org.labkey.api.security.SecurableResource;
 import org.labkey.api.security.SecurityPolicy;
@@ -118,6 +119,9 @@ public abstract class AbstractRole implements Role
         Set<Class<? extends Permission>> p = new HashSet<>(_permissions);
         p.add(perm);
         _permissions = Collections.unmodifiableSet(p);
+
+        // Cached permission masks include this role's old permissions
+        EffectivePermissionCache.clear();
     }
 
     @Override
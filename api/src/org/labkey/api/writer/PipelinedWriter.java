@@ -0,0 +1,295 @@
+/*
+ * Copyright (c) 2021 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.api.writer;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Assert;
+import org.junit.Test;
+import org.labkey.api.util.JobRunner;
+import org.labkey.api.util.StringUtilsLabKey;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A Writer for large text exports that takes character encoding, and optionally gzip compression, off the thread
+ * rendering the text. Text is collected into chunks; each full chunk is encoded (and compressed) on a small pool shared
+ * by all exports while the caller goes on rendering, and finished chunks are written to the stream strictly in order by
+ * the calling thread. An export that fits in a single chunk never leaves the calling thread. When compressing, each chunk becomes its own gzip member; consecutive members form a valid gzip
+ * file (RFC 1952) that gunzip and GZIPInputStream read as a single stream. Only a few chunks are in flight at a time,
+ * so memory stays bounded and a slow client still holds back the caller. Like most Writers, not thread-safe.
+ */
+public class PipelinedWriter extends Writer
+{
+    // Chars per chunk; big enough that compressing each one separately costs little in ratio
+    private static final int CHUNK_SIZE = 256 * 1024;
+    // A dedicated pool, so big exports neither starve nor wait behind other users of the common pool
+    private static final int THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+    private static final int MAX_IN_FLIGHT = THREADS + 1;
+    private static final JobRunner ENCODER = new JobRunner("Export encoding", THREADS);
+
+    private final OutputStream _out;
+    private final boolean _gzip;
+    private final int _chunkSize;
+    private final Charset _charset = StringUtilsLabKey.DEFAULT_CHARSET;
+    private final ArrayDeque<Future<byte[]>> _inFlight = new ArrayDeque<>();
+
+    private StringBuilder _chunk;
+    private int _chunks = 0;
+    private boolean _closed = false;
+
+    public PipelinedWriter(OutputStream out, boolean gzip)
+    {
+        this(out, gzip, CHUNK_SIZE);
+    }
+
+    PipelinedWriter(OutputStream out, boolean gzip, int chunkSize)
+    {
+        _out = out;
+        _gzip = gzip;
+        _chunkSize = chunkSize;
+        _chunk = new StringBuilder(chunkSize);
+    }
+
+    @Override
+    public void write(int c) throws IOException
+    {
+        ensureOpen();
+        _chunk.append((char) c);
+        if (_chunk.length() >= _chunkSize)
+            submit(false);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException
+    {
+        ensureOpen();
+        while (len > 0)
+        {
+            int n = Math.min(len, _chunkSize - _chunk.length());
+            _chunk.append(cbuf, off, n);
+            off += n;
+            len -= n;
+            if (_chunk.length() >= _chunkSize)
+                submit(false);
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException
+    {
+        ensureOpen();
+        while (len > 0)
+        {
+            int n = Math.min(len, _chunkSize - _chunk.length());
+            _chunk.append(str, off, off + n);
+            off += n;
+            len -= n;
+            if (_chunk.length() >= _chunkSize)
+                submit(false);
+        }
+    }
+
+    private void ensureOpen() throws IOException
+    {
+        if (_closed)
+            throw new IOException("Writer is closed");
+    }
+
+    // Hands the current chunk to the pool, then writes out whatever chunks are ready, waiting for the oldest if too
+    // many are in flight. Unless this is the last chunk, a trailing high surrogate is held back for the next chunk so
+    // that no chunk ends in the middle of a character.
+    private void submit(boolean last) throws IOException
+    {
+        String text;
+        int length = _chunk.length();
+
+        if (!last && length > 0 && Character.isHighSurrogate(_chunk.charAt(length - 1)))
+        {
+            text = _chunk.substring(0, length - 1);
+            _chunk.delete(0, length - 1);
+        }
+        else
+        {
+            text = _chunk.toString();
+            _chunk = new StringBuilder(_chunkSize);
+        }
+
+        if (!text.isEmpty() || (last && _gzip && 0 == _chunks))
+        {
+            // A partial chunk (flush() or close()) with nothing ahead of it isn't worth a trip to the pool
+            if (_inFlight.isEmpty() && text.length() < _chunkSize)
+            {
+                _out.write(encode(text, _charset, _gzip));
+            }
+            else
+            {
+                FutureTask<byte[]> task = new FutureTask<>(() -> encode(text, _charset, _gzip));
+                ENCODER.execute(task);
+                _inFlight.addLast(task);
+            }
+            _chunks++;
+        }
+
+        while (_inFlight.size() >= MAX_IN_FLIGHT || (!_inFlight.isEmpty() && _inFlight.peekFirst().isDone()))
+            writeNext();
+    }
+
+    private void writeNext() throws IOException
+    {
+        Future<byte[]> next = _inFlight.pollFirst();
+
+        try
+        {
+            _out.write(next.get());
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing export");
+        }
+        catch (ExecutionException e)
+        {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    static byte[] encode(String text, Charset charset, boolean gzip) throws IOException
+    {
+        byte[] bytes = text.getBytes(charset);
+        if (!gzip)
+            return bytes;
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4 + 64);
+        try (GZIPOutputStream gz = new GZIPOutputStream(compressed, 64 * 1024))
+        {
+            gz.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
+
+    /** Writes out everything written so far. With compression on, this ends a gzip member early, so call it sparingly. */
+    @Override
+    public void flush() throws IOException
+    {
+        ensureOpen();
+        submit(false);
+        while (!_inFlight.isEmpty())
+            writeNext();
+        _out.flush();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (_closed)
+            return;
+        _closed = true;
+
+        try
+        {
+            submit(true);
+            while (!_inFlight.isEmpty())
+                writeNext();
+            _out.flush();
+        }
+        finally
+        {
+            // If writing failed (e.g., the client went away), don't leave chunks being encoded for nobody
+            _inFlight.forEach(f -> f.cancel(false));
+            _inFlight.clear();
+            _out.close();
+        }
+    }
+
+    public static class TestCase extends Assert
+    {
+        private static String write(String text, boolean gzip, int chunkSize, int pieceSize) throws IOException
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (Writer writer = new PipelinedWriter(out, gzip, chunkSize))
+            {
+                for (int i = 0; i < text.length(); i += pieceSize)
+                    writer.write(text, i, Math.min(pieceSize, text.length() - i));
+            }
+
+            byte[] bytes = out.toByteArray();
+            if (gzip)
+                bytes = IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(bytes)));
+            return new String(bytes, StringUtilsLabKey.DEFAULT_CHARSET);
+        }
+
+        @Test
+        public void testRoundTrip() throws IOException
+        {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < 5000; i++)
+                sb.append(i).append("\tvalue ").append(i).append('\t').append("😀 café").append('\n');
+            String text = sb.toString();
+
+            for (boolean gzip : new boolean[] {false, true})
+            {
+                // Chunk sizes that land on either half of the surrogate pairs, and pieces that span chunks
+                for (int chunkSize : new int[] {7, 64, 1000, CHUNK_SIZE})
+                {
+                    assertEquals(text, write(text, gzip, chunkSize, 13));
+                    assertEquals(text, write(text, gzip, chunkSize, 4096));
+                }
+            }
+        }
+
+        @Test
+        public void testEmpty() throws IOException
+        {
+            assertEquals("", write("", false, 64, 1));
+            // An empty export is still a valid gzip file
+            assertEquals("", write("", true, 64, 1));
+        }
+
+        @Test
+        public void testFlushAndClose() throws IOException
+        {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            Writer writer = new PipelinedWriter(out, false, 1024);
+            writer.write("abc");
+            assertEquals(0, out.size());
+            writer.flush();
+            assertEquals("abc", out.toString(StringUtilsLabKey.DEFAULT_CHARSET));
+            writer.close();
+            writer.close();
+
+            try
+            {
+                writer.write("more");
+                fail("Expected write after close to fail");
+            }
+            catch (IOException ignored)
+            {
+            }
+        }
+    }
+}
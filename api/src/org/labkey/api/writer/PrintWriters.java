@@ -54,6 +54,19 @@ public class PrintWriters
         return new StandardPrintWriter(file);
     }
 
+    /**
+     * Create a PrintWriter for a large export to an OutputStream. The text is encoded, and optionally gzip compressed,
+     * in the background while the caller renders more; see {@link PipelinedWriter}.
+     *
+     * @param out OutputStream destination for the new PrintWriter
+     * @param gzip Whether to gzip compress the output
+     * @return A PrintWriter targeting the OutputStream
+     */
+    public static PrintWriter getPipelinedPrintWriter(OutputStream out, boolean gzip)
+    {
+        return new PrintWriter(new PipelinedWriter(out, gzip));
+    }
+
 
     // Use factory methods above, unless you really need to subclass
     public static class StandardPrintWriter extends PrintWriter
@@ -1884,6 +1884,20 @@ abstract class BaseMicrosoftSqlServerDialect extends SqlDialect
         return true;
     }
 
+    @Override
+    public @Nullable Long getEstimatedRowCount(DbScope scope, String schemaName, String tableName)
+    {
+        // Row counts of the heap or clustered index partitions, kept by the storage engine without scanning the table
+        Long estimate = new SqlSelector(scope, "SELECT SUM(p.rows) FROM sys.partitions p INNER JOIN sys.tables t ON t.object_id = p.object_id INNER JOIN sys.schemas s ON s.schema_id = t.schema_id WHERE s.name = ? AND t.name = ? AND p.index_id IN (0, 1)", schemaName, tableName).getObject(Long.class);
+        return null != estimate && estimate > 0 ? estimate : null;
+    }
+
+    @Override
+    public @Nullable String getTableSampleClause(double percent)
+    {
+        return "TABLESAMPLE SYSTEM (" + formatSamplePercent(percent) + " PERCENT)";
+    }
+
     @Override
     public Collection<String> getQueryExecutionPlan(Connection conn, DbScope scope, SQLFragment sql)
     {
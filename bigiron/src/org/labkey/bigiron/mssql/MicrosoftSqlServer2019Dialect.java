@@ -15,6 +15,7 @@
  */
 package org.labkey.bigiron.mssql;
 
+import org.jetbrains.annotations.Nullable;
 import org.labkey.api.data.dialect.TableResolver;
 
 public class MicrosoftSqlServer2019Dialect extends MicrosoftSqlServer2017Dialect
@@ -23,4 +24,10 @@ public class MicrosoftSqlServer2019Dialect extends MicrosoftSqlServer2017Dialect
     {
         super(tableResolver);
     }
+
+    @Override
+    public @Nullable String getApproximateCountDistinctFunction()
+    {
+        return "APPROX_COUNT_DISTINCT";
+    }
 }
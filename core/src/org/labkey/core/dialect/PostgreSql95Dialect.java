@@ -16,6 +16,7 @@
 package org.labkey.core.dialect;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.Set;
 
@@ -35,4 +36,10 @@ abstract class PostgreSql95Dialect extends PostgreSql94Dialect
 
         return words;
     }
+
+    @Override
+    public @Nullable String getTableSampleClause(double percent)
+    {
+        return "TABLESAMPLE SYSTEM (" + formatSamplePercent(percent) + ")";
+    }
 }
@@ -146,6 +146,12 @@ public class ModulesTableInfo extends SimpleUserSchema.SimpleTable<CoreQuerySche
             sql.append(h.quoteStringLiteral(s));
     }
 
+    @Override
+    protected boolean supportsTableSample()
+    {
+        return false;   // getFromSQL() adds the modules that aren't in the database
+    }
+
     @NotNull
     @Override
     public SQLFragment getFromSQL(String alias)
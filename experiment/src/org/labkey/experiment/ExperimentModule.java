@@ -68,6 +68,7 @@ import org.labkey.api.security.User;
 import org.labkey.api.security.roles.RoleManager;
 import org.labkey.api.settings.AdminConsole;
 import org.labkey.api.settings.AppProps;
+import org.labkey.api.settings.ExperimentalFeatureService;
 import org.labkey.api.usageMetrics.UsageMetricsService;
 import org.labkey.api.util.JspTestCase;
 import org.labkey.api.util.PageFlowUtil;
@@ -93,6 +94,7 @@ import org.labkey.experiment.api.ExpSampleTypeImpl;
 import org.labkey.experiment.api.ExperimentServiceImpl;
 import org.labkey.experiment.api.ExperimentStressTest;
 import org.labkey.experiment.api.GraphAlgorithms;
+import org.labkey.experiment.api.LineageGraphIndex;
 import org.labkey.experiment.api.LineagePerfTest;
 import org.labkey.experiment.api.LineageTest;
 import org.labkey.experiment.api.LogDataType;
@@ -205,6 +207,10 @@ public class ExperimentModule extends SpringModule implements SearchService.Docu
         AdminConsole.addExperimentalFeatureFlag(AppProps.EXPERIMENTAL_RESOLVE_PROPERTY_URI_COLUMNS, "Resolve property URIs as columns on experiment tables",
                 "If a column is not found on an experiment table, attempt to resolve the column name as a Property URI and add it as a property column", false);
 
+        AdminConsole.addExperimentalFeatureFlag(LineageGraphIndex.EXPERIMENTAL_LINEAGE_GRAPH_INDEX, "In-memory lineage graph index",
+                "Answer lineage queries from an in-memory copy of the exp.Edge table instead of recursive SQL queries", false);
+        ExperimentalFeatureService.get().addFeatureListener(LineageGraphIndex.EXPERIMENTAL_LINEAGE_GRAPH_INDEX, (feature, enabled) -> LineageGraphIndex.get().clear());
+
         RoleManager.registerPermission(new DesignVocabularyPermission(), true);
 
         AttachmentService.get().registerAttachmentType(ExpRunAttachmentType.get());
@@ -581,6 +587,7 @@ public class ExperimentModule extends SpringModule implements SearchService.Docu
     {
         return Set.of(
             GraphAlgorithms.TestCase.class,
+            LineageGraphIndex.TestCase.class,
             LSIDRelativizer.TestCase.class,
             Lsid.TestCase.class,
             LsidUtils.TestCase.class,
@@ -160,10 +160,12 @@ import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 import static java.util.Collections.emptyList;
+import static java.util.Collections.emptyMap;
 import static java.util.Collections.emptySet;
 import static java.util.Collections.singleton;
 import static java.util.stream.Collectors.toList;
@@ -2208,8 +2210,6 @@ public class ExperimentServiceImpl implements ExperimentService
         if (seedObjectIds.isEmpty())
             return new ExpLineage(seeds, emptySet(), emptySet(), emptySet(), emptySet(), emptySet());
 
-        options.setUseObjectIds(true);
-        SQLFragment sqlf = generateExperimentTreeSQLObjectIdsSeeds(seedObjectIds, options);
         Set<Integer> dataIds = new HashSet<>();
         Set<Integer> materialIds = new HashSet<>();
         Set<Integer> runIds = new HashSet<>();
@@ -2233,7 +2233,7 @@ public class ExperimentServiceImpl implements ExperimentService
             }
         }
 
-        new SqlSelector(getExpSchema(), sqlf).forEachMap((m)->
+        Consumer<Map<String, Object>> handler = (m)->
         {
             Integer depth = (Integer)m.get("depth");
             String parentLSID = (String)m.get("parent_lsid");
@@ -2283,7 +2283,19 @@ public class ExperimentServiceImpl implements ExperimentService
                         objectLsids.add(childLSID);
                 }
             }
-        });
+        };
+
+        LineageGraphIndex.Graph graph = LineageGraphIndex.isUsable() ? LineageGraphIndex.get().getGraph() : null;
+        if (graph != null)
+        {
+            getLineageRowsFromIndex(graph, seedObjectIds, options).forEach(handler);
+        }
+        else
+        {
+            options.setUseObjectIds(true);
+            SQLFragment sqlf = generateExperimentTreeSQLObjectIdsSeeds(seedObjectIds, options);
+            new SqlSelector(getExpSchema(), sqlf).forEachMap(handler::accept);
+        }
 
         Set<ExpData> datas;
         List<ExpDataImpl> expDatas = getExpDatas(dataIds);
@@ -2324,6 +2336,235 @@ public class ExperimentServiceImpl implements ExperimentService
         return new ExpLineage(seeds, datas, materials, runs, otherObjects, edges);
     }
 
+    @Override
+    @NotNull
+    public Map<Integer, Map<Integer, Integer>> getLineageObjectIds(@NotNull Collection<Integer> seedObjectIds, @NotNull ExpLineageOptions options)
+    {
+        Set<Integer> seeds = seedObjectIds.stream().filter(Objects::nonNull).collect(toSet());
+        if (seeds.isEmpty())
+            return emptyMap();
+
+        LineageGraphIndex.Graph graph = LineageGraphIndex.isUsable() ? LineageGraphIndex.get().getGraph() : null;
+        if (graph != null)
+        {
+            Map<Integer, Map<Integer, Integer>> ret = getLineageObjectIdsFromIndex(graph, seeds, options, Integer.MAX_VALUE);
+            assert ret != null;
+
+            // the walk doesn't know about node types so apply the type filters here
+            String expType = StringUtils.trimToNull(options.getExpType());
+            String cpasType = StringUtils.trimToNull(options.getCpasType());
+            String runProtocolLsid = StringUtils.trimToNull(options.getRunProtocolLsid());
+            if (expType != null && "NULL".equalsIgnoreCase(expType))
+                expType = null;
+            if (cpasType != null && "NULL".equalsIgnoreCase(cpasType))
+                cpasType = null;
+            if (runProtocolLsid != null && "NULL".equalsIgnoreCase(runProtocolLsid))
+                runProtocolLsid = null;
+
+            if (expType != null || cpasType != null || runProtocolLsid != null)
+            {
+                Set<Integer> objectIds = new HashSet<>();
+                ret.values().forEach(m -> objectIds.addAll(m.keySet()));
+                Map<Integer, Map<String, Object>> nodes = getLineageNodes(objectIds);
+
+                for (Map<Integer, Integer> lineage : ret.values())
+                {
+                    String fExpType = expType, fCpasType = cpasType, fRunProtocolLsid = runProtocolLsid;
+                    lineage.keySet().removeIf(objectId -> {
+                        Map<String, Object> node = nodes.get(objectId);
+                        if (node == null)
+                            return true;
+                        if (fExpType != null && !fExpType.equals(node.get("exptype")))
+                            return true;
+                        if (fCpasType != null && !fCpasType.equals(node.get("cpastype")))
+                            return true;
+                        // see generateExperimentTreeSQL: lookups compare the run protocol against cpastype
+                        return fRunProtocolLsid != null && !fRunProtocolLsid.equals(node.get("cpastype"));
+                    });
+                }
+                ret.values().removeIf(Map::isEmpty);
+            }
+            return ret;
+        }
+
+        ExpLineageOptions lookupOptions = new ExpLineageOptions(options.isParents(), options.isChildren(), options.getDepth());
+        lookupOptions.setExpType(options.getExpType());
+        lookupOptions.setCpasType(options.getCpasType());
+        lookupOptions.setRunProtocolLsid(options.getRunProtocolLsid());
+        lookupOptions.setForLookup(true);
+        lookupOptions.setUseObjectIds(true);
+
+        Map<Integer, Map<Integer, Integer>> ret = new HashMap<>();
+        SQLFragment sqlf = generateExperimentTreeSQLObjectIdsSeeds(seeds, lookupOptions);
+        new SqlSelector(getExpSchema(), sqlf).forEach(rs -> {
+            int depth = rs.getInt("depth");
+            int self = rs.getInt("self");
+            int objectId = rs.getInt("objectid");
+            ret.computeIfAbsent(self, k -> new HashMap<>()).merge(objectId, depth, (a, b) -> Math.abs(a) <= Math.abs(b) ? a : b);
+        });
+        return ret;
+    }
+
+    /**
+     * Walk the lineage graph index for each seed, using the same depth semantics as the lookup query produced by
+     * {@link #generateExperimentTreeSQL} when <code>forLookup</code> is true. No type filtering is done.
+     * Returns null if more than <code>maxRows</code> (seed, node) pairs would be returned.
+     */
+    @Nullable
+    public Map<Integer, Map<Integer, Integer>> getLineageObjectIdsFromIndex(LineageGraphIndex.Graph graph, Collection<Integer> seeds, ExpLineageOptions options, int maxRows)
+    {
+        // match the depth cap used by ExperimentRunGraphForLookup2.jsp
+        int maxDepth = Math.abs(options.getDepth());
+        if (maxDepth == 0)
+            maxDepth = getExpSchema().getSqlDialect().isSqlServer() ? 100 : 1000;
+
+        Map<Integer, Map<Integer, Integer>> ret = new HashMap<>();
+        int count = 0;
+        for (Integer seed : seeds)
+        {
+            Map<Integer, Integer> lineage = new HashMap<>();
+
+            // The lookup query groups by (self, objectid) and takes MIN(depth). Parent depths are negative so that is
+            // the farthest parent, while for children it is the nearest child.
+            if (options.isParents())
+                graph.walk(seed, true, maxDepth, true, (from, to, depth) -> lineage.merge(from, -depth, Math::min));
+            if (options.isChildren())
+                graph.walk(seed, false, maxDepth, true, (from, to, depth) -> lineage.merge(to, depth, (a, b) -> Math.abs(a) <= Math.abs(b) ? a : b));
+            lineage.remove(seed);
+
+            count += lineage.size();
+            if (count > maxRows)
+                return null;
+
+            if (!lineage.isEmpty())
+                ret.put(seed, lineage);
+        }
+        return ret;
+    }
+
+    /**
+     * Produce the same edge rows as the SQL generated by {@link #generateExperimentTreeSQL} for non-lookup queries
+     * by walking the in-memory lineage graph and then resolving the reached nodes in a single non-recursive query.
+     */
+    private List<Map<String, Object>> getLineageRowsFromIndex(LineageGraphIndex.Graph graph, Set<Integer> seedObjectIds, ExpLineageOptions options)
+    {
+        // match the depth cap used by ExperimentRunGraph2.jsp
+        int maxDepth = Math.abs(options.getDepth());
+        if (maxDepth == 0)
+            maxDepth = getExpSchema().getSqlDialect().isSqlServer() ? 100 : 1000;
+
+        // (from << 32 | to) -> nearest depth, kept separately for each direction since the filters differ
+        Map<Long, Integer> parentEdges = new LinkedHashMap<>();
+        Map<Long, Integer> childEdges = new LinkedHashMap<>();
+        Set<Integer> objectIds = new HashSet<>();
+        for (Integer seed : seedObjectIds)
+        {
+            if (options.isParents())
+                graph.walk(seed, true, maxDepth, false, (from, to, depth) -> {
+                    parentEdges.merge(edgeKey(from, to), -depth, Math::max);
+                    objectIds.add(from);
+                    objectIds.add(to);
+                });
+            if (options.isChildren())
+                graph.walk(seed, false, maxDepth, false, (from, to, depth) -> {
+                    childEdges.merge(edgeKey(from, to), depth, Math::min);
+                    objectIds.add(from);
+                    objectIds.add(to);
+                });
+        }
+
+        Map<Integer, Map<String, Object>> nodes = getLineageNodes(objectIds);
+
+        String expType = options.getExpType() != null && !"NULL".equalsIgnoreCase(options.getExpType()) ? options.getExpType() : null;
+        String cpasType = options.getCpasType() != null && !"NULL".equalsIgnoreCase(options.getCpasType()) ? options.getCpasType() : null;
+        String runProtocolLsid = options.getRunProtocolLsid() != null && !"NULL".equalsIgnoreCase(options.getRunProtocolLsid()) ? options.getRunProtocolLsid() : null;
+
+        List<Map<String, Object>> rows = new ArrayList<>(parentEdges.size() + childEdges.size());
+        parentEdges.forEach((edge, depth) -> {
+            Map<String, Object> row = createLineageRow(depth, nodes.get(edgeFrom(edge)), nodes.get(edgeTo(edge)));
+            // the filters apply to the reached node (the parent) and the run protocol of the node it was reached from
+            if (expType != null && !expType.equals(row.get("parent_exptype")))
+                return;
+            if (cpasType != null && !cpasType.equals(row.get("parent_cpastype")))
+                return;
+            if (runProtocolLsid != null && !("NONE".equals(row.get("child_protocollsid")) || runProtocolLsid.equals(row.get("child_protocollsid"))))
+                return;
+            rows.add(row);
+        });
+        childEdges.forEach((edge, depth) -> {
+            Map<String, Object> row = createLineageRow(depth, nodes.get(edgeFrom(edge)), nodes.get(edgeTo(edge)));
+            if (expType != null && !expType.equals(row.get("child_exptype")))
+                return;
+            if (cpasType != null && !cpasType.equals(row.get("child_cpastype")))
+                return;
+            if (runProtocolLsid != null && !("NONE".equals(row.get("parent_protocollsid")) || runProtocolLsid.equals(row.get("parent_protocollsid"))))
+                return;
+            rows.add(row);
+        });
+        return rows;
+    }
+
+    private static long edgeKey(int from, int to)
+    {
+        return ((long)from << 32) | (to & 0xFFFFFFFFL);
+    }
+
+    private static int edgeFrom(long key)
+    {
+        return (int)(key >>> 32);
+    }
+
+    private static int edgeTo(long key)
+    {
+        return (int)key;
+    }
+
+    private Map<String, Object> createLineageRow(int depth, @Nullable Map<String, Object> parent, @Nullable Map<String, Object> child)
+    {
+        Map<String, Object> row = new CaseInsensitiveHashMap<>();
+        row.put("depth", depth);
+        for (String col : List.of("container", "exptype", "protocollsid", "cpastype", "name", "lsid", "rowid"))
+        {
+            row.put("parent_" + col, parent == null ? null : parent.get(col));
+            row.put("child_" + col, child == null ? null : child.get(col));
+        }
+        return row;
+    }
+
+    /**
+     * Resolve lineage node objectIds to the node columns produced by the $PARENTS$ and $CHILDREN$ CTEs in ExperimentRunGraph2.jsp.
+     */
+    public Map<Integer, Map<String, Object>> getLineageNodes(Collection<Integer> objectIds)
+    {
+        Map<Integer, Map<String, Object>> nodes = new HashMap<>(objectIds.size() * 2);
+        if (objectIds.isEmpty())
+            return nodes;
+
+        SqlDialect dialect = getExpSchema().getSqlDialect();
+
+        // Issue 33932: partition into groups of 1000 to avoid SQLServer parameter limit
+        for (List<Integer> partition : Iterables.partition(objectIds, 1000))
+        {
+            SQLFragment sql = new SQLFragment("SELECT O.objectId,\n")
+                    .append("  COALESCE(M.container, D.container, R.container, O.container) AS container,\n")
+                    .append("  CASE WHEN M.rowId IS NOT NULL THEN 'Material' WHEN D.rowId IS NOT NULL THEN 'Data' WHEN R.rowId IS NOT NULL THEN 'ExperimentRun' ELSE 'Object' END AS exptype,\n")
+                    .append("  COALESCE(R.protocolLsid, 'NONE') AS protocollsid,\n")
+                    .append("  COALESCE(M.cpasType, D.cpasType, R.protocolLsid) AS cpastype,\n")
+                    .append("  COALESCE(M.name, D.name, R.name) AS name,\n")
+                    .append("  COALESCE(M.lsid, D.lsid, R.lsid, O.objectUri) AS lsid,\n")
+                    .append("  COALESCE(M.rowId, D.rowId, R.rowId, O.objectId) AS rowid\n")
+                    .append("FROM exp.object O\n")
+                    .append("  LEFT OUTER JOIN exp.material M ON O.objectId = M.objectId\n")
+                    .append("  LEFT OUTER JOIN exp.data D ON O.objectId = D.objectId\n")
+                    .append("  LEFT OUTER JOIN exp.experimentrun R ON O.objectId = R.objectId\n")
+                    .append("WHERE O.objectId ");
+            dialect.appendInClauseSql(sql, partition);
+
+            new SqlSelector(getExpSchema(), sql).forEachMap(m -> nodes.put((Integer)m.get("objectid"), m));
+        }
+        return nodes;
+    }
+
     @Override
     public SQLFragment generateExperimentTreeSQLLsidSeeds(List<String> lsids, ExpLineageOptions options)
     {
@@ -2569,6 +2810,7 @@ public class ExperimentServiceImpl implements ExperimentService
         TableInfo edge = getTinfoEdge();
         int count = new SqlExecutor(edge.getSchema().getScope()).execute("DELETE FROM " + edge /* + (edge.getSqlDialect().isSqlServer() ? " WITH (TABLOCK, HOLDLOCK)" : "")  */ + " WHERE runId="+runId);
         LOG.debug("Removed edges for run " + runId + "; count = " + count);
+        LineageGraphIndex.get().runEdgesChanged(runId);
     }
 
     // prepare for bulk insert of edges
@@ -2794,6 +3036,8 @@ public class ExperimentServiceImpl implements ExperimentService
                     " (fromObjectId, toObjectId, runId)\n"+
                     "VALUES (?, ?, ?)";
             Table.batchExecute(getExpSchema(), edgeSql, params);
+
+            params.stream().map(p -> (Integer)p.get(2)).distinct().forEach(runId -> LineageGraphIndex.get().runEdgesChanged(runId));
         }
         catch (SQLException e)
         {
@@ -3099,6 +3343,7 @@ public class ExperimentServiceImpl implements ExperimentService
             {
                 LOG.debug("Deleting all edges");
                 Table.delete(getTinfoEdge());
+                LineageGraphIndex.get().invalidate();
             }
 
             // Local cache of SampleType LSID to objectId. The SampleType objectId will be used as the node's ownerObjectId.
@@ -4203,6 +4448,8 @@ public class ExperimentServiceImpl implements ExperimentService
                         .append("fromObjectId ").append(objectIdFrag)
                         .append(" OR toObjectId ").append(objectIdFrag);
                 executor.execute(deleteEdgeSql);
+
+                LineageGraphIndex.get().nodesRemoved(materials.stream().map(ExpMaterial::getObjectId).filter(Objects::nonNull).collect(toList()));
             }
 
             // Delete MaterialInput exp.object and properties
@@ -4496,6 +4743,8 @@ public class ExperimentServiceImpl implements ExperimentService
                     .append("DELETE FROM ").append(String.valueOf(getTinfoEdge())).append(" WHERE fromObjectId = (select objectid from exp.object where objecturi = ?);").add(data.getLSID())
                     .append("DELETE FROM ").append(String.valueOf(getTinfoEdge())).append(" WHERE toObjectId = (select objectid from exp.object where objecturi = ?);").add(data.getLSID());
                 new SqlExecutor(getExpSchema()).execute(deleteSql);
+                if (data.getObjectId() != null)
+                    LineageGraphIndex.get().nodesRemoved(List.of(data.getObjectId()));
 
                 if (data.getClassId() != null)
                 {
@@ -4673,6 +4922,7 @@ public class ExperimentServiceImpl implements ExperimentService
                     "DELETE FROM " + getTinfoEdge() + "\nWHERE fromObjectId IN (SELECT ObjectId FROM " + getTinfoObject() + " WHERE Container = ?);\n"+
                     "DELETE FROM " + getTinfoEdge() + "\nWHERE toObjectId IN (SELECT ObjectId FROM " + getTinfoObject() + " WHERE Container = ?);";
             new SqlExecutor(getExpSchema()).execute(deleteObjEdges, c, c);
+            LineageGraphIndex.get().invalidate();
 
             SimpleFilter containerFilter = SimpleFilter.createContainerFilter(c);
             Table.delete(getTinfoDataAliasMap(), containerFilter);
@@ -1,6 +1,5 @@
 package org.labkey.experiment.api;
 
-import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.labkey.api.collections.ResultSetRowMapFactory;
 import org.labkey.api.data.AbstractTableInfo;
@@ -17,20 +16,26 @@ import org.labkey.api.data.RuntimeSQLException;
 import org.labkey.api.data.SQLFragment;
 import org.labkey.api.data.TableInfo;
 import org.labkey.api.data.dialect.SqlDialect;
+import org.labkey.api.exp.api.ExpLineageOptions;
+import org.labkey.api.exp.api.ExperimentService;
 import org.labkey.api.query.AliasedColumn;
 import org.labkey.api.query.FieldKey;
 import org.labkey.api.query.QuerySchema;
-import org.labkey.api.query.QueryService;
 import org.labkey.api.query.ReexecutableDataregion;
 import org.labkey.api.query.ReexecutableRenderContext;
 import org.labkey.api.query.UserSchema;
 
 import java.io.IOException;
 import java.io.Writer;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 import static java.util.Objects.requireNonNull;
@@ -41,28 +46,54 @@ import static org.labkey.api.util.PageFlowUtil.filter;
 
 public class LineageDisplayColumn extends DataColumn implements IMultiValuedDisplayColumn, ILineageDisplayColumn
 {
+    // maximum number of rows of the page whose lineage is resolved together
+    private static final int PAGE_SIZE = 1000;
+
+    private final QuerySchema schema;
     private final FieldKey boundFieldKey;
+    private final boolean parents;
+    private final Integer depth;
+    private final String expType;
+    private final String cpasType;
 
-    private ReexecutableDataregion innerDataRegion;
     private ReexecutableRenderContext innerCtx;
     private ColumnInfo innerBoundColumn;
     private DisplayColumn innerDisplayColumn;
 
-    public static DisplayColumn create(QuerySchema schema, ColumnInfo objectid, FieldKey boundFieldKey)
+    // inner rows for the current page of seeds, keyed by seed objectid
+    private final Map<Integer, Map<String, Object>> innerRows = new HashMap<>();
+
+    public static DisplayColumn create(QuerySchema schema, ColumnInfo objectid, FieldKey boundFieldKey, boolean parents, Integer depth, String expType, String cpasType)
     {
-        return new LineageDisplayColumn(schema, objectid, boundFieldKey);
+        return new LineageDisplayColumn(schema, objectid, boundFieldKey, parents, depth, expType, cpasType);
     }
 
     // TODO what to do with Level columns (like All, First, etc)
-    private LineageDisplayColumn(QuerySchema schema, ColumnInfo objectId, FieldKey boundFieldKey)
+    private LineageDisplayColumn(QuerySchema schema, ColumnInfo objectId, FieldKey boundFieldKey, boolean parents, Integer depth, String expType, String cpasType)
     {
         super(objectId, false);
+        this.schema = schema;
         this.boundFieldKey = boundFieldKey;
+        this.parents = parents;
+        this.depth = depth;
+        this.expType = expType;
+        this.cpasType = cpasType;
+
+        // resolve the inner column over an empty set of seeds, the rows are fetched one page at a time
+        ReexecutableDataregion innerDataRegion = createInnerDataRegion(Collections.emptyList(), Collections.emptyMap());
+        if (null == innerDataRegion)
+            return;
 
-        /* SET UP DataRegion */
+        innerBoundColumn = innerDataRegion.getDisplayColumn(0).getColumnInfo();
+        innerDisplayColumn = innerDataRegion.getDisplayColumn(0);
+    }
 
+    /* SET UP DataRegion */
+    private @Nullable ReexecutableDataregion createInnerDataRegion(List<Integer> seeds, Map<Integer, Map<Integer, Integer>> lineage)
+    {
         // TODO ContainerFilter
-        TableInfo seedTable = new SeedTable((UserSchema) schema);
+        var precomputed = new LineageForeignKey.PrecomputedLineage(parents, depth, expType, cpasType, seeds, lineage);
+        TableInfo seedTable = new SeedTable((UserSchema) schema, seeds, precomputed);
         ColumnInfo bound = null;
         for (String part : boundFieldKey.getParts())
         {
@@ -75,15 +106,15 @@ public class LineageDisplayColumn extends DataColumn implements IMultiValuedDisp
         }
         // This is an error, probably in recreating the fieldkey correctly
         if (null == bound)
-            return;
+            return null;
 
-        innerBoundColumn = bound;
-        innerDataRegion = new ReexecutableDataregion();
+        ReexecutableDataregion innerDataRegion = new ReexecutableDataregion();
         innerDataRegion.setTable(seedTable);
         innerDataRegion.addColumn(bound);
-        innerDisplayColumn = innerDataRegion.getDisplayColumn(0);
+        innerDataRegion.addColumn(seedTable.getColumn(SeedTable.OBJECTID_COLUMN));
         // apply date and number formats
         innerDataRegion.prepareDisplayColumns(schema.getContainer());
+        return innerDataRegion;
     }
 
     @Override
@@ -119,19 +150,89 @@ public class LineageDisplayColumn extends DataColumn implements IMultiValuedDisp
             return;
 
         innerCtxObjectId = currentObjectId;
-        innerDataRegion.reset(innerCtx, Collections.singletonMap(SeedTable.OBJECTID_PARAMETER, currentObjectId));
-        if (-1 != currentObjectId)
+        if (-1 == currentObjectId)
         {
-            try (Results results = requireNonNull(innerDataRegion.getResults(innerCtx)))
+            innerCtx.setRow(Collections.emptyMap());
+            return;
+        }
+
+        if (!innerRows.containsKey(currentObjectId))
+            fetchInnerRows(outerCtx, collectSeeds(outerCtx, currentObjectId));
+
+        innerCtx.setRow(innerRows.getOrDefault(currentObjectId, Collections.emptyMap()));
+    }
+
+    /*
+     * Collect the objectid of the current row and of the rows that follow it on the page, so the lineage for the
+     * page is resolved by one call to ExperimentService.getLineageObjectIds() instead of one query per row. Looking
+     * ahead requires a scrollable result set (e.g., CachedResultSet, as used by grids); for forward-only results
+     * only the current row is resolved.
+     */
+    private List<Integer> collectSeeds(RenderContext outerCtx, int currentObjectId)
+    {
+        Set<Integer> seeds = new LinkedHashSet<>();
+        seeds.add(currentObjectId);
+
+        Results results = outerCtx.getResults();
+        ColumnInfo col = getColumnInfo();
+        if (null == results || null == col)
+            return new ArrayList<>(seeds);
+
+        try
+        {
+            if (results.isClosed() || results.getType() == ResultSet.TYPE_FORWARD_ONLY || !results.getFieldMap().containsKey(col.getFieldKey()))
+                return new ArrayList<>(seeds);
+
+            int row = results.getRow();
+            if (row == 0)
+                return new ArrayList<>(seeds);
+
+            int column = results.findColumn(col.getFieldKey());
+            try
             {
-                ResultSetRowMapFactory factory = ResultSetRowMapFactory.create(results);
-                if (results.next())
+                while (seeds.size() < PAGE_SIZE && results.next())
                 {
-                    innerCtx.setRow(factory.getRowMap(results));
-                    boolean hasNext = results.next();
-                    assert !hasNext;
+                    int objectId = results.getInt(column);
+                    if (!results.wasNull())
+                        seeds.add(objectId);
                 }
             }
+            finally
+            {
+                results.absolute(row);
+            }
+        }
+        catch (SQLException x)
+        {
+            throw new RuntimeSQLException(x);
+        }
+
+        return new ArrayList<>(seeds);
+    }
+
+    private void fetchInnerRows(RenderContext outerCtx, List<Integer> seeds)
+    {
+        innerRows.clear();
+
+        ExpLineageOptions options = LineageTableInfo.createOptions(parents, depth, expType, cpasType, null);
+        Map<Integer, Map<Integer, Integer>> lineage = ExperimentService.get().getLineageObjectIds(seeds, options);
+
+        // seeds without lineage have nothing to render, so only query for the rest
+        List<Integer> withLineage = seeds.stream().filter(seed -> !lineage.getOrDefault(seed, Collections.emptyMap()).isEmpty()).collect(Collectors.toList());
+        ReexecutableDataregion innerDataRegion = withLineage.isEmpty() ? null : createInnerDataRegion(withLineage, lineage);
+        if (null != innerDataRegion)
+        {
+            // the SQL is specific to this page's seeds, so don't reuse the previous page's context
+            innerCtx = new ReexecutableRenderContext(outerCtx);
+            innerDisplayColumn = innerDataRegion.getDisplayColumn(0);
+            innerDataRegion.reset(innerCtx, Collections.emptyMap());
+            try (Results results = requireNonNull(innerDataRegion.getResults(innerCtx)))
+            {
+                ResultSetRowMapFactory factory = ResultSetRowMapFactory.create(results);
+                int objectIdColumn = results.findColumn(FieldKey.fromParts(SeedTable.OBJECTID_COLUMN));
+                while (results.next())
+                    innerRows.put(results.getInt(objectIdColumn), factory.getRowMap(results));
+            }
             catch (SQLException x)
             {
                 throw new RuntimeSQLException(x);
@@ -140,7 +241,15 @@ public class LineageDisplayColumn extends DataColumn implements IMultiValuedDisp
             {
                 throw new RuntimeException(x);
             }
+            finally
+            {
+                innerCtx.setResults(null);
+            }
         }
+
+        // remember seeds without lineage so we don't query for them again
+        for (Integer seed : seeds)
+            innerRows.putIfAbsent(seed, Collections.emptyMap());
     }
 
     @Override
@@ -255,36 +364,41 @@ public class LineageDisplayColumn extends DataColumn implements IMultiValuedDisp
     }
 
 
+    /**
+     * One row for each seed objectid of the current page. The Inputs and Outputs lookups use the lineage already
+     * resolved for these seeds when the lineage column matches the options it was resolved with.
+     */
     static class SeedTable extends AbstractTableInfo
     {
-        static final String OBJECTID_PARAMETER = "_$_OBJECTID_$_";
+        static final String OBJECTID_COLUMN = "objectid";
         final UserSchema schema;
         final SQLFragment sqlf;
-        final List<QueryService.ParameterDecl> parameters = Collections.singletonList(new QueryService.ParameterDeclaration(OBJECTID_PARAMETER, JdbcType.INTEGER));
 
-        SeedTable(UserSchema schema)
+        SeedTable(UserSchema schema, List<Integer> seeds, LineageForeignKey.PrecomputedLineage lineage)
         {
             super(schema.getDbSchema(), "seed");
-            SqlDialect d = schema.getDbSchema().getScope().getSqlDialect();
             this.schema = schema;
-            this.sqlf = new SQLFragment("SELECT CAST( ? AS " + d.getSqlCastTypeName(JdbcType.INTEGER)+ ") AS objectid");
-            this.sqlf.addAll(parameters);
-            var objectidCol = new BaseColumnInfo("objectid", this, JdbcType.INTEGER);
+            if (seeds.isEmpty())
+            {
+                SqlDialect d = schema.getDbSchema().getScope().getSqlDialect();
+                this.sqlf = new SQLFragment("SELECT CAST(NULL AS " + d.getSqlCastTypeName(JdbcType.INTEGER) + ") AS objectid WHERE 1 = 0");
+            }
+            else
+            {
+                this.sqlf = new SQLFragment("SELECT objectid FROM (VALUES ");
+                this.sqlf.append(seeds.stream().map(seed -> "(" + seed + ")").collect(Collectors.joining(",")));
+                this.sqlf.append(") AS _seeds_(objectid)");
+            }
+            var objectidCol = new BaseColumnInfo(OBJECTID_COLUMN, this, JdbcType.INTEGER);
             addColumn(objectidCol);
             var inputs = new AliasedColumn(this, "Inputs", objectidCol);
-            inputs.setFk(LineageForeignKey.createWithMultiValuedColumn(schema, sqlf, true));
+            inputs.setFk(LineageForeignKey.createWithMultiValuedColumn(schema, sqlf, true, lineage));
             addColumn(inputs);
             var outputs = new AliasedColumn(this, "Outputs", objectidCol);
-            outputs.setFk(LineageForeignKey.createWithMultiValuedColumn(schema, sqlf, false));
+            outputs.setFk(LineageForeignKey.createWithMultiValuedColumn(schema, sqlf, false, lineage));
             addColumn(outputs);
         }
 
-        @Override
-        public @NotNull Collection<QueryService.ParameterDecl> getNamedParameters()
-        {
-            return parameters;
-        }
-
         @Override
         protected SQLFragment getFromSQL()
         {
@@ -39,8 +39,10 @@ import org.labkey.api.query.UserSchema;
 import org.labkey.api.util.Path;
 import org.labkey.api.util.StringExpression;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
 import java.util.function.Supplier;
 
 import static java.util.Objects.requireNonNull;
@@ -55,26 +57,34 @@ class LineageForeignKey extends AbstractForeignKey
     private final boolean _useLineageDisplayColumn;
     private final ExpTableImpl _seedTable;
     private final SQLFragment _seedSql;
+    private final @Nullable PrecomputedLineage _lineage;
     private final UserSchema _userSchema;
     private final boolean _parents;
 
     /* generate a ForeignKey that returns a wrapper over objectid with a LineageDisplayColumn */
     public static LineageForeignKey createWithDisplayColumn(UserSchema schema, ExpTableImpl seedTable, boolean parents)
     {
-        return new LineageForeignKey(schema, seedTable, null, parents, true);
+        return new LineageForeignKey(schema, seedTable, null, null, parents, true);
     }
 
-    /* generate a real MultiValued ForeignKey, use for one row at a time */
+    /* generate a real MultiValued ForeignKey, use for one batch of seed rows at a time (see LineageDisplayColumn.SeedTable) */
     public static LineageForeignKey createWithMultiValuedColumn(UserSchema schema, SQLFragment seedSql, boolean parents)
     {
-        return new LineageForeignKey(schema, null, seedSql, parents, false);
+        return new LineageForeignKey(schema, null, seedSql, null, parents, false);
     }
 
-    protected LineageForeignKey(UserSchema schema, ExpTableImpl seedTable, SQLFragment seedSql, boolean parents, boolean useLineageDisplayColumn)
+    /* same as above, but lineage columns matching the already resolved lineage use it instead of querying for it again */
+    public static LineageForeignKey createWithMultiValuedColumn(UserSchema schema, SQLFragment seedSql, boolean parents, @NotNull PrecomputedLineage lineage)
+    {
+        return new LineageForeignKey(schema, null, seedSql, lineage, parents, false);
+    }
+
+    protected LineageForeignKey(UserSchema schema, ExpTableImpl seedTable, SQLFragment seedSql, @Nullable PrecomputedLineage lineage, boolean parents, boolean useLineageDisplayColumn)
     {
         super(schema, null);
         _seedTable = seedTable;
         _seedSql = seedSql;
+        _lineage = lineage;
         _userSchema = schema;
         _parents = parents;
         this._useLineageDisplayColumn = useLineageDisplayColumn;
@@ -90,7 +100,7 @@ class LineageForeignKey extends AbstractForeignKey
     public TableInfo getLookupTableInfo()
     {
         Path cacheKey = new Path(this.getClass().getName(), (_useLineageDisplayColumn ? "LDC": "MVFK"), (_parents ? "Inputs" : "Outputs"));
-        return _userSchema.getCachedLookupTableInfo(cacheKey.toString(), () ->
+        return getCachedLookupTableInfo(cacheKey, () ->
         {
             var ret = new LineageForeignKeyLookupTable(_parents ? "Inputs" : "Outputs", _userSchema, cacheKey).init();
             ret.setLocked(true);
@@ -98,6 +108,52 @@ class LineageForeignKey extends AbstractForeignKey
         });
     }
 
+    // lookup tables over precomputed lineage belong to one set of seeds, so they can't be shared through the schema
+    private TableInfo getCachedLookupTableInfo(Path cacheKey, Supplier<TableInfo> create)
+    {
+        if (null != _lineage)
+            return create.get();
+        return _userSchema.getCachedLookupTableInfo(cacheKey.toString(), create::get);
+    }
+
+    /**
+     * Lineage of a set of seed objectids as returned by {@link ExperimentService#getLineageObjectIds}, along with the
+     * options it was resolved with.
+     */
+    static class PrecomputedLineage
+    {
+        final boolean parents;
+        final @Nullable Integer depth;
+        final @Nullable String expType;
+        final @Nullable String cpasType;
+        final @NotNull Collection<Integer> seeds;
+        final @NotNull Map<Integer, Map<Integer, Integer>> lineage;
+
+        PrecomputedLineage(boolean parents, @Nullable Integer depth, @Nullable String expType, @Nullable String cpasType, @NotNull Collection<Integer> seeds, @NotNull Map<Integer, Map<Integer, Integer>> lineage)
+        {
+            this.parents = parents;
+            this.depth = normalizeDepth(depth);
+            this.expType = expType;
+            this.cpasType = cpasType;
+            this.seeds = seeds;
+            this.lineage = lineage;
+        }
+
+        boolean matches(boolean parents, @Nullable Integer depth, @Nullable String expType, @Nullable String cpasType, @Nullable String runProtocolLsid)
+        {
+            return this.parents == parents && null == runProtocolLsid &&
+                    Objects.equals(this.depth, normalizeDepth(depth)) &&
+                    Objects.equals(this.expType, expType) &&
+                    Objects.equals(this.cpasType, cpasType);
+        }
+
+        // zero and null both mean all generations
+        private static Integer normalizeDepth(Integer depth)
+        {
+            return null == depth || 0 == depth ? null : Math.abs(depth);
+        }
+    }
+
     enum LevelColumnType
     {
         Data("Data", "Data")
@@ -254,7 +310,7 @@ class LineageForeignKey extends AbstractForeignKey
         if (_useLineageDisplayColumn)
         {
             final FieldKey ldcfk = lineageDisplayColumnFieldKey;
-            column.setDisplayColumnFactory(colInfo -> LineageDisplayColumn.create(_sourceSchema, colInfo, ldcfk));
+            column.setDisplayColumnFactory(colInfo -> LineageDisplayColumn.create(_sourceSchema, colInfo, ldcfk, _parents, depth, expType, cpasType));
         }
     }
 
@@ -320,8 +376,15 @@ class LineageForeignKey extends AbstractForeignKey
                     if (null == _table)
                     {
                         Path cacheKey = cacheKeyPrefix.append(_MultiValuedForeignKey.class.getSimpleName(), String.valueOf(_parents), null==depth?"-":String.valueOf(depth), defaultString(expType,"-"), defaultString(cpasType,"-"));
-                            _table = LineageForeignKey.this._userSchema.getCachedLookupTableInfo(cacheKey.toString(), () ->
+                            _table = LineageForeignKey.this.getCachedLookupTableInfo(cacheKey, () ->
+                            {
+                            if (null != _lineage && _lineage.matches(_parents, depth, expType, cpasType, runProtocolLsid))
                             {
+                                var ret = new LineageTableInfo("Foo", _userSchema, _lineage.seeds, _lineage.lineage, _parents, depth, expType, cpasType, runProtocolLsid);
+                                ret.setLocked(true);
+                                return ret;
+                            }
+
                             SQLFragment objectids;
                             if (null != _seedSql)
                             {
@@ -438,7 +501,7 @@ class LineageForeignKey extends AbstractForeignKey
             if (null == _table)
             {
                 Path cacheKey = _cacheKeyPrefix.append(getClass().getSimpleName(), _level.name());
-                _table = _schema.getCachedLookupTableInfo(cacheKey.toString(), () ->
+                _table = LineageForeignKey.this.getCachedLookupTableInfo(cacheKey, () ->
                 {
                     var ret = new ByTypeLineageForeignKeyLookupTable("Foo", _schema, cacheKey, _level.expType, ()->_level.getItems(_schema)).init();
                     ret.setLocked(true);
@@ -0,0 +1,688 @@
+/*
+ * Copyright (c) 2020 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.experiment.api;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import org.junit.Assert;
+import org.junit.Test;
+import org.labkey.api.data.DbScope;
+import org.labkey.api.data.SQLFragment;
+import org.labkey.api.data.SqlSelector;
+import org.labkey.api.data.TableInfo;
+import org.labkey.api.settings.AppProps;
+import org.labkey.api.util.DateUtil;
+import org.labkey.api.util.Formats;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.labkey.api.data.DbScope.CommitTaskOption.POSTCOMMIT;
+
+/**
+ * Compact in-memory copy of the exp.Edge table used to answer lineage queries without the recursive CTE
+ * generated by {@link ExperimentServiceImpl#generateExperimentTreeSQL}.
+ * <p>
+ * The edges are held as primitive int arrays in compressed sparse row form, once sorted by fromObjectId and once
+ * by toObjectId, so walking parents or children of a node is a binary search followed by an array scan.
+ * Changes made by {@link ExperimentServiceImpl#syncRunEdges} are not applied directly. Instead, the affected runIds
+ * are queued once the transaction commits and the edges for those runs are re-read from exp.Edge the next time the
+ * index is used. The re-read edges live in a small overlay that is folded back into the arrays once it grows.
+ * <p>
+ * The index only reflects committed data. Callers should fall back to SQL when the experiment scope has an
+ * active transaction or when {@link #getGraph()} returns null (e.g., while another thread is building the index).
+ */
+public class LineageGraphIndex
+{
+    private static final Logger LOG = LogManager.getLogger(LineageGraphIndex.class);
+    private static final LineageGraphIndex INSTANCE = new LineageGraphIndex();
+
+    public static final String EXPERIMENTAL_LINEAGE_GRAPH_INDEX = "experimental-lineage-graph-index";
+
+    // fold the overlay into the CSR arrays once it holds this many edges
+    private static final int COMPACT_THRESHOLD = 50_000;
+    // partition size when re-reading edges for changed runs
+    private static final int RUN_BATCH_SIZE = 1000;
+
+    private final ReentrantLock _lock = new ReentrantLock();
+    private final Set<Integer> _pendingRuns = ConcurrentHashMap.newKeySet();
+    private final Set<Integer> _pendingRemovedNodes = ConcurrentHashMap.newKeySet();
+
+    private volatile @Nullable Graph _graph = null;
+    // bumped by invalidate() so a build that was started before the invalidation is discarded
+    private volatile int _generation = 0;
+
+    private LineageGraphIndex()
+    {
+    }
+
+    public static LineageGraphIndex get()
+    {
+        return INSTANCE;
+    }
+
+    public static boolean isEnabled()
+    {
+        return AppProps.getInstance().isExperimentalFeatureEnabled(EXPERIMENTAL_LINEAGE_GRAPH_INDEX);
+    }
+
+    /**
+     * Returns true if the index may be used to answer a lineage query right now.
+     * Uncommitted edge changes are only visible to SQL so queries inside a transaction must not use the index.
+     */
+    public static boolean isUsable()
+    {
+        return isEnabled() && !ExperimentServiceImpl.get().getExpSchema().getScope().isTransactionActive();
+    }
+
+    /** Queue a reload of the edges for the run once the current transaction (if any) commits. */
+    public void runEdgesChanged(int runId)
+    {
+        if (!isEnabled())
+            return;
+
+        DbScope scope = ExperimentServiceImpl.get().getExpSchema().getScope();
+        scope.addCommitTask(new PendingRunTask(runId), POSTCOMMIT);
+    }
+
+    /** Queue removal of deleted nodes (and all of their edges) once the current transaction (if any) commits. */
+    public void nodesRemoved(Collection<Integer> objectIds)
+    {
+        if (!isEnabled() || objectIds.isEmpty())
+            return;
+
+        final List<Integer> ids = new ArrayList<>(objectIds);
+        DbScope scope = ExperimentServiceImpl.get().getExpSchema().getScope();
+        scope.addCommitTask(() -> _pendingRemovedNodes.addAll(ids), POSTCOMMIT);
+    }
+
+    /** Discard the index once the current transaction (if any) commits. It will be rebuilt on next use. */
+    public void invalidate()
+    {
+        DbScope scope = ExperimentServiceImpl.get().getExpSchema().getScope();
+        scope.addCommitTask(this::clear, POSTCOMMIT);
+    }
+
+    /** Discard the index immediately. */
+    public void clear()
+    {
+        _lock.lock();
+        try
+        {
+            _generation++;
+            _graph = null;
+            _pendingRuns.clear();
+            _pendingRemovedNodes.clear();
+        }
+        finally
+        {
+            _lock.unlock();
+        }
+    }
+
+    /**
+     * Get an up-to-date graph, building it or applying any pending changes first.
+     * Returns null if the index must be built and another thread is already building it.
+     */
+    public @Nullable Graph getGraph()
+    {
+        Graph g = _graph;
+        if (g != null && _pendingRuns.isEmpty() && _pendingRemovedNodes.isEmpty())
+            return g;
+
+        if (g == null)
+        {
+            // full build: don't make the caller wait on another thread's build, just use SQL in the meantime
+            if (!_lock.tryLock())
+                return null;
+        }
+        else
+        {
+            // applying pending changes is cheap
+            _lock.lock();
+        }
+
+        try
+        {
+            int generation = _generation;
+            g = _graph;
+            if (g == null)
+                g = build();
+
+            g = applyPending(g);
+
+            if (generation == _generation)
+                _graph = g;
+            return g;
+        }
+        finally
+        {
+            _lock.unlock();
+        }
+    }
+
+    private Graph build()
+    {
+        long start = System.currentTimeMillis();
+        TableInfo edge = ExperimentServiceImpl.get().getTinfoEdge();
+
+        // queued changes are included in the full build
+        _pendingRuns.clear();
+        _pendingRemovedNodes.clear();
+
+        EdgeList edges = new EdgeList(1024);
+        new SqlSelector(edge.getSchema(), new SQLFragment("SELECT fromObjectId, toObjectId, runId FROM ").append(edge.getFromSQL("E")))
+                .forEach(rs -> edges.add(rs.getInt(1), rs.getInt(2), rs.getInt(3)));
+
+        Graph g = Graph.build(edges);
+        LOG.info("Built lineage graph index: " + Formats.commaf0.format(g._nodes.length) + " nodes, " + Formats.commaf0.format(edges.size()) +
+                " edges in " + DateUtil.formatDuration(System.currentTimeMillis() - start));
+        return g;
+    }
+
+    private Graph applyPending(Graph g)
+    {
+        if (_pendingRuns.isEmpty() && _pendingRemovedNodes.isEmpty())
+            return g;
+
+        // remove before reading so a change committed while we read is queued again
+        List<Integer> runIds = new ArrayList<>(_pendingRuns);
+        _pendingRuns.removeAll(runIds);
+        List<Integer> removedNodes = new ArrayList<>(_pendingRemovedNodes);
+        _pendingRemovedNodes.removeAll(removedNodes);
+
+        Map<Integer, EdgeList> runEdges = new HashMap<>();
+        for (Integer runId : runIds)
+            runEdges.put(runId, new EdgeList(4));
+
+        if (!runIds.isEmpty())
+        {
+            TableInfo edge = ExperimentServiceImpl.get().getTinfoEdge();
+            for (int i = 0; i < runIds.size(); i += RUN_BATCH_SIZE)
+            {
+                List<Integer> batch = runIds.subList(i, Math.min(runIds.size(), i + RUN_BATCH_SIZE));
+                SQLFragment sql = new SQLFragment("SELECT fromObjectId, toObjectId, runId FROM ").append(edge.getFromSQL("E"));
+                sql.append(" WHERE runId ");
+                edge.getSqlDialect().appendInClauseSql(sql, batch);
+                new SqlSelector(edge.getSchema(), sql).forEach(rs -> runEdges.get(rs.getInt(3)).add(rs.getInt(1), rs.getInt(2), rs.getInt(3)));
+            }
+        }
+
+        g = g.withChanges(runEdges, removedNodes);
+        if (g._deltaEdgeCount + g._removedNodes.size() > COMPACT_THRESHOLD)
+            g = g.compact();
+
+        LOG.debug("Applied lineage graph index changes for " + runIds.size() + " runs and " + removedNodes.size() + " removed nodes");
+        return g;
+    }
+
+    /** Post-commit task that queues a run for reload; equals() lets the transaction collapse duplicates */
+    private class PendingRunTask implements Runnable
+    {
+        private final int _runId;
+
+        PendingRunTask(int runId)
+        {
+            _runId = runId;
+        }
+
+        @Override
+        public void run()
+        {
+            _pendingRuns.add(_runId);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            return _runId == ((PendingRunTask)o)._runId;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Integer.hashCode(_runId);
+        }
+    }
+
+
+    /** Callback for {@link Graph#walk} */
+    public interface EdgeVisitor
+    {
+        /**
+         * Invoked for each edge traversed. When walking parents, <code>from</code> is the newly reached node;
+         * when walking children, <code>to</code> is. The depth is the (positive) distance of the newly reached node from the seed.
+         */
+        void edge(int from, int to, int depth);
+    }
+
+    /**
+     * Immutable snapshot of the edges. A new Graph is created whenever changes are applied so readers never need to lock.
+     */
+    public static final class Graph
+    {
+        // sorted objectIds of every node that has at least one edge in the CSR arrays
+        private final int[] _nodes;
+
+        // edges out of _nodes[i] are _outTo[_outStart[i]] .. _outTo[_outStart[i+1]-1], with the edge's runId in _outRun
+        private final int[] _outStart;
+        private final int[] _outTo;
+        private final int[] _outRun;
+
+        // edges into _nodes[i] are _inFrom[_inStart[i]] .. _inFrom[_inStart[i+1]-1], with the edge's runId in _inRun
+        private final int[] _inStart;
+        private final int[] _inFrom;
+        private final int[] _inRun;
+
+        // overlay: runs whose edges in the CSR arrays have been replaced by the edges in _deltaRunEdges
+        private final Map<Integer, EdgeList> _deltaRunEdges;
+        private final Map<Integer, int[]> _deltaOut;
+        private final Map<Integer, int[]> _deltaIn;
+        private final int _deltaEdgeCount;
+        private final Set<Integer> _removedNodes;
+
+        private Graph(int[] nodes, int[] outStart, int[] outTo, int[] outRun, int[] inStart, int[] inFrom, int[] inRun,
+                      Map<Integer, EdgeList> deltaRunEdges, Set<Integer> removedNodes)
+        {
+            _nodes = nodes;
+            _outStart = outStart;
+            _outTo = outTo;
+            _outRun = outRun;
+            _inStart = inStart;
+            _inFrom = inFrom;
+            _inRun = inRun;
+            _deltaRunEdges = deltaRunEdges;
+            _removedNodes = removedNodes;
+
+            Map<Integer, EdgeList> out = new HashMap<>();
+            Map<Integer, EdgeList> in = new HashMap<>();
+            int count = 0;
+            for (EdgeList edges : deltaRunEdges.values())
+            {
+                for (int i = 0; i < edges.size(); i++)
+                {
+                    out.computeIfAbsent(edges.from(i), k -> new EdgeList(2)).add(edges.to(i), 0, 0);
+                    in.computeIfAbsent(edges.to(i), k -> new EdgeList(2)).add(edges.from(i), 0, 0);
+                }
+                count += edges.size();
+            }
+            _deltaEdgeCount = count;
+            _deltaOut = toNeighborArrays(out);
+            _deltaIn = toNeighborArrays(in);
+        }
+
+        private static Map<Integer, int[]> toNeighborArrays(Map<Integer, EdgeList> map)
+        {
+            if (map.isEmpty())
+                return Collections.emptyMap();
+            Map<Integer, int[]> ret = new HashMap<>(map.size() * 2);
+            map.forEach((k, v) -> ret.put(k, Arrays.copyOf(v._from, v.size())));
+            return ret;
+        }
+
+        static Graph build(EdgeList edges)
+        {
+            int count = edges.size();
+
+            // distinct, sorted node ids
+            int[] ids = new int[count * 2];
+            System.arraycopy(edges._from, 0, ids, 0, count);
+            System.arraycopy(edges._to, 0, ids, count, count);
+            Arrays.sort(ids);
+            int n = 0;
+            for (int i = 0; i < ids.length; i++)
+            {
+                if (i == 0 || ids[i] != ids[i-1])
+                    ids[n++] = ids[i];
+            }
+            int[] nodes = Arrays.copyOf(ids, n);
+
+            int[] outStart = new int[n + 1];
+            int[] inStart = new int[n + 1];
+            int[] fromIndex = new int[count];
+            int[] toIndex = new int[count];
+            for (int e = 0; e < count; e++)
+            {
+                fromIndex[e] = Arrays.binarySearch(nodes, edges.from(e));
+                toIndex[e] = Arrays.binarySearch(nodes, edges.to(e));
+                outStart[fromIndex[e] + 1]++;
+                inStart[toIndex[e] + 1]++;
+            }
+            for (int i = 0; i < n; i++)
+            {
+                outStart[i + 1] += outStart[i];
+                inStart[i + 1] += inStart[i];
+            }
+
+            int[] outTo = new int[count];
+            int[] outRun = new int[count];
+            int[] inFrom = new int[count];
+            int[] inRun = new int[count];
+            int[] outCursor = Arrays.copyOf(outStart, n);
+            int[] inCursor = Arrays.copyOf(inStart, n);
+            for (int e = 0; e < count; e++)
+            {
+                int o = outCursor[fromIndex[e]]++;
+                outTo[o] = edges.to(e);
+                outRun[o] = edges.run(e);
+
+                int i = inCursor[toIndex[e]]++;
+                inFrom[i] = edges.from(e);
+                inRun[i] = edges.run(e);
+            }
+
+            return new Graph(nodes, outStart, outTo, outRun, inStart, inFrom, inRun, Collections.emptyMap(), Collections.emptySet());
+        }
+
+        /** Create a new graph that replaces the edges of the given runs and drops the removed nodes */
+        Graph withChanges(Map<Integer, EdgeList> runEdges, Collection<Integer> removedNodes)
+        {
+            Map<Integer, EdgeList> delta = new HashMap<>(_deltaRunEdges);
+            delta.putAll(runEdges);
+
+            Set<Integer> removed = _removedNodes;
+            if (!removedNodes.isEmpty())
+            {
+                removed = new HashSet<>(_removedNodes);
+                removed.addAll(removedNodes);
+            }
+
+            return new Graph(_nodes, _outStart, _outTo, _outRun, _inStart, _inFrom, _inRun, delta, removed);
+        }
+
+        /** Fold the overlay into new CSR arrays */
+        Graph compact()
+        {
+            EdgeList edges = new EdgeList(_outTo.length + _deltaEdgeCount);
+            for (int i = 0; i < _nodes.length; i++)
+            {
+                int from = _nodes[i];
+                if (_removedNodes.contains(from))
+                    continue;
+                for (int e = _outStart[i]; e < _outStart[i + 1]; e++)
+                {
+                    if (_deltaRunEdges.containsKey(_outRun[e]) || _removedNodes.contains(_outTo[e]))
+                        continue;
+                    edges.add(from, _outTo[e], _outRun[e]);
+                }
+            }
+            for (EdgeList runEdges : _deltaRunEdges.values())
+            {
+                for (int e = 0; e < runEdges.size(); e++)
+                {
+                    if (_removedNodes.contains(runEdges.from(e)) || _removedNodes.contains(runEdges.to(e)))
+                        continue;
+                    edges.add(runEdges.from(e), runEdges.to(e), runEdges.run(e));
+                }
+            }
+            return build(edges);
+        }
+
+        public int getNodeCount()
+        {
+            return _nodes.length;
+        }
+
+        public int getEdgeCount()
+        {
+            return _outTo.length + _deltaEdgeCount;
+        }
+
+        /** Collect the distinct parents (or children) of the node, skipping edges that have been replaced or removed */
+        private int[] neighbors(int objectId, boolean parents)
+        {
+            if (_removedNodes.contains(objectId))
+                return EMPTY;
+
+            EdgeList ret = null;
+            int i = Arrays.binarySearch(_nodes, objectId);
+            if (i >= 0)
+            {
+                int[] start = parents ? _inStart : _outStart;
+                int[] adj = parents ? _inFrom : _outTo;
+                int[] runs = parents ? _inRun : _outRun;
+                for (int e = start[i]; e < start[i + 1]; e++)
+                {
+                    if (!_deltaRunEdges.isEmpty() && _deltaRunEdges.containsKey(runs[e]))
+                        continue;
+                    if (!_removedNodes.isEmpty() && _removedNodes.contains(adj[e]))
+                        continue;
+                    if (ret == null)
+                        ret = new EdgeList(start[i + 1] - start[i]);
+                    ret.add(adj[e], 0, 0);
+                }
+            }
+
+            int[] extra = (parents ? _deltaIn : _deltaOut).get(objectId);
+            if (extra != null)
+            {
+                for (int n : extra)
+                {
+                    if (_removedNodes.contains(n))
+                        continue;
+                    if (ret == null)
+                        ret = new EdgeList(extra.length);
+                    ret.add(n, 0, 0);
+                }
+            }
+
+            if (ret == null)
+                return EMPTY;
+
+            // the same pair of nodes may be connected by more than one run
+            int[] ids = Arrays.copyOf(ret._from, ret.size());
+            Arrays.sort(ids);
+            int n = 0;
+            for (int k = 0; k < ids.length; k++)
+            {
+                if (k == 0 || ids[k] != ids[k-1])
+                    ids[n++] = ids[k];
+            }
+            return n == ids.length ? ids : Arrays.copyOf(ids, n);
+        }
+
+        /**
+         * Walk parents or children of the seed up to maxDepth edges away.
+         * <p>
+         * When <code>allDepths</code> is false, each node is expanded once at its nearest distance, which is enough to
+         * find every edge the recursive CTE would return.  When true, nodes are expanded once per distinct distance
+         * they can be reached at (level by level), matching the CTE's enumeration of paths so callers can find both
+         * the nearest and the farthest depth of a node. Levels are bounded by maxDepth so cycles terminate.
+         */
+        public void walk(int seed, boolean parents, int maxDepth, boolean allDepths, EdgeVisitor visitor)
+        {
+            Set<Integer> visited = allDepths ? null : new HashSet<>();
+            if (visited != null)
+                visited.add(seed);
+
+            int[] frontier = new int[] { seed };
+            int frontierSize = 1;
+            for (int depth = 1; depth <= maxDepth && frontierSize > 0; depth++)
+            {
+                Set<Integer> next = new HashSet<>();
+                for (int f = 0; f < frontierSize; f++)
+                {
+                    int node = frontier[f];
+                    for (int neighbor : neighbors(node, parents))
+                    {
+                        if (parents)
+                            visitor.edge(neighbor, node, depth);
+                        else
+                            visitor.edge(node, neighbor, depth);
+
+                        if (visited == null || visited.add(neighbor))
+                            next.add(neighbor);
+                    }
+                }
+
+                frontierSize = next.size();
+                if (frontier.length < frontierSize)
+                    frontier = new int[frontierSize];
+                int f = 0;
+                for (Integer n : next)
+                    frontier[f++] = n;
+            }
+        }
+    }
+
+    private static final int[] EMPTY = new int[0];
+
+    /** Growable parallel int arrays of (from, to, run) */
+    static final class EdgeList
+    {
+        private int[] _from;
+        private int[] _to;
+        private int[] _run;
+        private int _size;
+
+        EdgeList(int capacity)
+        {
+            capacity = Math.max(capacity, 1);
+            _from = new int[capacity];
+            _to = new int[capacity];
+            _run = new int[capacity];
+        }
+
+        void add(int from, int to, int run)
+        {
+            if (_size == _from.length)
+            {
+                int capacity = _size + (_size >> 1) + 1;
+                _from = Arrays.copyOf(_from, capacity);
+                _to = Arrays.copyOf(_to, capacity);
+                _run = Arrays.copyOf(_run, capacity);
+            }
+            _from[_size] = from;
+            _to[_size] = to;
+            _run[_size] = run;
+            _size++;
+        }
+
+        int size()
+        {
+            return _size;
+        }
+
+        int from(int i)
+        {
+            return _from[i];
+        }
+
+        int to(int i)
+        {
+            return _to[i];
+        }
+
+        int run(int i)
+        {
+            return _run[i];
+        }
+    }
+
+
+    public static class TestCase extends Assert
+    {
+        private static Graph graph(int[][] edges)
+        {
+            EdgeList list = new EdgeList(edges.length);
+            for (int[] e : edges)
+                list.add(e[0], e[1], e[2]);
+            return Graph.build(list);
+        }
+
+        private static Map<Integer, Integer> nearest(Graph g, int seed, boolean parents, int maxDepth)
+        {
+            Map<Integer, Integer> ret = new HashMap<>();
+            g.walk(seed, parents, maxDepth, true, (from, to, depth) -> ret.merge(parents ? from : to, depth, Math::min));
+            return ret;
+        }
+
+        @Test
+        public void walk()
+        {
+            // 1 -> 10(run) -> 2 -> 20(run) -> 3, and 1 -> 30(run) -> 3
+            Graph g = graph(new int[][] {
+                    {1, 10, 100}, {10, 2, 100},
+                    {2, 20, 200}, {20, 3, 200},
+                    {1, 30, 300}, {30, 3, 300}
+            });
+            assertEquals(7, g.getNodeCount());
+            assertEquals(6, g.getEdgeCount());
+
+            assertEquals(Map.of(10, 1, 2, 2, 20, 3, 3, 2, 30, 1), nearest(g, 1, false, 1000));
+            assertEquals(Map.of(20, 1, 2, 2, 10, 3, 1, 2, 30, 1), nearest(g, 3, true, 1000));
+            assertEquals(Map.of(10, 1, 30, 1), nearest(g, 1, false, 1));
+
+            // farthest depth of node 3 from node 1 is 4
+            Map<Integer, Integer> farthest = new HashMap<>();
+            g.walk(1, false, 1000, true, (from, to, depth) -> farthest.merge(to, depth, Math::max));
+            assertEquals(4, (int)farthest.get(3));
+
+            // nearest-only walk visits each edge once
+            List<String> edges = new ArrayList<>();
+            g.walk(1, false, 1000, false, (from, to, depth) -> edges.add(from + "->" + to));
+            assertEquals(6, edges.size());
+        }
+
+        @Test
+        public void changes()
+        {
+            Graph g = graph(new int[][] {
+                    {1, 10, 100}, {10, 2, 100},
+                    {2, 20, 200}, {20, 3, 200}
+            });
+
+            // replace run 200's edges: 2 -> 20 -> 4
+            EdgeList run200 = new EdgeList(2);
+            run200.add(2, 20, 200);
+            run200.add(20, 4, 200);
+            Graph changed = g.withChanges(Map.of(200, run200), List.of());
+            assertEquals(Map.of(10, 1, 2, 2, 20, 3, 4, 4), nearest(changed, 1, false, 1000));
+
+            // remove node 2
+            Graph removed = changed.withChanges(Map.of(), List.of(2));
+            assertEquals(Map.of(10, 1), nearest(removed, 1, false, 1000));
+            assertEquals(Map.of(20, 1), nearest(removed, 4, true, 1000));
+
+            // compacting gives the same answers
+            Graph compacted = removed.compact();
+            assertEquals(nearest(removed, 1, false, 1000), nearest(compacted, 1, false, 1000));
+            assertEquals(nearest(removed, 4, true, 1000), nearest(compacted, 4, true, 1000));
+            assertEquals(2, compacted.getEdgeCount());
+        }
+
+        @Test
+        public void cycle()
+        {
+            // level-by-level walk must terminate on a cycle
+            Graph g = graph(new int[][] { {1, 2, 100}, {2, 1, 100} });
+            Map<Integer, Integer> ret = nearest(g, 1, false, 50);
+            assertEquals(Map.of(2, 1, 1, 2), ret);
+        }
+    }
+}
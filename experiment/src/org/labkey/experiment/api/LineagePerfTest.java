@@ -35,6 +35,7 @@ import org.labkey.api.exp.ExperimentException;
 import org.labkey.api.exp.Lsid;
 import org.labkey.api.exp.api.ExpData;
 import org.labkey.api.exp.api.ExpDataClass;
+import org.labkey.api.exp.api.ExpLineage;
 import org.labkey.api.exp.api.ExpLineageOptions;
 import org.labkey.api.exp.api.ExpMaterial;
 import org.labkey.api.exp.api.ExpRun;
@@ -294,6 +295,11 @@ public class LineagePerfTest extends Assert
         CPUTimer newLineageGraph = new CPUTimer("new lineage graph");
         CPUTimer newInsertMoreTimer = new CPUTimer("new insertMore");
 
+        CPUTimer indexBuildTimer = new CPUTimer("index build");
+        CPUTimer indexLineageQuery = new CPUTimer("index lineage query");
+        CPUTimer indexLineageGraph = new CPUTimer("index lineage graph");
+        CPUTimer indexInsertMoreTimer = new CPUTimer("index insertMore");
+
         //
         // SETUP: insert lots of samples derived from each other
         //
@@ -311,9 +317,27 @@ public class LineagePerfTest extends Assert
         // TEST: 10 x (insert a sample, query lineage twice)
         //
 
-        LOG.info("TEST querying with exp.edge lineage: ");
-
-        lineageQueries("NEW", newLineageQuery, newLineageGraph, newInsertMoreTimer, st, firstData);
+        boolean indexEnabled = LineageGraphIndex.isEnabled();
+        try
+        {
+            LOG.info("TEST querying with exp.edge lineage: ");
+            setLineageGraphIndexEnabled(false);
+            lineageQueries("NEW", newLineageQuery, newLineageGraph, newInsertMoreTimer, st, firstData);
+
+            LOG.info("TEST querying with lineage graph index: ");
+            setLineageGraphIndexEnabled(true);
+            indexBuildTimer.start();
+            assertNotNull(LineageGraphIndex.get().getGraph());
+            indexBuildTimer.stop();
+            lineageQueries("INDEX", indexLineageQuery, indexLineageGraph, indexInsertMoreTimer, st, firstData);
+
+            LOG.info("TEST comparing exp.edge lineage and lineage graph index: ");
+            compareLineage(st);
+        }
+        finally
+        {
+            setLineageGraphIndexEnabled(indexEnabled);
+        }
 
         elapsedTimer.stop();
 
@@ -326,6 +350,10 @@ public class LineagePerfTest extends Assert
         LOG.info(newLineageQuery);
         LOG.info(newLineageGraph);
         LOG.info(newInsertMoreTimer);
+        LOG.info(indexBuildTimer);
+        LOG.info(indexLineageQuery);
+        LOG.info(indexLineageGraph);
+        LOG.info(indexInsertMoreTimer);
         LOG.info(elapsedTimer);
     }
 
@@ -414,6 +442,45 @@ public class LineagePerfTest extends Assert
         return Pair.of(st, data);
     }
 
+    private void setLineageGraphIndexEnabled(boolean enabled)
+    {
+        ExperimentalFeatureService.get().setFeatureEnabled(LineageGraphIndex.EXPERIMENTAL_LINEAGE_GRAPH_INDEX, enabled, _user);
+        assertEquals(enabled, LineageGraphIndex.isEnabled());
+    }
+
+    // verify the lineage graph index returns the same lineage as the recursive CTE
+    private void compareLineage(ExpSampleType st)
+    {
+        final String sql = "SELECT ss.Name,\n" +
+                "  ss.Inputs.Data.MyData.Name AS Inputs_MyData_Name,\n" +
+                "  ss.Inputs.Materials.MySamples.Name AS Inputs_MySamples_Name\n" +
+                "FROM samples.MySamples AS ss\n" +
+                "ORDER BY ss.Name";
+        final UserSchema schema = QueryService.get().getUserSchema(_user, _container, "samples");
+
+        setLineageGraphIndexEnabled(false);
+        Collection<Map<String, Object>> sqlRows = QueryService.get().selector(schema, sql).getMapCollection();
+        setLineageGraphIndexEnabled(true);
+        Collection<Map<String, Object>> indexRows = QueryService.get().selector(schema, sql).getMapCollection();
+        assertEquals(new ArrayList<>(sqlRows), new ArrayList<>(indexRows));
+
+        final ExpLineageOptions opt = new ExpLineageOptions();
+        List<? extends ExpMaterial> samples = st.getSamples(_container);
+        for (int i = 0; i < samples.size(); i += Math.max(1, samples.size() / 50))
+        {
+            ExpMaterial sample = samples.get(i);
+
+            setLineageGraphIndexEnabled(false);
+            ExpLineage sqlLineage = ExperimentService.get().getLineage(_container, _user, sample, opt);
+            setLineageGraphIndexEnabled(true);
+            ExpLineage indexLineage = ExperimentService.get().getLineage(_container, _user, sample, opt);
+
+            assertEquals("Materials differ for " + sample.getName(), sqlLineage.getMaterials(), indexLineage.getMaterials());
+            assertEquals("Datas differ for " + sample.getName(), sqlLineage.getDatas(), indexLineage.getDatas());
+            assertEquals("Runs differ for " + sample.getName(), sqlLineage.getRuns(), indexLineage.getRuns());
+        }
+    }
+
     private void lineageQueries(String prefix, CPUTimer lineageQuery, CPUTimer lineageGraph, CPUTimer insertMoreTimer, ExpSampleType st, ExpData firstData) throws ExperimentException
     {
         // parse the query once
@@ -27,6 +27,7 @@ import org.labkey.api.data.JdbcType;
 import org.labkey.api.data.SQLFragment;
 import org.labkey.api.data.TableInfo;
 import org.labkey.api.data.VirtualTable;
+import org.labkey.api.exp.OntologyManager;
 import org.labkey.api.exp.api.ExpDataClass;
 import org.labkey.api.exp.api.ExpLineageOptions;
 import org.labkey.api.exp.api.ExpProtocol;
@@ -44,14 +45,30 @@ import org.labkey.api.query.UserSchema;
 import org.labkey.api.query.column.BuiltInColumnTypes;
 import org.labkey.api.util.StringExpression;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
 /**
  * User: kevink
  * Date: 2/23/16
  */
 public class LineageTableInfo extends VirtualTable
 {
+    // larger seed sets or results are answered by the recursive CTE instead of the lineage graph index
+    private static final int INDEX_MAX_SEEDS = 1000;
+    private static final int INDEX_MAX_ROWS = 20_000;
+
     private @NotNull
     final SQLFragment _objectids;
+    // explicit seed objectids, when known up front; only these can be answered from the lineage graph index
+    private @Nullable
+    final Collection<Integer> _seedObjectIds;
+    // lineage already resolved for the seeds by the caller, see LineageDisplayColumn
+    private @Nullable
+    final Map<Integer, Map<Integer, Integer>> _lineage;
     private final boolean _parents;
     private @Nullable
     final Integer _depth;
@@ -63,9 +80,30 @@ public class LineageTableInfo extends VirtualTable
     final String _runProtocolLsid;
 
     public LineageTableInfo(String name, @NotNull UserSchema schema, @NotNull SQLFragment objectids, boolean parents, @Nullable Integer depth, @Nullable String expType, @Nullable String cpasType, @Nullable String runProtocolLsid)
+    {
+        this(name, schema, objectids, null, null, parents, depth, expType, cpasType, runProtocolLsid);
+    }
+
+    public LineageTableInfo(String name, @NotNull UserSchema schema, @NotNull Collection<Integer> seedObjectIds, boolean parents, @Nullable Integer depth, @Nullable String expType, @Nullable String cpasType, @Nullable String runProtocolLsid)
+    {
+        this(name, schema, seedObjectIds, null, parents, depth, expType, cpasType, runProtocolLsid);
+    }
+
+    /**
+     * Lineage for the seeds that has already been resolved, e.g. by {@link ExperimentService#getLineageObjectIds},
+     * using the same options as this table. The seeds are only queried again if the lineage is too large to inline.
+     */
+    public LineageTableInfo(String name, @NotNull UserSchema schema, @NotNull Collection<Integer> seedObjectIds, @Nullable Map<Integer, Map<Integer, Integer>> lineage, boolean parents, @Nullable Integer depth, @Nullable String expType, @Nullable String cpasType, @Nullable String runProtocolLsid)
+    {
+        this(name, schema, getSeedSQL(schema, seedObjectIds), seedObjectIds.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList()), lineage, parents, depth, expType, cpasType, runProtocolLsid);
+    }
+
+    private LineageTableInfo(String name, @NotNull UserSchema schema, @NotNull SQLFragment objectids, @Nullable Collection<Integer> seedObjectIds, @Nullable Map<Integer, Map<Integer, Integer>> lineage, boolean parents, @Nullable Integer depth, @Nullable String expType, @Nullable String cpasType, @Nullable String runProtocolLsid)
     {
         super(schema.getDbSchema(), name, schema);
         _objectids = objectids;
+        _seedObjectIds = seedObjectIds;
+        _lineage = lineage;
         _parents = parents;
 
         // depth is negative for parent values
@@ -114,6 +152,17 @@ public class LineageTableInfo extends VirtualTable
         setTitleColumn("Name");
     }
 
+    private static SQLFragment getSeedSQL(UserSchema schema, Collection<Integer> seedObjectIds)
+    {
+        SQLFragment sql = new SQLFragment("(SELECT o.ObjectId AS objectid FROM ").append(OntologyManager.getTinfoObject(), "o").append(" WHERE ");
+        List<Integer> ids = seedObjectIds.stream().filter(Objects::nonNull).distinct().collect(Collectors.toList());
+        if (ids.isEmpty())
+            sql.append("1 = 0");
+        else
+            sql.append("o.ObjectId ").appendInClause(ids, schema.getDbSchema().getSqlDialect());
+        return sql.append(")");
+    }
+
     private ForeignKey createLsidLookup(String expType, String cpasType)
     {
         ForeignKey fk = null;
@@ -266,18 +315,18 @@ public class LineageTableInfo extends VirtualTable
     @Override
     public SQLFragment getFromSQL()
     {
-        ExpLineageOptions options = new ExpLineageOptions();
-        options.setForLookup(true);
-        options.setParents(_parents);
-        options.setChildren(!_parents);
-        options.setCpasType(_cpasType);
-        options.setExpType(_expType);
-        options.setRunProtocolLsid(_runProtocolLsid);
-        if (_depth != null)
-            options.setDepth(_depth);
-
-        options.setUseObjectIds(true);
-        SQLFragment tree = ExperimentServiceImpl.get().generateExperimentTreeSQL(_objectids, options);
+        ExpLineageOptions options = createOptions(_parents, _depth, _expType, _cpasType, _runProtocolLsid);
+
+        SQLFragment tree = null;
+        if (_lineage != null && _lineage.values().stream().mapToInt(Map::size).sum() <= INDEX_MAX_ROWS)
+            tree = getLineageSQL(_lineage, options);
+        if (tree == null)
+            tree = getLineageSQLFromIndex(options);
+        if (tree == null)
+        {
+            options.setUseObjectIds(true);
+            tree = ExperimentServiceImpl.get().generateExperimentTreeSQL(_objectids, options);
+        }
 
         String comment = String.format("<LineageTableInfo parents=%b, depth=%d, expType=%s, cpasType=%s, runProtocolLsid=%s>\n", _parents, _depth, _expType, _cpasType, _runProtocolLsid);
 
@@ -289,6 +338,92 @@ public class LineageTableInfo extends VirtualTable
         return sql;
     }
 
+    /**
+     * Options for a lineage lookup query, matching those used by a LineageTableInfo with the same arguments.
+     */
+    public static ExpLineageOptions createOptions(boolean parents, @Nullable Integer depth, @Nullable String expType, @Nullable String cpasType, @Nullable String runProtocolLsid)
+    {
+        ExpLineageOptions options = new ExpLineageOptions();
+        options.setForLookup(true);
+        options.setParents(parents);
+        options.setChildren(!parents);
+        options.setCpasType(cpasType);
+        options.setExpType(expType);
+        options.setRunProtocolLsid(runProtocolLsid);
+
+        // depth is negative for parent values
+        if (depth != null && depth > 0 && parents)
+            depth = -1 * depth;
+        if (depth != null)
+            options.setDepth(depth);
+        return options;
+    }
+
+    /**
+     * When the lineage graph index is enabled and the seeds are a small, explicit list of objectids, resolve the lineage
+     * in memory and return the rows as a VALUES list joined to the node tables. Seeds given as SQL are never evaluated
+     * here, since generating SQL must not run queries. The columns match the forLookup query produced by
+     * {@link ExperimentServiceImpl#generateExperimentTreeSQL}. Returns null if the recursive CTE should be used instead.
+     */
+    @Nullable
+    private SQLFragment getLineageSQLFromIndex(ExpLineageOptions options)
+    {
+        if (_seedObjectIds == null || _seedObjectIds.size() > INDEX_MAX_SEEDS || !LineageGraphIndex.isUsable())
+            return null;
+
+        LineageGraphIndex.Graph graph = LineageGraphIndex.get().getGraph();
+        if (graph == null)
+            return null;
+
+        Map<Integer, Map<Integer, Integer>> lineage = ExperimentServiceImpl.get().getLineageObjectIdsFromIndex(graph, _seedObjectIds, options, INDEX_MAX_ROWS);
+        if (lineage == null)
+            return null;
+
+        return getLineageSQL(lineage, options);
+    }
+
+    /**
+     * Return the seed to lineage mapping as a VALUES list joined to the node tables.
+     */
+    private SQLFragment getLineageSQL(Map<Integer, Map<Integer, Integer>> lineage, ExpLineageOptions options)
+    {
+        SQLFragment values = new SQLFragment();
+        lineage.forEach((seed, nodes) -> nodes.forEach((objectId, depth) ->
+                values.append(values.isEmpty() ? "" : ",").append("(").append(depth).append(",").append(seed).append(",").append(objectId).append(")")));
+
+        // VALUES can't be empty; this placeholder is removed by the "objectid <> self" condition below
+        if (values.isEmpty())
+            values.append("(0,-1,-1)");
+
+        SQLFragment sql = new SQLFragment();
+        sql.append("SELECT * FROM (\n");
+        sql.append("SELECT L.depth, L.self, L.objectid,\n");
+        sql.append("  CASE WHEN M.rowId IS NOT NULL THEN 'Material' WHEN D.rowId IS NOT NULL THEN 'Data' WHEN R.rowId IS NOT NULL THEN 'ExperimentRun' END AS exptype,\n");
+        sql.append("  COALESCE(M.container, D.container, R.container) AS container,\n");
+        sql.append("  COALESCE(M.cpasType, D.cpasType, R.protocolLsid) AS cpastype,\n");
+        sql.append("  COALESCE(M.name, D.name, R.name) AS name,\n");
+        sql.append("  COALESCE(M.lsid, D.lsid, R.lsid) AS lsid,\n");
+        sql.append("  COALESCE(M.rowId, D.rowId, R.rowId) AS rowid\n");
+        sql.append("FROM (VALUES ").append(values).append(") AS L(depth, self, objectid)\n");
+        sql.append("  LEFT OUTER JOIN exp.data D ON L.objectid = D.ObjectId\n");
+        sql.append("  LEFT OUTER JOIN exp.experimentrun R ON L.objectid = R.ObjectId\n");
+        sql.append("  LEFT OUTER JOIN exp.material M ON L.objectid = M.ObjectId\n");
+        sql.append("WHERE L.objectid <> L.self\n");
+        sql.append(") _lineage_\n");
+        sql.append("WHERE 1 = 1\n");
+
+        if (options.getExpType() != null && !"NULL".equalsIgnoreCase(options.getExpType()))
+            sql.append("AND exptype = ?\n").add(options.getExpType());
+
+        if (options.getCpasType() != null && !"NULL".equalsIgnoreCase(options.getCpasType()))
+            sql.append("AND cpastype = ?\n").add(options.getCpasType());
+
+        if (options.getRunProtocolLsid() != null && !"NULL".equalsIgnoreCase(options.getRunProtocolLsid()))
+            sql.append("AND cpastype = ?\n").add(options.getRunProtocolLsid());
+
+        return sql;
+    }
+
     /**
      * Union of all Data, Material, and ExperimentRun rows for use as a generic lookup target.
      */
@@ -211,6 +211,15 @@ public class LineageTest extends ExpProvisionedTableTestHelper
         Assert.assertTrue(lineage.getMaterials().contains(s1));
         Assert.assertTrue(lineage.getMaterials().contains(secondAliquot));
 
+        // Get lineage of several seeds at once
+        Map<Integer, Map<Integer, Integer>> bulk = ExperimentService.get().getLineageObjectIds(List.of(bob.getObjectId(), sally.getObjectId(), mike.getObjectId()), options);
+        assertEquals(3, bulk.size());
+        assertEquals(-2, (int)bulk.get(sally.getObjectId()).get(bob.getObjectId()));
+        assertEquals(-2, (int)bulk.get(sally.getObjectId()).get(jimbo.getObjectId()));
+        Assert.assertTrue(bulk.get(mike.getObjectId()).containsKey(sally.getObjectId()));
+        Assert.assertTrue(bulk.get(mike.getObjectId()).containsKey(s1.getObjectId()));
+        Assert.assertFalse(bulk.get(bob.getObjectId()).containsKey(sally.getObjectId()));
+
         // Get lineage using query
         String sql =
                 "SELECT\n" +
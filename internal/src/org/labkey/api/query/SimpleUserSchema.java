@@ -286,6 +286,12 @@ public class SimpleUserSchema extends UserSchema
             return wrap;
         }
 
+        @Override
+        protected boolean supportsTableSample()
+        {
+            return true;
+        }
+
         protected void fixupWrappedColumn(MutableColumnInfo wrap, ColumnInfo col)
         {
             final String colName = col.getName();
@@ -316,6 +316,12 @@ public class ListTable extends FilteredTable<ListQuerySchema> implements Updatea
         return true;
     }
 
+    @Override
+    protected boolean supportsTableSample()
+    {
+        return true;
+    }
+
     /**
      * For logging, replace the provisioned table name with the nicer name
      */
@@ -203,6 +203,12 @@ public class LinkedTableInfo extends SimpleUserSchema.SimpleTable<UserSchema>
         return result;
     }
 
+    @Override
+    protected boolean supportsTableSample()
+    {
+        return false;   // getFromSQL() binds the template's parameter values
+    }
+
     @NotNull
     @Override
     public SQLFragment getFromSQL(String alias)
@@ -1829,6 +1829,7 @@ public class QueryController extends SpringActionController
     {
         private TSVWriter.DELIM _delim = TSVWriter.DELIM.TAB;
         private TSVWriter.QUOTE _quote = TSVWriter.QUOTE.DOUBLE;
+        private boolean _compressed = false;
 
         public TSVWriter.DELIM getDelim()
         {
@@ -1849,6 +1850,16 @@ public class QueryController extends SpringActionController
         {
             _quote = quote;
         }
+
+        public boolean isCompressed()
+        {
+            return _compressed;
+        }
+
+        public void setCompressed(boolean compressed)
+        {
+            _compressed = compressed;
+        }
     }
 
 
@@ -1864,7 +1875,7 @@ public class QueryController extends SpringActionController
         @Override
         void _export(ExportRowsTsvForm form, QueryView view) throws Exception
         {
-            view.exportToTsv(getViewContext().getResponse(), form.getDelim(), form.getQuote(), form.getHeaderType(), form.getRenameColumnMap());
+            view.exportToTsv(getViewContext().getResponse(), form.getDelim(), form.getQuote(), form.getHeaderType(), form.getRenameColumnMap(), form.isCompressed());
         }
     }
 
@@ -2770,6 +2781,7 @@ public class QueryController extends SpringActionController
         private boolean _includeDetailsColumn = false;
         private boolean _includeUpdateColumn = false;
         private boolean _includeTotalCount = true;
+        private boolean _estimateTotalCount = false;
         private boolean _includeStyle = false;
         private boolean _includeDisplayValues = false;
         private boolean _minimalColumns = true;
@@ -2805,6 +2817,17 @@ public class QueryController extends SpringActionController
             _includeTotalCount = includeTotalCount;
         }
 
+        public boolean isEstimateTotalCount()
+        {
+            return _estimateTotalCount;
+        }
+
+        // Use table statistics instead of a COUNT(*) when no filter applies; the response then includes rowCountEstimated
+        public void setEstimateTotalCount(boolean estimateTotalCount)
+        {
+            _estimateTotalCount = estimateTotalCount;
+        }
+
         public boolean isIncludeStyle()
         {
             return _includeStyle;
@@ -2884,6 +2907,7 @@ public class QueryController extends SpringActionController
             }
             if (getStart() != null)
                 results.setOffset(getStart());
+            results.setEstimateTotalRows(isEstimateTotalCount());
 
             return results;
         }
@@ -3620,6 +3644,219 @@ public class QueryController extends SpringActionController
         }
     }
 
+    public static class SubmitSpooledQueryForm extends QueryForm
+    {
+        private String _sql;
+
+        public String getSql()
+        {
+            return _sql;
+        }
+
+        public void setSql(String sql)
+        {
+            _sql = sql;
+        }
+    }
+
+    /**
+     * Starts running LabKey SQL or a saved query in the background, spooling the results to the server's temp
+     * directory. Returns a queryId to use with getSpooledQuery, exportSpooledQuery and cancelSpooledQuery.
+     */
+    @RequiresPermission(ReadPermission.class)
+    public static class SubmitSpooledQueryAction extends MutatingApiAction<SubmitSpooledQueryForm>
+    {
+        @Override
+        public ApiResponse execute(SubmitSpooledQueryForm form, BindException errors)
+        {
+            UserSchema schema = form.getSchema();
+            if (null == schema)
+                throw new NotFoundException("Could not find schema: " + form.getSchemaName());
+
+            String sql = StringUtils.trimToNull(form.getSql());
+            QueryView view;
+
+            if (null != sql)
+            {
+                QuerySettings settings = new TempQuerySettings(getViewContext(), sql, form.getQuerySettings());
+                settings.setAllowChooseView(false);
+                settings.setAllowCustomizeView(false);
+                view = new QueryView(schema, settings, errors);
+            }
+            else if (null != StringUtils.trimToNull(form.getQueryName()))
+            {
+                view = form.getQueryView();
+            }
+            else
+            {
+                throw new IllegalArgumentException("No value was supplied for either of the parameters 'sql' or 'queryName'.");
+            }
+
+            // Resolve the table now, so parse errors are reported to the caller rather than to the spool
+            if (null == view.getTable())
+            {
+                List<QueryException> qpes = view.getParseErrors();
+                if (!qpes.isEmpty())
+                    throw qpes.get(0);
+                throw new NotFoundException(form.getQueryName());
+            }
+
+            view.setShowRecordSelectors(false);
+            view.setShowExportButtons(false);
+            view.setButtonBarPosition(DataRegion.ButtonBarPosition.NONE);
+
+            // Generate the SQL here; the spool runs after this request, and its ViewContext, have gone away
+            SpooledQuery query = SpooledQuery.submit(getUser(), getContainer(), null != sql ? "sql" : form.getQueryName(),
+                    view.getDetachedResults());
+
+            ApiSimpleResponse response = new ApiSimpleResponse();
+            response.put("success", true);
+            response.put("queryId", query.getId());
+            response.put("status", query.getStatus().name());
+            return response;
+        }
+    }
+
+    public static class SpooledQueryForm
+    {
+        private String _queryId;
+        private int _offset = 0;
+        private int _maxRows = 0;
+        private boolean _compressed = false;
+
+        public String getQueryId()
+        {
+            return _queryId;
+        }
+
+        public void setQueryId(String queryId)
+        {
+            _queryId = queryId;
+        }
+
+        public int getOffset()
+        {
+            return _offset;
+        }
+
+        public void setOffset(int offset)
+        {
+            _offset = offset;
+        }
+
+        public int getMaxRows()
+        {
+            return _maxRows;
+        }
+
+        public void setMaxRows(int maxRows)
+        {
+            _maxRows = maxRows;
+        }
+
+        public boolean isCompressed()
+        {
+            return _compressed;
+        }
+
+        public void setCompressed(boolean compressed)
+        {
+            _compressed = compressed;
+        }
+    }
+
+    private static SpooledQuery getSpooledQuery(SpooledQueryForm form, ViewContext context)
+    {
+        SpooledQuery query = SpooledQuery.get(form.getQueryId(), context.getUser(), context.getContainer());
+        if (null == query)
+            throw new NotFoundException("Spooled query not found: " + form.getQueryId());
+        return query;
+    }
+
+    /**
+     * Status of a spooled query, plus a page of the rows spooled so far when maxRows is set (capped at
+     * SpooledQuery.MAX_PAGE_ROWS). Rows can be paged while the query is still running; rowCount is the number spooled
+     * at the time of the request.
+     */
+    @RequiresPermission(ReadPermission.class)
+    public static class GetSpooledQueryAction extends ReadOnlyApiAction<SpooledQueryForm>
+    {
+        @Override
+        public ApiResponse execute(SpooledQueryForm form, BindException errors) throws Exception
+        {
+            SpooledQuery query = getSpooledQuery(form, getViewContext());
+            if (form.getOffset() < 0 || form.getMaxRows() < 0)
+                throw new IllegalArgumentException("offset and maxRows must not be negative");
+
+            ApiSimpleResponse response = new ApiSimpleResponse();
+            response.put("queryId", query.getId());
+            response.put("status", query.getStatus().name());
+            response.put("rowCount", query.getRowCount());
+            if (null != query.getError())
+                response.put("exception", query.getError());
+
+            JSONArray columns = new JSONArray();
+            for (ColumnInfo col : query.getColumns())
+            {
+                JSONObject column = new JSONObject();
+                column.put("name", SpooledQuery.getColumnName(col));
+                column.put("caption", col.getLabel());
+                column.put("jsonType", DisplayColumn.getJsonTypeName(col.getJavaObjectClass()));
+                columns.put(column);
+            }
+            response.put("columns", columns);
+
+            if (form.getMaxRows() > 0)
+                response.put("rows", query.getRows(form.getOffset(), Math.min(form.getMaxRows(), SpooledQuery.MAX_PAGE_ROWS)));
+
+            return response;
+        }
+    }
+
+    @RequiresPermission(ReadPermission.class)
+    public static class CancelSpooledQueryAction extends MutatingApiAction<SpooledQueryForm>
+    {
+        @Override
+        public ApiResponse execute(SpooledQueryForm form, BindException errors)
+        {
+            SpooledQuery query = getSpooledQuery(form, getViewContext());
+            query.cancel();
+
+            ApiSimpleResponse response = new ApiSimpleResponse();
+            response.put("success", true);
+            response.put("status", query.getStatus().name());
+            return response;
+        }
+    }
+
+    /** Downloads a completed spooled query as TSV, gzip compressed if requested */
+    @RequiresPermission(ReadPermission.class)
+    @Action(ActionType.Export.class)
+    public static class ExportSpooledQueryAction extends ExportAction<SpooledQueryForm>
+    {
+        @Override
+        public void export(SpooledQueryForm form, HttpServletResponse response, BindException errors) throws Exception
+        {
+            SpooledQuery query = getSpooledQuery(form, getViewContext());
+            if (SpooledQuery.Status.COMPLETE != query.getStatus())
+                throw new NotFoundException("Spooled query is not complete: " + query.getStatus().name());
+
+            List<String> names = new ArrayList<>();
+            for (ColumnInfo col : query.getColumns())
+                names.add(SpooledQuery.getColumnName(col));
+
+            ResponseHelper.setPrivate(response);
+            response.setHeader("X-Robots-Tag", "noindex");
+
+            try (TSVMapWriter writer = new TSVMapWriter(names, query.getAllRows()))
+            {
+                writer.setFilenamePrefix(query.getName());
+                writer.setCompressed(form.isCompressed());
+                writer.write(response);
+            }
+        }
+    }
+
     public static class ApiSaveRowsForm extends SimpleApiJsonForm
     {
     }
@@ -7159,6 +7396,10 @@ public class QueryController extends SpringActionController
                 controller.new GetColumnSummaryStatsAction(),
                 controller.new ImportAction(),
                 new ExportSqlAction(),
+                new SubmitSpooledQueryAction(),
+                new GetSpooledQueryAction(),
+                new CancelSpooledQueryAction(),
+                new ExportSpooledQueryAction(),
                 new UpdateRowsAction(),
                 new ImportRowsAction(),
                 new DeleteRowsAction(),
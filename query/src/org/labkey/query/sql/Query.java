@@ -291,7 +291,7 @@ public class Query
                 return;
             }
             SqlParser parser = new SqlParser(getSchema().getDbSchema().getSqlDialect(), getSchema().getContainer());
-            parser.parseQuery(queryText, _parseErrors, _parseWarnings);
+            parser.parseQueryCached(queryText, _parseErrors, _parseWarnings);
             if (!_parseErrors.isEmpty())
                 return;
             _parameters = parser.getParameters();
@@ -34,6 +34,8 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.junit.Assert;
 import org.junit.Test;
+import org.labkey.api.cache.Cache;
+import org.labkey.api.cache.CacheManager;
 import org.labkey.api.collections.CaseInsensitiveHashSet;
 import org.labkey.api.data.Container;
 import org.labkey.api.data.JdbcType;
@@ -103,9 +105,39 @@ public class SqlParser
     ArrayList<QParameter> _parameters;
     final SqlDialect _dialect;
     Container _container = null;
+    boolean _containerDependent = false;    // true if parsing looked at _container, see substituteModuleProperty()
 
     final static SoftPool<_SqlParser> _parserPool = new SoftPool<>();
 
+    /*
+     * Parse trees of saved queries, keyed by dialect and SQL text. Only the output of parseQuery() is cached: the
+     * QueryRelations built from it resolve tables using the current user's schema and container filter, so they're
+     * rebuilt each time. Trees that depend on the container (moduleProperty()) or that produced errors or warnings
+     * are not cached.
+     */
+    private static final Cache<String, ParsedQuery> PARSED_QUERY_CACHE = CacheManager.getStringKeyCache(1000, CacheManager.DAY, "Parsed LabKey SQL");
+
+    private static class ParsedQuery
+    {
+        final QNode _root;
+        final List<QParameter> _parameters;
+
+        ParsedQuery(QNode root, List<QParameter> parameters)
+        {
+            _root = root.copyTree();
+            _parameters = copyParameters(parameters);
+        }
+
+        // Query and QuerySelect rewrite the tree while building relations, so every caller gets its own copy
+        static ArrayList<QParameter> copyParameters(List<QParameter> parameters)
+        {
+            ArrayList<QParameter> ret = new ArrayList<>(parameters.size());
+            for (QParameter p : parameters)
+                ret.add((QParameter) p.copyTree());
+            return ret;
+        }
+    }
+
     static class SoftPool<T> implements MemTrackerListener
     {
         SoftPool()
@@ -323,6 +355,35 @@ public class SqlParser
     }
 
 
+    /**
+     * Same as parseQuery(), but reuses the tree from an earlier parse of the same SQL with the same dialect when
+     * possible. The caller always gets its own copy of the tree and parameters.
+     */
+    public QNode parseQueryCached(@NotNull String str, @NotNull List<? super QueryParseException> errors, @Nullable List<QueryParseException> warnings)
+    {
+        String key = (null == _dialect ? "" : _dialect.getClass().getName()) + "|" + str;
+
+        ParsedQuery cached = PARSED_QUERY_CACHE.get(key);
+        if (null != cached)
+        {
+            _root = cached._root.copyTree();
+            _parameters = ParsedQuery.copyParameters(cached._parameters);
+            return _root;
+        }
+
+        List<QueryParseException> parseWarnings = new ArrayList<>();
+        int errorCount = errors.size();
+        QNode root = parseQuery(str, errors, parseWarnings);
+        if (null != warnings)
+            warnings.addAll(parseWarnings);
+
+        if (null != root && errors.size() == errorCount && parseWarnings.isEmpty() && !_containerDependent)
+            PARSED_QUERY_CACHE.put(key, new ParsedQuery(root, getParameters()));
+
+        return root;
+    }
+
+
     private boolean isSetOperator(int type)
     {
         switch (type)
@@ -1326,6 +1387,7 @@ public class SqlParser
             return null;
         }
 
+        _containerDependent = true;
         Container cCompile = _container;
         if (null == cCompile)
             cCompile = (Container) QueryServiceImpl.get().getEnvironment(QueryService.Environment.CONTAINER);
@@ -2039,6 +2101,43 @@ public class SqlParser
             }
         }
 
+        @Test
+        public void testParseQueryCached()
+        {
+            String sql = "PARAMETERS (X INTEGER DEFAULT 5) SELECT a, MAX(b) AS m FROM R WHERE a > X GROUP BY a";
+
+            List<QueryParseException> errors = new ArrayList<>();
+            SqlParser first = new SqlParser();
+            QNode a = first.parseQueryCached(sql, errors, null);
+            assertTrue(errors.isEmpty());
+            SqlParser second = new SqlParser();
+            QNode b = second.parseQueryCached(sql, errors, null);
+            assertTrue(errors.isEmpty());
+
+            assertNotNull(a);
+            assertNotNull(b);
+            assertNotSame(a, b);
+            assertEquals(toPrefixString(a), toPrefixString(b));
+            assertEquals(toPrefixString(new SqlParser().parseQuery(sql, errors, null)), toPrefixString(b));
+            assertEquals(1, second.getParameters().size());
+            assertNotSame(first.getParameters().get(0), second.getParameters().get(0));
+            assertEquals("X", second.getParameters().get(0).getName());
+
+            // changes made by one caller must not be seen by the next
+            b.removeChildren();
+            QNode c = new SqlParser().parseQueryCached(sql, errors, null);
+            assertEquals(toPrefixString(a), toPrefixString(c));
+
+            // errors are reported every time, not cached
+            String badSql = "SELECT a FROM R WHERE";
+            List<QueryParseException> badErrors = new ArrayList<>();
+            assertNull(new SqlParser().parseQueryCached(badSql, badErrors, null));
+            assertFalse(badErrors.isEmpty());
+            badErrors.clear();
+            assertNull(new SqlParser().parseQueryCached(badSql, badErrors, null));
+            assertFalse(badErrors.isEmpty());
+        }
+
         @Test
         public void testSql()
         {
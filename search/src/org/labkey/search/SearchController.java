@@ -133,7 +133,7 @@ public class SearchController extends SpringActionController
 
     public static class AdminForm
     {
-        public String[] _messages = {"", "Index deleted", "Index path changed", "Directory type changed", "File size limit changed"};
+        public String[] _messages = {"", "Index deleted", "Index path changed", "Directory type changed", "File size limit changed", "Indexing pipeline settings changed", "Document parser settings changed", "File crawler settings changed"};
         private int msg = 0;
         private boolean pause;
         private boolean start;
@@ -143,6 +143,22 @@ public class SearchController extends SpringActionController
         private boolean limit;
         private int fileLimitMB;
 
+        private boolean pipeline;
+        private int indexingThreads;
+        private int indexingBatchSize;
+        private int refreshIntervalMillis;
+        private int commitIntervalSeconds;
+        private int commitMaxDocuments;
+
+        private boolean parser;
+        private int parserProcesses;
+        private int parserHeapMB;
+        private int parserTimeoutSeconds;
+
+        private boolean crawler;
+        private boolean incrementalCrawl;
+        private int fullCrawlIntervalHours;
+
         private boolean _path;
 
         private boolean _directory;
@@ -247,6 +263,136 @@ public class SearchController extends SpringActionController
         {
             return this.fileLimitMB = fileLimitMB;
         }
+
+        public boolean isPipeline()
+        {
+            return pipeline;
+        }
+
+        public void setPipeline(boolean pipeline)
+        {
+            this.pipeline = pipeline;
+        }
+
+        public int getIndexingThreads()
+        {
+            return indexingThreads;
+        }
+
+        public void setIndexingThreads(int indexingThreads)
+        {
+            this.indexingThreads = indexingThreads;
+        }
+
+        public int getIndexingBatchSize()
+        {
+            return indexingBatchSize;
+        }
+
+        public void setIndexingBatchSize(int indexingBatchSize)
+        {
+            this.indexingBatchSize = indexingBatchSize;
+        }
+
+        public int getRefreshIntervalMillis()
+        {
+            return refreshIntervalMillis;
+        }
+
+        public void setRefreshIntervalMillis(int refreshIntervalMillis)
+        {
+            this.refreshIntervalMillis = refreshIntervalMillis;
+        }
+
+        public int getCommitIntervalSeconds()
+        {
+            return commitIntervalSeconds;
+        }
+
+        public void setCommitIntervalSeconds(int commitIntervalSeconds)
+        {
+            this.commitIntervalSeconds = commitIntervalSeconds;
+        }
+
+        public int getCommitMaxDocuments()
+        {
+            return commitMaxDocuments;
+        }
+
+        public void setCommitMaxDocuments(int commitMaxDocuments)
+        {
+            this.commitMaxDocuments = commitMaxDocuments;
+        }
+
+        public boolean isParser()
+        {
+            return parser;
+        }
+
+        public void setParser(boolean parser)
+        {
+            this.parser = parser;
+        }
+
+        public int getParserProcesses()
+        {
+            return parserProcesses;
+        }
+
+        public void setParserProcesses(int parserProcesses)
+        {
+            this.parserProcesses = parserProcesses;
+        }
+
+        public int getParserHeapMB()
+        {
+            return parserHeapMB;
+        }
+
+        public void setParserHeapMB(int parserHeapMB)
+        {
+            this.parserHeapMB = parserHeapMB;
+        }
+
+        public int getParserTimeoutSeconds()
+        {
+            return parserTimeoutSeconds;
+        }
+
+        public void setParserTimeoutSeconds(int parserTimeoutSeconds)
+        {
+            this.parserTimeoutSeconds = parserTimeoutSeconds;
+        }
+
+        public boolean isCrawler()
+        {
+            return crawler;
+        }
+
+        public void setCrawler(boolean crawler)
+        {
+            this.crawler = crawler;
+        }
+
+        public boolean isIncrementalCrawl()
+        {
+            return incrementalCrawl;
+        }
+
+        public void setIncrementalCrawl(boolean incrementalCrawl)
+        {
+            this.incrementalCrawl = incrementalCrawl;
+        }
+
+        public int getFullCrawlIntervalHours()
+        {
+            return fullCrawlIntervalHours;
+        }
+
+        public void setFullCrawlIntervalHours(int fullCrawlIntervalHours)
+        {
+            this.fullCrawlIntervalHours = fullCrawlIntervalHours;
+        }
     }
     
 
@@ -364,6 +510,54 @@ public class SearchController extends SpringActionController
                 _msgid = 4;
                 audit(getUser(), null, "(admin action)", String.format("File size limit set to %1$s MB", limit));
             }
+            else if (form.isPipeline())
+            {
+                if (form.getIndexingThreads() < 0 || form.getIndexingBatchSize() < 1)
+                {
+                    errors.reject(ERROR_MSG, "Indexing threads must be zero or greater and batch size must be at least one");
+                    return false;
+                }
+                if (form.getRefreshIntervalMillis() < 100 || form.getCommitIntervalSeconds() < 1 || form.getCommitMaxDocuments() < 1)
+                {
+                    errors.reject(ERROR_MSG, "Refresh interval must be at least 100 milliseconds; commit interval and commit document count must be at least one");
+                    return false;
+                }
+                SearchPropertyManager.setIndexingThreads(form.getIndexingThreads());
+                SearchPropertyManager.setIndexingBatchSize(form.getIndexingBatchSize());
+                SearchPropertyManager.setRefreshIntervalMillis(form.getRefreshIntervalMillis());
+                SearchPropertyManager.setCommitIntervalSeconds(form.getCommitIntervalSeconds());
+                SearchPropertyManager.setCommitMaxDocuments(form.getCommitMaxDocuments());
+                _msgid = 5;
+                audit(getUser(), null, "(admin action)", String.format("Indexing threads set to %1$s, batch size set to %2$s, refresh interval set to %3$s ms, commit interval set to %4$s seconds, commit document count set to %5$s",
+                    form.getIndexingThreads(), form.getIndexingBatchSize(), form.getRefreshIntervalMillis(), form.getCommitIntervalSeconds(), form.getCommitMaxDocuments()));
+            }
+            else if (form.isParser())
+            {
+                if (form.getParserProcesses() < 0 || form.getParserHeapMB() < 64 || form.getParserTimeoutSeconds() < 1)
+                {
+                    errors.reject(ERROR_MSG, "Parser processes must be zero or greater, heap must be at least 64MB, and timeout must be at least one second");
+                    return false;
+                }
+                SearchPropertyManager.setParserProcesses(form.getParserProcesses());
+                SearchPropertyManager.setParserHeapMB(form.getParserHeapMB());
+                SearchPropertyManager.setParserTimeoutSeconds(form.getParserTimeoutSeconds());
+                _msgid = 6;
+                audit(getUser(), null, "(admin action)", String.format("Document parser processes set to %1$s, heap set to %2$s MB, timeout set to %3$s seconds",
+                    form.getParserProcesses(), form.getParserHeapMB(), form.getParserTimeoutSeconds()));
+            }
+            else if (form.isCrawler())
+            {
+                if (form.getFullCrawlIntervalHours() < 1)
+                {
+                    errors.reject(ERROR_MSG, "Full crawl interval must be at least one hour");
+                    return false;
+                }
+                SearchPropertyManager.setFullCrawlIntervalHours(form.getFullCrawlIntervalHours());
+                SearchPropertyManager.setIncrementalCrawl(form.isIncrementalCrawl());
+                _msgid = 7;
+                audit(getUser(), null, "(admin action)", String.format("Incremental file crawling set to %1$s, full crawl interval set to %2$s hours",
+                    form.isIncrementalCrawl(), form.getFullCrawlIntervalHours()));
+            }
 
             return true;
         }
@@ -27,6 +27,7 @@ import org.labkey.api.data.DbSchema;
 import org.labkey.api.module.DefaultModule;
 import org.labkey.api.module.ModuleContext;
 import org.labkey.api.search.SearchService;
+import org.labkey.api.security.SecurityManager;
 import org.labkey.api.security.User;
 import org.labkey.api.settings.AdminConsole;
 import org.labkey.api.util.ContextListener;
@@ -40,9 +41,11 @@ import org.labkey.api.webdav.WebdavResource;
 import org.labkey.api.webdav.WebdavService;
 import org.labkey.search.audit.SearchAuditProvider;
 import org.labkey.search.model.AbstractSearchService;
+import org.labkey.search.model.CrawlManifest;
 import org.labkey.search.model.DavCrawler;
 import org.labkey.search.model.DocumentConversionServiceImpl;
 import org.labkey.search.model.LuceneSearchServiceImpl;
+import org.labkey.search.model.SearchSecurityCache;
 import org.labkey.search.view.SearchWebPartFactory;
 
 import javax.servlet.ServletContext;
@@ -145,6 +148,11 @@ public class SearchModule extends DefaultModule
         // add a container listener so we'll know when containers are deleted
         ContainerManager.addContainerListener(new SearchContainerListener());
 
+        // clear cached search permissions when containers, security policies, or group memberships change
+        SearchSecurityCache.SecurityChangeListener securityListener = new SearchSecurityCache.SecurityChangeListener();
+        ContainerManager.addContainerListener(securityListener);
+        SecurityManager.addGroupListener(securityListener);
+
         FolderManagement.addTab(FolderManagement.TYPE.FolderManagement, "Search", "fullTextSearch", FolderManagement.NOT_ROOT, SearchController.SearchSettingsAction.class);
     }
 
@@ -188,6 +196,16 @@ public class SearchModule extends DefaultModule
         }
     }
 
+    @NotNull
+    @Override
+    public Set<Class> getUnitTests()
+    {
+        return Set.of
+        (
+            CrawlManifest.TestCase.class
+        );
+    }
+
     @NotNull
     @Override
     public Set<Class> getIntegrationTests()
@@ -21,6 +21,7 @@ import org.apache.commons.collections4.MultiValuedMap;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.apache.lucene.document.Document;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.labkey.api.data.Container;
@@ -35,6 +36,7 @@ import org.labkey.api.search.SearchResultTemplate;
 import org.labkey.api.search.SearchService;
 import org.labkey.api.security.User;
 import org.labkey.api.util.ContextListener;
+import org.labkey.api.util.DateUtil;
 import org.labkey.api.util.ExceptionUtil;
 import org.labkey.api.util.Formats;
 import org.labkey.api.util.GUID;
@@ -55,20 +57,26 @@ import org.labkey.search.view.DefaultSearchResultTemplate;
 
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * User: matthewb
@@ -85,6 +93,20 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
     // Resources go here for preprocessing (this can be multi-threaded)
     final PriorityBlockingQueue<Item> _itemQueue = new PriorityBlockingQueue<>(1000, itemCompare);
 
+    // Preprocessed documents go here, and get written to the index in batches by a single writer thread. This queue is
+    // bounded, so preprocessing threads block (rather than pile up parsed documents) when the writer falls behind. It
+    // holds a few batches, and is sized from the configured batch size when the indexing threads start.
+    volatile BlockingQueue<PreparedItem> _writeQueue = createWriteQueue(SearchPropertyManager.DEFAULT_INDEXING_BATCH_SIZE);
+
+    // The runner thread stops enumerating when _itemQueue grows past the high water mark, and resumes when preprocessing
+    // threads have drained it below the low water mark
+    private static final int ITEM_QUEUE_HIGH_WATER = 1000;
+    private static final int ITEM_QUEUE_LOW_WATER = 750;
+    private final Object _itemQueueCapacity = new Object();
+    private volatile boolean _runnerWaiting = false;
+
+    private final PipelineStats _pipelineStats = new PipelineStats();
+
     private final List<IndexTask> _tasks = new CopyOnWriteArrayList<>();
     private final _IndexTask _defaultTask = new _IndexTask("default");
 
@@ -326,12 +348,26 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
     final Item _commitItem = new Item(null, () -> {}, PRIORITY.commit);
 
 
+    // An item whose document has been fetched, parsed, and built, waiting to be written to the index
+    static class PreparedItem
+    {
+        final Item _item;
+        final Document _doc;
+
+        PreparedItem(Item item, Document doc)
+        {
+            _item = item;
+            _doc = doc;
+        }
+    }
+
+
     @Override
     public boolean isBusy()
     {
         if (_runQueue.size() > 0)
             return true;
-        int n = _itemQueue.size();
+        int n = _itemQueue.size() + _writeQueue.size();
         return n > 100;
     }
 
@@ -343,7 +379,7 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
     @Override
     public void waitForIdle() throws InterruptedException
     {
-        if (_runQueue.size() == 0 && _itemQueue.size() < 4)
+        if (_runQueue.size() == 0 && _itemQueue.size() < 4 && _writeQueue.isEmpty())
             return;
         synchronized (_idleEvent)
         {
@@ -355,7 +391,7 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
 
     private void checkIdle()
     {
-        if (_runQueue.size() == 0 && _itemQueue.size() == 0)
+        if (_runQueue.size() == 0 && _itemQueue.size() == 0 && _writeQueue.isEmpty())
         {
             synchronized (_idleEvent)
             {
@@ -375,6 +411,7 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
     public void setLastIndexedForPath(Path path, long time, long indexed)
     {
         _savePaths.updateFile(path, new Date(time), new Date(indexed));
+        DavCrawler.getInstance().fileIndexed(path, time, indexed);
     }
 
     @Override
@@ -384,7 +421,7 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
             deleteIndexedContainer(id);
             synchronized (_commitLock)
             {
-                _countIndexedSinceCommit++;
+                changedSinceCommit(1);
             }
         };
         queueItem(new Item(defaultTask(), r, PRIORITY.background));
@@ -518,7 +555,7 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
         this.deleteDocument(id);
         synchronized (_commitLock)
         {
-            _countIndexedSinceCommit++;
+            changedSinceCommit(1);
         }
     }
 
@@ -528,7 +565,7 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
         this.deleteDocuments(ids);
         synchronized (_commitLock)
         {
-            _countIndexedSinceCommit += ids.size();
+            changedSinceCommit(ids.size());
         }
     }
 
@@ -539,7 +576,7 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
         this.deleteDocumentsForPrefix(prefix);
         synchronized (_commitLock)
         {
-            _countIndexedSinceCommit++;
+            changedSinceCommit(1);
         }
     }
 
@@ -793,6 +830,7 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
         }
         _runQueue.clear();
         _itemQueue.clear();
+        _writeQueue.clear();
     }
 
 
@@ -817,10 +855,18 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
 
     protected int getCountIndexingThreads()
     {
+        int configured = SearchPropertyManager.getIndexingThreads();
+        if (configured > 0)
+            return configured;
         int cpu = Runtime.getRuntime().availableProcessors();
         return Math.max(1,cpu/4);
     }
 
+    private static BlockingQueue<PreparedItem> createWriteQueue(int batchSize)
+    {
+        return new ArrayBlockingQueue<>(4 * Math.max(1, batchSize));
+    }
+
     protected void startThreads()
     {
         assert Thread.holdsLock(_runningLock);
@@ -833,6 +879,9 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
         group.setDaemon(true);
         group.setMaxPriority(Thread.MIN_PRIORITY + 1);
         
+        // nothing is added to the write queue until the indexing threads are running
+        _writeQueue = createWriteQueue(SearchPropertyManager.getIndexingBatchSize());
+
         int countIndexingThreads = Math.max(1, getCountIndexingThreads());
         for (int i=0 ; i<countIndexingThreads ; i++)
         {
@@ -841,12 +890,20 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
             _threads.add(t);
         }
 
+        {
+            Thread t = new Thread(group, writeRunnable, "SearchService:writer");
+            t.start();
+            _threads.add(t);
+        }
+
         {
             Thread t = new Thread(group, runRunnable, "SearchService:runner");
             t.start();
             _threads.add(t);
         }
 
+        _pipelineStats.start(countIndexingThreads);
+
         _threadsInitialized = true;
 
         ContextListener.addShutdownListener(this);
@@ -866,6 +923,7 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
         _crawlerPaused = true;
         _runQueue.clear();
         _itemQueue.clear();
+        _writeQueue.clear();
         for (Thread t : _threads)
             t.interrupt();
     }
@@ -901,11 +959,10 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
 
                 if (null != i)
                 {
-                    while (!_shuttingDown && _itemQueue.size() > 1000)
-                    {
-                        try {Thread.sleep(100);}catch(InterruptedException x){}
-                    }
+                    awaitItemQueueCapacity();
+                    long start = System.nanoTime();
                     i._run.run();
+                    _pipelineStats._enumerate.add(System.nanoTime() - start);
                 }
             }
             catch (InterruptedException x)
@@ -941,12 +998,55 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
         }
     };
     
+    // Called by the runner thread before running a Runnable (which typically enumerates more items to index)
+    private void awaitItemQueueCapacity()
+    {
+        if (_itemQueue.size() <= ITEM_QUEUE_HIGH_WATER)
+            return;
+
+        long start = System.nanoTime();
+
+        synchronized (_itemQueueCapacity)
+        {
+            _runnerWaiting = true;
+
+            try
+            {
+                while (!_shuttingDown && _itemQueue.size() > ITEM_QUEUE_LOW_WATER)
+                    _itemQueueCapacity.wait(1000);
+            }
+            catch (InterruptedException x)
+            {
+            }
+            finally
+            {
+                _runnerWaiting = false;
+            }
+        }
+
+        _pipelineStats._enumerateBlockedNanos.addAndGet(System.nanoTime() - start);
+    }
+
+
+    private void signalItemQueueCapacity()
+    {
+        if (_runnerWaiting && _itemQueue.size() <= ITEM_QUEUE_LOW_WATER)
+        {
+            synchronized (_itemQueueCapacity)
+            {
+                _itemQueueCapacity.notifyAll();
+            }
+        }
+    }
+
+
     Item getItemToIndex() throws InterruptedException
     {
         Item i = null;
 
         try
         {
+            signalItemQueueCapacity();
             i = _itemQueue.poll();
             if (null == i || i == _commitItem)
                 checkIdle();
@@ -970,15 +1070,32 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
 
     final Object _commitLock = new Object(){ public String toString() { return "COMMIT LOCK"; } };
     int _countIndexedSinceCommit = 0;
+    long _firstChangedSinceCommitTime = 0;
     long _lastIndexedTime = 0;
+    long _lastCommitTime = 0;
+    long _lastCommitDuration = 0;
+
+
+    // call when holding _commitLock
+    private void changedSinceCommit(int count)
+    {
+        assert Thread.holdsLock(_commitLock);
+        if (0 == _countIndexedSinceCommit)
+            _firstChangedSinceCommitTime = HeartBeat.currentTimeMillis();
+        _countIndexedSinceCommit += count;
+    }
 
 
     public final void commit()
     {
         synchronized (_commitLock)
         {
+            long start = System.currentTimeMillis();
             commitIndex();
             _countIndexedSinceCommit = 0;
+            _firstChangedSinceCommitTime = 0;
+            _lastCommitTime = System.currentTimeMillis();
+            _lastCommitDuration = _lastCommitTime - start;
         }
     }
 
@@ -1007,13 +1124,39 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
         }
     };
 
+    Runnable writeRunnable = () ->
+    {
+        List<PreparedItem> batch = new ArrayList<>();
+
+        while (!_shuttingDown)
+        {
+            try
+            {
+                _writeLoop(batch);
+            }
+            catch (Throwable t)
+            {
+                // this should only happen if the catch/finally of the inner loop throws
+                try {_log.warn("error in index writer", t);} catch (Throwable x){/* */}
+            }
+        }
+    };
+
+    // New and deleted documents become searchable when the index manager refreshes its searcher on its own schedule
+    // (see WritableIndexManagerImpl.MaybeRefreshJob), so commits are only about durability. Commit once enough changes
+    // have accumulated, once the oldest uncommitted change is old enough, or once the indexer goes idle.
     private void commitCheck(long ms)
     {
         synchronized (_commitLock)
         {
-            // TODO: Add a check that allows commit in the case where we've been continuously pounding the indexer for a long time...
-            // either an oldest non-committed document check or a simple _countIndexedSinceCommit > n check.
-            if (_countIndexedSinceCommit > 0 && _lastIndexedTime + 2000 < ms && _runQueue.isEmpty())
+            if (_countIndexedSinceCommit == 0)
+                return;
+
+            boolean full = _countIndexedSinceCommit >= SearchPropertyManager.getCommitMaxDocuments();
+            boolean old = _firstChangedSinceCommitTime + SearchPropertyManager.getCommitIntervalSeconds() * 1000L <= ms;
+            boolean idle = _lastIndexedTime + 2000 < ms && _runQueue.isEmpty() && _itemQueue.isEmpty() && _writeQueue.isEmpty();
+
+            if (full || old || idle)
             {
                 commit();
             }
@@ -1021,19 +1164,20 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
     }
 
 
+    // Preprocessing stage: resolve the resource, fetch and parse its content, and build the index document. Runs on
+    // multiple threads; documents are handed off to the writer thread via the bounded _writeQueue.
     private void _indexLoop()
     {
         Item i = null;
         boolean success = false;
+        boolean queued = false;
         try
         {
             i = getItemToIndex();
-            long ms = HeartBeat.currentTimeMillis();
 
             //TODO: _commitItem is never enqueued should this case be removed?
             if (null == i || _commitItem == i)
             {
-                commitCheck(ms);
                 success = true;
                 return;
             }
@@ -1051,7 +1195,6 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
                 // This is a strange case.  If this resource doesn't exist anymore, it is not really an error.
                 // see 34102: Search indexing is unreliable for wiki attachments
                 i.complete(true);
-                commitCheck(ms);
                 success = true;
                 return;
             }
@@ -1059,11 +1202,13 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
             i._modified = r.getLastModified();
 
             MemTracker.getInstance().put(r);
-            _log.debug("processAndIndex(" + i._id + ")");
+            _log.debug("prepareDocument(" + i._id + ")");
 
             Throwable[] out = new Throwable[] {null};
 
-            success = processAndIndex(i._id, i._res, out);
+            long start = System.nanoTime();
+            Document doc = prepareDocument(i._id, i._res, out);
+            _pipelineStats._prepare.add(System.nanoTime() - start);
 
             if (null != out[0])
             {
@@ -1072,21 +1217,19 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
                     t._listener.indexError(r,out[0]);
             }
 
-            if (success)
+            if (null != doc)
             {
-                i._res.setLastIndexed(i._start, i._modified);
-                synchronized (_commitLock)
-                {
-                    String category = (String)i.getResource().getProperties().get(PROPERTY.categories.toString());
-                    incrementIndexStat(ms, category);
-                    _countIndexedSinceCommit++;
-                    _lastIndexedTime = ms;
-                    if (_countIndexedSinceCommit > 10000)
-                        commit();
-                }
+                long wait = System.nanoTime();
+                _writeQueue.put(new PreparedItem(i, doc));
+                _pipelineStats._prepareBlockedNanos.addAndGet(System.nanoTime() - wait);
+                queued = true;
+                success = true;
             }
             else
+            {
+                _pipelineStats._prepareSkipped.incrementAndGet();
                 _log.debug("skipping " + i._id);
+            }
         }
         catch (InterruptedException x)
         {
@@ -1099,7 +1242,8 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
         {
             try
             {
-                if (null != i)
+                // The writer thread completes items that were handed off
+                if (null != i && !queued)
                     i.complete(success);
             }
             finally
@@ -1110,6 +1254,102 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
     }
 
 
+    // Write stage: drain up to a batch of prepared documents and write them with a single index call. If the batch
+    // fails, each document is retried on its own so one bad document doesn't fail the others.
+    private void _writeLoop(List<PreparedItem> batch)
+    {
+        try
+        {
+            PreparedItem first = _writeQueue.poll(2, TimeUnit.SECONDS);
+            long ms = HeartBeat.currentTimeMillis();
+
+            if (null == first)
+            {
+                commitCheck(ms);
+                return;
+            }
+
+            batch.add(first);
+            _writeQueue.drainTo(batch, SearchPropertyManager.getIndexingBatchSize() - 1);
+
+            Map<String, Document> docs = new LinkedHashMap<>();
+            for (PreparedItem p : batch)
+                docs.put(p._item._res.getDocumentId(), p._doc);
+
+            long start = System.nanoTime();
+            boolean[] written = new boolean[batch.size()];
+
+            if (indexDocuments(docs))
+            {
+                Arrays.fill(written, true);
+            }
+            else if (batch.size() > 1)
+            {
+                _pipelineStats._writeRetries.incrementAndGet();
+                for (int k = 0; k < batch.size(); k++)
+                {
+                    PreparedItem p = batch.get(k);
+                    written[k] = indexDocuments(Collections.singletonMap(p._item._res.getDocumentId(), p._doc));
+                }
+            }
+
+            _pipelineStats._write.add(System.nanoTime() - start, batch.size());
+
+            for (int k = 0; k < batch.size(); k++)
+                completeWrite(batch.get(k)._item, written[k], ms);
+            batch.clear();
+
+            commitCheck(ms);
+        }
+        catch (InterruptedException x)
+        {
+        }
+        catch (Throwable x)
+        {
+            _log.error("Error writing " + batch.size() + " documents to the index", x);
+            for (PreparedItem p : batch)
+                p._item.complete(false);
+        }
+        finally
+        {
+            batch.clear();
+            DbScope.closeAllConnectionsForCurrentThread();
+        }
+    }
+
+
+    private void completeWrite(Item i, boolean written, long ms)
+    {
+        boolean success = false;
+
+        try
+        {
+            if (written)
+            {
+                i._res.setLastIndexed(i._start, i._modified);
+                synchronized (_commitLock)
+                {
+                    String category = (String)i.getResource().getProperties().get(PROPERTY.categories.toString());
+                    incrementIndexStat(ms, category);
+                    changedSinceCommit(1);
+                    _lastIndexedTime = ms;
+                }
+                success = true;
+            }
+            else
+                _log.debug("skipping " + i._id);
+        }
+        catch (Throwable x)
+        {
+            _log.error("Error indexing " + i._id, x);
+        }
+        finally
+        {
+            i.complete(success);
+        }
+    }
+
+
     private final ArrayList<SearchCategory> _searchCategories = new ArrayList<>();
     private final Object _categoriesLock = new Object();
 
@@ -1189,6 +1429,24 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
         return false;
     }
 
+    /**
+     * Fetch, parse, and build the index document for a resource. Called concurrently by the preprocessing threads.
+     * @return the document to index, or null if the resource should be skipped
+     */
+    protected @Nullable Document prepareDocument(String id, WebdavResource r, Throwable[] handledException)
+    {
+        return null;
+    }
+
+    /**
+     * Write a batch of prepared documents, keyed by document id, to the index. Called only by the writer thread.
+     * @return true if every document was written
+     */
+    protected boolean indexDocuments(Map<String, Document> docs)
+    {
+        return false;
+    }
+
     protected final List<DocumentProvider> _documentProviders = new CopyOnWriteArrayList<>();
 
     @Override
@@ -1328,6 +1586,18 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
 
         sb.append("</table>");
         map.put("Indexing history added/updated", sb.toString());
+        map.put("Indexing pipeline", _pipelineStats.toHtml(_runQueue.size(), _itemQueue.size(), _writeQueue.size()));
+
+        synchronized (_commitLock)
+        {
+            long now = HeartBeat.currentTimeMillis();
+            map.put("Uncommitted changes", _countIndexedSinceCommit);
+            map.put("Commit lag", 0 == _countIndexedSinceCommit ? "none" : DateUtil.formatDuration(now - _firstChangedSinceCommitTime));
+            map.put("Last commit", 0 == _lastCommitTime ? "never" :
+                DateUtil.formatDuration(now - _lastCommitTime) + " ago, took " + DateUtil.formatDuration(_lastCommitDuration));
+            map.put("Commit policy", "every " + Formats.commaf0.format(SearchPropertyManager.getCommitMaxDocuments()) + " changes, " +
+                SearchPropertyManager.getCommitIntervalSeconds() + " seconds after the first uncommitted change, or when idle");
+        }
         map.put("Maximum allowed document size", getFileSizeLimit());
 
         return map;
@@ -1351,6 +1621,81 @@ public abstract class AbstractSearchService implements SearchService, ShutdownLi
     }
 
 
+    private static class StageStats
+    {
+        private final LongAdder _count = new LongAdder();
+        private final LongAdder _calls = new LongAdder();
+        private final LongAdder _nanos = new LongAdder();
+
+        void add(long nanos)
+        {
+            add(nanos, 1);
+        }
+
+        void add(long nanos, int count)
+        {
+            _calls.increment();
+            _count.add(count);
+            _nanos.add(nanos);
+        }
+    }
+
+
+    // Cumulative counters for each stage of the indexing pipeline, since the indexing threads were started
+    private static class PipelineStats
+    {
+        final StageStats _enumerate = new StageStats();
+        final StageStats _prepare = new StageStats();
+        final StageStats _write = new StageStats();
+        final AtomicLong _enumerateBlockedNanos = new AtomicLong();
+        final AtomicLong _prepareBlockedNanos = new AtomicLong();
+        final AtomicLong _prepareSkipped = new AtomicLong();
+        final AtomicLong _writeRetries = new AtomicLong();
+
+        private volatile long _start = System.currentTimeMillis();
+        private volatile int _indexingThreads = 0;
+
+        void start(int indexingThreads)
+        {
+            _start = System.currentTimeMillis();
+            _indexingThreads = indexingThreads;
+        }
+
+        String toHtml(int runQueue, int itemQueue, int writeQueue)
+        {
+            double seconds = Math.max(1, System.currentTimeMillis() - _start) / 1000.0;
+
+            StringBuilder sb = new StringBuilder();
+            sb.append("<table>");
+            sb.append("<tr><td>Stage</td><td align=right>&nbsp;Threads</td><td align=right>&nbsp;Queued</td><td align=right>&nbsp;Processed</td>")
+                .append("<td align=right>&nbsp;Per second</td><td align=right>&nbsp;Avg ms</td><td align=right>&nbsp;Blocked</td><td>&nbsp;Notes</td></tr>");
+            appendRow(sb, "Enumerate", 1, runQueue, _enumerate, seconds, _enumerateBlockedNanos.get(), "");
+            appendRow(sb, "Fetch &amp; parse", _indexingThreads, itemQueue, _prepare, seconds, _prepareBlockedNanos.get(),
+                Formats.commaf0.format(_prepareSkipped.get()) + " skipped");
+            appendRow(sb, "Write", 1, writeQueue, _write, seconds, 0,
+                Formats.commaf0.format(_write._calls.sum()) + " batches, " + Formats.commaf0.format(_writeRetries.get()) + " retried");
+            sb.append("</table>");
+
+            return sb.toString();
+        }
+
+        private void appendRow(StringBuilder sb, String name, int threads, int queued, StageStats stats, double seconds, long blockedNanos, String notes)
+        {
+            long count = stats._count.sum();
+            double avgMs = 0 == count ? 0 : stats._nanos.sum() / 1_000_000.0 / count;
+
+            sb.append("<tr><td>").append(name).append("</td>");
+            sb.append("<td align=right>").append(threads).append("</td>");
+            sb.append("<td align=right>").append(Formats.commaf0.format(queued)).append("</td>");
+            sb.append("<td align=right>").append(Formats.commaf0.format(count)).append("</td>");
+            sb.append("<td align=right>").append(Formats.f1.format(count / seconds)).append("</td>");
+            sb.append("<td align=right>").append(Formats.f1.format(avgMs)).append("</td>");
+            sb.append("<td align=right>").append(DateUtil.formatDuration(TimeUnit.NANOSECONDS.toMillis(blockedNanos))).append("</td>");
+            sb.append("<td>&nbsp;").append(notes).append("</td></tr>");
+        }
+    }
+
+
     public abstract Map<String, Double> getSearchStats();
 
     @Override
@@ -0,0 +1,422 @@
+/*
+ * Copyright (c) 2021 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.search.model;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.jetbrains.annotations.Nullable;
+import org.junit.Assert;
+import org.junit.Test;
+import org.labkey.api.util.FileUtil;
+import org.labkey.api.util.Path;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Compact record of the files the crawler has seen: a 64-bit hash of each file's path, mapped to the file's size,
+ * modification time, and last indexed time. The incremental crawler consults this instead of search.CrawlResources
+ * to decide whether a file needs indexing, and it's saved to a single file next to the full-text index so it
+ * survives restarts. Entries live in parallel primitive arrays (open addressing, linear probing), roughly 64 bytes
+ * per file, so manifests of millions of files stay reasonably small.
+ *
+ * A missing entry means "unknown"; callers fall back to search.CrawlResources. A hash collision can at worst make
+ * two files share an entry, and since size and modification time must both match, that almost always just causes
+ * an extra re-index.
+ */
+public class CrawlManifest
+{
+    private static final Logger _log = LogManager.getLogger(CrawlManifest.class);
+
+    private static final int MAGIC = 0x4C4B434D;   // "LKCM"
+    private static final int VERSION = 1;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final long SAVE_INTERVAL = 60_000;
+
+    private final File _file;
+    private final Object _saveLock = new Object();
+
+    private long[] _keys;     // 0 marks an empty slot
+    private long[] _values;   // size, modified, indexed for each slot
+    private int _size;
+    private boolean _dirty = false;
+    private long _lastSave = 0;
+
+    CrawlManifest(File file)
+    {
+        _file = file;
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /** Manifest file for the current index location */
+    static File getDefaultFile()
+    {
+        File indexDir = SearchPropertyManager.getIndexDirectory();
+        return new File(indexDir.getParentFile(), indexDir.getName() + "_crawl_manifest");
+    }
+
+    /**
+     * @return null if the file isn't in the manifest, otherwise whether it's unchanged since it was last indexed (or
+     * since indexing it last failed)
+     */
+    synchronized @Nullable Boolean isUnchanged(Path path, long size, long modified)
+    {
+        int slot = find(hash(path));
+        if (slot < 0)
+            return null;
+
+        long savedSize = _values[3 * slot];
+        long savedModified = _values[3 * slot + 1];
+        long indexed = _values[3 * slot + 2];
+
+        return savedSize == size && savedModified == modified && (modified <= indexed || indexed == DavCrawler.SavePaths.failDate.getTime());
+    }
+
+    synchronized void put(Path path, long size, long modified, long indexed)
+    {
+        long key = hash(path);
+        int slot = find(key);
+
+        if (slot < 0)
+        {
+            if (2 * (_size + 1) > _keys.length)
+                grow();
+            slot = insertionSlot(key);
+            _keys[slot] = key;
+            _size++;
+        }
+
+        _values[3 * slot] = size;
+        _values[3 * slot + 1] = modified;
+        _values[3 * slot + 2] = indexed;
+        _dirty = true;
+    }
+
+    /** Record that a file was indexed; ignored if the crawler hasn't seen the file */
+    synchronized void setIndexed(Path path, long modified, long indexed)
+    {
+        int slot = find(hash(path));
+        if (slot < 0)
+            return;
+
+        _values[3 * slot + 1] = modified;
+        _values[3 * slot + 2] = indexed;
+        _dirty = true;
+    }
+
+    synchronized void remove(Path path)
+    {
+        int slot = find(hash(path));
+        if (slot < 0)
+            return;
+
+        // Backward-shift deletion: move later entries of the probe sequence into the hole, so lookups never stop early
+        int mask = _keys.length - 1;
+        int hole = slot;
+        int i = slot;
+
+        while (true)
+        {
+            i = (i + 1) & mask;
+            long key = _keys[i];
+            if (0 == key)
+                break;
+
+            int ideal = home(key, mask);
+            if (((i - ideal) & mask) >= ((i - hole) & mask))
+            {
+                _keys[hole] = key;
+                System.arraycopy(_values, 3 * i, _values, 3 * hole, 3);
+                hole = i;
+            }
+        }
+
+        _keys[hole] = 0;
+        Arrays.fill(_values, 3 * hole, 3 * hole + 3, 0);
+        _size--;
+        _dirty = true;
+    }
+
+    synchronized void clear()
+    {
+        allocate(INITIAL_CAPACITY);
+        _dirty = true;
+    }
+
+    synchronized int size()
+    {
+        return _size;
+    }
+
+    synchronized void load()
+    {
+        if (!_file.isFile())
+            return;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(_file))))
+        {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+            {
+                _log.warn("Ignoring unrecognized crawler manifest: " + _file);
+                return;
+            }
+
+            int count = in.readInt();
+            int capacity = INITIAL_CAPACITY;
+            while (capacity < 2 * count)
+                capacity *= 2;
+            allocate(capacity);
+
+            for (int n = 0; n < count; n++)
+            {
+                long key = in.readLong();
+                int slot = insertionSlot(key);
+                _keys[slot] = key;
+                _values[3 * slot] = in.readLong();
+                _values[3 * slot + 1] = in.readLong();
+                _values[3 * slot + 2] = in.readLong();
+                _size++;
+            }
+        }
+        catch (IOException e)
+        {
+            // Start over; the crawler falls back to search.CrawlResources for files that aren't in the manifest
+            _log.warn("Unable to read crawler manifest " + _file + ": " + e.getMessage());
+            allocate(INITIAL_CAPACITY);
+        }
+
+        _dirty = false;
+        _lastSave = System.currentTimeMillis();
+    }
+
+    /** Save if there are changes and the last save was long enough ago (or force is set) */
+    void saveIfDirty(boolean force)
+    {
+        // Snapshot and write under one lock, so concurrent saves can't leave an older snapshot on disk
+        synchronized (_saveLock)
+        {
+            long[] keys;
+            long[] values;
+
+            synchronized (this)
+            {
+                if (!_dirty || (!force && System.currentTimeMillis() - _lastSave < SAVE_INTERVAL))
+                    return;
+                keys = _keys.clone();
+                values = _values.clone();
+                _dirty = false;
+                _lastSave = System.currentTimeMillis();
+            }
+
+            try
+            {
+                save(keys, values);
+            }
+            catch (IOException e)
+            {
+                _log.warn("Unable to save crawler manifest " + _file + ": " + e.getMessage());
+                synchronized (this)
+                {
+                    _dirty = true;
+                }
+            }
+        }
+    }
+
+    long getFileSize()
+    {
+        return _file.length();
+    }
+
+    // Write to a temp file and rename, so a crash mid-save never leaves a truncated manifest
+    private void save(long[] keys, long[] values) throws IOException
+    {
+        File temp = new File(_file.getPath() + ".tmp");
+        int count = 0;
+        for (long key : keys)
+            if (0 != key)
+                count++;
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp))))
+        {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(count);
+
+            for (int slot = 0; slot < keys.length; slot++)
+            {
+                if (0 == keys[slot])
+                    continue;
+                out.writeLong(keys[slot]);
+                out.writeLong(values[3 * slot]);
+                out.writeLong(values[3 * slot + 1]);
+                out.writeLong(values[3 * slot + 2]);
+            }
+        }
+
+        try
+        {
+            Files.move(temp.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (AtomicMoveNotSupportedException e)
+        {
+            Files.move(temp.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void allocate(int capacity)
+    {
+        _keys = new long[capacity];
+        _values = new long[3 * capacity];
+        _size = 0;
+    }
+
+    // Rehashes existing entries into arrays twice the size
+    private void grow()
+    {
+        long[] oldKeys = _keys;
+        long[] oldValues = _values;
+
+        allocate(2 * oldKeys.length);
+
+        for (int i = 0; i < oldKeys.length; i++)
+        {
+            if (0 == oldKeys[i])
+                continue;
+            int slot = insertionSlot(oldKeys[i]);
+            _keys[slot] = oldKeys[i];
+            System.arraycopy(oldValues, 3 * i, _values, 3 * slot, 3);
+            _size++;
+        }
+    }
+
+    private int find(long key)
+    {
+        int mask = _keys.length - 1;
+        for (int i = home(key, mask); ; i = (i + 1) & mask)
+        {
+            if (_keys[i] == key)
+                return i;
+            if (0 == _keys[i])
+                return -1;
+        }
+    }
+
+    private int insertionSlot(long key)
+    {
+        int mask = _keys.length - 1;
+        int i = home(key, mask);
+        while (0 != _keys[i])
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    private static int home(long key, int mask)
+    {
+        return (int) (key ^ (key >>> 32)) & mask;
+    }
+
+    // 64-bit FNV-1a of the path string; never 0, which marks empty slots
+    static long hash(Path path)
+    {
+        String s = path.toString();
+        long h = 0xcbf29ce484222325L;
+
+        for (int i = 0; i < s.length(); i++)
+        {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+
+        return 0 == h ? 1 : h;
+    }
+
+
+    public static class TestCase extends Assert
+    {
+        @Test
+        public void testPutRemove()
+        {
+            CrawlManifest manifest = new CrawlManifest(new File("unused"));
+            int count = 5000;
+
+            for (int i = 0; i < count; i++)
+                manifest.put(path(i), i, 1000 + i, 2000 + i);
+            assertEquals(count, manifest.size());
+
+            for (int i = 0; i < count; i++)
+                assertEquals(Boolean.TRUE, manifest.isUnchanged(path(i), i, 1000 + i));
+            assertEquals(Boolean.FALSE, manifest.isUnchanged(path(1), 2, 1001));
+            assertEquals(Boolean.FALSE, manifest.isUnchanged(path(1), 1, 1002));
+            assertNull(manifest.isUnchanged(path(count), count, 1000 + count));
+
+            // Remove every third entry; the rest must still be reachable
+            for (int i = 0; i < count; i += 3)
+                manifest.remove(path(i));
+            for (int i = 0; i < count; i++)
+                assertEquals(i % 3 == 0 ? null : Boolean.TRUE, manifest.isUnchanged(path(i), i, 1000 + i));
+
+            // Modified since last indexed
+            manifest.put(path(1), 1, 3000, 2001);
+            assertEquals(Boolean.FALSE, manifest.isUnchanged(path(1), 1, 3000));
+            manifest.setIndexed(path(1), 3000, 3001);
+            assertEquals(Boolean.TRUE, manifest.isUnchanged(path(1), 1, 3000));
+
+            manifest.clear();
+            assertEquals(0, manifest.size());
+            assertNull(manifest.isUnchanged(path(1), 1, 3000));
+        }
+
+        @Test
+        public void testSaveLoad() throws IOException
+        {
+            File file = File.createTempFile("crawlManifest", ".tmp", FileUtil.getTempDirectory());
+
+            try
+            {
+                CrawlManifest manifest = new CrawlManifest(file);
+                for (int i = 0; i < 3000; i++)
+                    manifest.put(path(i), i, 1000 + i, 2000 + i);
+                manifest.saveIfDirty(true);
+
+                CrawlManifest loaded = new CrawlManifest(file);
+                loaded.load();
+                assertEquals(3000, loaded.size());
+                for (int i = 0; i < 3000; i++)
+                    assertEquals(Boolean.TRUE, loaded.isUnchanged(path(i), i, 1000 + i));
+            }
+            finally
+            {
+                file.delete();
+            }
+        }
+
+        private static Path path(int i)
+        {
+            return Path.parse("/_webdav/home/@files/dir" + (i % 17) + "/file" + i + ".txt");
+        }
+    }
+}
@@ -35,6 +35,7 @@ import org.labkey.api.webdav.WebdavResolver;
 import org.labkey.api.webdav.WebdavResource;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -222,6 +223,19 @@ public class CrawlerTest extends Assert
         }
 
 
+        @Override
+        public synchronized List<Path> getCrawledPaths(int limit)
+        {
+            List<Path> ret = new ArrayList<>();
+            for (Map.Entry<Path,Pair<Date,Date>> e : collections.entrySet())
+            {
+                if (null != e.getValue().first && nullDate != e.getValue().first && ret.size() < limit)
+                    ret.add(e.getKey());
+            }
+            return ret;
+        }
+
+
         @Override
         public Date getNextCrawl()
         {
@@ -15,6 +15,7 @@
  */
 package org.labkey.search.model;
 
+import org.apache.commons.io.FileUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.jetbrains.annotations.NotNull;
@@ -26,6 +27,8 @@ import org.labkey.api.data.ContainerManager;
 import org.labkey.api.data.Filter;
 import org.labkey.api.data.SimpleFilter;
 import org.labkey.api.data.TableSelector;
+import org.labkey.api.files.FileSystemDirectoryListener;
+import org.labkey.api.files.FileSystemWatchers;
 import org.labkey.api.query.FieldKey;
 import org.labkey.api.resource.Resource;
 import org.labkey.api.search.SearchService;
@@ -34,6 +37,7 @@ import org.labkey.api.util.ContextListener;
 import org.labkey.api.util.DateUtil;
 import org.labkey.api.util.ExceptionUtil;
 import org.labkey.api.util.FileUtil;
+import org.labkey.api.util.Formats;
 import org.labkey.api.util.HeartBeat;
 import org.labkey.api.util.PageFlowUtil;
 import org.labkey.api.util.Pair;
@@ -47,16 +51,27 @@ import org.labkey.api.webdav.WebdavResource;
 import org.labkey.api.webdav.WebdavService;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
 
 /**
  * User: matthewb
@@ -75,6 +90,11 @@ import java.util.concurrent.TimeUnit;
  *
  * The SearchService also has its own thread pool we use when we find files to index, but the
  * background crawling is pretty different and needs its own scheduling behavior.
+ *
+ * In incremental mode (see SearchPropertyManager.isIncrementalCrawl()), each file system directory the crawler lists
+ * is also registered with the FileSystemWatcher. Change events queue just that directory to be listed again, and the
+ * scheduled re-listing of watched directories drops to the (much longer) full crawl interval. Files are compared
+ * against a CrawlManifest instead of search.CrawlResources, so unchanged files cost a stat and no database query.
  */
 public class DavCrawler implements ShutdownListener
 {
@@ -113,6 +133,30 @@ public class DavCrawler implements ShutdownListener
     static private Cache<Path,ResourceInfo> errors = CacheManager.getCache(1000,TimeUnit.DAYS.toMillis(7),"crawler indexing errors");
 
 
+    // Stay well under typical inotify limits, which are shared with the rest of the server
+    static final int MAX_WATCHED_DIRECTORIES = 5000;
+
+    // Incremental crawling state: watched file system directories (mapped to their WebDAV paths), directories with
+    // change events that haven't been listed yet, and files reported deleted
+    final Map<java.nio.file.Path, Path> _watchedDirectories = new ConcurrentHashMap<>();
+    final Set<Path> _changedDirectories = ConcurrentHashMap.newKeySet();
+    final Queue<Path> _deletedFiles = new ConcurrentLinkedQueue<>();
+    final ChangeListener _changeListener = new ChangeListener();
+    volatile boolean _watchesRestored = false;
+
+    final Object _manifestLock = new Object();
+    volatile CrawlManifest _manifest = null;
+
+    final LongAdder _directoriesListed = new LongAdder();
+    final LongAdder _directoriesFromEvents = new LongAdder();
+    final LongAdder _filesExamined = new LongAdder();
+    final LongAdder _filesSkipped = new LongAdder();
+    final LongAdder _filesQueued = new LongAdder();
+    final LongAdder _changeEvents = new LongAdder();
+    final LongAdder _overflows = new LongAdder();
+    final LongAdder _crawlNanos = new LongAdder();
+
+
     // to make testing easier, break out the interface for persisting crawl state
     // This is an awkward factoring.  Break out the "FileQueue" function instead
     public interface SavePaths
@@ -133,6 +177,8 @@ public class DavCrawler implements ShutdownListener
 
         /** <lastCrawl, nextCrawl> */
         Map<Path, Pair<Date,Date>> getPaths(int limit);
+        /** collections that have been crawled at least once, most recent first */
+        List<Path> getCrawledPaths(int limit);
         Date getNextCrawl();
 
         // files
@@ -196,6 +242,10 @@ public class DavCrawler implements ShutdownListener
         catch (InterruptedException x)
         {
         }
+
+        CrawlManifest manifest = _manifest;
+        if (null != manifest)
+            manifest.saveIfDirty(true);
     }
 
 
@@ -217,6 +267,10 @@ public class DavCrawler implements ShutdownListener
         // note use oldDate++ so that the crawler can schedule tasks ahead of these bulk updated collections
         _paths.updatePrefix(path, new Date(SavePaths.oldDate.getTime() + 24*60*60*1000), force);
 
+        // The manifest can't clear just a prefix, so forget everything; files outside path fall back to search.CrawlResources
+        if (force)
+            clearManifest();
+
         addPathToCrawl(path, SavePaths.oldDate);
     }
 
@@ -246,15 +300,23 @@ public class DavCrawler implements ShutdownListener
         Path _path;
         WebdavResource _directory;
         boolean _full;
+        boolean _fromEvent;
         Date _lastCrawl=null;
         Date _nextCrawl=null;
         Date _indexTime = null;
 
         IndexDirectoryJob(Path path, Date last, Date next)
+        {
+            this(path, last, next, false);
+        }
+
+        /** @param fromEvent the directory is listed because of a change event, not because its scheduled crawl is due */
+        IndexDirectoryJob(Path path, Date last, Date next, boolean fromEvent)
         {
             _path = path;
             _lastCrawl = last;
             _full = next.getTime() <= SavePaths.oldDate.getTime();
+            _fromEvent = fromEvent;
             _task = getSearchService().createTask("Index " + _path.toString(), this);
         }
 
@@ -263,7 +325,9 @@ public class DavCrawler implements ShutdownListener
         @Override
         public void success()
         {
-            _paths.updatePath(_path, _indexTime, _nextCrawl, true);
+            // Listings triggered by change events leave the directory's scheduled crawl alone
+            if (!_fromEvent)
+                _paths.updatePath(_path, _indexTime, _nextCrawl, true);
             addRecent(_directory);
         }
 
@@ -311,10 +375,14 @@ public class DavCrawler implements ShutdownListener
                 getSearchService().indexContainer(_task, c,  _full ? null : _lastCrawl);
             }
 
+            _directoriesListed.increment();
+            CrawlManifest manifest = getManifest();
+
             // get current index status for files
             // CONSIDER: store lastModifiedTime in crawlResources
             // CONSIDER: store documentId in crawlResources
-            Map<String,ResourceInfo> map = _paths.getFiles(_path);
+            // Listings triggered by change events rely on the manifest and only query the database for files it doesn't know
+            Map<String,ResourceInfo> map = _fromEvent ? null : _paths.getFiles(_path);
 
             for (WebdavResource child : _directory.list())
             {
@@ -325,13 +393,34 @@ public class DavCrawler implements ShutdownListener
 
                 if (child.isFile())
                 {
-                    ResourceInfo info =  map.remove(child.getName());
-                    Date lastIndexed   = (null==info || null==info.lastIndexed) ? SavePaths.nullDate : info.lastIndexed;
-                    Date savedModified = (null==info || null==info.modified) ? SavePaths.nullDate : info.modified;
+                    _filesExamined.increment();
+                    ResourceInfo info = null == map ? null : map.remove(child.getName());
                     long lastModified = child.getLastModified();
+                    File file = null == manifest ? null : child.getFile();
+                    long size = null == file ? -1 : file.length();
+                    Boolean unchanged = null == manifest ? null : manifest.isUnchanged(child.getPath(), size, lastModified);
+
+                    if (null == unchanged)
+                    {
+                        if (null == map)
+                        {
+                            map = _paths.getFiles(_path);
+                            info = map.remove(child.getName());
+                        }
+
+                        Date lastIndexed   = (null==info || null==info.lastIndexed) ? SavePaths.nullDate : info.lastIndexed;
+                        Date savedModified = (null==info || null==info.modified) ? SavePaths.nullDate : info.modified;
+                        unchanged = lastModified == savedModified.getTime() && (lastModified <= lastIndexed.getTime() || lastIndexed.getTime() == SavePaths.failDate.getTime());
+
+                        if (unchanged && null != manifest)
+                            manifest.put(child.getPath(), size, lastModified, lastIndexed.getTime());
+                    }
 
-                    if (lastModified == savedModified.getTime() && (lastModified <= lastIndexed.getTime() || lastIndexed.getTime() == SavePaths.failDate.getTime()))
+                    if (unchanged)
+                    {
+                        _filesSkipped.increment();
                         continue;
+                    }
 
                     // if we've failed at indexing this, don't try again: see Issue 16776
                     ResourceInfo errorInfo = errors.get(child.getPath());
@@ -401,7 +490,12 @@ public class DavCrawler implements ShutdownListener
                         _fileIORateLimiter.add(f.length(), isCrawlerThread);
                     }
 
+                    // Not indexed yet; setLastIndexedForPath() fills in the indexed time
+                    if (null != manifest)
+                        manifest.put(child.getPath(), size, lastModified, 0);
+
                     _task.addResource(child, SearchService.PRIORITY.background);
+                    _filesQueued.increment();
                     addRecent(child);
                 }
                 else if (!child.shouldIndex())
@@ -425,13 +519,27 @@ public class DavCrawler implements ShutdownListener
                 }
             }
 
-            // as for the missing
-            SearchService ss = getSearchService();
-            for (String missing : map.keySet())
+            // as for the missing (listings triggered by change events get deletions from the events instead)
+            if (!_fromEvent)
+            {
+                SearchService ss = getSearchService();
+                for (String missing : map.keySet())
+                {
+                    Path missingPath = _path.append(missing);
+                    String docId =  "dav:" + missingPath.toString();
+                    ss.deleteResource(docId);
+                    if (null != manifest)
+                        manifest.remove(missingPath);
+                }
+            }
+
+            // Watched directories only need the occasional full crawl, in case change events were missed
+            if (null != manifest && !(_directory instanceof WebdavResolver.WebFolder) && watch(_directory, _path))
             {
-                Path missingPath = _path.append(missing);
-                String docId =  "dav:" + missingPath.toString();
-                ss.deleteResource(docId);
+                File dir = _directory.getFile();
+                manifest.put(_path, -1, dir.lastModified(), dir.lastModified());
+                long interval = TimeUnit.HOURS.toMillis(SearchPropertyManager.getFullCrawlIntervalHours());
+                _nextCrawl = new Date(_indexTime.getTime() + (long)(interval * (0.75 + 0.25 * Math.random())));
             }
 
             _task.setReady();
@@ -521,15 +629,24 @@ public class DavCrawler implements ShutdownListener
                 {
                     waitForIndexerIdle();
 
+                    if (!_watchesRestored && SearchPropertyManager.isIncrementalCrawl())
+                        restoreWatches();
+
                     IndexDirectoryJob j = findSomeWork();
                     if (null != j)
                     {
+                        long start = System.nanoTime();
                         j.run();
+                        _crawlNanos.add(System.nanoTime() - start);
                     }
                     else
                     {
                         _wait(_crawlerEvent, _defaultWait);
                     }
+
+                    CrawlManifest manifest = _manifest;
+                    if (null != manifest)
+                        manifest.saveIfDirty(false);
                 }
                 catch (InterruptedException x)
                 {
@@ -550,6 +667,19 @@ public class DavCrawler implements ShutdownListener
     {
         if (_shuttingDown)
             return null;
+
+        processDeletedFiles();
+
+        // Directories with change events go ahead of scheduled crawls
+        Iterator<Path> changed = _changedDirectories.iterator();
+        if (changed.hasNext())
+        {
+            Path path = changed.next();
+            changed.remove();
+            _directoriesFromEvents.increment();
+            return new IndexDirectoryJob(path, null, new Date(), true);
+        }
+
         if (crawlQueue.isEmpty())
         {
             _log.debug("findSomeWork()");
@@ -570,6 +700,226 @@ public class DavCrawler implements ShutdownListener
     }
 
 
+    /** The manifest, loaded on first use; null when the crawler isn't in incremental mode */
+    @Nullable
+    CrawlManifest getManifest()
+    {
+        if (!SearchPropertyManager.isIncrementalCrawl())
+            return null;
+
+        synchronized (_manifestLock)
+        {
+            if (null == _manifest)
+            {
+                CrawlManifest manifest = new CrawlManifest(CrawlManifest.getDefaultFile());
+                manifest.load();
+                _manifest = manifest;
+            }
+            return _manifest;
+        }
+    }
+
+
+    void clearManifest()
+    {
+        synchronized (_manifestLock)
+        {
+            if (null != _manifest)
+            {
+                _manifest.clear();
+                _manifest.saveIfDirty(true);
+            }
+            else
+            {
+                File file = CrawlManifest.getDefaultFile();
+                if (file.exists())
+                    file.delete();
+            }
+        }
+    }
+
+
+    /** Called as files are indexed (see SearchService.setLastIndexedForPath()) */
+    void fileIndexed(Path path, long lastIndexed, long modified)
+    {
+        CrawlManifest manifest = _manifest;
+        if (null != manifest)
+            manifest.setIndexed(path, modified, lastIndexed);
+    }
+
+
+    /** Called when the incremental crawl setting changes */
+    void crawlModeChanged()
+    {
+        if (!SearchPropertyManager.isIncrementalCrawl())
+        {
+            for (java.nio.file.Path dir : _watchedDirectories.keySet())
+                FileSystemWatchers.get().removeListener(dir, _changeListener);
+            _watchedDirectories.clear();
+            _changedDirectories.clear();
+
+            synchronized (_manifestLock)
+            {
+                if (null != _manifest)
+                {
+                    _manifest.saveIfDirty(true);
+                    _manifest = null;
+                }
+            }
+        }
+
+        _watchesRestored = false;
+        pingCrawler();
+    }
+
+
+    /** Register for change events on a file system directory; false if it can't be (or shouldn't be) watched */
+    boolean watch(WebdavResource directory, Path path)
+    {
+        File f = directory.getFile();
+        if (null == f || !f.isDirectory())
+            return false;
+
+        java.nio.file.Path dir = f.toPath();
+        if (_watchedDirectories.containsKey(dir))
+            return true;
+        if (_watchedDirectories.size() >= MAX_WATCHED_DIRECTORIES)
+            return false;
+
+        try
+        {
+            FileSystemWatchers.get().addListener(dir, _changeListener, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+            _watchedDirectories.put(dir, path);
+            return true;
+        }
+        catch (IOException e)
+        {
+            _log.debug("Unable to watch " + dir + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+
+    /**
+     * Watches don't survive a restart. Re-register the directories crawled most recently, and list again any whose
+     * modification time has changed since they were last listed (entries were added, removed, or renamed while the
+     * server was down). Files modified in place while the server was down are picked up by the full crawl.
+     */
+    void restoreWatches()
+    {
+        _watchesRestored = true;
+        CrawlManifest manifest = getManifest();
+        if (null == manifest)
+            return;
+
+        int restored = 0;
+        int changed = 0;
+
+        for (Path path : _paths.getCrawledPaths(MAX_WATCHED_DIRECTORIES))
+        {
+            if (_shuttingDown)
+                return;
+
+            WebdavResource r = getResolver().lookup(path);
+            if (null == r || !r.isCollection() || r instanceof WebdavResolver.WebFolder || !watch(r, path))
+                continue;
+
+            restored++;
+            long modified = r.getFile().lastModified();
+            if (!Boolean.TRUE.equals(manifest.isUnchanged(path, -1, modified)))
+            {
+                _changedDirectories.add(path);
+                changed++;
+            }
+        }
+
+        _log.info("Restored file system watches on " + restored + " directories; " + changed + " changed since they were last crawled");
+    }
+
+
+    void processDeletedFiles()
+    {
+        SearchService ss = getSearchService();
+        CrawlManifest manifest = _manifest;
+        Path path;
+
+        while (null != (path = _deletedFiles.poll()))
+        {
+            ss.deleteResource("dav:" + path.toString());
+
+            // Don't remove the entry, or search.CrawlResources would say a re-created file was already indexed
+            if (null != manifest)
+                manifest.put(path, -1, -1, 0);
+        }
+    }
+
+
+    // Invoked on the FileSystemWatcher's thread, so just record the change and wake up the crawler
+    class ChangeListener implements FileSystemDirectoryListener
+    {
+        @Override
+        public void entryCreated(java.nio.file.Path directory, java.nio.file.Path entry)
+        {
+            directoryChanged(directory);
+        }
+
+        @Override
+        public void entryModified(java.nio.file.Path directory, java.nio.file.Path entry)
+        {
+            directoryChanged(directory);
+        }
+
+        @Override
+        public void entryDeleted(java.nio.file.Path directory, java.nio.file.Path entry)
+        {
+            Path path = _watchedDirectories.get(directory);
+            if (null == path)
+                return;
+
+            _changeEvents.increment();
+
+            // Deleted subdirectories get their own directoryDeleted() notification
+            if (!_watchedDirectories.containsKey(directory.resolve(entry.getFileName())))
+            {
+                _deletedFiles.add(path.append(entry.getFileName().toString()));
+                pingCrawler();
+            }
+        }
+
+        @Override
+        public void directoryDeleted(java.nio.file.Path directory)
+        {
+            // The crawler will find the directory missing and remove it
+            Path path = _watchedDirectories.remove(directory);
+            if (null != path)
+            {
+                _changedDirectories.add(path);
+                pingCrawler();
+            }
+        }
+
+        @Override
+        public void overflow()
+        {
+            // Events were lost, so list everything we're watching
+            _overflows.increment();
+            _changedDirectories.addAll(_watchedDirectories.values());
+            pingCrawler();
+        }
+
+        private void directoryChanged(java.nio.file.Path directory)
+        {
+            Path path = _watchedDirectories.get(directory);
+            if (null == path)
+                return;
+
+            _changeEvents.increment();
+            if (_changedDirectories.add(path))
+                pingCrawler();
+        }
+    }
+
+
     static boolean skipContainer(WebdavResource r)
     {
         Path path = r.getPath();
@@ -675,6 +1025,27 @@ public class DavCrawler implements ShutdownListener
         m.put("Directory limiter", Math.round(_listingRateLimiter.getTarget().getRate(TimeUnit.SECONDS)) + "/sec");
         m.put("File I/O limiter", (_fileIORateLimiter.getTarget().getRate(TimeUnit.SECONDS)/1000000) + " MB/sec");
 
+        CrawlManifest manifest = getManifest();
+        if (null != manifest)
+        {
+            m.put("Crawl mode", "Incremental (change events, full crawl every " + SearchPropertyManager.getFullCrawlIntervalHours() + " hours)");
+            m.put("Watched directories", Formats.commaf0.format(_watchedDirectories.size()) + (_watchedDirectories.size() >= MAX_WATCHED_DIRECTORIES ? " (limit reached; others use the daily crawl)" : ""));
+            m.put("Change events", Formats.commaf0.format(_changeEvents.sum()) + ", " + Formats.commaf0.format(_overflows.sum()) + " overflows");
+            m.put("Crawl manifest", Formats.commaf0.format(manifest.size()) + " entries, " + FileUtils.byteCountToDisplaySize(manifest.getFileSize()) + " on disk");
+        }
+        else
+        {
+            m.put("Crawl mode", "Scheduled");
+        }
+
+        long examined = _filesExamined.sum();
+        long skipped = _filesSkipped.sum();
+        double seconds = _crawlNanos.sum() / 1e9;
+        m.put("Directories listed", Formats.commaf0.format(_directoriesListed.sum()) + " (" + Formats.commaf0.format(_directoriesFromEvents.sum()) + " from change events)");
+        m.put("Files examined", Formats.commaf0.format(examined) + " (" + Formats.commaf0.format(_filesQueued.sum()) + " queued for indexing)");
+        m.put("Files skipped as unchanged", Formats.commaf0.format(skipped) + (examined > 0 ? " (" + Formats.percent.format((double) skipped / examined) + ")" : ""));
+        m.put("Crawl throughput", seconds > 0 ? Formats.commaf0.format(examined / seconds) + " files/sec" : "n/a");
+
         String activity = getActivityHtml();
         m.put("Recent crawler activity", activity);
         return m;
@@ -88,6 +88,7 @@ import org.labkey.api.util.ExceptionUtil;
 import org.labkey.api.util.FileStream;
 import org.labkey.api.util.FileStream.FileFileStream;
 import org.labkey.api.util.FileUtil;
+import org.labkey.api.util.Formats;
 import org.labkey.api.util.GUID;
 import org.labkey.api.util.HtmlString;
 import org.labkey.api.util.JunitUtil;
@@ -157,6 +158,13 @@ public class LuceneSearchServiceImpl extends AbstractSearchService
     // We track this to avoid clearing last indexed multiple times in certain cases (delete index, upgrade), see #39330
     private final AtomicLong _countIndexedSinceClearLastIndexed = new AtomicLong(1);
 
+    private final Object _parserPoolLock = new Object();
+    private TikaWorkerPool _parserPool = null;
+    private String _parserPoolSettings = "0";
+    // Parse times with and without process isolation, to compare the two modes
+    private final ParseStats _inProcessParseStats = new ParseStats();
+    private final ParseStats _isolatedParseStats = new ParseStats();
+
     enum FIELD_NAME
     {
         // Use these for english language text that should be stemmed
@@ -450,6 +458,13 @@ public class LuceneSearchServiceImpl extends AbstractSearchService
 
     @Override
     public boolean processAndIndex(String id, WebdavResource r, Throwable[] handledException)
+    {
+        Document doc = prepareDocument(id, r, handledException);
+        return null != doc && index(r.getDocumentId(), r, doc);
+    }
+
+    @Override
+    protected @Nullable Document prepareDocument(String id, WebdavResource r, Throwable[] handledException)
     {
         FileStream fs = null;
 
@@ -466,7 +481,7 @@ public class LuceneSearchServiceImpl extends AbstractSearchService
             if (null == c)
             {
                 _log.debug("skipping item " + r.getDocumentId() + " because container is not found: " + r.getContainerId());
-                return false;
+                return null;
             }
 
             try
@@ -476,13 +491,13 @@ public class LuceneSearchServiceImpl extends AbstractSearchService
             catch (FileNotFoundException x)
             {
                 logAsWarning(r, r.getName() + " was not found");
-                return false;
+                return null;
             }
 
             if (null == fs)
             {
                 logAsWarning(r, r.getName() + " fileStream is null");
-                return false;
+                return null;
             }
 
             Map<String, ?> props = r.getProperties();
@@ -531,7 +546,7 @@ public class LuceneSearchServiceImpl extends AbstractSearchService
                 if (null == is)
                 {
                     logAsWarning(r, "InputStream is null");
-                    return false;
+                    return null;
                 }
 
                 Metadata metadata = new Metadata();
@@ -662,7 +677,7 @@ public class LuceneSearchServiceImpl extends AbstractSearchService
                 _log.debug("indexing " + dump);
             }
 
-            return index(r.getDocumentId(), r, doc);
+            return doc;
         }
         catch (NoClassDefFoundError err)
         {
@@ -729,7 +744,7 @@ public class LuceneSearchServiceImpl extends AbstractSearchService
             }
         }
 
-        return false;
+        return null;
     }
 
     private String dump(WebdavResource r, Document doc)
@@ -941,14 +956,75 @@ public class LuceneSearchServiceImpl extends AbstractSearchService
             return;
         }
 
+        // Likewise for documents that previously crashed or stalled a parser process
+        if (PoisonDocuments.contains(r))
+        {
+            logAsWarning(r, "The document previously failed to parse in a separate process");
+            return;
+        }
+
+        TikaWorkerPool pool = getParserPool();
+        long start = System.nanoTime();
+
         try
         {
-            _autoDetectParser.parse(is, handler, metadata);
+            if (null != pool)
+                pool.parse(r, is, handler, metadata);
+            else
+                _autoDetectParser.parse(is, handler, metadata);
         }
         catch (ZeroByteFileException e)
         {
             // Just index as an empty file, #33236
         }
+        finally
+        {
+            (null != pool ? _isolatedParseStats : _inProcessParseStats).add(System.nanoTime() - start);
+        }
+    }
+
+
+    // Returns the out-of-process parser pool, or null if documents should be parsed in this JVM. Recreates the pool
+    // when an admin changes its settings.
+    private @Nullable TikaWorkerPool getParserPool()
+    {
+        int processes = SearchPropertyManager.getParserProcesses();
+        int heapMB = SearchPropertyManager.getParserHeapMB();
+        int timeout = SearchPropertyManager.getParserTimeoutSeconds();
+        String settings = processes + "/" + heapMB + "/" + timeout;
+
+        synchronized (_parserPoolLock)
+        {
+            if (!settings.equals(_parserPoolSettings))
+            {
+                if (null != _parserPool)
+                    _parserPool.close();
+                _parserPool = processes > 0 ? new TikaWorkerPool(processes, heapMB, timeout) : null;
+                _parserPoolSettings = settings;
+            }
+
+            return _parserPool;
+        }
+    }
+
+
+    private static class ParseStats
+    {
+        private final AtomicLong _count = new AtomicLong();
+        private final AtomicLong _nanos = new AtomicLong();
+
+        void add(long nanos)
+        {
+            _count.incrementAndGet();
+            _nanos.addAndGet(nanos);
+        }
+
+        @Override
+        public String toString()
+        {
+            long count = _count.get();
+            return Formats.commaf0.format(count) + " documents" + (0 == count ? "" : ", average " + Formats.f1.format(_nanos.get() / 1_000_000.0 / count) + " ms");
+        }
     }
 
 
@@ -970,6 +1046,9 @@ public class LuceneSearchServiceImpl extends AbstractSearchService
             String contentType = r.getContentType();
             if (isImage(contentType) || isZip(contentType))
                 return false;
+            // this document crashed or stalled a parser process, see TikaWorkerPool
+            if (PoisonDocuments.contains(r))
+                return false;
             FileStream fs = r.getFileStream(User.getSearchUser());
             if (null == fs)
                 return false;
@@ -1234,6 +1313,50 @@ public class LuceneSearchServiceImpl extends AbstractSearchService
         return false;
     }
 
+    @Override
+    protected boolean indexDocuments(Map<String, Document> docs)
+    {
+        if (docs.size() == 1)
+        {
+            Map.Entry<String, Document> entry = docs.entrySet().iterator().next();
+
+            try
+            {
+                _indexManager.index(entry.getKey(), entry.getValue());
+                _countIndexedSinceClearLastIndexed.incrementAndGet();
+                return true;
+            }
+            catch (IndexManagerClosedException x)
+            {
+                // See comment in index() above
+            }
+            catch (Throwable e)
+            {
+                _log.error("Indexing error with " + entry.getKey(), e);
+            }
+
+            return false;
+        }
+
+        try
+        {
+            _indexManager.index(docs);
+            _countIndexedSinceClearLastIndexed.addAndGet(docs.size());
+            return true;
+        }
+        catch (IndexManagerClosedException x)
+        {
+            // See comment in index() above
+        }
+        catch (Throwable e)
+        {
+            // Caller will retry each document individually, which logs the offending document(s)
+            _log.debug("Batch indexing error with " + docs.size() + " documents", e);
+        }
+
+        return false;
+    }
+
     @Override
     protected void deleteIndexedContainer(String id)
     {
@@ -1612,6 +1735,14 @@ public class LuceneSearchServiceImpl extends AbstractSearchService
     {
         closeIndex();
         _standardAnalyzer.close();
+
+        synchronized (_parserPoolLock)
+        {
+            if (null != _parserPool)
+                _parserPool.close();
+            _parserPool = null;
+            _parserPoolSettings = "0";
+        }
     }
 
 
@@ -1645,6 +1776,18 @@ public class LuceneSearchServiceImpl extends AbstractSearchService
         }
 
         map.putAll(super.getIndexerStats());
+        map.putAll(_indexManager.getRefreshStats());
+        map.putAll(SearchSecurityCache.getStats());
+        map.put("Documents parsed in process", _inProcessParseStats.toString());
+        map.put("Documents parsed in separate processes", _isolatedParseStats.toString());
+
+        synchronized (_parserPoolLock)
+        {
+            if (null != _parserPool)
+                map.putAll(_parserPool.getStats());
+        }
+
+        map.put("Documents skipped after parser failures", PoisonDocuments.size());
         return map;
     }
 
@@ -1819,6 +1962,62 @@ public class LuceneSearchServiceImpl extends AbstractSearchService
             }
         }
 
+        // Parses every sample file in this JVM and in a separate parser process, and verifies the extracted text matches
+        @Test
+        public void testIsolatedParsing() throws IOException, SAXException
+        {
+            File sampledata = JunitUtil.getSampleData(null, "fileTypes");
+            assertNotNull(sampledata);
+            assertTrue(sampledata.isDirectory());
+            LuceneSearchServiceImpl lssi = (LuceneSearchServiceImpl) SearchService.get();
+            TikaWorkerPool pool = new TikaWorkerPool(1, SearchPropertyManager.DEFAULT_PARSER_HEAP_MB, SearchPropertyManager.DEFAULT_PARSER_TIMEOUT_SECONDS);
+
+            try
+            {
+                for (File file : sampledata.listFiles(File::isFile))
+                {
+                    String contentType = PageFlowUtil.getContentTypeFor(file);
+                    SimpleDocumentResource resource = new SimpleDocumentResource(new Path(file.getName()), "testtika", null, contentType, null, new URLHelper(false), null);
+
+                    String inProcess;
+                    String isolated;
+
+                    try (InputStream is = new FileInputStream(file))
+                    {
+                        ContentHandler handler = new BodyContentHandler(-1);
+                        Metadata metadata = new Metadata();
+                        metadata.add(Metadata.RESOURCE_NAME_KEY, file.getName());
+                        metadata.add(Metadata.CONTENT_TYPE, contentType);
+                        if (contentType.startsWith("text"))
+                            metadata.add(Metadata.CONTENT_ENCODING, StringUtilsLabKey.DEFAULT_CHARSET.name());
+                        lssi._autoDetectParser.parse(is, handler, metadata);
+                        inProcess = handler.toString();
+                    }
+                    catch (TikaException e)
+                    {
+                        inProcess = "exception";
+                    }
+
+                    try (InputStream is = new FileInputStream(file))
+                    {
+                        ContentHandler handler = new BodyContentHandler(-1);
+                        pool.parse(resource, is, handler, new Metadata());
+                        isolated = handler.toString();
+                    }
+                    catch (TikaException e)
+                    {
+                        isolated = "exception";
+                    }
+
+                    assertEquals("Text extracted in a separate process differs for \"" + file.getName() + "\"", inProcess, isolated);
+                }
+            }
+            finally
+            {
+                pool.close();
+            }
+        }
+
         private Map<String, Pair<Integer, String[]>> getExpectations()
         {
             Map<String, Pair<Integer, String[]>> map = new HashMap<>();
@@ -80,6 +80,12 @@ public class NoopWritableIndex implements WritableIndexManager
         log("index documents for search");
     }
 
+    @Override
+    public void index(Map<String, Document> docs)
+    {
+        log("index documents for search");
+    }
+
     @Override
     public void commit()
     {
@@ -120,4 +126,10 @@ public class NoopWritableIndex implements WritableIndexManager
     public void refreshNow()
     {
     }
+
+    @Override
+    public Map<String, Object> getRefreshStats()
+    {
+        return Collections.emptyMap();
+    }
 }
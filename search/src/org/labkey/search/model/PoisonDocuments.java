@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2021 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.search.model;
+
+import org.apache.commons.lang3.StringUtils;
+import org.labkey.api.data.PropertyManager;
+import org.labkey.api.util.FileUtil;
+import org.labkey.api.util.StringUtilsLabKey;
+import org.labkey.api.webdav.WebdavResource;
+
+import java.io.IOException;
+
+/**
+ * Documents that crashed or timed out an out-of-process parser (see TikaWorkerPool). Their content is not parsed again
+ * until they're modified; they're still indexed by name and properties. The list survives restarts and index deletion,
+ * since re-parsing these documents would just crash or stall another worker.
+ */
+class PoisonDocuments
+{
+    private static final String CATEGORY = "org.labkey.search.PoisonDocuments";
+    private static final int MAX_SIZE = 10_000;
+
+    static boolean contains(WebdavResource r)
+    {
+        String value = PropertyManager.getProperties(CATEGORY).get(getKey(r));
+
+        if (null == value)
+            return false;
+
+        String[] parts = StringUtils.split(value, "\t", 3);
+        return parts.length >= 2 && parts[0].equals(String.valueOf(r.getLastModified())) && parts[1].equals(r.getDocumentId());
+    }
+
+    static void add(WebdavResource r, String reason)
+    {
+        PropertyManager.PropertyMap map = PropertyManager.getWritableProperties(CATEGORY, true);
+
+        // Guard against unbounded growth; re-parsing some old poison documents is better than filling the properties table
+        if (map.size() >= MAX_SIZE)
+            map.clear();
+
+        map.put(getKey(r), r.getLastModified() + "\t" + r.getDocumentId() + "\t" + reason);
+        map.save();
+    }
+
+    static int size()
+    {
+        return PropertyManager.getProperties(CATEGORY).size();
+    }
+
+    // Document ids can be long paths, so key by a hash. The document id is stored in the value and checked on lookup.
+    private static String getKey(WebdavResource r)
+    {
+        try
+        {
+            return FileUtil.sha1sum(r.getDocumentId().getBytes(StringUtilsLabKey.DEFAULT_CHARSET));
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -40,6 +40,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -327,6 +328,20 @@ public class SavePaths implements DavCrawler.SavePaths
     }
 
 
+    @Override
+    public List<Path> getCrawledPaths(int limit)
+    {
+        SQLFragment f = new SQLFragment(
+                "SELECT Path FROM search.CrawlCollections WHERE LastCrawled > ? ORDER BY LastCrawled DESC");
+        f.add(nullDate);
+        SQLFragment sel = getSearchSchema().getSqlDialect().limitRows(f, limit);
+
+        List<Path> paths = new ArrayList<>();
+        new SqlSelector(getSearchSchema(), sel).forEach(String.class, path -> paths.add(Path.parse(path)));
+        return paths;
+    }
+
+
     @Override
     public Map<Path, Pair<Date,Date>> getPaths(int limit)
     {
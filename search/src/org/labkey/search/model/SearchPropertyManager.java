@@ -37,6 +37,24 @@ public class SearchPropertyManager
     private static final String INDEX_PATH = "primaryIndexPath";  // Note: don't change this legacy name
     private static final String DIRECTORY_TYPE = "directoryType";
     private static final String FILE_SIZE_LIMIT = "fileSizeLimitMB";
+    private static final String INDEXING_THREADS = "indexingThreads";
+    private static final String INDEXING_BATCH_SIZE = "indexingBatchSize";
+    private static final String REFRESH_INTERVAL = "refreshIntervalMillis";
+    private static final String COMMIT_INTERVAL = "commitIntervalSeconds";
+    private static final String COMMIT_MAX_DOCUMENTS = "commitMaxDocuments";
+    private static final String PARSER_PROCESSES = "parserProcesses";
+    private static final String PARSER_HEAP = "parserHeapMB";
+    private static final String PARSER_TIMEOUT = "parserTimeoutSeconds";
+    private static final String INCREMENTAL_CRAWL = "incrementalCrawl";
+    private static final String FULL_CRAWL_INTERVAL = "fullCrawlIntervalHours";
+
+    public static final int DEFAULT_INDEXING_BATCH_SIZE = 100;
+    public static final int DEFAULT_REFRESH_INTERVAL_MILLIS = 5000;
+    public static final int DEFAULT_COMMIT_INTERVAL_SECONDS = 60;
+    public static final int DEFAULT_COMMIT_MAX_DOCUMENTS = 10000;
+    public static final int DEFAULT_PARSER_HEAP_MB = 512;
+    public static final int DEFAULT_PARSER_TIMEOUT_SECONDS = 120;
+    public static final int DEFAULT_FULL_CRAWL_INTERVAL_HOURS = 24 * 7;
 
 
     public static boolean getCrawlerRunningState()
@@ -84,6 +102,126 @@ public class SearchPropertyManager
         setProperty(FILE_SIZE_LIMIT, fileSizeLimitMB.toString());
     }
 
+    /** Number of threads that fetch, parse, and build documents; 0 means choose based on the number of processors */
+    public static int getIndexingThreads()
+    {
+        String threads = getProperty(INDEXING_THREADS);
+        return StringUtils.isNotBlank(threads) ? Math.max(0, Integer.parseInt(threads)) : 0;
+    }
+
+    public static void setIndexingThreads(int threads)
+    {
+        setProperty(INDEXING_THREADS, String.valueOf(threads));
+    }
+
+    /** Maximum number of documents written to the index in a single IndexWriter call */
+    public static int getIndexingBatchSize()
+    {
+        return getPositiveInt(INDEXING_BATCH_SIZE, DEFAULT_INDEXING_BATCH_SIZE);
+    }
+
+    public static void setIndexingBatchSize(int size)
+    {
+        setProperty(INDEXING_BATCH_SIZE, String.valueOf(size));
+    }
+
+    /** Target latency for newly indexed documents to become searchable */
+    public static int getRefreshIntervalMillis()
+    {
+        return getPositiveInt(REFRESH_INTERVAL, DEFAULT_REFRESH_INTERVAL_MILLIS);
+    }
+
+    public static void setRefreshIntervalMillis(int millis)
+    {
+        setProperty(REFRESH_INTERVAL, String.valueOf(millis));
+        WritableIndexManagerImpl.MaybeRefreshJob.rescheduleTimer();
+    }
+
+    /** Maximum age of an uncommitted change before the index is committed */
+    public static int getCommitIntervalSeconds()
+    {
+        return getPositiveInt(COMMIT_INTERVAL, DEFAULT_COMMIT_INTERVAL_SECONDS);
+    }
+
+    public static void setCommitIntervalSeconds(int seconds)
+    {
+        setProperty(COMMIT_INTERVAL, String.valueOf(seconds));
+    }
+
+    /** Maximum number of uncommitted changes before the index is committed */
+    public static int getCommitMaxDocuments()
+    {
+        return getPositiveInt(COMMIT_MAX_DOCUMENTS, DEFAULT_COMMIT_MAX_DOCUMENTS);
+    }
+
+    public static void setCommitMaxDocuments(int count)
+    {
+        setProperty(COMMIT_MAX_DOCUMENTS, String.valueOf(count));
+    }
+
+    /** Number of separate JVMs used to parse documents; 0 means parse documents in the web server's JVM */
+    public static int getParserProcesses()
+    {
+        String processes = getProperty(PARSER_PROCESSES);
+        return StringUtils.isNotBlank(processes) ? Math.max(0, Integer.parseInt(processes)) : 0;
+    }
+
+    public static void setParserProcesses(int processes)
+    {
+        setProperty(PARSER_PROCESSES, String.valueOf(processes));
+    }
+
+    /** Maximum heap of each parser process, which bounds the memory used to parse a single document */
+    public static int getParserHeapMB()
+    {
+        return getPositiveInt(PARSER_HEAP, DEFAULT_PARSER_HEAP_MB);
+    }
+
+    public static void setParserHeapMB(int heapMB)
+    {
+        setProperty(PARSER_HEAP, String.valueOf(heapMB));
+    }
+
+    /** Maximum time a parser process may spend on a single document */
+    public static int getParserTimeoutSeconds()
+    {
+        return getPositiveInt(PARSER_TIMEOUT, DEFAULT_PARSER_TIMEOUT_SECONDS);
+    }
+
+    public static void setParserTimeoutSeconds(int seconds)
+    {
+        setProperty(PARSER_TIMEOUT, String.valueOf(seconds));
+    }
+
+    /** Whether the file crawler relies on file system change events and a manifest, rather than re-listing every directory daily */
+    public static boolean isIncrementalCrawl()
+    {
+        return "true".equals(getProperty(INCREMENTAL_CRAWL));
+    }
+
+    public static void setIncrementalCrawl(boolean incremental)
+    {
+        setProperty(INCREMENTAL_CRAWL, String.valueOf(incremental));
+        DavCrawler.getInstance().crawlModeChanged();
+    }
+
+    /** How often the incremental crawler re-lists a watched directory anyway, in case change events were missed */
+    public static int getFullCrawlIntervalHours()
+    {
+        return getPositiveInt(FULL_CRAWL_INTERVAL, DEFAULT_FULL_CRAWL_INTERVAL_HOURS);
+    }
+
+    public static void setFullCrawlIntervalHours(int hours)
+    {
+        setProperty(FULL_CRAWL_INTERVAL, String.valueOf(hours));
+    }
+
+    private static int getPositiveInt(String key, int defaultValue)
+    {
+        String value = getProperty(key);
+        return StringUtils.isNotBlank(value) ? Math.max(1, Integer.parseInt(value)) : defaultValue;
+    }
+
     public static void setDirectoryType(String directoryType)
     {
         setProperty(DIRECTORY_TYPE, directoryType);
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2021 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.search.model;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.util.FixedBitSet;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.labkey.api.cache.Cache;
+import org.labkey.api.cache.CacheManager;
+import org.labkey.api.data.Container;
+import org.labkey.api.data.ContainerManager;
+import org.labkey.api.security.Group;
+import org.labkey.api.security.SecurityManager;
+import org.labkey.api.security.User;
+import org.labkey.api.security.UserPrincipal;
+
+import java.beans.PropertyChangeEvent;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Caches the two expensive parts of SecurityQuery: the set of containers a user can search (which requires walking the
+ * container tree and checking permissions on every folder) and, for each index segment, the bits of the documents that
+ * live in those containers (which requires scanning the segment's security context doc values).
+ *
+ * Readable container sets are cached per user and cleared whenever a container, security policy, or group membership
+ * changes. Segment bits are keyed by the contents of the readable container set, so users with the same effective
+ * access share them; they never go stale since segments are immutable, and they're dropped when their segment is closed.
+ */
+public class SearchSecurityCache
+{
+    private static final Cache<String, ReadableContainers> READABLE_CONTAINERS = CacheManager.getStringKeyCache(5_000, CacheManager.HOUR, "Search readable containers");
+    private static final AtomicLong GENERATION = new AtomicLong();
+
+    private static final Map<IndexReader.CacheKey, Map<ReadableContainers, SegmentFilter>> SEGMENT_FILTERS = new ConcurrentHashMap<>();
+    private static final int MAX_FILTERS_PER_SEGMENT = 32;
+
+    private static final AtomicLong SEGMENT_HITS = new AtomicLong();
+    private static final AtomicLong SEGMENT_MISSES = new AtomicLong();
+
+    static ReadableContainers getReadableContainers(User user, Container searchRoot, Container currentContainer, Supplier<Map<String, Container>> loader)
+    {
+        // Impersonation changes the user's groups and roles without changing the user id, so don't share cached sets
+        if (user.isImpersonated())
+            return new ReadableContainers(loader.get());
+
+        String key = user.getUserId() + "/" + searchRoot.getId() + "/" + currentContainer.getId();
+        ReadableContainers readable = READABLE_CONTAINERS.get(key);
+
+        if (null == readable)
+        {
+            long generation = GENERATION.get();
+            readable = new ReadableContainers(loader.get());
+
+            // Don't cache a set that was computed while permissions were changing
+            if (generation == GENERATION.get())
+                READABLE_CONTAINERS.put(key, readable);
+        }
+
+        return readable;
+    }
+
+    static SegmentFilter getSegmentFilter(LeafReader reader, ReadableContainers readable, SegmentFilterLoader loader) throws IOException
+    {
+        IndexReader.CacheHelper helper = reader.getCoreCacheHelper();
+
+        if (null == helper)
+            return loader.load();
+
+        IndexReader.CacheKey key = helper.getKey();
+        Map<ReadableContainers, SegmentFilter> filters = SEGMENT_FILTERS.get(key);
+
+        if (null == filters)
+        {
+            Map<ReadableContainers, SegmentFilter> newFilters = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true)
+            {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ReadableContainers, SegmentFilter> eldest)
+                {
+                    return size() > MAX_FILTERS_PER_SEGMENT;
+                }
+            });
+
+            filters = SEGMENT_FILTERS.putIfAbsent(key, newFilters);
+
+            if (null == filters)
+            {
+                filters = newFilters;
+                helper.addClosedListener(SEGMENT_FILTERS::remove);
+            }
+        }
+
+        SegmentFilter filter = filters.get(readable);
+
+        if (null == filter)
+        {
+            SEGMENT_MISSES.incrementAndGet();
+            filter = loader.load();
+            filters.put(readable, filter);
+        }
+        else
+        {
+            SEGMENT_HITS.incrementAndGet();
+        }
+
+        return filter;
+    }
+
+    static void clear()
+    {
+        GENERATION.incrementAndGet();
+        READABLE_CONTAINERS.clear();
+    }
+
+    static Map<String, Object> getStats()
+    {
+        long hits = SEGMENT_HITS.get();
+        long total = hits + SEGMENT_MISSES.get();
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("Cached security filter segments", SEGMENT_FILTERS.size());
+        map.put("Security filter segment hit rate", 0 == total ? "n/a" : Math.round(100.0 * hits / total) + "% of " + total);
+        return map;
+    }
+
+    @FunctionalInterface
+    interface SegmentFilterLoader
+    {
+        SegmentFilter load() throws IOException;
+    }
+
+    /** Immutable set of readable containers. Equality is based on the container ids, so the same set computed for
+     * different users (or recomputed after an unrelated change) maps to the same segment filters. */
+    static class ReadableContainers
+    {
+        private final Map<String, Container> _containers;
+        private final int _hashCode;
+
+        ReadableContainers(Map<String, Container> containers)
+        {
+            _containers = Collections.unmodifiableMap(containers);
+            _hashCode = _containers.keySet().hashCode();
+        }
+
+        boolean contains(String containerId)
+        {
+            return _containers.containsKey(containerId);
+        }
+
+        @Nullable Container get(String containerId)
+        {
+            return _containers.get(containerId);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            ReadableContainers that = (ReadableContainers) o;
+            return _hashCode == that._hashCode && _containers.keySet().equals(that._containers.keySet());
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return _hashCode;
+        }
+    }
+
+    /** Security filter for one segment and one readable container set. Documents secured by a resource other than
+     * their container depend on the user's permissions on that resource, so they're checked for every query. */
+    static class SegmentFilter
+    {
+        private final FixedBitSet _bits;
+        private final int[] _resourceDocs;
+        private final String[] _resourceIds;
+        private final String[] _resourceContainerIds;
+
+        SegmentFilter(FixedBitSet bits, int[] resourceDocs, String[] resourceIds, String[] resourceContainerIds)
+        {
+            _bits = bits;
+            _resourceDocs = resourceDocs;
+            _resourceIds = resourceIds;
+            _resourceContainerIds = resourceContainerIds;
+        }
+
+        /** Returned bits must not be modified */
+        @NotNull FixedBitSet getBits(ResourcePermission canRead)
+        {
+            if (0 == _resourceDocs.length)
+                return _bits;
+
+            FixedBitSet bits = _bits.clone();
+
+            for (int i = 0; i < _resourceDocs.length; i++)
+                if (canRead.test(_resourceIds[i], _resourceContainerIds[i]))
+                    bits.set(_resourceDocs[i]);
+
+            return bits;
+        }
+    }
+
+    @FunctionalInterface
+    interface ResourcePermission
+    {
+        boolean test(String resourceId, String containerId);
+    }
+
+    public static class SecurityChangeListener extends ContainerManager.AbstractContainerListener implements SecurityManager.GroupListener
+    {
+        // Container events include security policy changes (see SecurityPolicyManager.notifyPolicyChange())
+        @Override
+        public void containerCreated(Container c, User user)
+        {
+            clear();
+        }
+
+        @Override
+        public void containerDeleted(Container c, User user)
+        {
+            clear();
+        }
+
+        @Override
+        public void containerMoved(Container c, Container oldParent, User user)
+        {
+            clear();
+        }
+
+        @Override
+        public void propertyChange(PropertyChangeEvent evt)
+        {
+            clear();
+        }
+
+        @Override
+        public void principalAddedToGroup(Group group, UserPrincipal principal)
+        {
+            clear();
+        }
+
+        @Override
+        public void principalDeletedFromGroup(Group group, UserPrincipal principal)
+        {
+            clear();
+        }
+    }
+}
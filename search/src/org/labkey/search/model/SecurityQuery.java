@@ -43,8 +43,11 @@ import org.labkey.api.security.User;
 import org.labkey.api.security.permissions.ReadPermission;
 import org.labkey.api.util.MultiPhaseCPUTimer.InvocationTimer;
 import org.labkey.search.model.LuceneSearchServiceImpl.FIELD_NAME;
+import org.labkey.search.model.SearchSecurityCache.ReadableContainers;
+import org.labkey.search.model.SearchSecurityCache.SegmentFilter;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 
@@ -61,7 +64,7 @@ class SecurityQuery extends Query
     private final Container _currentContainer;
     private final boolean _recursive;
 
-    private final HashMap<String, Container> _containerIds;
+    private final ReadableContainers _containerIds;
     private final HashMap<String, Boolean> _securableResourceIds = new HashMap<>();
     private final InvocationTimer<SearchService.SEARCH_PHASE> _iTimer;
 
@@ -78,26 +81,33 @@ class SecurityQuery extends Query
 
         if (recursive)
         {
-            // Returns root plus all children (including workbooks & tabs) where user has read permissions
-            List<Container> containers = ContainerManager.getAllChildren(searchRoot, user);
-            _containerIds = new HashMap<>(containers.size() * 2);
+            // Walking the container tree is expensive on large servers, so readable container sets are cached
+            _containerIds = SearchSecurityCache.getReadableContainers(user, searchRoot, currentContainer, () -> {
+                // Returns root plus all children (including workbooks & tabs) where user has read permissions
+                List<Container> containers = ContainerManager.getAllChildren(searchRoot, user);
+                HashMap<String, Container> containerIds = new HashMap<>(containers.size() * 2);
 
-            for (Container c : containers)
-            {
-                boolean searchable = (c.isSearchable() || c.equals(currentContainer)) && (c.isContainerFor(ContainerType.DataType.search) || c.shouldDisplay(user));
-
-                if (searchable)
+                for (Container c : containers)
                 {
-                    _containerIds.put(c.getId(), c);
+                    boolean searchable = (c.isSearchable() || c.equals(currentContainer)) && (c.isContainerFor(ContainerType.DataType.search) || c.shouldDisplay(user));
+
+                    if (searchable)
+                    {
+                        containerIds.put(c.getId(), c);
+                    }
                 }
-            }
+
+                return containerIds;
+            });
         }
         else
         {
-            _containerIds = new HashMap<>();
+            HashMap<String, Container> containerIds = new HashMap<>();
 
             if (searchRoot.hasPermission(user, ReadPermission.class))
-                _containerIds.put(searchRoot.getId(), searchRoot);
+                containerIds.put(searchRoot.getId(), searchRoot);
+
+            _containerIds = new ReadableContainers(containerIds);
         }
     }
 
@@ -123,43 +133,11 @@ class SecurityQuery extends Query
                 _iTimer.setPhase(SearchService.SEARCH_PHASE.applySecurityFilter);
 
                 LeafReader reader = context.reader();
-                int maxDoc = reader.maxDoc();
-                FixedBitSet bits = new FixedBitSet(maxDoc);
-
-                SortedDocValues securityContextDocValues = reader.getSortedDocValues(FIELD_NAME.securityContext.name());
 
                 try
                 {
-                    int doc;
-
-                    // Can be null, if no documents (e.g., shortly after bootstrap or clear index)
-                    if (null != securityContextDocValues)
-                    {
-                        while (NO_MORE_DOCS != (doc = securityContextDocValues.nextDoc()))
-                        {
-                            BytesRef bytesRef = securityContextDocValues.binaryValue();
-                            String securityContext = StringUtils.trimToNull(bytesRef.utf8ToString());
-
-                            final String containerId;
-                            final String resourceId;
-
-                            // SecurityContext is usually just a container ID, but in some cases it adds a resource ID.
-                            if (securityContext.length() > 36)
-                            {
-                                containerId = securityContext.substring(0, 36);
-                                resourceId = securityContext.substring(37);
-                            }
-                            else
-                            {
-                                containerId = securityContext;
-                                resourceId = null;
-                            }
-
-                            // Must have read permission on the container (always). Must also have read permissions on resource ID, if non-null.
-                            if (_containerIds.containsKey(containerId) && (null == resourceId || canReadResource(resourceId, containerId)))
-                                bits.set(doc);
-                        }
-                    }
+                    SegmentFilter filter = SearchSecurityCache.getSegmentFilter(reader, _containerIds, () -> createSegmentFilter(reader));
+                    FixedBitSet bits = filter.getBits(SecurityQuery.this::canReadResource);
 
                     return new ConstantScoreScorer(this, score(), scoreMode, new BitSetIterator(bits, bits.approximateCardinality()));
                 }
@@ -171,11 +149,69 @@ class SecurityQuery extends Query
         };
     }
 
+    // Scan the segment's security context doc values for documents in readable containers. This depends only on the
+    // set of readable containers, so it can be shared; documents that also have a resource ID are returned separately
+    // so the resource permission can be checked for the current user.
+    private SegmentFilter createSegmentFilter(LeafReader reader) throws IOException
+    {
+        int maxDoc = reader.maxDoc();
+        FixedBitSet bits = new FixedBitSet(maxDoc);
+        List<Integer> resourceDocs = new ArrayList<>();
+        List<String> resourceIds = new ArrayList<>();
+        List<String> resourceContainerIds = new ArrayList<>();
+
+        SortedDocValues securityContextDocValues = reader.getSortedDocValues(FIELD_NAME.securityContext.name());
+
+        int doc;
+
+        // Can be null, if no documents (e.g., shortly after bootstrap or clear index)
+        if (null != securityContextDocValues)
+        {
+            while (NO_MORE_DOCS != (doc = securityContextDocValues.nextDoc()))
+            {
+                BytesRef bytesRef = securityContextDocValues.binaryValue();
+                String securityContext = StringUtils.trimToNull(bytesRef.utf8ToString());
+
+                final String containerId;
+                final String resourceId;
+
+                // SecurityContext is usually just a container ID, but in some cases it adds a resource ID.
+                if (securityContext.length() > 36)
+                {
+                    containerId = securityContext.substring(0, 36);
+                    resourceId = securityContext.substring(37);
+                }
+                else
+                {
+                    containerId = securityContext;
+                    resourceId = null;
+                }
+
+                // Must have read permission on the container (always). Must also have read permissions on resource ID, if non-null.
+                if (_containerIds.contains(containerId))
+                {
+                    if (null == resourceId)
+                    {
+                        bits.set(doc);
+                    }
+                    else
+                    {
+                        resourceDocs.add(doc);
+                        resourceIds.add(resourceId);
+                        resourceContainerIds.add(containerId);
+                    }
+                }
+            }
+        }
+
+        return new SegmentFilter(bits, resourceDocs.stream().mapToInt(Integer::intValue).toArray(), resourceIds.toArray(new String[0]), resourceContainerIds.toArray(new String[0]));
+    }
+
     private boolean canReadResource(String resourceId, String containerId)
     {
         assert !resourceId.equals(containerId);
 
-        if (_containerIds.containsKey(resourceId))
+        if (_containerIds.contains(resourceId))
             return true;
 
         Boolean canRead = _securableResourceIds.get(resourceId);
@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2021 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.search.model;
+
+import org.apache.tika.config.InitializableProblemHandler;
+import org.apache.tika.config.LoadErrorHandler;
+import org.apache.tika.config.ServiceLoader;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.exception.ZeroByteFileException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.apache.tika.sax.BodyContentHandler;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+
+/**
+ * Entry point for the out-of-process document parsers managed by TikaWorkerPool. This runs in its own JVM (with its own
+ * heap limit), so it must depend only on Tika and the JDK; no LabKey services are available here.
+ *
+ * Protocol, over stdin/stdout: the server writes the path of a file to parse, its resource name, and its content type.
+ * The worker streams back TEXT frames as text is extracted, then METADATA frames, then DONE (or ERROR, or ZERO_BYTES).
+ * The worker exits when stdin is closed. Anything else written to stdout by a parser is redirected to stderr.
+ */
+public class TikaWorker
+{
+    static final byte TEXT = 'T';
+    static final byte METADATA = 'M';
+    static final byte ZERO_BYTES = 'Z';
+    static final byte ERROR = 'E';
+    static final byte DONE = 'D';
+
+    // Keep each modified-UTF-8 frame well under DataOutputStream.writeUTF()'s 64K byte limit
+    static final int MAX_CHARS_PER_FRAME = 8192;
+
+    public static void main(String[] args) throws Exception
+    {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(System.out));
+        System.setOut(new PrintStream(System.err, true));
+
+        DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        AutoDetectParser parser = new AutoDetectParser(loadConfig());
+
+        while (true)
+        {
+            String path;
+            String name;
+            String contentType;
+
+            try
+            {
+                path = in.readUTF();
+                name = in.readUTF();
+                contentType = in.readUTF();
+            }
+            catch (EOFException e)
+            {
+                return;
+            }
+
+            parse(parser, path, name, contentType, out);
+            out.flush();
+        }
+    }
+
+    private static TikaConfig loadConfig()
+    {
+        try (InputStream is = TikaWorker.class.getResourceAsStream("tikaConfig.xml"))
+        {
+            org.w3c.dom.Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(is);
+            return new TikaConfig(doc, new ServiceLoader(TikaWorker.class.getClassLoader(), LoadErrorHandler.IGNORE, InitializableProblemHandler.IGNORE, true));
+        }
+        catch (Exception e)
+        {
+            return TikaConfig.getDefaultConfig();
+        }
+    }
+
+    private static void parse(AutoDetectParser parser, String path, String name, String contentType, DataOutputStream out) throws IOException
+    {
+        Metadata metadata = new Metadata();
+        metadata.add(Metadata.RESOURCE_NAME_KEY, name);
+        metadata.add(Metadata.CONTENT_TYPE, contentType);
+
+        if (contentType.startsWith("text"))
+            metadata.add(Metadata.CONTENT_ENCODING, "UTF-8");
+
+        try (InputStream is = new BufferedInputStream(new FileInputStream(path)))
+        {
+            parser.parse(is, new BodyContentHandler(new FrameWriter(out)), metadata);
+        }
+        catch (ZeroByteFileException e)
+        {
+            out.writeByte(ZERO_BYTES);
+            return;
+        }
+        catch (Exception e)
+        {
+            out.writeByte(ERROR);
+            out.writeUTF(e.getClass().getName());
+            out.writeUTF(truncate(String.valueOf(e.getMessage())));
+            return;
+        }
+
+        for (String key : metadata.names())
+        {
+            for (String value : metadata.getValues(key))
+            {
+                out.writeByte(METADATA);
+                out.writeUTF(truncate(key));
+                out.writeUTF(truncate(value));
+            }
+        }
+
+        out.writeByte(DONE);
+    }
+
+    private static String truncate(String s)
+    {
+        return s.length() > MAX_CHARS_PER_FRAME ? s.substring(0, MAX_CHARS_PER_FRAME) : s;
+    }
+
+    // Streams extracted text back to the server as it's produced, so the worker never holds the whole body in memory
+    private static class FrameWriter extends Writer
+    {
+        private final DataOutputStream _out;
+
+        FrameWriter(DataOutputStream out)
+        {
+            _out = out;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException
+        {
+            while (len > 0)
+            {
+                int n = Math.min(len, MAX_CHARS_PER_FRAME);
+                _out.writeByte(TEXT);
+                _out.writeUTF(new String(cbuf, off, n));
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException
+        {
+            _out.flush();
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2021 LabKey Corporation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.labkey.search.model;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.tika.config.TikaConfig;
+import org.apache.tika.exception.TikaException;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.AutoDetectParser;
+import org.labkey.api.util.FileUtil;
+import org.labkey.api.util.Formats;
+import org.labkey.api.webdav.WebdavResource;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parses documents in separate JVMs (see TikaWorker), so a huge PDF or a pathological Office file can't exhaust the
+ * web server's heap or stall an indexing thread indefinitely. Each worker has its own heap limit and each document has
+ * a time limit; a worker that runs out of memory exits, and a worker that runs out of time is killed. Either way, the
+ * document is added to PoisonDocuments so it isn't parsed again until it changes.
+ */
+class TikaWorkerPool
+{
+    private static final Logger _log = LogManager.getLogger(TikaWorkerPool.class);
+
+    // Recycle workers periodically, in case a parser leaks memory or other resources
+    private static final int MAX_DOCUMENTS_PER_WORKER = 1000;
+
+    private final int _heapMB;
+    private final long _timeoutMs;
+    private final Semaphore _permits;
+    private final BlockingQueue<Worker> _idle = new LinkedBlockingQueue<>();
+    private final List<Worker> _workers = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService _watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "SearchService:parser-watchdog");
+        t.setDaemon(true);
+        return t;
+    });
+    private volatile boolean _closed = false;
+
+    private final AtomicLong _started = new AtomicLong();
+    private final AtomicLong _timeouts = new AtomicLong();
+    private final AtomicLong _crashes = new AtomicLong();
+
+    TikaWorkerPool(int size, int heapMB, int timeoutSeconds)
+    {
+        _permits = new Semaphore(Math.max(1, size));
+        _heapMB = heapMB;
+        _timeoutMs = TimeUnit.SECONDS.toMillis(timeoutSeconds);
+    }
+
+    void parse(WebdavResource r, InputStream is, ContentHandler handler, Metadata metadata) throws IOException, SAXException, TikaException
+    {
+        File file = r.getFile();
+        File temp = null;
+
+        try
+        {
+            // Workers read the document directly from disk. Spool resources that don't live in the file system.
+            if (null == file || !file.isFile())
+            {
+                temp = File.createTempFile("searchParse", ".tmp", FileUtil.getTempDirectory());
+                Files.copy(is, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                file = temp;
+            }
+
+            try
+            {
+                _permits.acquire();
+            }
+            catch (InterruptedException e)
+            {
+                throw new InterruptedIOException("Interrupted waiting for a document parser");
+            }
+
+            Worker worker = null;
+
+            try
+            {
+                if (_closed)
+                    throw new IOException("Document parser pool has been shut down");
+
+                worker = _idle.poll();
+
+                if (null == worker)
+                    worker = startWorker();
+
+                worker.parse(file, r.getName(), r.getContentType(), handler, metadata);
+            }
+            catch (WorkerFailedException e)
+            {
+                PoisonDocuments.add(r, e.getMessage());
+                throw new TikaException(e.getMessage());
+            }
+            finally
+            {
+                if (null != worker)
+                {
+                    if (!_closed && worker.isReusable())
+                        _idle.add(worker);
+                    else
+                        stopWorker(worker);
+                }
+
+                _permits.release();
+            }
+        }
+        finally
+        {
+            if (null != temp)
+                temp.delete();
+        }
+    }
+
+    // Stops idle workers now; busy workers finish their current document and are stopped when they're returned. The
+    // watchdog keeps running until their time limits have passed.
+    void close()
+    {
+        _closed = true;
+        _watchdog.shutdown();
+
+        Worker worker;
+        while (null != (worker = _idle.poll()))
+            stopWorker(worker);
+    }
+
+    Map<String, Object> getStats()
+    {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("Parser processes", _workers.size() + " running, " + Formats.commaf0.format(_started.get()) + " started, " + _heapMB + "MB heap each");
+        map.put("Parser failures", Formats.commaf0.format(_timeouts.get()) + " timed out, " + Formats.commaf0.format(_crashes.get()) + " crashed");
+        return map;
+    }
+
+    private Worker startWorker() throws IOException
+    {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-Xmx" + _heapMB + "m");
+        command.add("-XX:+ExitOnOutOfMemoryError");
+        command.add("-Djava.awt.headless=true");
+        command.add("-cp");
+        command.add(getClasspath());
+        command.add(TikaWorker.class.getName());
+
+        Process process = new ProcessBuilder(command)
+            .redirectError(ProcessBuilder.Redirect.DISCARD)
+            .start();
+
+        Worker worker = new Worker(process);
+        _workers.add(worker);
+        _started.incrementAndGet();
+        _log.debug("Started document parser process " + process.pid());
+
+        return worker;
+    }
+
+    private void stopWorker(Worker worker)
+    {
+        _workers.remove(worker);
+        worker._process.destroyForcibly();
+    }
+
+    // Tika, its parsing libraries, and TikaWorker itself are spread across the web app's and the search module's lib
+    // directories, so the worker's class path includes every directory that holds one of them.
+    private static String getClasspath()
+    {
+        Set<String> entries = new LinkedHashSet<>();
+
+        for (Class<?> c : List.of(TikaWorker.class, AutoDetectParser.class, TikaConfig.class, Workbook.class, PDDocument.class))
+        {
+            try
+            {
+                File location = new File(c.getProtectionDomain().getCodeSource().getLocation().toURI());
+                entries.add(location.isDirectory() ? location.getPath() : location.getParent() + File.separator + "*");
+            }
+            catch (Exception e)
+            {
+                _log.warn("Unable to determine class path entry for " + c.getName(), e);
+            }
+        }
+
+        return String.join(File.pathSeparator, entries);
+    }
+
+    private static class WorkerFailedException extends Exception
+    {
+        WorkerFailedException(String message)
+        {
+            super(message);
+        }
+    }
+
+    private class Worker
+    {
+        private final Process _process;
+        private final DataOutputStream _out;
+        private final DataInputStream _in;
+        private volatile boolean _timedOut = false;
+        private boolean _reusable = true;
+        private int _count = 0;
+
+        Worker(Process process)
+        {
+            _process = process;
+            _out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            _in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+        }
+
+        boolean isReusable()
+        {
+            return _reusable && _count < MAX_DOCUMENTS_PER_WORKER && _process.isAlive();
+        }
+
+        void parse(File file, String name, String contentType, ContentHandler handler, Metadata metadata) throws IOException, SAXException, TikaException, WorkerFailedException
+        {
+            _count++;
+            _reusable = false;
+
+            ScheduledFuture<?> timer = _watchdog.schedule(() -> {
+                _timedOut = true;
+                _process.destroyForcibly();
+            }, _timeoutMs, TimeUnit.MILLISECONDS);
+
+            try
+            {
+                _out.writeUTF(file.getAbsolutePath());
+                _out.writeUTF(name);
+                _out.writeUTF(contentType);
+                _out.flush();
+
+                Set<String> keys = new HashSet<>();
+
+                while (true)
+                {
+                    byte frame = _in.readByte();
+
+                    switch (frame)
+                    {
+                        case TikaWorker.TEXT:
+                            String text = _in.readUTF();
+                            handler.characters(text.toCharArray(), 0, text.length());
+                            break;
+                        case TikaWorker.METADATA:
+                            String key = _in.readUTF();
+                            String value = _in.readUTF();
+                            // The worker reports the complete metadata, so replace the values the caller set up front
+                            if (keys.add(key))
+                                metadata.set(key, value);
+                            else
+                                metadata.add(key, value);
+                            break;
+                        case TikaWorker.ZERO_BYTES:
+                            // Just index as an empty file, #33236
+                            _reusable = true;
+                            return;
+                        case TikaWorker.ERROR:
+                            String className = _in.readUTF();
+                            String message = _in.readUTF();
+                            _reusable = true;
+                            throw new TikaException(message + " (" + className + " in document parser process)");
+                        case TikaWorker.DONE:
+                            _reusable = true;
+                            return;
+                        default:
+                            throw new IOException("Unexpected response from document parser process: " + frame);
+                    }
+                }
+            }
+            catch (IOException e)
+            {
+                if (e instanceof InterruptedIOException)
+                    throw e;
+
+                if (_timedOut)
+                {
+                    _timeouts.incrementAndGet();
+                    throw new WorkerFailedException("Document parsing timed out after " + TimeUnit.MILLISECONDS.toSeconds(_timeoutMs) + " seconds");
+                }
+
+                _crashes.incrementAndGet();
+                throw new WorkerFailedException("Document parser process exited unexpectedly (heap limit is " + _heapMB + "MB)");
+            }
+            finally
+            {
+                timer.cancel(false);
+            }
+        }
+    }
+}
@@ -44,6 +44,12 @@ public interface WritableIndexManager
 
     void index(String documentId, Document doc) throws IOException;
 
+    /**
+     * Replace a batch of documents, keyed by document id, with a single writer lock acquisition and a single
+     * IndexWriter.addDocuments() call.
+     */
+    void index(Map<String, Document> docs) throws IOException;
+
     void commit();
 
     void close() throws IOException;
@@ -59,4 +65,7 @@ public interface WritableIndexManager
     boolean isReal();
 
     void refreshNow() throws IOException;
+
+    /** Near-real-time refresh lag and schedule, for display on the search admin page */
+    Map<String, Object> getRefreshStats();
 }
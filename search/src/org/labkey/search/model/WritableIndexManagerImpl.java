@@ -33,6 +33,7 @@ import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.labkey.api.util.ConfigurationException;
+import org.labkey.api.util.DateUtil;
 import org.labkey.api.util.ExceptionUtil;
 import org.quartz.DateBuilder;
 import org.quartz.Job;
@@ -53,9 +54,11 @@ import java.nio.file.AccessDeniedException;
 import java.nio.file.Path;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * User: adam
@@ -68,6 +71,10 @@ class WritableIndexManagerImpl extends IndexManager implements WritableIndexMana
 {
     private static final Logger _log = LogManager.getLogger(WritableIndexManagerImpl.class);
     private static final AtomicInteger _maybeRefreshRequests = new AtomicInteger();
+    // Time of the oldest change that isn't yet visible to searchers (0 if none), and stats about the last refresh
+    private static final AtomicLong _oldestUnrefreshedChange = new AtomicLong();
+    private static volatile long _lastRefreshTime = 0;
+    private static volatile long _lastRefreshLag = 0;
 
     private final Object _writerLock = new Object();
     private final IndexWriter _iw;
@@ -155,6 +162,26 @@ class WritableIndexManagerImpl extends IndexManager implements WritableIndexMana
     }
 
 
+    @Override
+    public void index(Map<String, Document> docs) throws IOException
+    {
+        if (docs.isEmpty())
+            return;
+
+        Term[] terms = docs.keySet().stream()
+            .map(id -> new Term(LuceneSearchServiceImpl.FIELD_NAME.uniqueId.toString(), id))
+            .toArray(Term[]::new);
+
+        synchronized (_writerLock)
+        {
+            IndexWriter iw = getIndexWriter();
+            iw.deleteDocuments(terms);
+            iw.addDocuments(docs.values());
+            maybeRefresh();
+        }
+    }
+
+
     @Override
     public void deleteDocument(String id)
     {
@@ -339,14 +366,39 @@ class WritableIndexManagerImpl extends IndexManager implements WritableIndexMana
 
     private void maybeRefresh()
     {
+        _oldestUnrefreshedChange.compareAndSet(0, System.currentTimeMillis());
         _maybeRefreshRequests.incrementAndGet();
     }
 
+    @Override
+    public Map<String, Object> getRefreshStats()
+    {
+        long now = System.currentTimeMillis();
+        long oldest = _oldestUnrefreshedChange.get();
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("Search refresh target", DateUtil.formatDuration(SearchPropertyManager.getRefreshIntervalMillis()));
+        map.put("Search refresh lag", 0 == oldest ? "none" : DateUtil.formatDuration(now - oldest));
+        map.put("Last search refresh", 0 == _lastRefreshTime ? "never" :
+            DateUtil.formatDuration(now - _lastRefreshTime) + " ago, " + DateUtil.formatDuration(_lastRefreshLag) + " after the oldest change");
+        return map;
+    }
+
     public static class MaybeRefreshJob implements Job
     {
-        private static final int MAYBE_REFRESH_SECONDS = 5;
         private static final TriggerKey TRIGGER_KEY = new TriggerKey(MaybeRefreshJob.class.getName());
 
+        private static Trigger createTrigger()
+        {
+            // Refresh on the admin-configured latency target, independent of when the index is committed
+            int interval = SearchPropertyManager.getRefreshIntervalMillis();
+
+            return TriggerBuilder.newTrigger()
+                .withIdentity(TRIGGER_KEY)
+                .withSchedule(SimpleScheduleBuilder.simpleSchedule().withIntervalInMilliseconds(interval).repeatForever())
+                .startAt(DateBuilder.futureDate(interval, DateBuilder.IntervalUnit.MILLISECOND))
+                .build();
+        }
+
         private static void initializeTimer(WritableIndexManagerImpl impl)
         {
             try
@@ -358,10 +410,7 @@ class WritableIndexManagerImpl extends IndexManager implements WritableIndexMana
                     scheduler.unscheduleJob(TRIGGER_KEY);
 
                 // Configure quartz Trigger
-                Trigger trigger = TriggerBuilder.newTrigger()
-                    .withSchedule(SimpleScheduleBuilder.repeatSecondlyForever(MAYBE_REFRESH_SECONDS))
-                    .startAt(DateBuilder.futureDate(MAYBE_REFRESH_SECONDS, DateBuilder.IntervalUnit.SECOND))
-                    .build();
+                Trigger trigger = createTrigger();
 
                 // Quartz Job that executes maybe refresh
                 JobDetail job = JobBuilder.newJob(MaybeRefreshJob.class).build();
@@ -376,16 +425,35 @@ class WritableIndexManagerImpl extends IndexManager implements WritableIndexMana
             }
         }
 
+        // Pick up a change to the refresh interval without reopening the index
+        static void rescheduleTimer()
+        {
+            try
+            {
+                Scheduler scheduler = StdSchedulerFactory.getDefaultScheduler();
+
+                if (scheduler.checkExists(TRIGGER_KEY))
+                    scheduler.rescheduleJob(TRIGGER_KEY, createTrigger());
+            }
+            catch (SchedulerException e)
+            {
+                throw new RuntimeException("Failed to reschedule maybeRefresh job", e);
+            }
+        }
+
         @Override
         public void execute(JobExecutionContext context) throws JobExecutionException
         {
             try
             {
+                long oldest = _oldestUnrefreshedChange.getAndSet(0);
                 int requests = _maybeRefreshRequests.getAndSet(0);
                 if (requests > 0)
                 {
                     WritableIndexManagerImpl impl = (WritableIndexManagerImpl)context.getJobDetail().getJobDataMap().get(WritableIndexManagerImpl.class.getName());
                     impl.refreshNow();
+                    _lastRefreshTime = System.currentTimeMillis();
+                    _lastRefreshLag = 0 == oldest ? 0 : _lastRefreshTime - oldest;
                 }
             }
             catch (Exception e)
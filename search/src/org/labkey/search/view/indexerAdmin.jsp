@@ -156,6 +156,60 @@ else
             }
         %>
         </table>
+    </labkey:form></p>
+    <p><labkey:form method="POST" action="<%=urlFor(AdminAction.class)%>">
+        <table>
+            <tr><td width="800">Documents are fetched and parsed by a pool of indexing threads and written to the index in batches by a single writer thread.
+                Use zero threads to size the pool based on the number of processors. A change to the thread count takes effect the next time the server starts, as does the size of the queue of documents waiting to be written, which holds four batches.<br><br></td></tr>
+            <tr><td>Indexing threads: <input type="number" min="0" name="indexingThreads" value="<%=SearchPropertyManager.getIndexingThreads()%>" /></td></tr>
+            <tr><td>Index write batch size: <input type="number" min="1" name="indexingBatchSize" value="<%=SearchPropertyManager.getIndexingBatchSize()%>" /></td></tr>
+            <tr><td><br>New documents become searchable when the searcher is refreshed, independent of when the index is committed to disk.
+                The index is committed once the document count or the age of the oldest uncommitted change reaches the limits below, or when indexing goes idle.<br><br></td></tr>
+            <tr><td>Search refresh interval: <input type="number" min="100" name="refreshIntervalMillis" value="<%=SearchPropertyManager.getRefreshIntervalMillis()%>" /> milliseconds</td></tr>
+            <tr><td>Commit interval: <input type="number" min="1" name="commitIntervalSeconds" value="<%=SearchPropertyManager.getCommitIntervalSeconds()%>" /> seconds</td></tr>
+            <tr><td>Commit document count: <input type="number" min="1" name="commitMaxDocuments" value="<%=SearchPropertyManager.getCommitMaxDocuments()%>" /></td></tr><%
+            if (hasAdminOpsPerms)
+            {
+        %>
+            <tr><td><input type="hidden" name="pipeline" value="1"></td></tr>
+            <tr><td><%= button("Set").submit(true) %></td></tr><%
+            }
+        %>
+        </table>
+    </labkey:form></p>
+    <p><labkey:form method="POST" action="<%=urlFor(AdminAction.class)%>">
+        <table>
+            <tr><td width="800">Documents can be parsed in separate processes, so very large or malformed files can't exhaust the server's memory or stall indexing.
+                Each process is limited to the heap size below, and each document to the timeout below. Documents that crash or time out a parser process
+                are indexed by name and properties only until they are modified. Use zero processes to parse documents in the server.<br><br></td></tr>
+            <tr><td>Parser processes: <input type="number" min="0" name="parserProcesses" value="<%=SearchPropertyManager.getParserProcesses()%>" /></td></tr>
+            <tr><td>Parser process heap: <input type="number" min="64" name="parserHeapMB" value="<%=SearchPropertyManager.getParserHeapMB()%>" /> MB</td></tr>
+            <tr><td>Parser timeout: <input type="number" min="1" name="parserTimeoutSeconds" value="<%=SearchPropertyManager.getParserTimeoutSeconds()%>" /> seconds</td></tr><%
+            if (hasAdminOpsPerms)
+            {
+        %>
+            <tr><td><input type="hidden" name="parser" value="1"></td></tr>
+            <tr><td><%= button("Set").submit(true) %></td></tr><%
+            }
+        %>
+        </table>
+    </labkey:form></p>
+    <p><labkey:form method="POST" action="<%=urlFor(AdminAction.class)%>">
+        <table>
+            <tr><td width="800">By default the file crawler lists every directory about once a day and checks each file against the database.
+                Incremental crawling watches directories for file system changes instead, lists a directory again only when something in it changes,
+                and keeps a manifest of file sizes and modification times next to the index. Watched directories are still listed on the schedule below,
+                in case change events were missed.<br><br></td></tr>
+            <tr><td><input type="checkbox" name="incrementalCrawl" value="true" <%=checked(SearchPropertyManager.isIncrementalCrawl())%>> Incremental file crawling</td></tr>
+            <tr><td>Full crawl interval: <input type="number" min="1" name="fullCrawlIntervalHours" value="<%=SearchPropertyManager.getFullCrawlIntervalHours()%>" /> hours</td></tr><%
+            if (hasAdminOpsPerms)
+            {
+        %>
+            <tr><td><input type="hidden" name="crawler" value="1"></td></tr>
+            <tr><td><%= button("Set").submit(true) %></td></tr><%
+            }
+        %>
+        </table>
     </labkey:form></p><%
 }
 %>
\ No newline at end of file
@@ -217,12 +217,11 @@ public class SampleMindedTransformTask extends AbstractSpecimenTransformTask
                 debug("No such file " + labsFile + " so not parsing supplemental lab information");
             }
 
-            ExcelLoader loader = new ExcelLoader(input, true);
-            loader.setInferTypes(false);
-
             // Create a ZIP archive with the appropriate TSVs
-            try (ZipOutputStream zOut = new ZipOutputStream(new FileOutputStream(output)))
+            try (ExcelLoader loader = new ExcelLoader(input, true); ZipOutputStream zOut = new ZipOutputStream(new FileOutputStream(output)))
             {
+                loader.setInferTypes(false);
+
                 // Add a new file to the ZIP
                 zOut.putNextEntry(new ZipEntry("specimens.tsv"));
                 PrintWriter writer = PrintWriters.getPrintWriter(zOut);